@@ -0,0 +1,148 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * computes the complexity of a read, as used by the low-complexity filter.
+ * For nucleotide sequences, this is the entropy of the distribution of overlapping trinucleotides, relative to the
+ * max entropy possible for the number of trinucleotides. Bases are packed into two bits and the trinucleotide code is
+ * rolled along the sequence, any other character restarts it. For protein sequences, the entropy of the distribution of residues is used.
+ * Linear in the length of the sequence, no memory is allocated. Not thread safe
+ * Daniel Huson, 10.2016
+ */
+public class ComplexityCalculator {
+    private static final int K = 3;
+    private static final int NUMBER_OF_KMERS = 1 << (2 * K);
+    private static final int KMER_MASK = NUMBER_OF_KMERS - 1;
+    private static final int NUMBER_OF_AMINO_ACIDS = 20;
+    private static final float MIN_COMPLEXITY = 0.001f; // a complexity of 0 means 'not computed'
+
+    private static final byte[] BASE2CODE = new byte[256];
+
+    static {
+        Arrays.fill(BASE2CODE, (byte) -1);
+        BASE2CODE['A'] = BASE2CODE['a'] = 0;
+        BASE2CODE['C'] = BASE2CODE['c'] = 1;
+        BASE2CODE['G'] = BASE2CODE['g'] = 2;
+        BASE2CODE['T'] = BASE2CODE['t'] = BASE2CODE['U'] = BASE2CODE['u'] = 3;
+    }
+
+    private final boolean nucleotides;
+    private final int[] counts;
+
+    /**
+     * constructor
+     *
+     * @param nucleotides true for DNA reads, false for protein reads
+     */
+    public ComplexityCalculator(boolean nucleotides) {
+        this.nucleotides = nucleotides;
+        counts = new int[nucleotides ? NUMBER_OF_KMERS : 32];
+    }
+
+    /**
+     * compute the complexity of a sequence given as text. White space is ignored
+     *
+     * @param sequence
+     * @param start    first position
+     * @param end      end position (exclusive)
+     * @return complexity between 0.001 and 1, or 0, if the sequence is too short
+     */
+    public float compute(byte[] sequence, int start, int end) {
+        Arrays.fill(counts, 0);
+        int total = 0;
+        if (nucleotides) {
+            int code = 0;
+            int run = 0; // number of consecutive bases that make up the current code
+            for (int i = start; i < end; i++) {
+                final byte ch = sequence[i];
+                if (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r')
+                    continue;
+                final int base = BASE2CODE[ch & 0xFF];
+                if (base < 0) {
+                    run = 0;
+                } else {
+                    code = ((code << 2) | base) & KMER_MASK;
+                    if (++run >= K) {
+                        counts[code]++;
+                        total++;
+                    }
+                }
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                final int ch = (sequence[i] | 0x20); // lower case
+                if (ch >= 'a' && ch <= 'z') {
+                    counts[ch & 0x1F]++;
+                    total++;
+                }
+            }
+        }
+        return computeFromCounts(total);
+    }
+
+    /**
+     * compute the complexity of a nucleotide sequence given as codes 0-3 for A, C, G and T, as used in DAA files.
+     * Any other code restarts the trinucleotide code
+     *
+     * @param codes
+     * @param length
+     * @return complexity between 0.001 and 1, or 0, if the sequence is too short
+     */
+    public float computeFromCodes(byte[] codes, int length) {
+        Arrays.fill(counts, 0);
+        int total = 0;
+        int code = 0;
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            final int base = codes[i];
+            if (base < 0 || base > 3) {
+                run = 0;
+            } else {
+                code = ((code << 2) | base) & KMER_MASK;
+                if (++run >= K) {
+                    counts[code]++;
+                    total++;
+                }
+            }
+        }
+        return computeFromCounts(total);
+    }
+
+    /**
+     * compute the relative entropy of the current counts
+     *
+     * @param total sum of counts
+     * @return complexity
+     */
+    private float computeFromCounts(int total) {
+        if (total < 2)
+            return 0;
+        double sum = 0;
+        for (int count : counts) {
+            if (count > 1)
+                sum += count * Math.log(count);
+        }
+        final double entropy = Math.log(total) - sum / total;
+        final double maxEntropy = Math.log(Math.min(nucleotides ? NUMBER_OF_KMERS : NUMBER_OF_AMINO_ACIDS, total));
+        return (float) Math.max(MIN_COMPLEXITY, Math.min(1, entropy / maxEntropy));
+    }
+}
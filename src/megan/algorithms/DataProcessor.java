@@ -24,11 +24,7 @@ import megan.classification.ClassificationManager;
 import megan.classification.IdMapper;
 import megan.core.Document;
 import megan.core.SyncArchiveAndDataTable;
-import megan.daa.connector.ReadBlockDAA;
-import megan.data.IConnector;
-import megan.data.IReadBlock;
-import megan.data.IReadBlockIterator;
-import megan.data.UpdateItemList;
+import megan.data.*;
 import megan.fx.NotificationsInSwing;
 import megan.io.InputOutputReaderWriter;
 import megan.rma6.RMA6File;
@@ -43,6 +39,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Analyzes all reads in a sample
@@ -73,7 +70,9 @@ public class DataProcessor {
                     ClassificationManager.ensureTreeIsLoaded(cNames[i]);
             }
 
-            final UpdateItemList updateList = new UpdateItemList(cNames.length);
+            final IConnector connector = doc.getConnector();
+
+            final IUpdateItemCollector updateList = connector.createUpdateItemCollector(cNames);
 
             final boolean doMatePairs = doc.isPairedReads() && doc.getMeganFile().isRMA6File();
 
@@ -84,18 +83,7 @@ public class DataProcessor {
 
             // step 0: set up classification algorithms
 
-            final IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators = new IAssignmentAlgorithmCreator[numberOfClassifications];
-            for (int i = 0; i < numberOfClassifications; i++) {
-                if (i == taxonomyIndex) {
-                    if (doc.isWeightedLCA()) {
-                        assignmentAlgorithmCreators[i] = new AssignmentUsingWeightedLCACreator(doc, cNames[taxonomyIndex], doc.getWeightedLCAPercent());
-                    } else
-                        assignmentAlgorithmCreators[i] = new AssignmentUsingLCAForTaxonomyCreator(cNames[i], doc.isUseIdentityFilter());
-                } else if (ProgramProperties.get(cNames[i] + "UseLCA", false))
-                    assignmentAlgorithmCreators[i] = new AssignmentUsingLCACreator(cNames[i]);
-                else
-                    assignmentAlgorithmCreators[i] = new AssignmentUsingBestHitCreator(cNames[i]);
-            }
+            final IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators = createAssignmentAlgorithmCreators(doc, cNames, taxonomyIndex);
 
             // setup multi-threading:
             // todo: Do not use multi-threading, has a bug!
@@ -115,14 +103,19 @@ public class DataProcessor {
             final long[] numberOfReadsWithHits = new long[numberOfThreads];
             final long[] numberAssignedViaMatePair = new long[numberOfThreads];
 
-            final IConnector connector = doc.getConnector();
             final InputOutputReaderWriter mateReader = doMatePairs ? new InputOutputReaderWriter(doc.getMeganFile().getFileName(), "r") : null;
+            if (mateReader != null) {
+                try (RMA6File rma6File = new RMA6File(doc.getMeganFile().getFileName(), "r")) {
+                    mateReader.setCompressionCodec(rma6File.getHeaderSectionRMA6().getCompressionCodec());
+                }
+            }
 
             final int[][] countUnassigned = new int[numberOfClassifications][numberOfThreads];
             final int[][] countAssigned = new int[numberOfClassifications][numberOfThreads];
 
-            final ArrayBlockingQueue<IReadBlock> queue = new ArrayBlockingQueue<>(1000);
-            final IReadBlock sentinel = new ReadBlockDAA();
+            // each read block is queued together with its iterator, so that it can be released for reuse once it has been processed:
+            final ArrayBlockingQueue<Pair<IReadBlock, IReadBlockIterator>> queue = new ArrayBlockingQueue<>(1000);
+            final Pair<IReadBlock, IReadBlockIterator> sentinel = new Pair<IReadBlock, IReadBlockIterator>(null, null);
 
             for (int i = 0; i < numberOfThreads; i++) {
                 final int threadNumber = i;
@@ -144,6 +137,9 @@ public class DataProcessor {
                                 try (RMA6File RMA6File = new RMA6File(doc.getMeganFile().getFileName(), "r")) {
                                     String[] matchClassificationNames = RMA6File.getHeaderSectionRMA6().getMatchClassNames();
                                     mateReadBlock = new ReadBlockRMA6(doc.getBlastMode(), doMatePairs, matchClassificationNames);
+                                    mateReadBlock.setLazyMatches(true);
+                                    mateReadBlock.setCompressionCodec(RMA6File.getHeaderSectionRMA6().getCompressionCodec());
+                                    mateReadBlock.setHasReadComplexity(RMA6File.getHeaderSectionRMA6().hasReadComplexity());
                                 }
                             } else
                                 mateReadBlock = null;
@@ -152,9 +148,10 @@ public class DataProcessor {
                             final BitSet activeMatchesForMateTaxa = new BitSet(); // pre filter matches for mate-based taxon identification
 
                             while (true) {
-                                final IReadBlock readBlock = queue.take();
-                                if (readBlock == sentinel)
+                                final Pair<IReadBlock, IReadBlockIterator> item = queue.take();
+                                if (item == sentinel)
                                     break;
+                                final IReadBlock readBlock = item.getFirst();
 
                                 if (progress.isUserCancelled())
                                     break;
@@ -165,7 +162,7 @@ public class DataProcessor {
                                 numberOfReadsFound[threadNumber] += readBlock.getReadWeight();
                                 numberOfMatches[threadNumber] += readBlock.getNumberOfMatches();
 
-                                final boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < doc.getMinComplexity();
+                                final boolean hasLowComplexity = doc.getMinComplexity() > 0 && readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < doc.getMinComplexity();
 
                                 if (hasLowComplexity)
                                     numberOfReadsWithLowComplexity[threadNumber] += readBlock.getReadWeight();
@@ -212,8 +209,9 @@ public class DataProcessor {
                                         countAssigned[i][threadNumber]++;
                                 }
                                 synchronized (updateList) {
-                                    updateList.addItem(readBlock.getUId(), readBlock.getReadWeight(), classIds);
+                                    updateList.addAssignment(readBlock.getUId(), readBlock.getReadWeight(), classIds);
                                 }
+                                item.getSecond().release(readBlock);
                             }
                         } catch (Exception ex) {
                             Basic.caught(ex);
@@ -225,21 +223,64 @@ public class DataProcessor {
             }
 
             /**
-             * feed the queue:
+             * feed the queue. Where the file format supports it, disjoint ranges of the reads are parsed in parallel,
+             * so reads are not necessarily added to the queue in file order:
              */
-            try (final IReadBlockIterator it = connector.getAllReadsIterator(0, 10, false, true)) {
-                progress.setMaximum(it.getMaximumProgress());
+            final int numberOfFeeders = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            ExecutorService feederService = null;
+            try {
+                final IReadBlockIterator[] iterators = connector.getAllReadsIterators(numberOfFeeders, 0, 10, false, true);
+                feederService = Executors.newFixedThreadPool(iterators.length);
+                final CountDownLatch feedersDone = new CountDownLatch(iterators.length);
+
+                long maximumProgress = 0;
+                for (IReadBlockIterator it : iterators) {
+                    maximumProgress += it.getMaximumProgress();
+                }
+                progress.setMaximum(maximumProgress);
                 progress.setProgress(0);
 
-                while (it.hasNext()) {
-                    queue.put(it.next());
-                    progress.setProgress(it.getProgress());
+                for (final IReadBlockIterator it : iterators) {
+                    feederService.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                while (it.hasNext() && !progress.isUserCancelled()) {
+                                    final IReadBlock readBlock = it.next();
+                                    if (readBlock == null) // iterator has reported an error
+                                        break;
+                                    queue.put(new Pair<>(readBlock, it));
+                                }
+                            } catch (InterruptedException ignored) {
+                            } catch (Exception ex) {
+                                Basic.caught(ex);
+                            } finally {
+                                try {
+                                    it.close();
+                                } catch (IOException ex) {
+                                    Basic.caught(ex);
+                                }
+                                feedersDone.countDown();
+                            }
+                        }
+                    });
+                }
+
+                while (!feedersDone.await(100, TimeUnit.MILLISECONDS)) {
+                    long totalProgress = 0;
+                    for (IReadBlockIterator it : iterators) {
+                        totalProgress += it.getProgress();
+                    }
+                    progress.setProgress(totalProgress);
                 }
                 for (int i = 0; i < numberOfThreads; i++) { // add one sentinel for each thread
                     queue.put(sentinel);
                 }
             } catch (Exception e) {
                 Basic.caught(e);
+            } finally {
+                if (feederService != null)
+                    feederService.shutdownNow();
             }
 
             // await worker threads:
@@ -277,57 +318,102 @@ public class DataProcessor {
 
             doc.setNumberReads(Basic.getSum(numberOfReadsFound));
 
-            // If min support percentage is set, set the min support:
-            if (doc.getMinSupportPercent() > 0) {
-                doc.setMinSupport((int) Math.max(1, (doc.getMinSupportPercent() / 100.0) * (Basic.getSum(numberOfReadsWithHits) + Basic.getSum(numberAssignedViaMatePair))));
-                System.err.println("MinSupport set to: " + doc.getMinSupport());
-            }
+            return applyMinSupportAndSave(doc, cNames, updateList, Basic.getSum(numberOfReadsWithHits) + Basic.getSum(numberAssignedViaMatePair), connector);
+        } catch (IOException ex) {
+            Basic.caught(ex);
+            NotificationsInSwing.showInternalError("Data Processor failed: " + ex.getMessage());
+        }
+        return 0;
+    }
 
-            // 2. apply min support and disabled taxa filter
+    /**
+     * sets up the assignment algorithm creators for the given classifications
+     *
+     * @param doc
+     * @param cNames
+     * @param taxonomyIndex
+     * @return creators
+     * @throws IOException
+     * @throws CanceledException
+     */
+    static IAssignmentAlgorithmCreator[] createAssignmentAlgorithmCreators(Document doc, String[] cNames, int taxonomyIndex) throws IOException, CanceledException {
+        final IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators = new IAssignmentAlgorithmCreator[cNames.length];
+        for (int i = 0; i < cNames.length; i++) {
+            if (i == taxonomyIndex) {
+                if (doc.isWeightedLCA()) {
+                    assignmentAlgorithmCreators[i] = new AssignmentUsingWeightedLCACreator(doc, cNames[taxonomyIndex], doc.getWeightedLCAPercent());
+                } else
+                    assignmentAlgorithmCreators[i] = new AssignmentUsingLCAForTaxonomyCreator(cNames[i], doc.isUseIdentityFilter());
+            } else if (ProgramProperties.get(cNames[i] + "UseLCA", false))
+                assignmentAlgorithmCreators[i] = new AssignmentUsingLCACreator(cNames[i]);
+            else
+                assignmentAlgorithmCreators[i] = new AssignmentUsingBestHitCreator(cNames[i]);
+        }
+        return assignmentAlgorithmCreators;
+    }
 
-            for (int i = 0; i < numberOfClassifications; i++) {
-                final String cName = cNames[i];
-                // todo: need to remove assignments to disabled ids when not using the LCA algorithm
-                if (ProgramProperties.get(cName + "UseLCA", cName.equals(Classification.Taxonomy)) && (doc.getMinSupport() > 0 || ClassificationManager.get(cName, false).getIdMapper().getDisabledIds().size() > 0)) {
-                    //System.err.println("Applying min-support filter to " + cName + "...");
-                    progress.setSubtask("Applying min-support & disabled filter to " + cName + "...");
-                    final MinSupportFilter minSupportFilter = new MinSupportFilter(cName, updateList.getClassIdToSizeMap(i), doc.getMinSupport(), progress);
-                    final Map<Integer, Integer> changes = minSupportFilter.apply();
+    /**
+     * applies the min-support filter, saves the classifications and syncs the document with the file.
+     * Assumes that the number of reads has been set in the document
+     *
+     * @param doc
+     * @param cNames
+     * @param updateList
+     * @param numberOfReadsWithHits used to compute the min support from the min support percentage
+     * @param connector
+     * @return total number of reads
+     * @throws IOException
+     * @throws CanceledException
+     */
+    static int applyMinSupportAndSave(Document doc, String[] cNames, IUpdateItemCollector updateList, long numberOfReadsWithHits, IConnector connector) throws IOException, CanceledException {
+        final ProgressListener progress = doc.getProgressListener();
 
-                    for (Integer srcId : changes.keySet()) {
-                        updateList.appendClass(i, srcId, changes.get(srcId));
-                    }
-                    System.err.println(String.format("Min-supp. changes:%,12d", changes.size()));
+        // If min support percentage is set, set the min support:
+        if (doc.getMinSupportPercent() > 0) {
+            doc.setMinSupport((int) Math.max(1, (doc.getMinSupportPercent() / 100.0) * numberOfReadsWithHits));
+            System.err.println("MinSupport set to: " + doc.getMinSupport());
+        }
+
+        // 2. apply min support and disabled taxa filter
+
+        for (int i = 0; i < cNames.length; i++) {
+            final String cName = cNames[i];
+            // todo: need to remove assignments to disabled ids when not using the LCA algorithm
+            if (ProgramProperties.get(cName + "UseLCA", cName.equals(Classification.Taxonomy)) && (doc.getMinSupport() > 0 || ClassificationManager.get(cName, false).getIdMapper().getDisabledIds().size() > 0)) {
+                //System.err.println("Applying min-support filter to " + cName + "...");
+                progress.setSubtask("Applying min-support & disabled filter to " + cName + "...");
+                final MinSupportFilter minSupportFilter = new MinSupportFilter(cName, updateList.getClassIdToSizeMap(i), doc.getMinSupport(), progress);
+                final Map<Integer, Integer> changes = minSupportFilter.apply();
+
+                for (Integer srcId : changes.keySet()) {
+                    updateList.appendClass(i, srcId, changes.get(srcId));
                 }
+                System.err.println(String.format("Min-supp. changes:%,12d", changes.size()));
             }
+        }
 
-            // 3. save classifications
-
-            doc.getProgressListener().setSubtask("Writing classification tables");
+        // 3. save classifications
 
-            connector.updateClassifications(cNames, updateList, progress);
-            connector.setNumberOfReads((int) doc.getNumberOfReads());
+        doc.getProgressListener().setSubtask("Writing classification tables");
 
-            // 4. sync
-            progress.setSubtask("Syncing");
-            SyncArchiveAndDataTable.syncRecomputedArchive2Summary(doc.getTitle(), "LCA", doc.getBlastMode(), doc.getParameterString(), connector, doc.getDataTable(), (int) doc.getAdditionalReads());
+        updateList.save(connector, cNames, progress);
+        connector.setNumberOfReads((int) doc.getNumberOfReads());
 
-            if (progress instanceof ProgressPercentage)
-                ((ProgressPercentage) progress).reportTaskCompleted();
+        // 4. sync
+        progress.setSubtask("Syncing");
+        SyncArchiveAndDataTable.syncRecomputedArchive2Summary(doc.getTitle(), "LCA", doc.getBlastMode(), doc.getParameterString(), connector, doc.getDataTable(), (int) doc.getAdditionalReads());
 
-            // MeganProperties.addRecentFile(new File(doc.getMeganFile().getFileName()));
-            doc.setDirty(false);
+        if (progress instanceof ProgressPercentage)
+            ((ProgressPercentage) progress).reportTaskCompleted();
 
-            // report classification sizes:
-            for (String cName : cNames) {
-                System.err.println(String.format("Class. %-13s%,10d", cName + ":", connector.getClassificationSize(cName)));
-            }
+        // MeganProperties.addRecentFile(new File(doc.getMeganFile().getFileName()));
+        doc.setDirty(false);
 
-            return (int) doc.getDataTable().getTotalReads();
-        } catch (IOException ex) {
-            Basic.caught(ex);
-            NotificationsInSwing.showInternalError("Data Processor failed: " + ex.getMessage());
+        // report classification sizes:
+        for (String cName : cNames) {
+            System.err.println(String.format("Class. %-13s%,10d", cName + ":", connector.getClassificationSize(cName)));
         }
-        return 0;
+
+        return (int) doc.getDataTable().getTotalReads();
     }
 }
@@ -0,0 +1,190 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.algorithms;
+
+import jloda.util.Basic;
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+import megan.classification.Classification;
+import megan.classification.ClassificationManager;
+import megan.classification.IdMapper;
+import megan.core.Document;
+import megan.data.IReadBlock;
+import megan.data.UpdateItemList;
+import megan.fx.NotificationsInSwing;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Classifies reads while a new file is being written, so that the file doesn't have to be read again to classify them.
+ * Computes the same assignments as DataProcessor, except that mate pairs and the weighted LCA are not supported,
+ * as both require the complete file. Not thread safe
+ * Daniel Huson, 10.2016
+ */
+public class InlineClassifier {
+    private final Document doc;
+    private final String[] cNames;
+    private final int taxonomyIndex;
+    private final IAssignmentAlgorithm[] assignmentAlgorithm;
+    private final Set<Integer>[] knownIds;
+    private final UpdateItemList updateList;
+
+    private final BitSet activeMatches = new BitSet();
+
+    private long numberOfReadsFound;
+    private long numberOfMatches;
+    private long numberOfReadsWithLowComplexity;
+    private long numberOfReadsWithHits;
+    private final long[] countAssigned;
+
+    /**
+     * can reads be classified inline for the given document?
+     *
+     * @param doc
+     * @return true, if neither mate pairs nor the weighted LCA are used
+     */
+    public static boolean isApplicable(Document doc) {
+        return !doc.isPairedReads() && !doc.isWeightedLCA();
+    }
+
+    /**
+     * constructor
+     *
+     * @param doc
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public InlineClassifier(Document doc) throws IOException, CanceledException {
+        if (!isApplicable(doc))
+            throw new IOException("Inline classification not applicable: uses mate pairs or weighted LCA");
+        this.doc = doc;
+        cNames = doc.getActiveViewers().toArray(new String[doc.getActiveViewers().size()]);
+        taxonomyIndex = Basic.getIndex(Classification.Taxonomy, cNames);
+        for (int i = 0; i < cNames.length; i++) {
+            if (i != taxonomyIndex)
+                ClassificationManager.ensureTreeIsLoaded(cNames[i]);
+        }
+
+        final IAssignmentAlgorithmCreator[] assignmentAlgorithmCreators = DataProcessor.createAssignmentAlgorithmCreators(doc, cNames, taxonomyIndex);
+        assignmentAlgorithm = new IAssignmentAlgorithm[cNames.length];
+        knownIds = new HashSet[cNames.length];
+        for (int i = 0; i < cNames.length; i++) {
+            assignmentAlgorithm[i] = assignmentAlgorithmCreators[i].createAssignmentAlgorithm();
+            knownIds[i] = new HashSet<>();
+            knownIds[i].addAll(ClassificationManager.get(cNames[i], true).getName2IdMap().getIds());
+        }
+        updateList = new UpdateItemList(cNames.length);
+        countAssigned = new long[cNames.length];
+    }
+
+    /**
+     * computes the class ids of a read. The read is only recorded when add() is called, once its location is known
+     *
+     * @param readBlock
+     * @return class id for each classification
+     * @throws IOException
+     */
+    public int[] computeClassIds(IReadBlock readBlock) throws IOException {
+        if (readBlock.getReadWeight() == 0)
+            readBlock.setReadWeight(1);
+
+        numberOfReadsFound += readBlock.getReadWeight();
+        numberOfMatches += readBlock.getNumberOfMatches();
+
+        final boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < doc.getMinComplexity();
+        if (hasLowComplexity)
+            numberOfReadsWithLowComplexity += readBlock.getReadWeight();
+
+        ActiveMatches.compute(doc.getMinScore(), doc.getTopPercent(), doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, Classification.Taxonomy, activeMatches);
+        final int taxId = assignmentAlgorithm[taxonomyIndex].computeId(activeMatches, readBlock);
+
+        if (activeMatches.cardinality() > 0)
+            numberOfReadsWithHits += readBlock.getReadWeight();
+
+        final int[] classIds = new int[cNames.length];
+        for (int i = 0; i < cNames.length; i++) {
+            int id;
+            if (hasLowComplexity) {
+                id = IdMapper.LOW_COMPLEXITY_ID;
+            } else if (i == taxonomyIndex) {
+                id = taxId;
+            } else {
+                ActiveMatches.compute(doc.getMinScore(), doc.getTopPercent(), doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, cNames[i], activeMatches);
+                id = assignmentAlgorithm[i].computeId(activeMatches, readBlock);
+            }
+            if (!knownIds[i].contains(id))
+                id = IdMapper.UNASSIGNED_ID;
+            classIds[i] = id;
+            if (id > 0 && id != IdMapper.UNASSIGNED_ID)
+                countAssigned[i]++;
+        }
+        return classIds;
+    }
+
+    /**
+     * records the assignment of a read
+     *
+     * @param uid      location of read in file
+     * @param weight   read weight
+     * @param classIds as computed by computeClassIds()
+     * @throws IOException
+     */
+    public void add(long uid, int weight, int[] classIds) throws IOException {
+        final Integer[] ids = new Integer[classIds.length];
+        for (int i = 0; i < classIds.length; i++)
+            ids[i] = classIds[i];
+        updateList.addItem(uid, weight, ids);
+    }
+
+    /**
+     * reports statistics, applies the min-support filter, and saves the classifications to the file of the document,
+     * which must have been completely written
+     *
+     * @return total number of reads
+     * @throws CanceledException
+     */
+    public int finish() throws CanceledException {
+        final ProgressListener progress = doc.getProgressListener();
+        progress.setTasks("Analyzing reads & alignments", "Writing classifications");
+        try {
+            System.err.println(String.format("Total reads:   %,15d", numberOfReadsFound));
+            if (numberOfReadsWithLowComplexity > 0)
+                System.err.println(String.format("Low complexity:%,15d", numberOfReadsWithLowComplexity));
+            System.err.println(String.format("With hits:     %,15d ", numberOfReadsWithHits));
+            System.err.println(String.format("Alignments:    %,15d", numberOfMatches));
+
+            for (int i = 0; i < countAssigned.length; i++) {
+                System.err.println(String.format("%-19s%,11d", "Assig. " + cNames[i] + ":", countAssigned[i]));
+            }
+
+            progress.setCancelable(false); // can't cancel beyond here because file could be left in undefined state
+
+            doc.setNumberReads(numberOfReadsFound);
+
+            return DataProcessor.applyMinSupportAndSave(doc, cNames, updateList, numberOfReadsWithHits, doc.getConnector());
+        } catch (IOException ex) {
+            Basic.caught(ex);
+            NotificationsInSwing.showInternalError("Inline classification failed: " + ex.getMessage());
+        }
+        return 0;
+    }
+}
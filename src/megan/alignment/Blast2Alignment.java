@@ -104,7 +104,7 @@ public class Blast2Alignment {
 
         final Map<String, Set<String>> reference2seen = new HashMap<>(100000);
         int count = 0;
-        try (IReadBlockIterator it = doc.getMeganFile().getDataConnector().getReadsIteratorForListOfClassIds(classificationName, classIds, doc.getMinScore(), doc.getMaxExpected(), true, true)) {
+        try (IReadBlockIterator it = doc.getMeganFile().getDataConnector().getReadsIteratorForListOfClassIds(classificationName, classIds, doc.getMinScore(), doc.getMaxExpected(), true, true, true)) {
             progressListener.setMaximum(it.getMaximumProgress());
             progressListener.setProgress(0);
 
@@ -20,6 +20,7 @@
 package megan.classification;
 
 import jloda.util.*;
+import megan.io.ParallelGZIPInputStream;
 import megan.io.String2IntegerDiskBasedHashTable;
 
 import java.io.Closeable;
@@ -64,7 +65,7 @@ public class Accession2IdMap implements Closeable {
         } else {
             table = null;
             map = new HashMap<>();
-            try (FileInputIterator it = new FileInputIterator(fileName)) {
+            try (FileInputIterator it = ParallelGZIPInputStream.getFileInputIterator(fileName)) {
                 progress.setSubtask("Loading file: " + fileName);
                 progress.setMaximum(it.getMaximumProgress());
                 progress.setProgress(it.getProgress());
@@ -24,6 +24,7 @@ import megan.io.IIntGetter;
 import megan.io.IntFileGetterMappedMemory;
 import megan.io.IntFileGetterRandomAccess;
 import megan.io.OutputWriter;
+import megan.io.ParallelGZIPInputStream;
 
 import java.io.*;
 
@@ -79,7 +80,7 @@ public class LoadableLong2IntegerMap implements Closeable {
         System.err.println("Loading file: " + file.getName());
 
         int totalIn = 0;
-        try (final FileInputIterator it = new FileInputIterator(file)) {
+        try (final FileInputIterator it = ParallelGZIPInputStream.getFileInputIterator(file.getPath())) {
             progress.setTasks("Loading file", file.getName());
             progress.setProgress(0);
             progress.setMaximum(it.getMaximumProgress());
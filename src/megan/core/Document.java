@@ -23,6 +23,7 @@ import jloda.gui.ILabelGetter;
 import jloda.util.*;
 import jloda.util.parse.NexusStreamParser;
 import megan.algorithms.DataProcessor;
+import megan.algorithms.InlineClassifier;
 import megan.chart.ChartColorManager;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
@@ -396,9 +397,19 @@ public class Document {
      * process the given reads
      */
     public void processReadHits() throws CanceledException {
+        processReadHits(null);
+    }
+
+    /**
+     * process the given reads. If an inline classifier is given, then the reads were classified while the file was
+     * being written, and only the classifications need to be saved
+     *
+     * @param inlineClassifier classifier or null
+     */
+    public void processReadHits(InlineClassifier inlineClassifier) throws CanceledException {
         if (getMeganFile().hasDataConnector()) {
             try {
-                final int readsFound = DataProcessor.apply(this);
+                final int readsFound = (inlineClassifier != null ? inlineClassifier.finish() : DataProcessor.apply(this));
 
                 // rescan size:
                 {
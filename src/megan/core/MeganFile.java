@@ -26,6 +26,7 @@ import megan.rma2.RMA2Connector;
 import megan.rma2.RMA2File;
 import megan.rma3.RMA3Connector;
 import megan.rma6.RMA6Connector;
+import megan.rma7.RMA7Connector;
 import rusch.megan5client.connector.Megan5ServerConnector;
 
 import java.io.File;
@@ -45,7 +46,7 @@ public class MeganFile {
 
     private IConnector connector;
 
-    public enum Type {UNKNOWN_FILE, RMA1_FILE, RMA2_FILE, RMA3_FILE, RMA6_FILE, DAA_FILE, MEGAN_SUMMARY_FILE, MEGAN_SERVER_FILE}
+    public enum Type {UNKNOWN_FILE, RMA1_FILE, RMA2_FILE, RMA3_FILE, RMA6_FILE, RMA7_FILE, DAA_FILE, MEGAN_SUMMARY_FILE, MEGAN_SERVER_FILE}
 
     /**
      * set the megan file from an existing file
@@ -68,6 +69,8 @@ public class MeganFile {
             fileType = Type.RMA3_FILE;
         } else if (fileName.toLowerCase().endsWith(".rma6")) {
             fileType = Type.RMA6_FILE;
+        } else if (fileName.toLowerCase().endsWith(".rma7")) {
+            fileType = Type.RMA7_FILE;
         } else if (fileName.toLowerCase().endsWith(".rma")) {
             int version = RMA2File.getRMAVersion(new File(fileName));
             if (version == 1)
@@ -78,6 +81,8 @@ public class MeganFile {
                 fileType = Type.RMA3_FILE;
             else if (version == 6)
                 fileType = Type.RMA6_FILE;
+            else if (version == 7)
+                fileType = Type.RMA7_FILE;
             else
                 fileType = Type.UNKNOWN_FILE;
         } else if (fileName.toLowerCase().endsWith(".daa")) {
@@ -129,6 +134,7 @@ public class MeganFile {
             }
             case RMA3_FILE:
             case RMA6_FILE:
+            case RMA7_FILE:
             case DAA_FILE:
             case MEGAN_SUMMARY_FILE:
                 if (!file.canWrite())
@@ -191,6 +197,10 @@ public class MeganFile {
         return fileType == Type.RMA6_FILE;
     }
 
+    public boolean isRMA7File() {
+        return fileType == Type.RMA7_FILE;
+    }
+
     public boolean isDAAFile() {
         return fileType == Type.DAA_FILE;
     }
@@ -246,6 +256,10 @@ public class MeganFile {
                     connector = new RMA6Connector(fileName);
                     break;
                 }
+                case RMA7_FILE: {
+                    connector = new RMA7Connector(fileName);
+                    break;
+                }
                 case DAA_FILE: {
                     synchronized (DAAConnector.syncObject) {
                         boolean save = DAAConnector.openDAAFileOnlyIfMeganized;
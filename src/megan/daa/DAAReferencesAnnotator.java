@@ -40,6 +40,7 @@ import java.util.concurrent.Executors;
  * Daniel Huson, 8.2105
  */
 public class DAAReferencesAnnotator {
+    public static final int DEFAULT_NUMBER_OF_THREADS = 8;
 
     /**
      * add reference annotations to a DAA file
@@ -47,6 +48,17 @@ public class DAAReferencesAnnotator {
      * @throws IOException
      */
     public static void apply(String daaFile, boolean doTaxonomy, String[] fNames0, final ProgressListener progress) throws IOException, CanceledException {
+        apply(daaFile, doTaxonomy, fNames0, null, DEFAULT_NUMBER_OF_THREADS, progress);
+    }
+
+    /**
+     * add reference annotations to a DAA file, using a cache of annotations that is shared between multiple files
+     *
+     * @param cache           shared cache, or null
+     * @param numberOfThreads number of threads to use
+     * @throws IOException
+     */
+    public static void apply(String daaFile, boolean doTaxonomy, String[] fNames0, ReferenceAnnotationCache cache, final int numberOfThreads, final ProgressListener progress) throws IOException, CanceledException {
         DAAModifier.removeAllMEGANData(daaFile);
 
         final DAAHeader header = new DAAHeader(daaFile);
@@ -63,10 +75,10 @@ public class DAAReferencesAnnotator {
                 fNamesList.remove(Classification.Taxonomy);
             cNames = fNamesList.toArray(new String[fNamesList.size()]);
         }
+        final ReferenceAnnotationCache referenceCache = (cache != null && cache.isCompatible(cNames) ? cache : null);
 
         final int[][] fName2ref2class = new int[cNames.length][header.getNumberOfReferences()];
 
-        final int numberOfThreads = 8;
         final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
         final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
 
@@ -86,13 +98,30 @@ public class DAAReferencesAnnotator {
                             idParsers[i] = ClassificationManager.get(cNames[i], true).getIdMapper().createIdParser();
                         }
 
-                        for (int r = task; r < header.getNumberOfReferences(); r += numberOfThreads) {
-                            String ref = Basic.toString(header.getReference(r, null));
-                            for (int i = 0; i < idParsers.length; i++) {
-                                try {
-                                    fName2ref2class[i][r] = idParsers[i].getIdFromHeaderLine(ref);
-                                } catch (IOException e) {
-                                    Basic.caught(e);
+                        // each thread processes a contiguous range of references
+                        final int start = (int) ((long) task * header.getNumberOfReferences() / numberOfThreads);
+                        final int end = (int) ((long) (task + 1) * header.getNumberOfReferences() / numberOfThreads);
+                        for (int r = start; r < end; r++) {
+                            final String ref = Basic.toString(header.getReference(r, null));
+                            final int[] cachedIds = (referenceCache != null ? referenceCache.get(ref) : null);
+                            if (cachedIds != null) {
+                                for (int i = 0; i < idParsers.length; i++) {
+                                    fName2ref2class[i][r] = cachedIds[i];
+                                }
+                            } else {
+                                for (int i = 0; i < idParsers.length; i++) {
+                                    try {
+                                        fName2ref2class[i][r] = idParsers[i].getIdFromHeaderLine(ref);
+                                    } catch (IOException e) {
+                                        Basic.caught(e);
+                                    }
+                                }
+                                if (referenceCache != null) {
+                                    final int[] ids = new int[idParsers.length];
+                                    for (int i = 0; i < idParsers.length; i++) {
+                                        ids[i] = fName2ref2class[i][r];
+                                    }
+                                    referenceCache.put(ref, ids);
                                 }
                             }
                             if (task == 0)
@@ -42,6 +42,8 @@ import java.util.Map;
  * Daniel Huson, 3.2016
  */
 public class Meganize {
+    private static final Object documentSetupLock = new Object();
+
     /**
      * meganizes a DAA file
      *
@@ -61,26 +63,43 @@ public class Meganize {
      */
     public static void apply(final ProgressListener progress, final String daaFile, final String metaDataFile, final String[] cNames, float minScore, float maxExpected, float minPercentIdentity, float topPercent, float minSupportPercent,
                              int minSupport, boolean pairedReads, int pairedReadsSuffixLength, boolean weightedLCA, float weightedLCAPercent) throws IOException, CanceledException {
+        apply(progress, daaFile, metaDataFile, cNames, minScore, maxExpected, minPercentIdentity, topPercent, minSupportPercent, minSupport, pairedReads, pairedReadsSuffixLength, weightedLCA, weightedLCAPercent,
+                null, DAAReferencesAnnotator.DEFAULT_NUMBER_OF_THREADS);
+    }
+
+    /**
+     * meganizes a DAA file, using a reference annotation cache that is shared with other files
+     *
+     * @param referenceAnnotationCache shared cache or null
+     * @param numberOfThreads          number of threads to use for annotating references
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public static void apply(final ProgressListener progress, final String daaFile, final String metaDataFile, final String[] cNames, float minScore, float maxExpected, float minPercentIdentity, float topPercent, float minSupportPercent,
+                             int minSupport, boolean pairedReads, int pairedReadsSuffixLength, boolean weightedLCA, float weightedLCAPercent, ReferenceAnnotationCache referenceAnnotationCache, int numberOfThreads) throws IOException, CanceledException {
 
         progress.setTasks("Meganizing", "init");
-        DAAReferencesAnnotator.apply(daaFile, true, cNames, progress);
+        DAAReferencesAnnotator.apply(daaFile, true, cNames, referenceAnnotationCache, Math.max(1, numberOfThreads), progress);
 
-        final Document doc = new Document();
-        doc.setOpenDAAFileOnlyIfMeganized(false);
-        doc.getMeganFile().setFileFromExistingFile(daaFile, false);
-        doc.getActiveViewers().add(Classification.Taxonomy);
-        doc.getActiveViewers().addAll(Arrays.asList(cNames));
-        doc.setMinScore(minScore);
-        doc.setMaxExpected(maxExpected);
-        doc.setMinPercentIdentity(minPercentIdentity);
-        doc.setTopPercent(topPercent);
-        doc.setMinSupportPercent(minSupportPercent);
-        doc.setMinSupport(minSupport);
-        doc.setPairedReads(pairedReads);
-        doc.setPairedReadSuffixLength(pairedReadsSuffixLength);
-        doc.setBlastMode(DAAParser.getBlastMode(daaFile));
-        doc.setWeightedLCA(weightedLCA);
-        doc.setWeightedLCAPercent(weightedLCAPercent);
+        final Document doc;
+        synchronized (documentSetupLock) { // documents are set up one at a time, as setting up the chart colors and classifications isn't thread safe
+            doc = new Document();
+            doc.setOpenDAAFileOnlyIfMeganized(false);
+            doc.getMeganFile().setFileFromExistingFile(daaFile, false);
+            doc.getActiveViewers().add(Classification.Taxonomy);
+            doc.getActiveViewers().addAll(Arrays.asList(cNames));
+            doc.setMinScore(minScore);
+            doc.setMaxExpected(maxExpected);
+            doc.setMinPercentIdentity(minPercentIdentity);
+            doc.setTopPercent(topPercent);
+            doc.setMinSupportPercent(minSupportPercent);
+            doc.setMinSupport(minSupport);
+            doc.setPairedReads(pairedReads);
+            doc.setPairedReadSuffixLength(pairedReadsSuffixLength);
+            doc.setBlastMode(DAAParser.getBlastMode(daaFile));
+            doc.setWeightedLCA(weightedLCA);
+            doc.setWeightedLCAPercent(weightedLCAPercent);
+        }
 
         doc.setProgressListener(progress);
 
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.daa;
+
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+import megan.classification.Classification;
+import megan.daa.io.DAAHeader;
+import megan.util.BatchRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * meganizes a batch of DAA files concurrently.
+ * All files share the loaded classifications and mapping tables and one reference annotation cache.
+ * The number of files processed at the same time is bounded by the given number and by a memory budget,
+ * the reference annotation cache is charged to the same budget
+ * Daniel Huson, 10.2016
+ */
+public class MeganizeBatch {
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * meganizes a batch of DAA files
+     *
+     * @param daaFiles
+     * @param metaDataFiles            metadata files, either none, one for all, or one per DAA file
+     * @param numberOfFilesConcurrently max number of files to meganize concurrently
+     * @param numberOfThreads          total number of threads, divided between the files in flight
+     * @param memoryBudgetMB           max amount of memory (in MB) to be used by files in flight and the reference annotation cache, 0 for 80% of max heap
+     * @param referenceCacheSize       max number of entries in shared reference annotation cache, 0 to turn off. Reduced to fit into half of the memory budget
+     * @throws IOException             first exception thrown while meganizing any of the files
+     * @throws CanceledException
+     */
+    public static void apply(final ProgressListener progress, final String[] daaFiles, final String[] metaDataFiles, final String[] cNames, final float minScore, final float maxExpected, final float minPercentIdentity,
+                             final float topPercent, final float minSupportPercent, final int minSupport, final boolean pairedReads, final int pairedReadsSuffixLength, final boolean weightedLCA,
+                             final float weightedLCAPercent, int numberOfFilesConcurrently, int numberOfThreads, int memoryBudgetMB, int referenceCacheSize) throws IOException, CanceledException {
+
+        final BatchRunner batchRunner = new BatchRunner(daaFiles.length, numberOfFilesConcurrently, numberOfThreads, memoryBudgetMB);
+
+        final ReferenceAnnotationCache referenceAnnotationCache;
+        if (referenceCacheSize > 0) {
+            final String[] annotatedNames = getAnnotatedClassificationNames(cNames);
+            referenceCacheSize = Math.min(referenceCacheSize, ReferenceAnnotationCache.getMaxSizeForMemory(batchRunner.getMemoryBudgetMB() / 2, annotatedNames.length));
+            referenceAnnotationCache = (referenceCacheSize > 0 ? new ReferenceAnnotationCache(annotatedNames, referenceCacheSize) : null);
+            if (referenceAnnotationCache != null)
+                batchRunner.reserveMemoryMB(ReferenceAnnotationCache.estimateMemoryMB(referenceCacheSize, annotatedNames.length));
+        } else
+            referenceAnnotationCache = null;
+
+        batchRunner.run(progress, "Meganizing", daaFiles, new BatchRunner.Job<String>() {
+            public String setup(int fileIndex) {
+                return (metaDataFiles.length > 0 ? metaDataFiles[Math.min(fileIndex, metaDataFiles.length - 1)] : "");
+            }
+
+            public int estimateRequiredMemoryMB(int fileIndex, String metaDataFile) {
+                return MeganizeBatch.estimateRequiredMemoryMB(daaFiles[fileIndex], cNames.length + 1);
+            }
+
+            public void run(int fileIndex, String metaDataFile, int numberOfThreads, ProgressListener progress) throws IOException, CanceledException {
+                Meganize.apply(progress, daaFiles[fileIndex], metaDataFile, cNames, minScore, maxExpected, minPercentIdentity, topPercent, minSupportPercent, minSupport, pairedReads,
+                        pairedReadsSuffixLength, weightedLCA, weightedLCAPercent, referenceAnnotationCache, numberOfThreads);
+            }
+        });
+
+        if (referenceAnnotationCache != null)
+            System.err.println(referenceAnnotationCache.toString());
+    }
+
+    /**
+     * gets the names of all classifications that the references annotator will compute ids for
+     *
+     * @param cNames
+     * @return names, including taxonomy
+     */
+    private static String[] getAnnotatedClassificationNames(String[] cNames) {
+        final List<String> list = new ArrayList<>(Arrays.asList(cNames));
+        if (!list.contains(Classification.Taxonomy))
+            list.add(Classification.Taxonomy);
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * estimate the amount of memory required to meganize a file: one int per reference and classification
+     * for the reference annotations plus the reference names, and one long per read and classification for the class-to-reads lists
+     *
+     * @param daaFile
+     * @param numberOfClassifications
+     * @return estimated memory in MB
+     */
+    private static int estimateRequiredMemoryMB(String daaFile, int numberOfClassifications) {
+        try {
+            final DAAHeader header = new DAAHeader(daaFile);
+            header.load();
+            final long bytes = header.getDbSeqsUsed() * (4L * numberOfClassifications + 64L) + header.getQueryRecords() * 8L * numberOfClassifications * 2L;
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, bytes / MB));
+        } catch (IOException ex) {
+            return 1;
+        }
+    }
+}
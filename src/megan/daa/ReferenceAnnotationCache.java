@@ -0,0 +1,129 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.daa;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * cache of reference annotations, shared by all files meganized in one batch.
+ * Maps a reference header line to the class ids assigned to it, one per classification name
+ * Daniel Huson, 10.2016
+ */
+public class ReferenceAnnotationCache {
+    public static final int DEFAULT_MAX_SIZE = 10000000;
+
+    private static final int MB = 1024 * 1024;
+    private static final int ESTIMATED_BYTES_PER_ENTRY = 300; // header line of about 100 characters plus hash map entry, not including ids
+
+    private final String[] cNames;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, int[]> ref2ids;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * constructor
+     *
+     * @param cNames  the classifications that the cached ids refer to, in order
+     * @param maxSize max number of references to cache. Once reached, no further references are added
+     */
+    public ReferenceAnnotationCache(String[] cNames, int maxSize) {
+        this.cNames = cNames.clone();
+        this.maxSize = maxSize;
+        this.ref2ids = new ConcurrentHashMap<>(Math.min(maxSize, 1 << 20), 0.75f, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * does this cache apply to the given list of classification names?
+     *
+     * @param cNames
+     * @return true, if cache holds ids for exactly these classifications, in the same order
+     */
+    public boolean isCompatible(String[] cNames) {
+        return Arrays.equals(this.cNames, cNames);
+    }
+
+    /**
+     * get the cached ids for a reference
+     *
+     * @param reference
+     * @return ids or null
+     */
+    public int[] get(String reference) {
+        final int[] ids = ref2ids.get(reference);
+        if (ids != null)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        return ids;
+    }
+
+    /**
+     * cache the ids for a reference, unless the cache is full
+     *
+     * @param reference
+     * @param ids
+     */
+    public void put(String reference, int[] ids) {
+        if (ref2ids.size() < maxSize)
+            ref2ids.putIfAbsent(reference, ids);
+    }
+
+    /**
+     * estimate the amount of memory used by a full cache
+     *
+     * @param maxSize                 max number of references to cache
+     * @param numberOfClassifications number of ids per reference
+     * @return estimated memory in MB
+     */
+    public static int estimateMemoryMB(int maxSize, int numberOfClassifications) {
+        return (int) Math.max(1L, ((long) maxSize * (ESTIMATED_BYTES_PER_ENTRY + 4 * numberOfClassifications)) / MB);
+    }
+
+    /**
+     * get the max number of references that can be cached in the given amount of memory
+     *
+     * @param memoryMB
+     * @param numberOfClassifications number of ids per reference
+     * @return max size
+     */
+    public static int getMaxSizeForMemory(int memoryMB, int numberOfClassifications) {
+        return (int) Math.min(Integer.MAX_VALUE, ((long) memoryMB * MB) / (ESTIMATED_BYTES_PER_ENTRY + 4 * numberOfClassifications));
+    }
+
+    public String[] getCNames() {
+        return cNames;
+    }
+
+    public int size() {
+        return ref2ids.size();
+    }
+
+    public void clear() {
+        ref2ids.clear();
+    }
+
+    public String toString() {
+        return String.format("Reference annotation cache: size=%,d hits=%,d misses=%,d", ref2ids.size(), hits.get(), misses.get());
+    }
+}
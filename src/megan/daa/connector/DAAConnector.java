@@ -78,6 +78,11 @@ public class DAAConnector implements IConnector {
         return new AllReadsIterator(new ReadBlockGetterDAA(daaHeader, wantReadSequence, wantMatches, minScore, maxExpected, true, false));
     }
 
+    @Override
+    public IReadBlockIterator[] getAllReadsIterators(int numberOfIterators, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new IReadBlockIterator[]{getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches)};
+    }
+
     /**
      * get an all reads iterator
      *
@@ -100,8 +105,13 @@ public class DAAConnector implements IConnector {
 
     @Override
     public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return getReadsIteratorForListOfClassIds(classification, classIds, minScore, maxExpected, wantReadSequence, wantMatches, false);
+    }
+
+    @Override
+    public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches, boolean inFileOrder) throws IOException {
         final ListOfLongs list = AccessClassificationsDAA.loadQueryLocations(daaHeader, classification, classIds);
-        return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
+        return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches), inFileOrder);
     }
 
     @Override
@@ -155,31 +165,32 @@ public class DAAConnector implements IConnector {
         }
         progressListener.setMaximum(maxProgress);
 
-        final Map<Integer, ListOfLongs>[] fName2ClassId2Location = new HashMap[cNames.length];
-        final Map<Integer, Integer>[] fName2ClassId2Weight = new HashMap[cNames.length];
-        for (int i = 0; i < cNames.length; i++) {
-            fName2ClassId2Location[i] = new HashMap<>(10000);
-            fName2ClassId2Weight[i] = new HashMap<>(10000);
-        }
-
-        for (int i = 0; i < cNames.length; i++) {
-            final Map<Integer, ListOfLongs> classId2Location = fName2ClassId2Location[i];
-            final Map<Integer, Integer> classId2weight = fName2ClassId2Weight[i];
-
-            for (Integer classId : updateItems.getClassIds(i)) {
-                int weightedSize = updateItems.getSize(i, classId);
-                final ListOfLongs positions = new ListOfLongs();
-                classId2Location.put(classId, positions);
-                classId2weight.put(classId, weightedSize);
-                if (weightedSize > 0) {
-                    for (UpdateItem item = updateItems.getFirst(i, classId); item != null; item = updateItems.getUpdateItem(item.getNextInClassification(i))) {
-                        positions.add(item.getReadUId());
+        try (DAAClassificationWriter writer = new DAAClassificationWriter(daaHeader, cNames, ClassificationRunStore.DEFAULT_MAX_BUFFERED)) {
+            for (int i = 0; i < cNames.length; i++) {
+                for (Integer classId : updateItems.getClassIds(i)) {
+                    int weightedSize = updateItems.getSize(i, classId);
+                    writer.setWeight(i, classId, weightedSize);
+                    if (weightedSize > 0) {
+                        for (UpdateItem item = updateItems.getFirst(i, classId); item != null; item = updateItems.getUpdateItem(item.getNextInClassification(i))) {
+                            writer.add(i, classId, item.getReadUId());
+                        }
                     }
+                    progressListener.incrementProgress();
                 }
-                progressListener.incrementProgress();
             }
+            writer.commit();
         }
-        ModifyClassificationsDAA.saveClassifications(daaHeader, cNames, fName2ClassId2Location, fName2ClassId2Weight);
+    }
+
+    /**
+     * creates a collector for the class assignments computed by the data processor that doesn't keep any state per read
+     *
+     * @param cNames
+     * @return collector
+     */
+    @Override
+    public IUpdateItemCollector createUpdateItemCollector(String[] cNames) {
+        return new DAAUpdateItemCollector(daaHeader, cNames);
     }
 
     @Override
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.daa.connector;
+
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+import megan.daa.io.ClassificationRunStore;
+import megan.daa.io.DAAClassificationWriter;
+import megan.daa.io.DAAHeader;
+import megan.data.IConnector;
+import megan.data.IUpdateItemCollector;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * collects class assignments for a DAA file without keeping any state per read: read locations are passed directly to
+ * a DAA classification writer, which spills them to disk, only class sizes and min-support changes are kept in memory
+ * Daniel Huson, 10.2016
+ */
+public class DAAUpdateItemCollector implements IUpdateItemCollector {
+    private final DAAClassificationWriter writer;
+    private final Map<Integer, Integer>[] classId2Size;
+    private final Map<Integer, Integer>[] source2target;
+
+    /**
+     * constructor
+     *
+     * @param header
+     * @param cNames
+     */
+    @SuppressWarnings("unchecked")
+    public DAAUpdateItemCollector(DAAHeader header, String[] cNames) {
+        writer = new DAAClassificationWriter(header, cNames, ClassificationRunStore.DEFAULT_MAX_BUFFERED);
+        classId2Size = new HashMap[cNames.length];
+        source2target = new HashMap[cNames.length];
+        for (int i = 0; i < cNames.length; i++) {
+            classId2Size[i] = new HashMap<>();
+            source2target[i] = new HashMap<>();
+        }
+    }
+
+    @Override
+    public void addAssignment(long readUid, int readWeight, Integer[] classIds) throws IOException {
+        if (classIds.length != classId2Size.length)
+            throw new IOException("classIds has wrong length: " + classIds.length + ", should be: " + classId2Size.length);
+        if (readWeight == 0)
+            readWeight = 1;
+        for (int i = 0; i < classIds.length; i++) {
+            final int id = classIds[i];
+            if (id != 0) {
+                final Integer size = classId2Size[i].get(id);
+                classId2Size[i].put(id, size == null ? readWeight : size + readWeight);
+                writer.add(i, id, readUid);
+            }
+        }
+    }
+
+    @Override
+    public Map<Integer, Integer> getClassIdToSizeMap(int classificationId) {
+        return classId2Size[classificationId];
+    }
+
+    @Override
+    public void appendClass(int classificationId, int srcClassId, int tarClassId) {
+        final Integer srcSize = classId2Size[classificationId].remove(srcClassId);
+        if (srcSize != null && srcSize > 0) {
+            final Integer tarSize = classId2Size[classificationId].get(tarClassId);
+            classId2Size[classificationId].put(tarClassId, tarSize == null ? srcSize : tarSize + srcSize);
+            source2target[classificationId].put(srcClassId, tarClassId);
+        }
+    }
+
+    @Override
+    public void save(IConnector connector, String[] cNames, ProgressListener progressListener) throws IOException, CanceledException {
+        try {
+            progressListener.setMaximum(cNames.length);
+            progressListener.setProgress(0);
+            for (int i = 0; i < cNames.length; i++) {
+                writer.remapClasses(i, source2target[i]);
+                for (Integer classId : classId2Size[i].keySet()) {
+                    writer.setWeight(i, classId, classId2Size[i].get(classId));
+                }
+                progressListener.incrementProgress();
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+}
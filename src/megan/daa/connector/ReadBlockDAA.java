@@ -19,6 +19,7 @@
 package megan.daa.connector;
 
 import jloda.util.Basic;
+import megan.algorithms.ComplexityCalculator;
 import megan.daa.io.DAAMatchRecord;
 import megan.daa.io.DAAQueryRecord;
 import megan.daa.io.Translator;
@@ -37,6 +38,7 @@ public class ReadBlockDAA implements IReadBlock {
     private IMatchBlock[] matchBlocks;
 
     private float readComplexity = 0;
+    private ComplexityCalculator complexityCalculator; // created on demand, reused by streaming getter
     private int readWeight = 1;
 
     /**
@@ -144,8 +146,19 @@ public class ReadBlockDAA implements IReadBlock {
         this.readComplexity = readComplexity;
     }
 
+    /**
+     * get the read complexity. For DNA reads, this is computed on demand from the packed source sequence
+     *
+     * @return complexity or 0, if not available
+     */
     public float getComplexity() {
-        return 0;
+        if (readComplexity == 0 && queryRecord != null && queryRecord.getDaaParser().getSourceAlphabet() == Translator.DNA_ALPHABET) {
+            if (complexityCalculator == null)
+                complexityCalculator = new ComplexityCalculator(true);
+            final byte[] sourceSequence = queryRecord.getSourceSequence();
+            readComplexity = complexityCalculator.computeFromCodes(sourceSequence, sourceSequence.length);
+        }
+        return readComplexity;
     }
 
     /**
@@ -223,6 +236,7 @@ public class ReadBlockDAA implements IReadBlock {
     public void setFromQueryAndMatchRecords(DAAQueryRecord queryRecord, DAAMatchRecord[] matchRecords, boolean wantReadSequences, boolean wantMatches, float minScore, float maxExpected) {
         this.wantReadSequences = wantReadSequences;
         this.queryRecord = queryRecord;
+        readComplexity = 0;
         numberOfMatches = matchRecords.length;
 
         if (wantMatches) {
@@ -246,4 +260,14 @@ public class ReadBlockDAA implements IReadBlock {
 
         setReadWeight(ReadMagnitudeParser.parseMagnitude(getReadHeader()));
     }
+
+    /**
+     * recycles this read block once it has been released by its consumer, dropping references to the query and match records
+     */
+    public void recycle() {
+        queryRecord = null;
+        matchBlocks = null;
+        numberOfMatches = 0;
+        readComplexity = 0;
+    }
 }
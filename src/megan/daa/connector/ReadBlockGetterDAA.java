@@ -23,6 +23,7 @@ import jloda.util.Pair;
 import megan.daa.io.*;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockGetter;
+import megan.data.ReadBlockPool;
 import megan.io.FileInputStreamAdapter;
 import megan.io.FileRandomAccessReadOnlyAdapter;
 
@@ -42,6 +43,7 @@ public class ReadBlockGetterDAA implements IReadBlockGetter {
 
     private final boolean streamOnly;
     private final ReadBlockDAA reuseableReadBlock;
+    private final ReadBlockPool<ReadBlockDAA> readBlockPool = new ReadBlockPool<>();
 
     private final long start;
     private final long end;
@@ -114,7 +116,12 @@ public class ReadBlockGetterDAA implements IReadBlockGetter {
                 if (streamOnly)
                     throw new IOException("getReadBlock(uid=" + uid + ") failed: streamOnly");
             }
-            final ReadBlockDAA readBlock = (reuseableReadBlock == null ? new ReadBlockDAA() : reuseableReadBlock);
+            ReadBlockDAA readBlock = reuseableReadBlock;
+            if (readBlock == null) {
+                readBlock = readBlockPool.take();
+                if (readBlock == null)
+                    readBlock = new ReadBlockDAA();
+            }
 
             final Pair<DAAQueryRecord, DAAMatchRecord[]> pair = daaParser.readQueryAndMatches(reader, refReader, daaMatchRecords.length, inputBuffer, daaMatchRecords);
             readBlock.setFromQueryAndMatchRecords(pair.get1(), pair.get2(), wantReadSequences, wantMatches, minScore, maxExpected);
@@ -123,6 +130,19 @@ public class ReadBlockGetterDAA implements IReadBlockGetter {
         return null;
     }
 
+    /**
+     * releases a read block obtained from getReadBlock()
+     *
+     * @param readBlock
+     */
+    @Override
+    public void release(IReadBlock readBlock) {
+        if (readBlock instanceof ReadBlockDAA && readBlock != reuseableReadBlock) {
+            ((ReadBlockDAA) readBlock).recycle();
+            readBlockPool.release((ReadBlockDAA) readBlock);
+        }
+    }
+
     /**
      * closes the accessor
      *
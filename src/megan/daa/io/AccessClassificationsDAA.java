@@ -25,6 +25,7 @@ import megan.data.IClassificationBlock;
 import megan.io.FileRandomAccessReadOnlyAdapter;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -35,6 +36,7 @@ public class AccessClassificationsDAA {
 
     /**
      * load all query locations for a given classification and class ids
+     * For compact blocks, the locations are returned in ascending order
      *
      * @param daaHeader
      * @param classificationName
@@ -43,27 +45,37 @@ public class AccessClassificationsDAA {
     public static ListOfLongs loadQueryLocations(DAAHeader daaHeader, String classificationName, Collection<Integer> classIds) throws IOException {
         for (int i = 0; i < daaHeader.getBlockTypeRankArrayLength() - 1; i++) {
             final int j = i + 1;
-            if (daaHeader.getBlockType(i) == BlockType.megan_classification_key_block && daaHeader.getBlockType(j) == BlockType.megan_classification_dump_block) {
-                try (InputReaderLittleEndian insKey = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(daaHeader.getFileName()))) {
-                    final long keyBase = daaHeader.computeBlockStart(i);
-                    insKey.seek(keyBase);
-                    final String cName = insKey.readNullTerminatedBytes();
-
-                    if (cName.equals(classificationName)) {
-                        final int numberOfClasses = insKey.readInt();
-                        final ListOfLongs list = new ListOfLongs(100000);
-
-                        try (InputReaderLittleEndian insDump = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(daaHeader.getFileName()))) {
-                            final long dumpBase = daaHeader.computeBlockStart(j);
-                            insDump.seek(dumpBase);
-                            if (!insDump.readNullTerminatedBytes().equals(classificationName))
-                                throw new IOException("Internal error: key-dump mismatch");
+            final boolean compact;
+            if (daaHeader.getBlockType(i) == BlockType.megan_classification_key_block && daaHeader.getBlockType(j) == BlockType.megan_classification_dump_block)
+                compact = false;
+            else if (daaHeader.getBlockType(i) == BlockType.megan_compact_classification_key_block && daaHeader.getBlockType(j) == BlockType.megan_compact_classification_dump_block)
+                compact = true;
+            else
+                continue;
 
+            try (InputReaderLittleEndian insKey = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(daaHeader.getFileName()))) {
+                final long keyBase = daaHeader.computeBlockStart(i);
+                insKey.seek(keyBase);
+                final String cName = insKey.readNullTerminatedBytes();
+
+                if (cName.equals(classificationName)) {
+                    final int numberOfClasses = insKey.readInt();
+                    final ListOfLongs list = new ListOfLongs(100000);
+
+                    try (InputReaderLittleEndian insDump = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(daaHeader.getFileName()))) {
+                        final long dumpBase = daaHeader.computeBlockStart(j);
+                        insDump.seek(dumpBase);
+                        if (!insDump.readNullTerminatedBytes().equals(classificationName))
+                            throw new IOException("Internal error: key-dump mismatch");
+
+                        if (compact)
+                            readCompactLocations(insKey, insDump, dumpBase, numberOfClasses, classIds, list);
+                        else {
                             for (int c = 0; c < numberOfClasses; c++) {
                                 int classId = insKey.readInt();
-                                    insKey.skip(4); //  weight
+                                insKey.skip(4); //  weight
                                 int size = insKey.readInt();
-                                    final long offset = insKey.readLong();
+                                final long offset = insKey.readLong();
                                 if (classIds.contains(classId)) {
                                     insDump.seek(dumpBase + offset);
                                     for (int n = 0; n < size; n++) {
@@ -72,14 +84,60 @@ public class AccessClassificationsDAA {
                                 }
                             }
                         }
-                        return list;
                     }
+                    return list;
                 }
             }
         }
         return null;
     }
 
+    /**
+     * read locations from a compact dump block. Classes are sorted by id and so their reads are read in a single forward sweep
+     *
+     * @param insKey          positioned at first class entry of key block
+     * @param insDump
+     * @param dumpBase
+     * @param numberOfClasses
+     * @param classIds
+     * @param list            list to add locations to
+     * @throws IOException
+     */
+    private static void readCompactLocations(InputReaderLittleEndian insKey, InputReaderLittleEndian insDump, long dumpBase, int numberOfClasses, Collection<Integer> classIds, ListOfLongs list) throws IOException {
+        int numberOfClassesFound = 0;
+        long total = 0;
+        final int[] sizes = new int[Math.min(numberOfClasses, classIds.size())];
+        final long[] offsets = new long[sizes.length];
+
+        for (int c = 0; c < numberOfClasses && numberOfClassesFound < sizes.length; c++) {
+            int classId = insKey.readInt();
+            insKey.skip(4); //  weight
+            int size = insKey.readInt();
+            final long offset = insKey.readLong();
+            if (classIds.contains(classId)) {
+                sizes[numberOfClassesFound] = size;
+                offsets[numberOfClassesFound++] = offset;
+                total += size;
+            }
+        }
+
+        final long[] locations = new long[(int) total];
+        int count = 0;
+        for (int k = 0; k < numberOfClassesFound; k++) {
+            insDump.seek(dumpBase + offsets[k]);
+            long location = 0;
+            for (int n = 0; n < sizes[k]; n++) {
+                location += insDump.readVarLong();
+                locations[count++] = location;
+            }
+        }
+        if (numberOfClassesFound > 1)
+            Arrays.sort(locations);
+        for (long location : locations) {
+            list.add(location);
+        }
+    }
+
     /**
      * load a named classification block
      *
@@ -91,7 +149,7 @@ public class AccessClassificationsDAA {
     public static IClassificationBlock loadClassification(DAAHeader daaHeader, String classificationName) throws IOException {
 
         for (int i = 0; i < daaHeader.getBlockTypeRankArrayLength() - 1; i++) {
-            if (daaHeader.getBlockType(i) == BlockType.megan_classification_key_block) {
+            if (daaHeader.getBlockType(i) == BlockType.megan_classification_key_block || daaHeader.getBlockType(i) == BlockType.megan_compact_classification_key_block) {
                 long keyBase = daaHeader.computeBlockStart(i);
 
                 try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileRandomAccessReadOnlyAdapter(daaHeader.getFileName()))) {
@@ -0,0 +1,322 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.daa.io;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * collects (class id, read location) pairs for one classification using a bounded amount of memory.
+ * When the buffer is full, it is sorted by class id and location and spilled to disk as a run.
+ * The runs are merged when the classification is written, producing the locations of each class in ascending order
+ * Daniel Huson, 10.2016
+ */
+public class ClassificationRunStore implements Closeable {
+    public static final int DEFAULT_MAX_BUFFERED = 8 * 1024 * 1024;
+
+    private final File tmpDirectory;
+    private final int maxBuffered;
+
+    private final Map<Integer, LongList> classId2Locations = new HashMap<>();
+    private final Map<Integer, Integer> classId2Weight = new HashMap<>();
+    private int numberBuffered = 0;
+
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * constructor
+     *
+     * @param tmpDirectory directory for spilled runs
+     * @param maxBuffered  max number of locations to keep in memory
+     */
+    public ClassificationRunStore(File tmpDirectory, int maxBuffered) {
+        this.tmpDirectory = tmpDirectory;
+        this.maxBuffered = Math.max(1, maxBuffered);
+    }
+
+    /**
+     * add the location of a read assigned to a class
+     *
+     * @param classId
+     * @param location
+     * @throws IOException
+     */
+    public void add(int classId, long location) throws IOException {
+        LongList list = classId2Locations.get(classId);
+        if (list == null) {
+            list = new LongList();
+            classId2Locations.put(classId, list);
+        }
+        list.add(location);
+        if (++numberBuffered >= maxBuffered)
+            spill();
+    }
+
+    /**
+     * set the weight of a class. Every class that has a weight is written, even if it has no locations
+     *
+     * @param classId
+     * @param weight
+     */
+    public void setWeight(int classId, int weight) {
+        classId2Weight.put(classId, weight);
+    }
+
+    /**
+     * moves all locations of each source class to its target class. Spilled runs are re-read and spilled again,
+     * so memory use remains bounded
+     *
+     * @param source2target
+     * @throws IOException
+     */
+    public void remapClasses(Map<Integer, Integer> source2target) throws IOException {
+        if (source2target.size() == 0)
+            return;
+        final Map<Integer, LongList> buffered = new HashMap<>(classId2Locations);
+        final List<File> oldRuns = new ArrayList<>(runs);
+        classId2Locations.clear();
+        numberBuffered = 0;
+        runs.clear();
+
+        for (Integer classId : buffered.keySet()) {
+            final int target = getTarget(source2target, classId);
+            final LongList list = buffered.get(classId);
+            for (int i = 0; i < list.size; i++) {
+                add(target, list.values[i]);
+            }
+        }
+        buffered.clear();
+
+        for (File file : oldRuns) {
+            try (RunReader reader = new RunReader(file)) {
+                while (reader.classId != Integer.MAX_VALUE) {
+                    final int target = getTarget(source2target, reader.classId);
+                    while (reader.nextLocation()) {
+                        add(target, reader.location);
+                    }
+                    reader.nextClass();
+                }
+            }
+            if (!file.delete())
+                System.err.println("Failed to delete file: " + file);
+        }
+    }
+
+    /**
+     * follows the mapping until a class is reached that is not mapped
+     */
+    private static int getTarget(Map<Integer, Integer> source2target, int classId) {
+        for (int steps = 0; steps < source2target.size(); steps++) {
+            final Integer target = source2target.get(classId);
+            if (target == null || target == classId)
+                break;
+            classId = target;
+        }
+        return classId;
+    }
+
+    /**
+     * writes the classification key block to the key writer and the dump block to the dump writer.
+     * Classes are sorted by id and locations are sorted and delta-encoded, as in ModifyClassificationsDAA
+     *
+     * @param cName
+     * @param wKey
+     * @param wDump
+     * @throws IOException
+     */
+    public void write(String cName, OutputWriterLittleEndian wKey, OutputWriterLittleEndian wDump) throws IOException {
+        final long dumpStart = wDump.getPosition();
+        final SortedSet<Integer> classIds = new TreeSet<>(classId2Weight.keySet());
+
+        wKey.writeNullTerminatedString(cName.getBytes());
+        wKey.writeInt(classIds.size());
+        wDump.writeNullTerminatedString(cName.getBytes());
+
+        if (runs.size() > 0 && numberBuffered > 0)
+            spill();
+
+        final RunReader[] readers = new RunReader[runs.size()];
+        try {
+            for (int r = 0; r < runs.size(); r++) {
+                readers[r] = new RunReader(runs.get(r));
+            }
+
+            for (int classId : classIds) {
+                wKey.writeInt(classId);
+                wKey.writeInt(classId2Weight.get(classId));
+                final long offset = wDump.getPosition() - dumpStart;
+                int count = 0;
+                long previous = 0;
+
+                if (readers.length == 0) { // everything is in memory
+                    final LongList list = classId2Locations.get(classId);
+                    if (list != null) {
+                        list.sort();
+                        for (int i = 0; i < list.size; i++) {
+                            wDump.writeVarLong(list.values[i] - previous);
+                            previous = list.values[i];
+                        }
+                        count = list.size;
+                    }
+                } else { // merge the sorted locations of all runs
+                    final PriorityQueue<RunReader> queue = new PriorityQueue<>(readers.length, new Comparator<RunReader>() {
+                        public int compare(RunReader a, RunReader b) {
+                            return Long.compare(a.location, b.location);
+                        }
+                    });
+                    for (RunReader reader : readers) {
+                        if (reader.startClass(classId))
+                            queue.add(reader);
+                    }
+                    while (queue.size() > 0) {
+                        final RunReader reader = queue.poll();
+                        wDump.writeVarLong(reader.location - previous);
+                        previous = reader.location;
+                        count++;
+                        if (reader.nextLocation())
+                            queue.add(reader);
+                    }
+                }
+                wKey.writeInt(count);
+                wKey.writeLong(offset);
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                if (reader != null)
+                    reader.close();
+            }
+        }
+    }
+
+    /**
+     * sort the buffered locations and write them as a run
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        final File file = File.createTempFile("megan-classification-run", ".tmp", tmpDirectory);
+        file.deleteOnExit();
+        runs.add(file);
+
+        final Integer[] classIds = classId2Locations.keySet().toArray(new Integer[classId2Locations.size()]);
+        Arrays.sort(classIds);
+
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1048576))) {
+            outs.writeInt(classIds.length);
+            for (int classId : classIds) {
+                final LongList list = classId2Locations.get(classId);
+                list.sort();
+                outs.writeInt(classId);
+                outs.writeInt(list.size);
+                for (int i = 0; i < list.size; i++) {
+                    outs.writeLong(list.values[i]);
+                }
+            }
+        }
+        classId2Locations.clear();
+        numberBuffered = 0;
+    }
+
+    /**
+     * delete all spilled runs
+     */
+    public void close() {
+        for (File file : runs) {
+            if (!file.delete())
+                System.err.println("Failed to delete file: " + file);
+        }
+        runs.clear();
+        classId2Locations.clear();
+    }
+
+    /**
+     * reads a run, class by class
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream ins;
+        private int classesRemaining;
+        private int classId = Integer.MIN_VALUE;
+        private int locationsRemaining;
+        long location;
+
+        RunReader(File file) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            classesRemaining = ins.readInt();
+            nextClass();
+        }
+
+        /**
+         * moves to the given class, which must not be smaller than the previous one
+         *
+         * @return true, if run contains locations for the class, in which case location is set to the first one
+         */
+        boolean startClass(int targetClassId) throws IOException {
+            while (classId < targetClassId && classId != Integer.MAX_VALUE) {
+                while (nextLocation()) {
+                    // skip locations of class not requested
+                }
+                nextClass();
+            }
+            return classId == targetClassId && nextLocation();
+        }
+
+        boolean nextLocation() throws IOException {
+            if (locationsRemaining > 0) {
+                location = ins.readLong();
+                locationsRemaining--;
+                return true;
+            }
+            return false;
+        }
+
+        private void nextClass() throws IOException {
+            if (classesRemaining > 0) {
+                classId = ins.readInt();
+                locationsRemaining = ins.readInt();
+                classesRemaining--;
+            } else {
+                classId = Integer.MAX_VALUE;
+                locationsRemaining = 0;
+            }
+        }
+
+        public void close() throws IOException {
+            ins.close();
+        }
+    }
+
+    /**
+     * growable list of longs
+     */
+    private static class LongList {
+        long[] values = new long[4];
+        int size;
+
+        void add(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = value;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+    }
+}
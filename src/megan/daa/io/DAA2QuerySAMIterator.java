@@ -47,8 +47,19 @@ public class DAA2QuerySAMIterator implements ICloseableIterator<Pair<byte[], byt
      * @throws IOException
      */
     public DAA2QuerySAMIterator(String daaFile, final int maxMatchesPerRead) throws IOException {
+        this(daaFile, maxMatchesPerRead, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * constructor
+     *
+     * @param daaFile
+     * @param numberOfThreads number of threads used to generate SAM text
+     * @throws IOException
+     */
+    public DAA2QuerySAMIterator(String daaFile, final int maxMatchesPerRead, final int numberOfThreads) throws IOException {
         this.daaParser = new DAAParser(daaFile);
-        daaParser.getHeader().loadReferences(true);
+        daaParser.getHeader().loadReferences(false);
 
         queue = new ArrayBlockingQueue<>(1000);
 
@@ -57,7 +68,7 @@ public class DAA2QuerySAMIterator implements ICloseableIterator<Pair<byte[], byt
         executorService.submit(new Runnable() {
             public void run() {
                 try {
-                    daaParser.getAllAlignmentsSAMFormat(maxMatchesPerRead, queue);
+                    daaParser.getAllAlignmentsSAMFormat(maxMatchesPerRead, queue, numberOfThreads);
                 } catch (IOException e) {
                     Basic.caught(e);
                 }
@@ -42,6 +42,17 @@ public class DAA2SAMIterator implements ISAMIterator {
         this.daa2QuerySAMIterator = new DAA2QuerySAMIterator(fileName, maxMatchesPerRead);
     }
 
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param numberOfThreads number of threads used to generate SAM text
+     * @throws IOException
+     */
+    public DAA2SAMIterator(String fileName, int maxMatchesPerRead, int numberOfThreads) throws IOException {
+        this.daa2QuerySAMIterator = new DAA2QuerySAMIterator(fileName, maxMatchesPerRead, numberOfThreads);
+    }
+
     /**
      * gets the next matches
      *
@@ -0,0 +1,207 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.daa.io;
+
+import megan.io.FileOutputStreamAdapter;
+
+import java.io.*;
+import java.util.Map;
+
+/**
+ * streaming writer for the classification blocks of a DAA file.
+ * Class-to-read assignments are collected in spillable run stores, so memory use does not depend on the number of reads.
+ * On commit, each dump block is first written to a temporary file. The new blocks are then written to the DAA file and synced,
+ * either into unused space left by a previous update or after the current classification blocks, so that the current blocks
+ * remain intact until the header block table has been updated, which is done atomically (see DAAHeader.save()).
+ * Space occupied by replaced blocks is declared as an unused block, which is reused or removed by the next update
+ * Daniel Huson, 10.2016
+ */
+public class DAAClassificationWriter implements Closeable {
+    private final DAAHeader header;
+    private final String[] cNames;
+    private final ClassificationRunStore[] stores;
+    private final File tmpDirectory;
+
+    /**
+     * constructor
+     *
+     * @param header
+     * @param cNames
+     * @param maxBuffered max number of read locations held in memory per classification
+     */
+    public DAAClassificationWriter(DAAHeader header, String[] cNames, int maxBuffered) {
+        this.header = header;
+        this.cNames = cNames;
+        this.tmpDirectory = (new File(header.getFileName())).getAbsoluteFile().getParentFile();
+        this.stores = new ClassificationRunStore[cNames.length];
+        for (int i = 0; i < cNames.length; i++) {
+            stores[i] = new ClassificationRunStore(tmpDirectory, maxBuffered);
+        }
+    }
+
+    /**
+     * add the location of a read assigned to a class
+     *
+     * @param classificationIndex
+     * @param classId
+     * @param location
+     * @throws IOException
+     */
+    public void add(int classificationIndex, int classId, long location) throws IOException {
+        stores[classificationIndex].add(classId, location);
+    }
+
+    /**
+     * set the weight of a class
+     *
+     * @param classificationIndex
+     * @param classId
+     * @param weight
+     */
+    public void setWeight(int classificationIndex, int classId, int weight) {
+        stores[classificationIndex].setWeight(classId, weight);
+    }
+
+    /**
+     * moves all reads assigned to a source class to a target class, as done by the min-support filter
+     *
+     * @param classificationIndex
+     * @param source2target
+     * @throws IOException
+     */
+    public void remapClasses(int classificationIndex, Map<Integer, Integer> source2target) throws IOException {
+        stores[classificationIndex].remapClasses(source2target);
+    }
+
+    /**
+     * replaces all classification blocks in the DAA file by the collected ones
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        header.recoverHeaderFromJournal();
+
+        final byte[][] keyBlocks = new byte[cNames.length][];
+        final int[] keySizes = new int[cNames.length];
+        final File[] dumpFiles = new File[cNames.length];
+
+        try {
+            for (int i = 0; i < cNames.length; i++) {
+                final ByteOutputStream outKey = new ByteOutputStream(100000);
+                dumpFiles[i] = File.createTempFile("megan-classification-dump", ".tmp", tmpDirectory);
+                dumpFiles[i].deleteOnExit();
+                try (OutputWriterLittleEndian wKey = new OutputWriterLittleEndian(outKey);
+                     OutputWriterLittleEndian wDump = new OutputWriterLittleEndian(new FileOutputStreamAdapter(dumpFiles[i]))) {
+                    stores[i].write(cNames[i], wKey, wDump);
+                }
+                stores[i].close();
+                keyBlocks[i] = outKey.getBytes();
+                keySizes[i] = outKey.size();
+            }
+
+            DAAModifier.truncateToDeclaredBlocks(header);
+
+            // classification blocks and unused space at the end of the file can be reused:
+            final int lastIndex = header.getLastDefinedBlockIndex();
+            int tailIndex = lastIndex + 1;
+            while (tailIndex > 0 && isClassificationOrUnused(header.getBlockType(tailIndex - 1)))
+                tailIndex--;
+            final long tailStart = header.getLocationOfBlockInFile(tailIndex);
+            final long end = header.getLocationOfBlockInFile(lastIndex + 1);
+            long currentStart = end; // start of current classification blocks in tail
+            for (int b = tailIndex; b <= lastIndex; b++) {
+                if (header.getBlockType(b) != BlockType.empty) {
+                    currentStart = header.getLocationOfBlockInFile(b);
+                    break;
+                }
+            }
+            long newSize = 0;
+            for (int i = 0; i < cNames.length; i++) {
+                newSize += keySizes[i] + dumpFiles[i].length();
+            }
+            // write into the unused space before the current blocks, if the new blocks fit, otherwise after the current blocks:
+            final boolean reuse = (currentStart == end || newSize <= currentStart - tailStart);
+            final long writeStart = (reuse ? tailStart : end);
+            final boolean declareUnused = (!reuse && end > tailStart);
+            if (tailIndex + (declareUnused ? 1 : 0) + 2 * cNames.length > header.getBlockTypeRankArrayLength())
+                throw new IOException("Too many blocks for DAA header: " + header.getFileName());
+
+            try (RandomAccessFile raf = new RandomAccessFile(header.getFileName(), "rw")) {
+                raf.seek(writeStart);
+                final byte[] buffer = new byte[1048576];
+                for (int i = 0; i < cNames.length; i++) {
+                    raf.write(keyBlocks[i], 0, keySizes[i]);
+                    try (InputStream ins = new BufferedInputStream(new FileInputStream(dumpFiles[i]))) {
+                        int count;
+                        while ((count = ins.read(buffer)) != -1) {
+                            raf.write(buffer, 0, count);
+                        }
+                    }
+                }
+                raf.getFD().sync();
+            }
+
+            // only now replace the old blocks in the header:
+            for (int b = 0; b < tailIndex; b++) {
+                if (isClassificationOrUnused(header.getBlockType(b))) // classification not at end of file, keep its space as unused block
+                    header.setBlockTypeRank(b, BlockType.rank(BlockType.empty));
+            }
+            for (int b = tailIndex; b <= lastIndex; b++) {
+                header.setBlockTypeRank(b, BlockType.rank(BlockType.empty));
+                header.setBlockSize(b, 0);
+            }
+            int index = tailIndex;
+            if (declareUnused) {
+                header.setBlockTypeRank(index, BlockType.rank(BlockType.empty));
+                header.setBlockSize(index++, end - tailStart);
+            }
+            for (int i = 0; i < cNames.length; i++) {
+                header.setBlockTypeRank(index, BlockType.rank(BlockType.megan_compact_classification_key_block));
+                header.setBlockSize(index++, keySizes[i]);
+                header.setBlockTypeRank(index, BlockType.rank(BlockType.megan_compact_classification_dump_block));
+                header.setBlockSize(index++, dumpFiles[i].length());
+            }
+            header.save();
+            DAAModifier.truncateToDeclaredBlocks(header); // remove old blocks that followed the new ones
+        } finally {
+            for (File file : dumpFiles) {
+                if (file != null && !file.delete())
+                    System.err.println("Failed to delete file: " + file);
+            }
+        }
+    }
+
+    /**
+     * is this a classification block or unused space?
+     */
+    private static boolean isClassificationOrUnused(BlockType type) {
+        return type == BlockType.empty || type == BlockType.megan_classification_key_block || type == BlockType.megan_classification_dump_block
+                || type == BlockType.megan_compact_classification_key_block || type == BlockType.megan_compact_classification_dump_block;
+    }
+
+    /**
+     * delete all temporary files
+     */
+    public void close() {
+        for (ClassificationRunStore store : stores) {
+            store.close();
+        }
+    }
+}
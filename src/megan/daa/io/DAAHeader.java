@@ -23,9 +23,11 @@ import jloda.util.Basic;
 import megan.classification.Classification;
 import megan.io.FileInputStreamAdapter;
 import megan.io.FileRandomAccessReadOnlyAdapter;
-import megan.io.FileRandomAccessReadWriteAdapter;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -54,13 +56,9 @@ public class DAAHeader {
     protected final byte[] blockTypeRank = new byte[256];
 
     // references:
-    private byte[][] references;
+    private ReferenceNamesDictionary referenceNames;
     protected int[] refLengths;
 
-    private final int referenceLocationChunkBits = 6; // 6 bits = 64 chunk size
-    private final int referenceLocationChunkSize = 1 << referenceLocationChunkBits;
-    private long[] referenceLocations; // location of every 2^referenceLocationChunkBits reference
-
     // ref annotations:
     protected int numberOfRefAnnotations;
     protected int[][] refAnnotations = new int[256][];
@@ -107,7 +105,8 @@ public class DAAHeader {
     public void load() throws IOException {
         if (magicNumber == 0) {
             //System.err.println("Loading DAA header...");
-            try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(fileName))) {
+            final File journalFile = getJournalFile(); // if present, a header update was interrupted and the journal holds the valid header
+            try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(journalFile.exists() ? journalFile.getPath() : fileName))) {
                 magicNumber = ins.readLong();
                 if (magicNumber != MAGIC_NUMBER)
                     throw new IOException("Input file is not a DAA file.");
@@ -183,30 +182,20 @@ public class DAAHeader {
     }
 
     /**
-     * load all references from file (if not already loaded)
+     * load the dictionary of reference names and all reference lengths (if not already loaded).
+     * Streaming through a file should load all names, random access should load names on demand
      *
+     * @param loadOnDemand load names on demand rather than all now
      * @throws IOException
      */
-    public void loadReferences(boolean loadOnDemand) throws IOException {
-        if (references == null) {
-            // System.err.println("Loading DAA references...");
-
+    public synchronized void loadReferences(boolean loadOnDemand) throws IOException {
+        if (referenceNames == null || (!loadOnDemand && !referenceNames.isLoadedCompletely())) {
+            referenceNames = new ReferenceNamesDictionary(fileName, getLocationOfBlockInFile(getRefNamesBlockIndex()), getBlockSize(getRefNamesBlockIndex()),
+                    (int) getDbSeqsUsed(), loadOnDemand, ReferenceNamesDictionary.DEFAULT_CACHE_SIZE);
+        }
+        if (refLengths == null) {
             try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(fileName))) {
-                ins.skip(getLocationOfBlockInFile(getRefNamesBlockIndex()));
-                initializeReferences((int) getDbSeqsUsed(), loadOnDemand);
-
-                if (loadOnDemand) { // load on demand
-                    for (int r = 0; r < getDbSeqsUsed(); r++) {
-                        if ((r & (referenceLocationChunkSize - 1)) == 0) {
-                            referenceLocations[r >>> referenceLocationChunkBits] = ins.getPosition();
-                        }
-                        ins.skipNullTerminatedBytes();
-                    }
-                } else { // load all now
-                    for (int r = 0; r < getDbSeqsUsed(); r++) {
-                        setReference(r, ins.readNullTerminatedBytes().getBytes());
-                    }
-                }
+                ins.skip(getLocationOfBlockInFile(getRefLengthsBlockIndex()));
                 initializeRefLengths((int) getDbSeqsUsed());
                 for (int i = 0; i < getDbSeqsUsed(); i++) {
                     setRefLength(i, ins.readInt());
@@ -215,40 +204,17 @@ public class DAAHeader {
         }
     }
 
-    private void initializeReferences(int numberOfReferences, boolean loadOnDemand) {
-        this.references = new byte[numberOfReferences][];
-        if (loadOnDemand)
-            this.referenceLocations = new long[1 + (numberOfReferences >>> referenceLocationChunkBits)];
-    }
-
     /**
      * get a reference header
      * @param i
-     * @param ins
+     * @param ins no longer used, names are read by the reference names dictionary
      * @return reference header
      * @throws IOException
      */
     public byte[] getReference(final int i, final InputReaderLittleEndian ins) throws IOException {
-        if (references[i] != null)
-            return references[i];
-        if (ins == null)
-            throw new IOException("getReference(i,ins==null)");
-        // we need to load:
-        int iChunk = (i >>> referenceLocationChunkBits);
-        final long savePosition = ins.getPosition();
-        ins.seek(referenceLocations[iChunk]);
-
-        int start = iChunk * referenceLocationChunkSize; // the smallest multiple of 64 that is <= i
-        // System.err.println("i "+i+" start "+start+" (i-start) "+(i-start));
-        int stop = Math.min((int) getDbSeqsUsed(), start + referenceLocationChunkSize);
-
-        for (int r = start; r < stop; r++) {
-            setReference(r, ins.readNullTerminatedBytes().getBytes());
-        }
-        ins.seek(savePosition); // restore current position
-
-        // System.err.println("got: "+((stop-start)+" more entries"));
-        return references[i];
+        if (referenceNames == null)
+            throw new IOException("getReference(): references not loaded");
+        return referenceNames.getReference(i);
     }
 
     /**
@@ -394,11 +360,7 @@ public class DAAHeader {
     }
 
     public int getNumberOfReferences() {
-        return references.length;
-    }
-
-    private void setReference(int i, byte[] reference) {
-        references[i] = reference;
+        return referenceNames.size();
     }
 
     public int getRefLength(int i) {
@@ -558,7 +520,8 @@ public class DAAHeader {
      * @throws IOException
      */
     public void save() throws IOException {
-        try (OutputWriterLittleEndian outs = new OutputWriterLittleEndian(new FileRandomAccessReadWriteAdapter(fileName, "rw"))) {
+        final ByteOutputStream bytes = new ByteOutputStream(3000);
+        try (OutputWriterLittleEndian outs = new OutputWriterLittleEndian(bytes)) {
             outs.writeLong(magicNumber);
             outs.writeLong(version);
 
@@ -596,6 +559,64 @@ public class DAAHeader {
                 outs.write(a);
             }
         }
+        writeHeaderAtomically(bytes.getBytes(), bytes.size());
+    }
+
+    /**
+     * overwrites the header at the start of the file. The new header is first written to a journal file that is synced to disk and
+     * then atomically renamed. Only then is the header overwritten and the journal removed. If the program is interrupted while
+     * overwriting the header, then the header is read from the journal when the file is next loaded and is restored from the
+     * journal when the file is next modified
+     *
+     * @param bytes
+     * @param size
+     * @throws IOException
+     */
+    private void writeHeaderAtomically(byte[] bytes, int size) throws IOException {
+        final File journalFile = getJournalFile();
+        final File tmpFile = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream outs = new FileOutputStream(tmpFile)) {
+            outs.write(bytes, 0, size);
+            outs.getFD().sync();
+        }
+        if (journalFile.exists() && !journalFile.delete() || !tmpFile.renameTo(journalFile))
+            throw new IOException("Failed to create header journal: " + journalFile);
+
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+            raf.seek(0);
+            raf.write(bytes, 0, size);
+            raf.getFD().sync();
+        }
+        if (!journalFile.delete())
+            throw new IOException("Failed to delete header journal: " + journalFile);
+    }
+
+    /**
+     * if a header journal is present, then a previous header update was interrupted and we complete it.
+     * Must be called before modifying the file, reading the file doesn't require this
+     *
+     * @throws IOException
+     */
+    public void recoverHeaderFromJournal() throws IOException {
+        final File journalFile = getJournalFile();
+        if (journalFile.exists()) {
+            System.err.println("Restoring DAA header from journal: " + journalFile);
+            final byte[] bytes = new byte[(int) journalFile.length()];
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "r")) {
+                raf.readFully(bytes);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+                raf.seek(0);
+                raf.write(bytes);
+                raf.getFD().sync();
+            }
+            if (!journalFile.delete())
+                throw new IOException("Failed to delete header journal: " + journalFile);
+        }
+    }
+
+    private File getJournalFile() {
+        return new File(fileName + ".header-journal");
     }
 
     static final double LN_2 = 0.69314718055994530941723212145818;
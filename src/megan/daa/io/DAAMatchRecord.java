@@ -54,14 +54,24 @@ public class DAAMatchRecord {
      * @return new position
      */
     public void parseBuffer(ByteInputBuffer buffer, InputReaderLittleEndian refIns) throws IOException {
+        parseBuffer(buffer, refIns != null);
+    }
+
+    /**
+     * parse from buffer
+     *
+     * @param buffer
+     * @param wantSubjectName get the name of the subject from the reference names, otherwise set it to "unknown"
+     */
+    public void parseBuffer(ByteInputBuffer buffer, boolean wantSubjectName) throws IOException {
         subjectId = buffer.readIntLittleEndian();
         int flag = buffer.read();
         score = buffer.readPacked(flag & 3);
         queryBegin = buffer.readPacked((flag >>> 2) & 3);
         subjectBegin = buffer.readPacked((flag >>> 4) & 3);
         transcript.read(buffer);
-        if (refIns != null)
-            subjectName = daaHeader.getReference(subjectId, refIns);
+        if (wantSubjectName)
+            subjectName = daaHeader.getReference(subjectId, null);
         else
             subjectName = "unknown".getBytes();
 
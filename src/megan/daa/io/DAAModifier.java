@@ -33,12 +33,13 @@ public class DAAModifier {
     public static void removeAllMEGANData(String fileName) throws IOException {
         final DAAHeader header = new DAAHeader(fileName);
         header.load();
+        header.recoverHeaderFromJournal();
 
         long newFileSize = -1l;
         for (int i = 0; i < header.getBlockTypeRankArrayLength(); i++) {
             BlockType type = header.getBlockType(i);
-            if (type != BlockType.empty) {
-                if (type.toString().startsWith("megan")) {
+            if (type != BlockType.empty || header.getBlockSize(i) > 0) { // an empty block of positive size is unused space left by MEGAN
+                if (type.toString().startsWith("megan") || type == BlockType.empty) {
                     if (newFileSize == -1l)
                         newFileSize = header.getLocationOfBlockInFile(i);
                     header.setBlockTypeRank(i, BlockType.rank(BlockType.empty));
@@ -62,12 +63,13 @@ public class DAAModifier {
      * remove all classification data added by MEGAN (leaves ref annotations)
      */
     public static void removeMEGANClassificationData(DAAHeader header) throws IOException {
+        header.recoverHeaderFromJournal();
         boolean hasMeganBlock = false;
         long meganStart = header.getHeaderSize();
         for (int i = 0; i < header.getBlockTypeRankArrayLength(); i++) {
             BlockType type = header.getBlockType(i);
-            if (type != BlockType.empty) {
-                if (type.toString().startsWith("megan") && !type.equals(BlockType.megan_ref_annotations)) {
+            if (type != BlockType.empty || header.getBlockSize(i) > 0) { // an empty block of positive size is unused space left by MEGAN
+                if (type == BlockType.empty || type.toString().startsWith("megan") && !type.equals(BlockType.megan_ref_annotations)) {
                     hasMeganBlock = true;
                     header.setBlockTypeRank(i, BlockType.rank(BlockType.empty));
                     header.setBlockSize(i, 0l);
@@ -94,6 +96,7 @@ public class DAAModifier {
      * @throws IOException
      */
     public static void replaceBlock(DAAHeader header, BlockType blockType, byte[] bytes, int size) throws IOException {
+        header.recoverHeaderFromJournal();
         int index = header.getIndexForBlockType(blockType);
 
         {
@@ -127,6 +130,7 @@ public class DAAModifier {
      * @throws IOException
      */
     public static void appendBlocks(DAAHeader header, BlockType[] types, byte[][] blocks, int[] sizes) throws IOException {
+        truncateToDeclaredBlocks(header);
         try (OutputStream outs = new BufferedOutputStream(new FileOutputStream(header.getFileName(), true))) { // append to file...
             for (int i = 0; i < blocks.length; i++) {
                 final byte[] bytes = blocks[i];
@@ -140,6 +144,22 @@ public class DAAModifier {
         header.save(); // overwrite header
     }
 
+    /**
+     * removes any bytes following the last block declared in the header. Such bytes are left behind if a previous
+     * append was interrupted before the header was updated
+     *
+     * @param header
+     * @throws IOException
+     */
+    public static void truncateToDeclaredBlocks(DAAHeader header) throws IOException {
+        header.recoverHeaderFromJournal();
+        final long end = header.getLocationOfBlockInFile(header.getLastDefinedBlockIndex() + 1);
+        try (RandomAccessFile raf = new RandomAccessFile(header.getFileName(), "rw")) {
+            if (raf.length() > end)
+                raf.setLength(end);
+        }
+    }
+
     /**
      * append new blocks
      *
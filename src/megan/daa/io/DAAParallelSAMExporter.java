@@ -0,0 +1,264 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.daa.io;
+
+import jloda.util.Pair;
+import megan.io.FileInputStreamAdapter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * exports all alignments of a DAA file in SAM format, using multiple threads.
+ * Query records are read in batches, each batch is converted to SAM by a worker thread and batches are emitted in input order,
+ * so the output is identical to that of the single-threaded export
+ * Daniel Huson, 10.2016
+ */
+public class DAAParallelSAMExporter {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final DAAParser daaParser;
+    private final int maxMatchesPerRead;
+    private final int numberOfThreads;
+    private final int batchSize;
+
+    /**
+     * constructor
+     *
+     * @param daaParser
+     * @param maxMatchesPerRead
+     * @param numberOfThreads   number of worker threads
+     */
+    public DAAParallelSAMExporter(DAAParser daaParser, int maxMatchesPerRead, int numberOfThreads) {
+        this(daaParser, maxMatchesPerRead, numberOfThreads, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * constructor
+     *
+     * @param daaParser
+     * @param maxMatchesPerRead
+     * @param numberOfThreads   number of worker threads
+     * @param batchSize         number of query records per batch
+     */
+    public DAAParallelSAMExporter(DAAParser daaParser, int maxMatchesPerRead, int numberOfThreads, int batchSize) {
+        this.daaParser = daaParser;
+        this.maxMatchesPerRead = maxMatchesPerRead;
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * export all alignments in a DAA file to a SAM file. The output is block-gzipped if the file name ends on .gz
+     *
+     * @param daaFile
+     * @param samFile
+     * @param maxMatchesPerRead
+     * @param numberOfThreads
+     * @throws IOException
+     */
+    public static void apply(String daaFile, String samFile, int maxMatchesPerRead, int numberOfThreads) throws IOException {
+        final DAAParser daaParser = new DAAParser(daaFile);
+        daaParser.getHeader().loadReferences(false);
+        final boolean blockGzip = samFile.toLowerCase().endsWith(".gz");
+
+        try (OutputStream outs = new BufferedOutputStream(new FileOutputStream(samFile), 1048576)) {
+            final byte[] header = SAMUtilities.getSAMHeader(daaParser.getHeader().getAlignMode(), "DAA2SAM").getBytes();
+            if (blockGzip) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(outs))) {
+                    gzip.write(header);
+                }
+            } else
+                outs.write(header);
+            (new DAAParallelSAMExporter(daaParser, maxMatchesPerRead, numberOfThreads)).apply(outs, blockGzip);
+        }
+    }
+
+    /**
+     * puts all query fastA and SAM text pairs into the output queue, followed by DAAParser.SENTINEL_SAM_ALIGNMENTS
+     *
+     * @param outputQueue
+     * @throws IOException
+     */
+    public void apply(final BlockingQueue<Pair<byte[], byte[]>> outputQueue) throws IOException {
+        run(new IBatchConsumer<List<Pair<byte[], byte[]>>>() {
+            public List<Pair<byte[], byte[]>> process(List<Pair<byte[], byte[]>> pairs) {
+                return pairs;
+            }
+
+            public void accept(List<Pair<byte[], byte[]>> pairs) throws IOException, InterruptedException {
+                for (Pair<byte[], byte[]> pair : pairs) {
+                    outputQueue.put(pair);
+                }
+            }
+        });
+        try {
+            outputQueue.put(DAAParser.SENTINEL_SAM_ALIGNMENTS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * writes all SAM lines to the given stream. If blockGzip is set, then each batch is compressed by its worker thread
+     * and written as a separate gzip member. The result is a multi-member gzip file that can be read by any gzip reader
+     *
+     * @param outs
+     * @param blockGzip
+     * @throws IOException
+     */
+    public void apply(final OutputStream outs, final boolean blockGzip) throws IOException {
+        run(new IBatchConsumer<byte[]>() {
+            public byte[] process(List<Pair<byte[], byte[]>> pairs) throws IOException {
+                int size = 0;
+                for (Pair<byte[], byte[]> pair : pairs) {
+                    size += pair.get2().length;
+                }
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockGzip ? size / 4 + 64 : size);
+                try (OutputStream w = (blockGzip ? new GZIPOutputStream(bytes, 65536) : bytes)) {
+                    for (Pair<byte[], byte[]> pair : pairs) {
+                        w.write(pair.get2());
+                    }
+                }
+                return bytes.toByteArray();
+            }
+
+            public void accept(byte[] bytes) throws IOException {
+                outs.write(bytes);
+            }
+        });
+        outs.flush();
+    }
+
+    /**
+     * run the pipeline: the calling thread reads batches and submits them to the workers, and emits processed batches in order
+     *
+     * @param consumer
+     * @throws IOException
+     */
+    private <T> void run(final IBatchConsumer<T> consumer) throws IOException {
+        final DAAHeader header = daaParser.getHeader();
+        final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+        final LinkedList<Future<T>> window = new LinkedList<>();
+        final int maxWindowSize = 2 * numberOfThreads;
+
+        try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(header.getFileName()))) {
+            ins.seek(header.getLocationOfBlockInFile(header.getAlignmentsBlockIndex()));
+
+            long a = 0;
+            while (a < header.getQueryRecords()) {
+                final int count = (int) Math.min(batchSize, header.getQueryRecords() - a);
+                final long[] locations = new long[count];
+                final ByteInputBuffer[] buffers = new ByteInputBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    locations[i] = ins.getPosition();
+                    buffers[i] = new ByteInputBuffer();
+                    ins.readSizePrefixedBytes(buffers[i]);
+                }
+                a += count;
+
+                window.add(service.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        return consumer.process(createSAM(locations, buffers));
+                    }
+                }));
+
+                if (window.size() >= maxWindowSize)
+                    consumer.accept(window.removeFirst().get());
+            }
+            while (window.size() > 0) {
+                consumer.accept(window.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            else
+                throw new IOException(e.getCause());
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * create SAM text for a batch of query records
+     *
+     * @param locations locations of query records in file
+     * @param buffers   raw query records
+     * @return query fastA and SAM text for each query that has matches
+     * @throws IOException
+     */
+    private List<Pair<byte[], byte[]>> createSAM(long[] locations, ByteInputBuffer[] buffers) throws IOException {
+        final List<Pair<byte[], byte[]>> result = new ArrayList<>(buffers.length);
+        final ByteOutputBuffer outputBuffer = new ByteOutputBuffer(100000);
+
+        for (int i = 0; i < buffers.length; i++) {
+            final ByteInputBuffer inputBuffer = buffers[i];
+            final DAAQueryRecord queryRecord = new DAAQueryRecord(daaParser);
+            final DAAMatchRecord matchRecord = new DAAMatchRecord(queryRecord);
+            queryRecord.setLocation(locations[i]);
+            queryRecord.parseBuffer(inputBuffer);
+            int numberOfMatches = 0;
+            while (inputBuffer.getPosition() < inputBuffer.size()) {
+                if (++numberOfMatches > maxMatchesPerRead)
+                    break;
+                matchRecord.parseBuffer(inputBuffer, true); // names are taken from the thread-safe reference names dictionary
+                SAMUtilities.createSAM(daaParser, matchRecord, outputBuffer, daaParser.getAlignmentAlphabet());
+            }
+            if (outputBuffer.size() > 0) {
+                result.add(new Pair<>(queryRecord.getQueryFastA(daaParser.getSourceAlphabet()), outputBuffer.copyBytes()));
+                outputBuffer.rewind();
+            }
+            buffers[i] = null;
+        }
+        return result;
+    }
+
+    /**
+     * output stream that doesn't close the underlying stream, used to write a complete gzip member
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream outs) {
+            super(outs);
+        }
+
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * processes a batch of SAM text in a worker thread and then accepts the result in the ordered writer thread
+     */
+    private interface IBatchConsumer<T> {
+        T process(List<Pair<byte[], byte[]>> pairs) throws IOException;
+
+        void accept(T item) throws IOException, InterruptedException;
+    }
+}
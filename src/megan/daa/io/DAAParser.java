@@ -124,6 +124,20 @@ public class DAAParser {
         }
     }
 
+    /**
+     * get all alignments in SAM format, using the given number of threads to generate SAM text
+     * @param maxMatchesPerRead
+     * @param outputQueue
+     * @param numberOfThreads
+     * @throws IOException
+     */
+    void getAllAlignmentsSAMFormat(int maxMatchesPerRead, BlockingQueue<Pair<byte[], byte[]>> outputQueue, int numberOfThreads) throws IOException {
+        if (numberOfThreads <= 1)
+            getAllAlignmentsSAMFormat(maxMatchesPerRead, outputQueue);
+        else
+            (new DAAParallelSAMExporter(this, maxMatchesPerRead, numberOfThreads)).apply(outputQueue);
+    }
+
     /**
      * get all alignments in SAM format
      * @param maxMatchesPerRead
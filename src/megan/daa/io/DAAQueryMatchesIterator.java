@@ -50,7 +50,7 @@ public class DAAQueryMatchesIterator implements ICloseableIterator<Pair<DAAQuery
      */
     public DAAQueryMatchesIterator(String daaFile, final int maxMatchesPerRead) throws IOException {
         this.daaParser = new DAAParser(daaFile);
-        daaParser.getHeader().loadReferences(true);
+        daaParser.getHeader().loadReferences(false);
 
         queue = new ArrayBlockingQueue<>(1000);
 
@@ -101,6 +101,25 @@ public class InputReaderLittleEndian implements Closeable, IInputReader {
                 | (((long) bytes[7] & 0xFF) << 56);
     }
 
+    /**
+     * read a non-negative long that was written using a variable number of bytes, 7 bits per byte, low bits first
+     *
+     * @return long
+     * @throws IOException
+     */
+    public long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = ins.read();
+            if (b == -1)
+                throw new IOException("buffer underflow");
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IOException("readVarLong(): malformed value");
+    }
+
     /**
      * read float, little endian
      *
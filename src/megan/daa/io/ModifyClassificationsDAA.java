@@ -22,6 +22,7 @@ package megan.daa.io;
 import jloda.util.ListOfLongs;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -31,7 +32,7 @@ import java.util.Map;
 public class ModifyClassificationsDAA {
 
     /**
-     * update the classifications
+     * update the classifications, using the compact encoding
      *
      * @param fNames
      * @param fName2ClassId2Location
@@ -39,6 +40,24 @@ public class ModifyClassificationsDAA {
      * @throws IOException
      */
     public static void saveClassifications(DAAHeader header, String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Integer>[] fName2ClassId2Weight) throws IOException {
+        saveClassifications(header, cNames, fName2ClassId2Location, fName2ClassId2Weight, true);
+    }
+
+    /**
+     * update the classifications
+     * <p/>
+     * The key block contains the classification name, the number of classes and then, for each class, the class id, weight, number of reads and
+     * offset of the reads in the dump block.
+     * In the compact encoding, classes are sorted by id and the reads of each class are sorted by location and stored as variable-length deltas.
+     * Otherwise, classes are written in arbitrary order and each location is written as a long
+     *
+     * @param fNames
+     * @param fName2ClassId2Location
+     * @param fName2ClassId2Weight
+     * @param compact                use compact encoding
+     * @throws IOException
+     */
+    public static void saveClassifications(DAAHeader header, String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Integer>[] fName2ClassId2Weight, boolean compact) throws IOException {
 
         DAAModifier.removeMEGANClassificationData(header);
 
@@ -58,19 +77,48 @@ public class ModifyClassificationsDAA {
 
             wDump.writeNullTerminatedString(cName.getBytes());
 
-            for (int classId : id2locations.keySet()) {
-                wKey.writeInt(classId);
-                wKey.writeInt(fName2ClassId2Weight[f].get(classId));
-                final ListOfLongs list = id2locations.get(classId);
-                wKey.writeInt(list.size());
-                wKey.writeLong(wDump.getPosition()); // offset
-                for (int i = 0; i < list.size(); i++) {
-                    wDump.writeLong(list.get(i));
+            if (compact) {
+                final Integer[] classIds = id2locations.keySet().toArray(new Integer[id2locations.size()]);
+                Arrays.sort(classIds);
+
+                for (int classId : classIds) {
+                    wKey.writeInt(classId);
+                    wKey.writeInt(fName2ClassId2Weight[f].get(classId));
+                    final ListOfLongs list = id2locations.get(classId);
+                    wKey.writeInt(list.size());
+                    wKey.writeLong(wDump.getPosition()); // offset
+
+                    final long[] locations = new long[list.size()];
+                    for (int i = 0; i < list.size(); i++) {
+                        locations[i] = list.get(i);
+                    }
+                    Arrays.sort(locations);
+                    long previous = 0;
+                    for (long location : locations) {
+                        wDump.writeVarLong(location - previous);
+                        previous = location;
+                    }
+                }
+            } else {
+                for (int classId : id2locations.keySet()) {
+                    wKey.writeInt(classId);
+                    wKey.writeInt(fName2ClassId2Weight[f].get(classId));
+                    final ListOfLongs list = id2locations.get(classId);
+                    wKey.writeInt(list.size());
+                    wKey.writeLong(wDump.getPosition()); // offset
+                    for (int i = 0; i < list.size(); i++) {
+                        wDump.writeLong(list.get(i));
+                    }
                 }
             }
 
-            DAAModifier.appendBlocks(header,
-                    new BlockType[]{BlockType.megan_classification_key_block, BlockType.megan_classification_dump_block},
+            final BlockType[] blockTypes;
+            if (compact)
+                blockTypes = new BlockType[]{BlockType.megan_compact_classification_key_block, BlockType.megan_compact_classification_dump_block};
+            else
+                blockTypes = new BlockType[]{BlockType.megan_classification_key_block, BlockType.megan_classification_dump_block};
+
+            DAAModifier.appendBlocks(header, blockTypes,
                     new byte[][]{outKey.getBytes(), outDump.getBytes()},
                     new int[]{outKey.size(), outDump.size()});
         }
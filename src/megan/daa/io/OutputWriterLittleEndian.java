@@ -111,6 +111,19 @@ public class OutputWriterLittleEndian implements Closeable {
         outs.write((byte) (a >> 56));
     }
 
+    /**
+     * write a non-negative long using a variable number of bytes, 7 bits per byte, low bits first
+     *
+     * @throws IOException
+     */
+    public void writeVarLong(long a) throws IOException {
+        while ((a & ~0x7FL) != 0) {
+            outs.write((byte) ((a & 0x7F) | 0x80));
+            a >>>= 7;
+        }
+        outs.write((byte) a);
+    }
+
     /**
      * write float, little endian
      *
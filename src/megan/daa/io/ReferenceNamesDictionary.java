@@ -0,0 +1,173 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.daa.io;
+
+import megan.io.FileInputStreamAdapter;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Dictionary of the reference names in a DAA file.
+ * Either all names are loaded (for streaming through a file), or only the location of every 64-th name is kept
+ * on the heap and names are loaded on demand, one chunk of 64 at a time, keeping recently loaded chunks in a cache.
+ * No file handle or mapping is kept open, so the file can be modified while the dictionary is in use.
+ * Safe to use from multiple threads, looking up a loaded name doesn't lock
+ * Daniel Huson, 10.2016
+ */
+public class ReferenceNamesDictionary {
+    private static final int CHUNK_BITS = 6; // 6 bits = 64 chunk size
+    private static final int CHUNK_SIZE = (1 << CHUNK_BITS);
+
+    public static final int DEFAULT_CACHE_SIZE = 1024; // number of chunks to keep in cache
+
+    private final String fileName;
+    private final long blockEnd;
+    private final int numberOfReferences;
+
+    private final byte[][] names; // all names, if loaded completely
+
+    private final long[] chunkLocations; // location of every CHUNK_SIZE-th reference in file
+    private final AtomicReferenceArray<byte[][]> chunks; // loaded chunks
+    private final int[] cachedChunks; // ids of loaded chunks, oldest is replaced first
+    private int nextCacheSlot = 0;
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param blockStart         start of ref_names block in file
+     * @param blockSize          size of block
+     * @param numberOfReferences number of references in block
+     * @param loadOnDemand       if false, load all names now, otherwise only build the offset table
+     * @param cacheSize          number of chunks of 64 names to keep in cache, when loading on demand
+     * @throws IOException
+     */
+    public ReferenceNamesDictionary(String fileName, long blockStart, long blockSize, int numberOfReferences, boolean loadOnDemand, int cacheSize) throws IOException {
+        this.fileName = fileName;
+        this.blockEnd = blockStart + blockSize;
+        this.numberOfReferences = numberOfReferences;
+
+        try (InputReaderLittleEndian ins = new InputReaderLittleEndian(new FileInputStreamAdapter(fileName))) {
+            ins.skip(blockStart);
+            if (loadOnDemand) {
+                names = null;
+                chunkLocations = new long[1 + (numberOfReferences >>> CHUNK_BITS)];
+                for (int r = 0; r < numberOfReferences; r++) {
+                    if ((r & (CHUNK_SIZE - 1)) == 0)
+                        chunkLocations[r >>> CHUNK_BITS] = ins.getPosition();
+                    ins.skipNullTerminatedBytes();
+                }
+                chunks = new AtomicReferenceArray<>(chunkLocations.length);
+                cachedChunks = new int[Math.max(1, cacheSize)];
+                Arrays.fill(cachedChunks, -1);
+            } else {
+                names = new byte[numberOfReferences][];
+                for (int r = 0; r < numberOfReferences; r++) {
+                    names[r] = ins.readNullTerminatedBytes().getBytes();
+                }
+                chunkLocations = null;
+                chunks = null;
+                cachedChunks = null;
+            }
+        }
+    }
+
+    /**
+     * get the name of the i-th reference
+     *
+     * @param i
+     * @return bytes of name (without terminating null)
+     * @throws IOException
+     */
+    public byte[] getReference(int i) throws IOException {
+        if (i < 0 || i >= numberOfReferences)
+            throw new IOException("getReference(): index out of range: " + i);
+        if (names != null)
+            return names[i];
+
+        final int c = (i >>> CHUNK_BITS);
+        byte[][] chunk = chunks.get(c);
+        if (chunk == null)
+            chunk = loadChunk(c);
+        return chunk[i & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * are all names loaded?
+     *
+     * @return true, if all names loaded
+     */
+    public boolean isLoadedCompletely() {
+        return names != null;
+    }
+
+    /**
+     * number of references
+     *
+     * @return number
+     */
+    public int size() {
+        return numberOfReferences;
+    }
+
+    /**
+     * loads a chunk of names and puts it into the cache, replacing the oldest chunk, if cache is full
+     *
+     * @param c chunk id
+     * @return names in chunk
+     * @throws IOException
+     */
+    private byte[][] loadChunk(int c) throws IOException {
+        final long start = chunkLocations[c];
+        final long end = (c + 1 < chunkLocations.length && ((c + 1) << CHUNK_BITS) < numberOfReferences ? chunkLocations[c + 1] : blockEnd);
+        final byte[] bytes = new byte[(int) (end - start)];
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "r")) {
+            raf.seek(start);
+            raf.readFully(bytes);
+        }
+
+        final byte[][] chunk = new byte[Math.min(CHUNK_SIZE, numberOfReferences - (c << CHUNK_BITS))][];
+        int pos = 0;
+        for (int r = 0; r < chunk.length; r++) {
+            int next = pos;
+            while (next < bytes.length && bytes[next] != 0)
+                next++;
+            if (next == bytes.length)
+                throw new IOException("ref_names block: unexpected end of block");
+            chunk[r] = Arrays.copyOfRange(bytes, pos, next);
+            pos = next + 1;
+        }
+
+        synchronized (cachedChunks) {
+            final byte[][] other = chunks.get(c);
+            if (other != null) // loaded by other thread in the meantime
+                return other;
+            if (cachedChunks[nextCacheSlot] != -1)
+                chunks.set(cachedChunks[nextCacheSlot], null);
+            cachedChunks[nextCacheSlot] = c;
+            nextCacheSlot = (nextCacheSlot + 1) % cachedChunks.length;
+            chunks.set(c, chunk);
+        }
+        return chunk;
+    }
+}
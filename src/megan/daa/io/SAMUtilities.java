@@ -34,6 +34,25 @@ public class SAMUtilities {
     private static final int map[] = {0, 1, 2, 0};
     private static final char letter[] = {'M', 'I', 'D'};
 
+    /**
+     * get the SAM file header
+     *
+     * @param alignMode
+     * @param commandLine
+     * @return header
+     */
+    public static String getSAMHeader(AlignMode alignMode, String commandLine) {
+        switch (alignMode) {
+            case blastp:
+                return String.format(FILE_HEADER_BLASTP_TEMPLATE, commandLine);
+            case blastx:
+                return String.format(FILE_HEADER_BLASTX_TEMPLATE, commandLine);
+            default:
+            case blastn:
+                return String.format(FILE_HEADER_BLASTN_TEMPLATE, commandLine);
+        }
+    }
+
     /**
      * create a sam line
      *
@@ -84,4 +84,9 @@ public class AllReadsIterator implements IReadBlockIterator {
     public void remove() {
 
     }
+
+    @Override
+    public void release(IReadBlock readBlock) {
+        readBlockGetter.release(readBlock);
+    }
 }
@@ -53,7 +53,7 @@ public class ExtractToNewDocument {
 
         try { // user might cancel inside this block
             // determine the set of all positions to extract:
-            try (IReadBlockIterator iterator = connector.getReadsIteratorForListOfClassIds(srcClassification, srcClassIds, 0, 10, true, true)) {
+            try (IReadBlockIterator iterator = connector.getReadsIteratorForListOfClassIds(srcClassification, srcClassIds, 0, 10, true, true, true)) {
                 progress.setTasks("Extract to new Document", "Processing file: " + srcDoc.getMeganFile().getFileName());
                 progress.setProgress(0);
                 progress.setMaximum(iterator.getMaximumProgress());
@@ -98,6 +98,11 @@ public class FindAllReadsIterator implements IReadBlockIterator {
 
     }
 
+    @Override
+    public void release(IReadBlock readBlock) {
+        allReadsIterator.release(readBlock);
+    }
+
     /**
      * fetches the next read that matches the search pattern
      *
@@ -108,6 +113,7 @@ public class FindAllReadsIterator implements IReadBlockIterator {
             IReadBlock readBlock = allReadsIterator.next();
             if (FindSelection.doesMatch(findSelector, readBlock, pattern))
                 return readBlock;
+            allReadsIterator.release(readBlock);
         }
         return null;
     }
@@ -69,6 +69,19 @@ public interface IConnector {
      */
     IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException;
 
+    /**
+     * get up to numberOfIterators independent iterators over disjoint ranges of the reads, which together visit all reads.
+     * The iterators can be used in parallel. Formats that can't be split return a single iterator
+     * @param numberOfIterators max number of iterators
+     * @param minScore ignore
+     * @param maxExpected ignore
+     * @param wantReadSequence
+     * @param wantMatches
+     * @return iterators
+     * @throws IOException
+     */
+    IReadBlockIterator[] getAllReadsIterators(int numberOfIterators, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException;
+
     /**
      * get getLetterCodeIterator over all reads for given classification and classId. If minScore=0 and topPercent=0, no filtering
      * @param classification
@@ -94,6 +107,20 @@ public interface IConnector {
     IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore,
                                                          float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException;
 
+    /**
+     * get getLetterCodeIterator over all reads for given classification and a collection of classids. If minScore=0 and topPercent=0, no filtering
+     *
+     * @param classification
+     * @param classIds
+     * @param minScore
+     * @param inFileOrder    if true, each read is visited once, in order of location in file, rather than in order of classes.
+     *                       Much faster for large selections, use when classification order is not needed
+     * @return getLetterCodeIterator over reads filtered by given parameters
+     * @throws IOException
+     */
+    IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore,
+                                                         float maxExpected, boolean wantReadSequence, boolean wantMatches, boolean inFileOrder) throws IOException;
+
     /**
      * gets a read block accessor
      * @param minScore ignored
@@ -149,6 +176,15 @@ public interface IConnector {
      */
     void updateClassifications(final String[] classificationNames, final List<UpdateItem> updateItems, ProgressListener progressListener) throws IOException, CanceledException;
 
+    /**
+     * creates a collector for the class assignments computed by the data processor. The collector saves the assignments
+     * to this dataset. Connectors that use updateClassifications return an UpdateItemList
+     *
+     * @param classificationNames names of classifications in the order that their values will appear in
+     * @return collector
+     */
+    IUpdateItemCollector createUpdateItemCollector(String[] classificationNames);
+
     /**
      * get all reads that match the given expression
      *
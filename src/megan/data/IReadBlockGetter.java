@@ -35,6 +35,14 @@ public interface IReadBlockGetter extends Closeable {
      */
     IReadBlock getReadBlock(long uid) throws IOException;
 
+    /**
+     * releases a read block obtained from getReadBlock(), once the caller is done with it. Same contract as
+     * IReadBlockIterator.release()
+     *
+     * @param readBlock
+     */
+    void release(IReadBlock readBlock);
+
     /**
      * closes the accessor
      *
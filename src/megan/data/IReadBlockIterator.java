@@ -33,4 +33,14 @@ public interface IReadBlockIterator extends ICloseableIterator<IReadBlock>, Clos
      * @return stats string
      */
     String getStats();
+
+    /**
+     * releases a read block obtained from next(), once the consumer is done with it. The iterator may then recycle
+     * the read block and its match blocks, so neither may be accessed after this call. A read block must be released
+     * at most once and only to the iterator that returned it, but may be released from any thread, also after close().
+     * Read blocks that are not released are left to the garbage collector
+     *
+     * @param readBlock
+     */
+    void release(IReadBlock readBlock);
 }
@@ -0,0 +1,71 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.data;
+
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * collects the class assignments of all reads computed by the data processor, so that the min-support filter
+ * can be applied to them before they are saved
+ * Daniel Huson, 10.2016
+ */
+public interface IUpdateItemCollector {
+    /**
+     * records the class assignments of a read
+     *
+     * @param readUid
+     * @param readWeight
+     * @param classIds   one id per classification, 0 for none
+     * @throws IOException
+     */
+    void addAssignment(long readUid, int readWeight, Integer[] classIds) throws IOException;
+
+    /**
+     * gets the mapping of class ids to weighted sizes for a given classification
+     *
+     * @param classificationId
+     * @return class-id to size map
+     */
+    Map<Integer, Integer> getClassIdToSizeMap(int classificationId);
+
+    /**
+     * moves all reads of the source class to the target class
+     *
+     * @param classificationId
+     * @param srcClassId
+     * @param tarClassId
+     * @throws IOException
+     */
+    void appendClass(int classificationId, int srcClassId, int tarClassId) throws IOException;
+
+    /**
+     * saves the classifications using the given connector
+     *
+     * @param connector
+     * @param cNames
+     * @param progressListener
+     * @throws IOException
+     * @throws CanceledException
+     */
+    void save(IConnector connector, String[] cNames, ProgressListener progressListener) throws IOException, CanceledException;
+}
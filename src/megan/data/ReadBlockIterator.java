@@ -22,6 +22,7 @@ import jloda.util.Basic;
 import jloda.util.ListOfLongs;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * iterator over reads in named classes
@@ -42,10 +43,41 @@ public class ReadBlockIterator implements IReadBlockIterator {
      * @param readBlockGetter
      */
     public ReadBlockIterator(ListOfLongs list, IReadBlockGetter readBlockGetter) throws IOException {
-        this.list = list;
+        this(list, readBlockGetter, false);
+    }
+
+    /**
+     * constructor
+     *
+     * @param list
+     * @param readBlockGetter
+     * @param inFileOrder     if true, locations are sorted and duplicates removed, so that reads are visited in file order.
+     *                        Use this when classification order is not needed, as it turns random I/O into sequential I/O
+     */
+    public ReadBlockIterator(ListOfLongs list, IReadBlockGetter readBlockGetter, boolean inFileOrder) throws IOException {
+        this.list = (inFileOrder ? sortAndRemoveDuplicates(list) : list);
         this.readBlockGetter = readBlockGetter;
     }
 
+    /**
+     * sorts the locations and removes duplicates
+     *
+     * @param list
+     * @return sorted list of distinct locations
+     */
+    public static ListOfLongs sortAndRemoveDuplicates(ListOfLongs list) {
+        final long[] locations = new long[list.size()];
+        for (int i = 0; i < locations.length; i++)
+            locations[i] = list.get(i);
+        Arrays.sort(locations);
+        final ListOfLongs result = new ListOfLongs();
+        for (int i = 0; i < locations.length; i++) {
+            if (i == 0 || locations[i] != locations[i - 1])
+                result.add(locations[i]);
+        }
+        return result;
+    }
+
     @Override
     public String getStats() {
         return "Reads: " + countReads;
@@ -85,4 +117,9 @@ public class ReadBlockIterator implements IReadBlockIterator {
     @Override
     public void remove() {
     }
+
+    @Override
+    public void release(IReadBlock readBlock) {
+        readBlockGetter.release(readBlock);
+    }
 }
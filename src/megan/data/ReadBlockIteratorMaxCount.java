@@ -65,4 +65,9 @@ public class ReadBlockIteratorMaxCount implements IReadBlockIterator {
         count++;
         return it.next();
     }
+
+    @Override
+    public void release(IReadBlock readBlock) {
+        it.release(readBlock);
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.data;
+
+import java.util.ArrayDeque;
+
+/**
+ * a bounded, thread-safe pool of read blocks that have been released by a consumer and can be recycled by the
+ * getter or iterator that created them, see IReadBlockIterator.release()
+ * Daniel Huson, 10.2016
+ */
+public class ReadBlockPool<T extends IReadBlock> {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final ArrayDeque<T> readBlocks = new ArrayDeque<>();
+    private final int capacity;
+
+    /**
+     * constructor
+     */
+    public ReadBlockPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * constructor
+     *
+     * @param capacity max number of read blocks kept for recycling
+     */
+    public ReadBlockPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * takes a released read block from the pool
+     *
+     * @return read block or null, if the pool is empty
+     */
+    public synchronized T take() {
+        return readBlocks.pollLast();
+    }
+
+    /**
+     * puts a released read block into the pool. If the pool is full, the read block is dropped
+     *
+     * @param readBlock
+     */
+    public synchronized void release(T readBlock) {
+        if (readBlocks.size() < capacity)
+            readBlocks.addLast(readBlock);
+    }
+
+    /**
+     * get the number of read blocks available for recycling
+     *
+     * @return size
+     */
+    public synchronized int size() {
+        return readBlocks.size();
+    }
+}
@@ -18,6 +18,9 @@
  */
 package megan.data;
 
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+
 import java.io.IOException;
 import java.util.*;
 
@@ -25,7 +28,7 @@ import java.util.*;
  * list of necessary updates to RMA file
  * Daniel Huson, 1.2009
  */
-public class UpdateItemList extends LinkedList<UpdateItem> {
+public class UpdateItemList extends LinkedList<UpdateItem> implements IUpdateItemCollector {
     private final Map<Long, UpdateItem> readUid2UpdateItem;
     private final int numberOfClassifications;
     private final Map<Integer, UpdateItem>[] first;
@@ -102,6 +105,16 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
         return item;
     }
 
+    @Override
+    public void addAssignment(long readUid, int readWeight, Integer[] classIds) throws IOException {
+        addItem(readUid, readWeight, classIds);
+    }
+
+    @Override
+    public void save(IConnector connector, String[] cNames, ProgressListener progressListener) throws IOException, CanceledException {
+        connector.updateClassifications(cNames, this, progressListener);
+    }
+
     /**
      * get the weighted size of a class for a given classification
      *
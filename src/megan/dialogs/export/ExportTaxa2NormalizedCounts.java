@@ -87,7 +87,7 @@ public class ExportTaxa2NormalizedCounts {
                         allBelow = new HashSet<>();
                         allBelow.add(taxonId);
                     }
-                    IReadBlockIterator it = connector.getReadsIteratorForListOfClassIds(ClassificationType.Taxonomy.toString(), allBelow, doc.getMinScore(), doc.getMaxExpected(), false, true);
+                    IReadBlockIterator it = connector.getReadsIteratorForListOfClassIds(ClassificationType.Taxonomy.toString(), allBelow, doc.getMinScore(), doc.getMaxExpected(), false, true, true);
                     while (it.hasNext()) {
                         IReadBlock readBlock = it.next();
 
@@ -21,6 +21,8 @@ package megan.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 
 /**
@@ -120,6 +122,68 @@ public class ByteFileGetterMappedMemory extends BaseFileGetterPutter implements
             return 0;
     }
 
+    /**
+     * closes the underlying file channel, but keeps the mapping, which remains valid until garbage collected
+     *
+     * @throws IOException
+     */
+    public void releaseFileHandle() throws IOException {
+        fileChannel.close();
+    }
+
+    /**
+     * releases the mapping immediately, rather than when garbage collected, so that the file can be modified or deleted.
+     * The getter must not be used afterwards. If the JVM doesn't support this, the mapping is released by the garbage collector
+     */
+    public void unmap() {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] != null) {
+                unmap(buffers[i]);
+                buffers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * unmaps a mapped buffer, using the cleaner of the buffer (Java 8) or Unsafe.invokeCleaner() (Java 9 and later)
+     *
+     * @param buffer
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            return;
+        } catch (Exception ignored) {
+        }
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * gets long represented by eight bytes starting at given index
+     *
+     * @return long
+     */
+    public long getLong(long index) {
+        if (index < limit()) {
+            final int whichBuffer = getWhichBuffer(index);
+            final int indexBuffer = getIndexInBuffer(index);
+            if (indexBuffer + 8 <= buffers[whichBuffer].limit())
+                return buffers[whichBuffer].getLong(indexBuffer);
+            else // long goes over buffer boundary
+                return (((long) getInt(index)) << 32) | (getInt(index + 4) & 0xFFFFFFFFL);
+        } else
+            return 0;
+    }
 
     /**
      * length of array
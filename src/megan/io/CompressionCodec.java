@@ -0,0 +1,211 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * describes the codec used to compress strings in an RMA file: deflate with a given level, a fast LZ codec,
+ * or deflate with a preset dictionary (useful for SAM lines, which share many tokens)
+ * Daniel Huson, 10.2016
+ */
+public class CompressionCodec {
+    public enum Type {Deflate, FastLZ, DeflateWithDictionary}
+
+    public static final int MAX_DICTIONARY_SIZE = 32768;
+
+    /**
+     * the codec used by all files written before codecs were made configurable
+     */
+    public static final CompressionCodec DEFAULT = new CompressionCodec(Type.Deflate, Deflater.BEST_COMPRESSION, null);
+
+    private final Type type;
+    private final int level;
+    private final byte[] dictionary;
+
+    /**
+     * constructor
+     *
+     * @param type
+     * @param level      deflate level 0-9, ignored by FastLZ
+     * @param dictionary preset dictionary, only used by DeflateWithDictionary
+     */
+    public CompressionCodec(Type type, int level, byte[] dictionary) {
+        this.type = type;
+        this.level = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+        if (type == Type.DeflateWithDictionary) {
+            if (dictionary == null || dictionary.length == 0)
+                dictionary = getDefaultSAMDictionary();
+            if (dictionary.length > MAX_DICTIONARY_SIZE)
+                dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+            this.dictionary = dictionary;
+        } else
+            this.dictionary = null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * is this the codec used by files written before codecs were made configurable?
+     *
+     * @return true, if deflate with best compression
+     */
+    public boolean isDefault() {
+        return type == Type.Deflate && level == Deflater.BEST_COMPRESSION;
+    }
+
+    /**
+     * get the preset dictionary
+     *
+     * @return dictionary or null
+     */
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * parse a codec specification of the form deflate[:level], fastlz or dictionary[:level]
+     *
+     * @param spec
+     * @return codec
+     * @throws IOException if spec is not recognized
+     */
+    public static CompressionCodec valueOf(String spec) throws IOException {
+        if (spec == null || spec.trim().length() == 0)
+            return DEFAULT;
+        final String[] tokens = spec.trim().toLowerCase().split(":");
+        int level = Deflater.BEST_COMPRESSION;
+        if (tokens.length > 1) {
+            try {
+                level = Integer.parseInt(tokens[1]);
+            } catch (NumberFormatException ex) {
+                throw new IOException("Illegal compression level: " + tokens[1]);
+            }
+        }
+        switch (tokens[0]) {
+            case "deflate":
+                return new CompressionCodec(Type.Deflate, level, null);
+            case "fastlz":
+            case "lz":
+                return new CompressionCodec(Type.FastLZ, 0, null);
+            case "dictionary":
+            case "deflate-dictionary":
+                return new CompressionCodec(Type.DeflateWithDictionary, level, null);
+            default:
+                throw new IOException("Unknown compression codec: " + spec);
+        }
+    }
+
+    /**
+     * get codec with same type and level, but with the given dictionary
+     *
+     * @param dictionary
+     * @return codec
+     */
+    public CompressionCodec withDictionary(byte[] dictionary) {
+        return new CompressionCodec(type, level, dictionary);
+    }
+
+    /**
+     * trains a dictionary from sample texts. Tokens (separated by tabs, spaces and new-lines) are counted and
+     * the most frequent ones, weighted by length, are concatenated, with the most valuable ones placed at the end,
+     * as deflate reaches the end of the dictionary with the shortest distances
+     *
+     * @param samples
+     * @param maxSize
+     * @return dictionary
+     */
+    public static byte[] trainDictionary(Collection<byte[]> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        final Map<String, Integer> token2count = new HashMap<>();
+        for (byte[] sample : samples) {
+            int start = 0;
+            for (int i = 0; i <= sample.length; i++) {
+                if (i == sample.length || sample[i] == '\t' || sample[i] == '\n' || sample[i] == ' ') {
+                    if (i - start >= 3) {
+                        final String token = new String(sample, start, i - start + (i < sample.length ? 1 : 0));
+                        final Integer count = token2count.get(token);
+                        token2count.put(token, count == null ? 1 : count + 1);
+                    }
+                    start = i + 1;
+                }
+            }
+        }
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(token2count.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return Long.compare((long) b.getValue() * b.getKey().length(), (long) a.getValue() * a.getKey().length());
+            }
+        });
+
+        final List<String> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : entries) {
+            if (entry.getValue() < 2)
+                break;
+            if (size + entry.getKey().length() > maxSize)
+                continue;
+            selected.add(entry.getKey());
+            size += entry.getKey().length();
+        }
+        final StringBuilder buf = new StringBuilder(size);
+        for (int i = selected.size() - 1; i >= 0; i--) { // most valuable last
+            buf.append(selected.get(i));
+        }
+        return buf.length() > 0 ? buf.toString().getBytes() : getDefaultSAMDictionary();
+    }
+
+    /**
+     * built-in dictionary of tokens common to the SAM lines stored in RMA files
+     *
+     * @return dictionary
+     */
+    public static byte[] getDefaultSAMDictionary() {
+        return ("\t*\t0\t0\t*\t*\tAS:i:\tNM:i:\tZL:i:\tZR:i:\tZE:f:\tZI:i:\tZF:i:\tZS:i:\tMD:Z:\t255\t0\t0\t*\t"
+                + "ref|NP_ ref|WP_ ref|XP_ ref|YP_ gi|\t0\t255\t").getBytes();
+    }
+
+    /**
+     * name used in RMA file headers
+     *
+     * @return name
+     */
+    public String getName() {
+        return type.toString();
+    }
+
+    public String toString() {
+        switch (type) {
+            case FastLZ:
+                return "fastlz";
+            case DeflateWithDictionary:
+                return "dictionary:" + level;
+            default:
+                return "deflate:" + level;
+        }
+    }
+}
@@ -35,8 +35,10 @@ import java.util.zip.Inflater;
  * Daniel Huson, 8.2008
  */
 public class Compressor {
-    protected final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    protected final Deflater deflater;
     protected final Inflater inflater = new Inflater(true);
+    private final CompressionCodec codec;
+    private final FastLZ fastLZ;
     private byte[] buffer;
     public static final int MIN_SIZE_FOR_DEFLATION = 90;
     private boolean enabled = true;
@@ -54,7 +56,33 @@ public class Compressor {
      * @param maxStringLength - size of buffer
      */
     public Compressor(int maxStringLength) {
+        this(maxStringLength, CompressionCodec.DEFAULT);
+    }
+
+    /**
+     * constructor
+     *
+     * @param maxStringLength - size of buffer
+     * @param codec           - codec to use for compression and decompression
+     */
+    public Compressor(int maxStringLength, CompressionCodec codec) {
         buffer = new byte[maxStringLength];
+        this.codec = codec;
+        this.deflater = new Deflater(codec.getLevel(), true);
+        this.fastLZ = (codec.getType() == CompressionCodec.Type.FastLZ ? new FastLZ() : null);
+        if (codec.getType() == CompressionCodec.Type.DeflateWithDictionary) {
+            deflater.setDictionary(codec.getDictionary());
+            inflater.setDictionary(codec.getDictionary());
+        }
+    }
+
+    /**
+     * get the codec
+     *
+     * @return codec
+     */
+    public CompressionCodec getCodec() {
+        return codec;
     }
 
     /**
@@ -64,6 +92,8 @@ public class Compressor {
      * @return deflated string
      */
     public byte[] deflateString2ByteArray(String inputString) {
+        if (buffer.length < FastLZ.maxCompressedLength(3 * inputString.length()))
+            buffer = new byte[FastLZ.maxCompressedLength(3 * inputString.length())];
         int length = deflateString2ByteArray(inputString, buffer);
         byte[] result = new byte[Math.abs(length)];
         System.arraycopy(buffer, 0, result, 0, Math.abs(length));
@@ -91,22 +121,37 @@ public class Compressor {
         return deflateString2ByteArray(input, 0, input.length, bytes);
     }
 
+    /**
+     * max number of bytes required to compress the given number of bytes, for any of the supported codecs
+     *
+     * @param length
+     * @return max compressed length
+     */
+    public static int maxCompressedLength(int length) {
+        // deflate adds 5 bytes per stored block of at most 16383 bytes, plus header and checksum:
+        return Math.max(FastLZ.maxCompressedLength(length), length + 5 * (length / 16383 + 1) + 11);
+    }
+
     /**
      * compresses a string to an array of bytes
      *
      * @param input
      * @param inputOffset
      * @param inputLength
-     * @param bytes       array to write bytes to
+     * @param bytes       array to write bytes to, must have room for maxCompressedLength(inputLength) bytes
      * @return number of bytes written  (negative number, if bytes are not deflated)
      */
     public int deflateString2ByteArray(byte[] input, int inputOffset, int inputLength, byte[] bytes) {
         if (inputLength >= MIN_SIZE_FOR_DEFLATION) {
+            if (fastLZ != null)
+                return -fastLZ.compress(input, inputOffset, inputLength, bytes, 0);
             // Compress the bytes
             deflater.setInput(input, inputOffset, inputLength);
             deflater.finish();
             int compressedDataLength = deflater.deflate(bytes);
             deflater.reset();
+            if (codec.getType() == CompressionCodec.Type.DeflateWithDictionary)
+                deflater.setDictionary(codec.getDictionary());
             return -compressedDataLength;
         } else {
             System.arraycopy(input, inputOffset, bytes, 0, inputLength);
@@ -143,10 +188,18 @@ public class Compressor {
                 return buf.toString();
             }
         }
-        inflater.setInput(bytes, 0, numberOfBytes);
-        if (buffer.length < 10 * bytes.length)  // try to make sure the result buffer is long enough
-            buffer = new byte[10 * bytes.length];
-        int resultLength = inflater.inflate(buffer);
+        final int resultLength;
+        if (fastLZ != null) {
+            final int length = FastLZ.getUncompressedLength(bytes, 0);
+            if (buffer.length < length)
+                buffer = new byte[length];
+            resultLength = FastLZ.decompress(bytes, 0, numberOfBytes, buffer, 0);
+        } else {
+            inflater.setInput(bytes, 0, numberOfBytes);
+            if (buffer.length < 10 * bytes.length)  // try to make sure the result buffer is long enough
+                buffer = new byte[10 * bytes.length];
+            resultLength = inflate(buffer, 0, buffer.length);
+        }
 
         String outputString;
         try {
@@ -159,7 +212,6 @@ public class Compressor {
             outputString = buf.toString();
 
         }
-        inflater.reset();
         return outputString;
     }
 
@@ -186,12 +238,70 @@ public class Compressor {
             System.arraycopy(source, 0, target, 0, source.length);
             return Math.abs(numberOfBytes);
         }
+        if (fastLZ != null)
+            return FastLZ.decompress(source, 0, numberOfBytes, target, 0);
         inflater.setInput(source, 0, numberOfBytes);
-        int resultLength = inflater.inflate(target);
-        inflater.reset();
+        return inflate(target, 0, target.length);
+    }
+
+    /**
+     * decompresses an array of bytes to a new array of bytes of exactly the inflated size
+     *
+     * @param numberOfBytes number of compressed bytes in source
+     * @param source        input
+     * @return inflated bytes
+     * @throws DataFormatException
+     */
+    public byte[] inflateByteArray2Bytes(int numberOfBytes, byte[] source) throws DataFormatException {
+        if (numberOfBytes == 0)
+            return new byte[0];
+        if (fastLZ != null) {
+            final byte[] result = new byte[FastLZ.getUncompressedLength(source, 0)];
+            FastLZ.decompress(source, 0, numberOfBytes, result, 0);
+            return result;
+        }
+        inflater.setInput(source, 0, numberOfBytes);
+        if (buffer.length < 10 * numberOfBytes)
+            buffer = new byte[10 * numberOfBytes];
+        int resultLength = 0;
+        while (true) {
+            resultLength += inflater.inflate(buffer, resultLength, buffer.length - resultLength);
+            if (inflater.finished() || inflater.needsInput())
+                break;
+            if (resultLength == buffer.length) { // buffer too small, grow
+                final byte[] tmp = new byte[2 * buffer.length];
+                System.arraycopy(buffer, 0, tmp, 0, resultLength);
+                buffer = tmp;
+            }
+        }
+        resetInflater();
+        final byte[] result = new byte[resultLength];
+        System.arraycopy(buffer, 0, result, 0, resultLength);
+        return result;
+    }
+
+    /**
+     * inflate and then reset the inflater.
+     * Raw deflate streams don't announce a preset dictionary, so it is set again after every reset
+     *
+     * @param target
+     * @param offset
+     * @param length
+     * @return number of bytes inflated
+     * @throws DataFormatException
+     */
+    private int inflate(byte[] target, int offset, int length) throws DataFormatException {
+        final int resultLength = inflater.inflate(target, offset, length);
+        resetInflater();
         return resultLength;
     }
 
+    private void resetInflater() {
+        inflater.reset();
+        if (codec.getType() == CompressionCodec.Type.DeflateWithDictionary)
+            inflater.setDictionary(codec.getDictionary());
+    }
+
     /**
      * interactively test deflation and inflation
      *
@@ -0,0 +1,73 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * input stream that counts the number of bytes read, used to report progress on compressed files
+ * <p/>
+ * Daniel Huson, 10.2016
+ */
+public class CountingInputStream extends FilterInputStream {
+    private volatile long count = 0;
+
+    /**
+     * constructor
+     *
+     * @param in
+     */
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int result = super.read();
+        if (result != -1)
+            count++;
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int result = super.read(b, off, len);
+        if (result > 0)
+            count += result;
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long result = super.skip(n);
+        count += result;
+        return result;
+    }
+
+    /**
+     * gets the number of bytes read so far
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+}
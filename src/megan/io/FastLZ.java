@@ -0,0 +1,196 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+/**
+ * fast pure-Java LZ77 block codec (LZ4 style sequences of literals and matches).
+ * Compressed block: uncompressed length (4 bytes, big endian), followed by sequences.
+ * Each sequence: token (high 4 bits literal length, low 4 bits match length - 4), extended literal length,
+ * literals, match offset (2 bytes, little endian), extended match length. The last sequence only contains literals
+ * Daniel Huson, 10.2016
+ */
+public class FastLZ {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+
+    private final int[] hashTable = new int[1 << HASH_BITS];
+
+    /**
+     * max number of bytes required to compress the given number of bytes
+     *
+     * @param length
+     * @return max compressed length
+     */
+    public static int maxCompressedLength(int length) {
+        return 4 + length + length / 255 + 16;
+    }
+
+    /**
+     * compress bytes
+     *
+     * @param src
+     * @param srcOffset
+     * @param srcLength
+     * @param dest      must have room for maxCompressedLength(srcLength) bytes
+     * @param destOffset
+     * @return number of bytes written to dest
+     */
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset) {
+        int d = destOffset;
+        dest[d++] = (byte) (srcLength >>> 24);
+        dest[d++] = (byte) (srcLength >>> 16);
+        dest[d++] = (byte) (srcLength >>> 8);
+        dest[d++] = (byte) srcLength;
+
+        final int srcEnd = srcOffset + srcLength;
+        final int matchLimit = srcEnd - MATCH_FIND_LIMIT;
+        final int matchEnd = srcEnd - LAST_LITERALS;
+
+        java.util.Arrays.fill(hashTable, -1);
+
+        int anchor = srcOffset;
+        int s = srcOffset;
+        while (s < matchLimit) {
+            final int h = hash(src, s);
+            final int candidate = hashTable[h];
+            hashTable[h] = s;
+            if (candidate < 0 || s - candidate > MAX_OFFSET || !equal4(src, candidate, s)) {
+                s++;
+                continue;
+            }
+            // extend the match:
+            int matchLength = MIN_MATCH;
+            while (s + matchLength < matchEnd && src[candidate + matchLength] == src[s + matchLength])
+                matchLength++;
+
+            d = writeSequence(src, anchor, s - anchor, s - candidate, matchLength, dest, d);
+            s += matchLength;
+            anchor = s;
+        }
+        // last literals:
+        final int literals = srcEnd - anchor;
+        final int token = Math.min(literals, 15) << 4;
+        dest[d++] = (byte) token;
+        if (literals >= 15)
+            d = writeLength(literals - 15, dest, d);
+        System.arraycopy(src, anchor, dest, d, literals);
+        d += literals;
+        return d - destOffset;
+    }
+
+    /**
+     * decompress bytes
+     *
+     * @param src
+     * @param srcOffset
+     * @param srcLength
+     * @param dest       must have room for getUncompressedLength() bytes
+     * @param destOffset
+     * @return number of bytes written to dest
+     */
+    public static int decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset) {
+        final int length = getUncompressedLength(src, srcOffset);
+        final int srcEnd = srcOffset + srcLength;
+        final int destEnd = destOffset + length;
+        int s = srcOffset + 4;
+        int d = destOffset;
+        while (s < srcEnd) {
+            final int token = src[s++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src[s++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, s, dest, d, literals);
+            s += literals;
+            d += literals;
+            if (d >= destEnd)
+                break;
+
+            final int offset = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8);
+            s += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src[s++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int from = d - offset;
+            for (int i = 0; i < matchLength; i++) { // may overlap, so copy byte by byte
+                dest[d++] = dest[from++];
+            }
+        }
+        return d - destOffset;
+    }
+
+    /**
+     * get the uncompressed length of a compressed block
+     *
+     * @param src
+     * @param srcOffset
+     * @return uncompressed length
+     */
+    public static int getUncompressedLength(byte[] src, int srcOffset) {
+        return ((src[srcOffset] & 0xFF) << 24) | ((src[srcOffset + 1] & 0xFF) << 16) | ((src[srcOffset + 2] & 0xFF) << 8) | (src[srcOffset + 3] & 0xFF);
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength, byte[] dest, int d) {
+        final int tokenPos = d++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15)
+            d = writeLength(literals - 15, dest, d);
+        System.arraycopy(src, literalStart, dest, d, literals);
+        d += literals;
+        dest[d++] = (byte) offset;
+        dest[d++] = (byte) (offset >>> 8);
+        final int extra = matchLength - MIN_MATCH;
+        token |= Math.min(extra, 15);
+        if (extra >= 15)
+            d = writeLength(extra - 15, dest, d);
+        dest[tokenPos] = (byte) token;
+        return d;
+    }
+
+    private static int writeLength(int length, byte[] dest, int d) {
+        while (length >= 255) {
+            dest[d++] = (byte) 255;
+            length -= 255;
+        }
+        dest[d++] = (byte) length;
+        return d;
+    }
+
+    private static int hash(byte[] src, int pos) {
+        final int value = (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8) | ((src[pos + 2] & 0xFF) << 16) | ((src[pos + 3] & 0xFF) << 24);
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static boolean equal4(byte[] src, int a, int b) {
+        return src[a] == src[b] && src[a + 1] == src[b + 1] && src[a + 2] == src[b + 2] && src[a + 3] == src[b + 3];
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import jloda.util.ListOfLongs;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * read-only random access file with a large read-ahead buffer.
+ * A seek to a position that lies in the buffer doesn't cause any I/O, so reading records at ascending, nearby
+ * locations results in a small number of large sequential reads.
+ * If the positions to be visited are known in advance, see setPlannedPositions(), then a refill only reads ahead over
+ * planned positions that are near each other, so that sparse positions in a large file don't each cost a full buffer
+ * Daniel Huson, 10.2016
+ */
+public class FileRandomAccessReadAheadAdapter implements IInputOutput {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_GAP = 1 << 16; // planned positions at most this far apart are fetched in one read
+    private static final int MIN_READ_AHEAD = 1 << 16; // bytes read beyond the last coalesced planned position
+
+    private final RandomAccessFile raf;
+    private final long fileLength;
+    private ListOfLongs plannedPositions;
+    private final byte[] buffer;
+    private long bufferStart = 0;
+    private int bufferLength = 0;
+    private long position = 0;
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param bufferSize size of read-ahead buffer
+     * @throws IOException
+     */
+    public FileRandomAccessReadAheadAdapter(String fileName, int bufferSize) throws IOException {
+        raf = new RandomAccessFile(fileName, "r");
+        fileLength = raf.length();
+        buffer = new byte[Math.max(8192, bufferSize)];
+    }
+
+    /**
+     * set the positions that will be visited, used to limit the amount of read-ahead
+     *
+     * @param plannedPositions positions in ascending order, or null, if unknown
+     */
+    public void setPlannedPositions(ListOfLongs plannedPositions) {
+        this.plannedPositions = plannedPositions;
+    }
+
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return buffer[(int) (position++ - bufferStart)] & 0xFF;
+    }
+
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        int count = 0;
+        while (count < len) {
+            if (!fill())
+                return count > 0 ? count : -1;
+            final int available = (int) (bufferStart + bufferLength - position);
+            final int n = Math.min(available, len - count);
+            System.arraycopy(buffer, (int) (position - bufferStart), bytes, offset + count, n);
+            position += n;
+            count += n;
+        }
+        return count;
+    }
+
+    public int skipBytes(int bytes) throws IOException {
+        final int n = (int) Math.max(0, Math.min(bytes, fileLength - position));
+        position += n;
+        return n;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long length() {
+        return fileLength;
+    }
+
+    public boolean supportsSeek() {
+        return true;
+    }
+
+    public void seek(long pos) {
+        position = pos;
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    public void write(int a) throws IOException {
+        throw new IOException("Read-only");
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        throw new IOException("Read-only");
+    }
+
+    public void setLength(long length) throws IOException {
+        throw new IOException("Read-only");
+    }
+
+    /**
+     * makes sure that the current position is in the buffer, reading ahead from the current position, if necessary.
+     * If planned positions are set, reads ahead only as far as the run of nearby planned positions that follows
+     *
+     * @return false, if at end of file
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (position >= bufferStart && position < bufferStart + bufferLength)
+            return true;
+        raf.seek(position);
+        bufferStart = position;
+        bufferLength = 0;
+        final int readAhead = (plannedPositions == null ? buffer.length : computeReadAhead(position));
+        while (bufferLength < readAhead) {
+            final int got = raf.read(buffer, bufferLength, readAhead - bufferLength);
+            if (got <= 0)
+                break;
+            bufferLength += got;
+        }
+        return bufferLength > 0;
+    }
+
+    /**
+     * determines how many bytes to read from the given position: up to the last planned position that can be reached
+     * from the given one by steps of at most MAX_GAP, plus MIN_READ_AHEAD for the record at that position
+     *
+     * @return number of bytes to read
+     */
+    private int computeReadAhead(long start) {
+        // find first planned position >= start:
+        int low = 0;
+        int high = plannedPositions.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (plannedPositions.get(mid) < start)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        long end = start;
+        for (int i = low; i < plannedPositions.size(); i++) {
+            final long next = plannedPositions.get(i);
+            if (next - end > MAX_GAP || next - start >= buffer.length)
+                break;
+            end = next;
+        }
+        return (int) Math.min(buffer.length, end - start + MIN_READ_AHEAD);
+    }
+}
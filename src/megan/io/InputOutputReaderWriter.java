@@ -227,8 +227,8 @@ public class InputOutputReaderWriter implements IInputReaderOutputWriter {
             writeInt(0);
         else {
             if (useCompression && length >= Compressor.MIN_SIZE_FOR_DEFLATION) {
-                if (byteBuffer.length < length)
-                    byteBuffer = new byte[2 * length]; // surely compressed with never be longer than 2*uncompressed
+                if (byteBuffer.length < Compressor.maxCompressedLength(length))
+                    byteBuffer = new byte[Compressor.maxCompressedLength(2 * length)];
                 int numberOfBytes = compressor.deflateString2ByteArray(str, offset, length, byteBuffer);
                 writeInt(numberOfBytes);
                 io.write(byteBuffer, 0, Math.abs(numberOfBytes));
@@ -328,4 +328,22 @@ public class InputOutputReaderWriter implements IInputReaderOutputWriter {
     public void seek(long pos) throws IOException {
         io.seek(pos + offset);
     }
+
+    /**
+     * set the codec used to compress and decompress strings
+     *
+     * @param codec
+     */
+    public void setCompressionCodec(CompressionCodec codec) {
+        compressor = new Compressor(1000000, codec);
+    }
+
+    /**
+     * get the codec used to compress and decompress strings
+     *
+     * @return codec
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressor.getCodec();
+    }
 }
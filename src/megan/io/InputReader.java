@@ -249,5 +249,22 @@ public class InputReader implements IInputReader {
     public boolean isUseAbsoluteFilePositions() {
         return useAbsoluteFilePositions;
     }
-}
 
+    /**
+     * set the codec used to compress and decompress strings
+     *
+     * @param codec
+     */
+    public void setCompressionCodec(CompressionCodec codec) {
+        compressor = new Compressor(1000000, codec);
+    }
+
+    /**
+     * get the codec used to compress and decompress strings
+     *
+     * @return codec
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressor.getCodec();
+    }
+}
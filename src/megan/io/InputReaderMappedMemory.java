@@ -0,0 +1,253 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+/**
+ * read-only input reader over a memory-mapped file.
+ * The mapping is shared by all open readers of the same file, while each reader has its own position and decompressor.
+ * So, several threads can read the same file in parallel, each using its own reader, without system calls or locking.
+ * The mapping is released when the last reader of the file is closed. Code that modifies a file must first call
+ * waitUntilUnmapped(), as a mapped file can't be truncated on Windows and reading a truncated mapping crashes on Linux
+ * Daniel Huson, 10.2016
+ */
+public class InputReaderMappedMemory implements IInputReader {
+    private static final Map<String, SharedMapping> path2mapping = new HashMap<>();
+
+    private final String path;
+    private final ByteFileGetterMappedMemory mapping;
+    private final long length;
+    private boolean closed = false;
+    private long position = 0;
+    private Compressor compressor = new Compressor();
+
+    /**
+     * constructor. Reuses the mapping of the file, if it is already mapped
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public InputReaderMappedMemory(String fileName) throws IOException {
+        final File file = new File(fileName);
+        this.path = file.getCanonicalPath();
+        synchronized (path2mapping) {
+            SharedMapping shared = path2mapping.get(path);
+            if (shared == null) {
+                final ByteFileGetterMappedMemory mapping = new ByteFileGetterMappedMemory(file);
+                mapping.releaseFileHandle(); // the mapping doesn't need the file to be open
+                shared = new SharedMapping(mapping);
+                path2mapping.put(path, shared);
+            }
+            shared.numberOfReaders++;
+            this.mapping = shared.mapping;
+        }
+        this.length = mapping.limit();
+    }
+
+    /**
+     * waits until all readers of the given file have been closed and so the file is no longer mapped.
+     * Must be called before a file is modified
+     *
+     * @param fileName
+     * @param timeoutMillis max time to wait
+     * @throws IOException if the file is still mapped after waiting
+     */
+    public static void waitUntilUnmapped(String fileName, long timeoutMillis) throws IOException {
+        final String path = (new File(fileName)).getCanonicalPath();
+        final long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (path2mapping) {
+            while (path2mapping.containsKey(path)) {
+                final long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new IOException("File is in use by " + path2mapping.get(path).numberOfReaders + " open reader(s), can't modify: " + fileName);
+                try {
+                    path2mapping.wait(remaining);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * set the codec used to decompress strings
+     *
+     * @param codec
+     */
+    public void setCompressionCodec(CompressionCodec codec) {
+        compressor = new Compressor(1000000, codec);
+    }
+
+    public int readInt() throws IOException {
+        checkAvailable(4);
+        final int value = mapping.getInt(position);
+        position += 4;
+        return value;
+    }
+
+    public int readChar() throws IOException {
+        checkAvailable(2);
+        final int value = (mapping.get(position) << 8) + mapping.get(position + 1);
+        position += 2;
+        return value;
+    }
+
+    public int read() {
+        if (closed || position >= length)
+            return -1;
+        return mapping.get(position++);
+    }
+
+    public int read(byte[] bytes, int offset, int len) {
+        if (closed || position >= length)
+            return -1;
+        final int count = mapping.get(position, bytes, offset, (int) Math.min(len, length - position));
+        position += count;
+        return count;
+    }
+
+    public long readLong() throws IOException {
+        checkAvailable(8);
+        final long value = mapping.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public ByteByteInt readByteByteInt() throws IOException {
+        checkAvailable(6);
+        return new ByteByteInt((byte) read(), (byte) read(), readInt());
+    }
+
+    /**
+     * bulk read of ints
+     *
+     * @param values
+     * @param offset
+     * @param count
+     * @throws IOException
+     */
+    public void readInts(int[] values, int offset, int count) throws IOException {
+        checkAvailable(4L * count);
+        for (int i = 0; i < count; i++) {
+            values[offset + i] = mapping.getInt(position);
+            position += 4;
+        }
+    }
+
+    /**
+     * bulk read of longs
+     *
+     * @param values
+     * @param offset
+     * @param count
+     * @throws IOException
+     */
+    public void readLongs(long[] values, int offset, int count) throws IOException {
+        checkAvailable(8L * count);
+        for (int i = 0; i < count; i++) {
+            values[offset + i] = mapping.getLong(position);
+            position += 8;
+        }
+    }
+
+    public String readString() throws IOException {
+        final int size = readInt();
+        if (Math.abs(size) > 100000000)
+            throw new IOException("Unreasonable string length: " + Math.abs(size));
+        final byte[] bytes = new byte[Math.abs(size)];
+        checkAvailable(bytes.length);
+        position += mapping.get(position, bytes, 0, bytes.length);
+
+        if (size < 0) { // is compressed
+            try {
+                return compressor.inflateByteArray2String(-size, bytes);
+            } catch (DataFormatException e) {
+                throw new IOException(e.getMessage());
+            }
+        } else
+            return Compressor.convertUncompressedByteArray2String(size, bytes);
+    }
+
+    public int skipBytes(int bytes) {
+        final int count = (closed ? 0 : (int) Math.max(0, Math.min(bytes, length - position)));
+        position += count;
+        return count;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public boolean supportsSeek() {
+        return true;
+    }
+
+    public void seek(long pos) {
+        position = pos;
+    }
+
+    /**
+     * closes this reader. The shared mapping is released when the last reader of the file is closed
+     */
+    public void close() {
+        synchronized (path2mapping) {
+            if (!closed) {
+                closed = true;
+                final SharedMapping shared = path2mapping.get(path);
+                if (shared != null && shared.mapping == mapping && --shared.numberOfReaders == 0) {
+                    path2mapping.remove(path);
+                    mapping.unmap();
+                    path2mapping.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void checkAvailable(long count) throws IOException {
+        if (closed)
+            throw new IOException("Reader closed");
+        if (position + count > length)
+            throw new IOException("Read beyond end of file: " + (position + count) + " > " + length);
+    }
+
+    /**
+     * a mapping together with the number of open readers that use it
+     */
+    private static class SharedMapping {
+        final ByteFileGetterMappedMemory mapping;
+        int numberOfReaders;
+
+        SharedMapping(ByteFileGetterMappedMemory mapping) {
+            this.mapping = mapping;
+        }
+    }
+}
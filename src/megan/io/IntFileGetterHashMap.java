@@ -37,7 +37,7 @@ public class IntFileGetterHashMap implements IIntGetter {
     public IntFileGetterHashMap(File file) throws IOException {
         map = new HashMap<>();
 
-        final FileInputIterator it = new FileInputIterator(file.getPath());
+        final FileInputIterator it = ParallelGZIPInputStream.getFileInputIterator(file.getPath());
         while (it.hasNext()) {
             String aLine = it.next().trim();
             if (!aLine.startsWith("#")) {
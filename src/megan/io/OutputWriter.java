@@ -23,6 +23,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * class for writing output
@@ -33,7 +34,7 @@ public class OutputWriter implements IOutputWriter, IInputReaderOutputWriter {
     private final BufferedOutputStream outs;
     private long position;
 
-    private final Compressor compressor = new Compressor();
+    private Compressor compressor = new Compressor();
     private byte[] byteBuffer = new byte[1000];
     private boolean useCompression = true;
 
@@ -48,6 +49,16 @@ public class OutputWriter implements IOutputWriter, IInputReaderOutputWriter {
         position = 0;
     }
 
+    /**
+     * constructor for writing to a stream, e.g. to serialize a record in memory
+     *
+     * @param outs
+     */
+    public OutputWriter(OutputStream outs) {
+        this.outs = new BufferedOutputStream(outs, BUFFER_SIZE);
+        position = 0;
+    }
+
     /**
      * constructor
      *
@@ -165,8 +176,8 @@ public class OutputWriter implements IOutputWriter, IInputReaderOutputWriter {
             writeInt(0);
         else {
             if (useCompression && length >= Compressor.MIN_SIZE_FOR_DEFLATION) {
-                if (byteBuffer.length < length)
-                    byteBuffer = new byte[2 * length]; // surely compressed with never be longer than 2*uncompressed
+                if (byteBuffer.length < Compressor.maxCompressedLength(length))
+                    byteBuffer = new byte[Compressor.maxCompressedLength(2 * length)];
                 int numberOfBytes = compressor.deflateString2ByteArray(str, offset, length, byteBuffer);
                 writeInt(numberOfBytes);
                 outs.write(byteBuffer, 0, Math.abs(numberOfBytes));
@@ -249,6 +260,15 @@ public class OutputWriter implements IOutputWriter, IInputReaderOutputWriter {
         position++;
     }
 
+    /**
+     * flush
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        outs.flush();
+    }
+
     /**
      * close
      *
@@ -337,4 +357,22 @@ public class OutputWriter implements IOutputWriter, IInputReaderOutputWriter {
     public String readString() throws IOException {
         throw new IOException("Not implemented");
     }
+
+    /**
+     * set the codec used to compress and decompress strings
+     *
+     * @param codec
+     */
+    public void setCompressionCodec(CompressionCodec codec) {
+        compressor = new Compressor(1000000, codec);
+    }
+
+    /**
+     * get the codec used to compress and decompress strings
+     *
+     * @return codec
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressor.getCodec();
+    }
 }
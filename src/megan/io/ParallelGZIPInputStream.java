@@ -0,0 +1,412 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.io;
+
+import jloda.util.FileInputIterator;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * input stream that decompresses gzip input on separate threads.
+ * BGZF files (as produced by bgzip) consist of independent blocks of known size, these are inflated in parallel.
+ * Other gzip files, including multi-member files, are inflated by a single thread that reads ahead of the consumer,
+ * as the member boundaries cannot be determined without inflating
+ * <p/>
+ * Daniel Huson, 10.2016
+ */
+public class ParallelGZIPInputStream extends InputStream {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024; // size of decompressed chunks handed to the consumer
+    private static final int BLOCKS_PER_TASK = 64; // number of BGZF blocks inflated together
+
+    private final InputStream source;
+    private final ExecutorService executorService;
+    private final ArrayBlockingQueue<Future<Chunk>> queue;
+    private final Thread readerThread;
+    private final boolean bgzf;
+    private volatile Exception readerException;
+    private volatile boolean closed = false;
+
+    private Chunk chunk;
+    private int position;
+    private boolean done = false;
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public ParallelGZIPInputStream(String fileName) throws IOException {
+        this(new FileInputStream(fileName), Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * constructor
+     *
+     * @param inputStream     compressed input
+     * @param numberOfThreads number of threads used to inflate BGZF blocks
+     * @throws IOException
+     */
+    public ParallelGZIPInputStream(InputStream inputStream, int numberOfThreads) throws IOException {
+        source = new BufferedInputStream(inputStream, 1024 * 1024);
+        bgzf = isBGZF(source);
+        numberOfThreads = Math.max(1, numberOfThreads);
+        executorService = (bgzf ? Executors.newFixedThreadPool(numberOfThreads) : null);
+        queue = new ArrayBlockingQueue<>(bgzf ? 2 * numberOfThreads : 4);
+
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (bgzf)
+                        readBGZF();
+                    else
+                        readGZIP();
+                } catch (InterruptedException ignored) {
+                } catch (Exception ex) {
+                    readerException = ex;
+                } finally {
+                    if (executorService != null)
+                        executorService.shutdown(); // all blocks submitted, let the workers finish them
+                    try {
+                        source.close();
+                    } catch (IOException ignored) {
+                    }
+                    if (!closed) {
+                        try {
+                            queue.put(completed(new Chunk(null, -1)));
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            }
+        }, "ParallelGZIPInputStreamReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * gets an input stream for the named file, decompressing on separate threads, if the file name ends on .gz
+     *
+     * @param fileName
+     * @return input stream
+     * @throws IOException
+     */
+    public static InputStream getInputStreamPossiblyZIPorGZIP(String fileName) throws IOException {
+        return getInputStreamPossiblyZIPorGZIP(new FileInputStream(fileName), fileName);
+    }
+
+    /**
+     * wraps the stream in a decompressing stream, if the file name ends on .gz or .zip
+     *
+     * @param inputStream
+     * @param fileName
+     * @return input stream
+     * @throws IOException
+     */
+    public static InputStream getInputStreamPossiblyZIPorGZIP(InputStream inputStream, String fileName) throws IOException {
+        if (fileName.toLowerCase().endsWith(".gz"))
+            return new ParallelGZIPInputStream(inputStream, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        else if (fileName.toLowerCase().endsWith(".zip")) {
+            final ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+            zipInputStream.getNextEntry();
+            return zipInputStream;
+        } else
+            return inputStream;
+    }
+
+    /**
+     * gets a line iterator for the named file, decompressing on separate threads, if the file name ends on .gz
+     *
+     * @param fileName
+     * @return iterator
+     * @throws IOException
+     */
+    public static FileInputIterator getFileInputIterator(String fileName) throws IOException {
+        if (fileName.toLowerCase().endsWith(".gz"))
+            return new FileInputIterator(new InputStreamReader(new ParallelGZIPInputStream(fileName)), fileName);
+        else
+            return new FileInputIterator(fileName);
+    }
+
+    /**
+     * is the input BGZF? Checks whether the first gzip member has a 'BC' extra field
+     *
+     * @param ins must support mark and reset
+     * @return true, if BGZF
+     */
+    private static boolean isBGZF(InputStream ins) throws IOException {
+        final byte[] header = new byte[18];
+        ins.mark(header.length);
+        int length = 0;
+        int count;
+        while (length < header.length && (count = ins.read(header, length, header.length - length)) != -1)
+            length += count;
+        ins.reset();
+        return length == header.length && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8 && (header[3] & 4) != 0
+                && getUInt16(header, 10) == 6 && header[12] == 'B' && header[13] == 'C' && getUInt16(header, 14) == 2;
+    }
+
+    /**
+     * inflate a plain gzip stream on the reader thread, handing chunks to the consumer
+     */
+    private void readGZIP() throws IOException, InterruptedException {
+        try (InputStream ins = new GZIPInputStream(source, 1024 * 1024)) {
+            while (!closed) {
+                final byte[] buffer = new byte[CHUNK_SIZE];
+                int length = 0;
+                int count;
+                while (length < buffer.length && (count = ins.read(buffer, length, buffer.length - length)) != -1)
+                    length += count;
+                if (length > 0)
+                    queue.put(completed(new Chunk(buffer, length)));
+                if (length < buffer.length)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * read BGZF blocks and submit them to be inflated in parallel
+     */
+    private void readBGZF() throws IOException, InterruptedException {
+        final byte[] header = new byte[12];
+
+        while (!closed) {
+            final BlockBatch batch = new BlockBatch();
+            while (batch.numberOfBlocks < BLOCKS_PER_TASK) {
+                if (!readFully(source, header, 0, header.length, true))
+                    break;
+                if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0)
+                    throw new IOException("BGZF: invalid block header");
+                final int extraLength = getUInt16(header, 10);
+                final byte[] extra = new byte[extraLength];
+                readFully(source, extra, 0, extraLength, false);
+                int blockSize = -1;
+                for (int i = 0; i + 4 <= extraLength; ) {
+                    final int subfieldLength = getUInt16(extra, i + 2);
+                    if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2)
+                        blockSize = getUInt16(extra, i + 4) + 1;
+                    i += 4 + subfieldLength;
+                }
+                if (blockSize == -1)
+                    throw new IOException("BGZF: block without size field");
+                final int remaining = blockSize - header.length - extraLength; // compressed data, CRC32 and ISIZE
+                if (remaining < 8)
+                    throw new IOException("BGZF: invalid block size");
+                batch.add(source, remaining);
+            }
+            if (batch.numberOfBlocks == 0)
+                break;
+            queue.put(executorService.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws Exception {
+                    return batch.inflate();
+                }
+            }));
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData())
+            return -1;
+        return chunk.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensureData())
+            return -1;
+        final int count = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.data, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (chunk != null ? chunk.length - position : 0);
+    }
+
+    /**
+     * make sure that the current chunk has unread data
+     *
+     * @return false, if at end of input
+     */
+    private boolean ensureData() throws IOException {
+        while (chunk == null || position >= chunk.length) {
+            if (done)
+                return false;
+            try {
+                chunk = queue.take().get();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                throw new IOException(ex.getCause());
+            }
+            position = 0;
+            if (chunk.length == -1) {
+                done = true;
+                chunk = null;
+                if (readerException != null)
+                    throw new IOException(readerException);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * is the input in BGZF format?
+     *
+     * @return true, if BGZF
+     */
+    public boolean isBGZF() {
+        return bgzf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        readerThread.interrupt();
+        if (executorService != null)
+            executorService.shutdownNow();
+        queue.clear();
+    }
+
+    private static int getUInt16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int getInt32(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * read the given number of bytes
+     *
+     * @param allowEOF if true, returns false when at end of input before reading any bytes
+     * @return true, if bytes were read
+     */
+    private static boolean readFully(InputStream ins, byte[] bytes, int offset, int length, boolean allowEOF) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int count = ins.read(bytes, offset + total, length - total);
+            if (count == -1) {
+                if (total == 0 && allowEOF)
+                    return false;
+                throw new EOFException("BGZF: unexpected end of file");
+            }
+            total += count;
+        }
+        return true;
+    }
+
+    private static Future<Chunk> completed(final Chunk chunk) {
+        final FutureTask<Chunk> task = new FutureTask<>(new Callable<Chunk>() {
+            @Override
+            public Chunk call() throws Exception {
+                return chunk;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * decompressed data handed to the consumer
+     */
+    private static class Chunk {
+        private final byte[] data;
+        private final int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * the compressed data of a number of consecutive BGZF blocks
+     */
+    private static class BlockBatch {
+        private int numberOfBlocks = 0;
+        private byte[] data = new byte[BLOCKS_PER_TASK * 65536];
+        private final int[] offsets = new int[BLOCKS_PER_TASK + 1]; // each block consists of deflated data, CRC32 and ISIZE
+        private int totalSize = 0;
+
+        /**
+         * read the remainder of a block
+         */
+        void add(InputStream ins, int length) throws IOException {
+            final int offset = offsets[numberOfBlocks];
+            if (offset + length > data.length) {
+                final byte[] tmp = new byte[2 * (offset + length)];
+                System.arraycopy(data, 0, tmp, 0, offset);
+                data = tmp;
+            }
+            readFully(ins, data, offset, length, false);
+            totalSize += getInt32(data, offset + length - 4);
+            offsets[++numberOfBlocks] = offset + length;
+        }
+
+        /**
+         * inflate all blocks
+         *
+         * @return decompressed data
+         */
+        Chunk inflate() throws IOException, DataFormatException {
+            final byte[] output = new byte[totalSize];
+            final Inflater inflater = new Inflater(true);
+            final CRC32 crc32 = new CRC32();
+            int outputLength = 0;
+            try {
+                for (int i = 0; i < numberOfBlocks; i++) {
+                    final int start = offsets[i];
+                    final int end = offsets[i + 1];
+                    final int size = getInt32(data, end - 4);
+                    inflater.reset();
+                    inflater.setInput(data, start, end - start - 8);
+                    int inflated = 0;
+                    while (inflated < size) {
+                        final int count = inflater.inflate(output, outputLength + inflated, size - inflated);
+                        if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                            break;
+                        inflated += count;
+                    }
+                    if (inflated != size)
+                        throw new IOException("BGZF: block inflated to wrong size");
+                    crc32.reset();
+                    crc32.update(output, outputLength, size);
+                    if ((int) crc32.getValue() != getInt32(data, end - 8))
+                        throw new IOException("BGZF: CRC error");
+                    outputLength += size;
+                }
+            } finally {
+                inflater.end();
+            }
+            return new Chunk(output, outputLength);
+        }
+    }
+}
@@ -63,6 +63,16 @@ public class BlastN2SAMIterator extends SAMIteratorBase implements ISAMIterator
         }
     }
 
+    /**
+     * constructor for parsing a chunk of a file. Does not check the file format
+     *
+     * @param lineIterator
+     * @param maxNumberOfMatchesPerRead
+     */
+    public BlastN2SAMIterator(ILineIterator lineIterator, int maxNumberOfMatchesPerRead) {
+        super(lineIterator, maxNumberOfMatchesPerRead);
+    }
+
     /**
      * is there more data?
      *
@@ -42,4 +42,14 @@ public class BlastP2SAMIterator extends BlastX2SAMIterator implements ISAMIterat
             throw new IOException("File not a BLASTP file in text format: " + fileName);
         }
     }
+
+    /**
+     * constructor for parsing a chunk of a file. Does not check the file format
+     *
+     * @param lineIterator
+     * @param maxNumberOfMatchesPerRead
+     */
+    public BlastP2SAMIterator(ILineIterator lineIterator, int maxNumberOfMatchesPerRead) {
+        super(lineIterator, maxNumberOfMatchesPerRead, true);
+    }
 }
@@ -22,19 +22,29 @@ import jloda.util.Basic;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.TreeSet;
 
 
 /**
  * parses a blast Tab file into SAM format
+ * Lines are tokenized and parsed in place as bytes and the best matches for a query are kept in a bounded min-heap
  * Daniel Huson, 4.2015
  */
 public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterator {
+    private static final int NUMBER_OF_FIELDS = 12;
+
+    private final ByteLineIterator lines;
 
     private byte[] matchesText = new byte[10000];
     private int matchesTextLength = 0;
 
-    private TreeSet<Match> matches = new TreeSet<>(new Match());
+    private byte[] queryName = new byte[1000];
+    private int queryNameLength = 0;
+
+    private final int[] fieldStart = new int[NUMBER_OF_FIELDS];
+    private final int[] fieldEnd = new int[NUMBER_OF_FIELDS];
+
+    private TabMatch[] heap = new TabMatch[0]; // min-heap, worst match at root. Entries are reused
+    private int heapSize = 0;
 
     /**
      * constructor
@@ -43,15 +53,36 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
      * @throws IOException
      */
     public BlastTab2SAMIterator(String fileName, int maxNumberOfMatchesPerRead) throws IOException {
-        super(fileName, maxNumberOfMatchesPerRead);
-        setSkipCommentLines(true);
-        final String[] lines = Basic.getFirstLinesFromFile(new File(fileName), 2);
-        if (lines != null && lines.length == 2 && lines[1].split("\t").length < 11) {
+        this(new ByteLineIterator(fileName), maxNumberOfMatchesPerRead);
+        if (!isBlastTabFile(fileName)) {
             close();
             throw new IOException("File not a BLAST file in tabular format: " + fileName);
         }
     }
 
+    /**
+     * constructor for parsing a chunk of a file. Does not check the file format
+     *
+     * @param lineIterator
+     * @param maxNumberOfMatchesPerRead
+     */
+    public BlastTab2SAMIterator(ByteLineIterator lineIterator, int maxNumberOfMatchesPerRead) {
+        super(lineIterator, maxNumberOfMatchesPerRead);
+        this.lines = lineIterator;
+        setSkipCommentLines(true);
+    }
+
+    /**
+     * does the file look like a BLAST file in tabular format?
+     *
+     * @param fileName
+     * @return true, unless the second line has too few columns
+     */
+    public static boolean isBlastTabFile(String fileName) throws IOException {
+        final String[] lines = Basic.getFirstLinesFromFile(new File(fileName), 2);
+        return !(lines != null && lines.length == 2 && lines[1].split("\t").length < 11);
+    }
+
     /**
      * is there more data?
      *
@@ -59,7 +90,7 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
      */
     @Override
     public boolean hasNext() {
-        return hasNextLine();
+        return lines.hasNext();
     }
 
     /**
@@ -68,83 +99,89 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
      * @return number of matches
      */
     public int next() {
-        if (!hasNextLine())
+        if (!lines.advance())
             return -1;
 
         matchesTextLength = 0;
+        heapSize = 0;
 
-        String line = nextLine();
-        final String queryName = Basic.getReadName(line);
-        pushBackLine(line);
+        {
+            final byte[] line = lines.getLineBuffer();
+            int start = lines.getLineStart();
+            final int end = start + lines.getLineLength();
+            if (start < end && (line[start] == '@' || line[start] == '>'))
+                start++;
+            int pos = start;
+            while (pos < end && !Character.isWhitespace(line[pos]))
+                pos++;
+            queryNameLength = pos - start;
+            if (queryNameLength > queryName.length)
+                queryName = new byte[2 * queryNameLength];
+            System.arraycopy(line, start, queryName, 0, queryNameLength);
+            lines.pushBack();
+        }
 
         int matchId = 0; // used to distinguish between matches when sorting
-        matches.clear();
 
         // get all matches for given query:
         try {
-            while (hasNextLine()) {
-                // move to next match or next query:
-                line = nextLine();
+            while (lines.advance()) {
+                final byte[] line = lines.getLineBuffer();
+                int start = lines.getLineStart();
+                final int end = start + lines.getLineLength();
 
-                if (line == null)// at end of file
-                    break;
-
-                if (line.startsWith("# "))
+                if (end - start >= 2 && line[start] == '#' && line[start + 1] == ' ')
                     continue; // is a comment line
-                if (line.startsWith("@") || line.startsWith((">")))
-                    line = line.substring(1);
+                if (start < end && (line[start] == '@' || line[start] == '>'))
+                    start++;
 
-                if (!(line.startsWith(queryName) && Character.isWhitespace(line.charAt(queryName.length())))) { // at start of next query
-                    pushBackLine(line);
+                if (!startsWithQueryName(line, start, end)) { // at start of next query
+                    lines.pushBack();
                     break;
                 }
 
-                String[] tokens = Basic.split(line, '\t');
-                if (tokens.length == 1)
+                final int numberOfFields = tokenize(line, start, end);
+                if (numberOfFields == 1)
                     continue;
+                if (numberOfFields < NUMBER_OF_FIELDS)
+                    throw new IOException("Expected " + NUMBER_OF_FIELDS + " tab-separated fields, got: " + numberOfFields);
 
-                final String refName = tokens[1];
-                if (!Basic.isFloat(tokens[2]))
-                    throw new IOException("Expected float (percent identity), got: " + tokens[2]);
-                float identity = (Float.parseFloat(tokens[2]));
-                if (!Basic.isInteger(tokens[3]))
-                    throw new IOException("Expected integer (length), got: " + tokens[3]);
-                int alignmentLength = (Integer.parseInt(tokens[3]));
-                if (!Basic.isInteger(tokens[4]))
-                    throw new IOException("Expected integer (mismatches), got: " + tokens[4]);
-                int mismatches = (Integer.parseInt(tokens[4]));
-                if (!Basic.isInteger(tokens[5]))
-                    throw new IOException("Expected integer (gap openings), got: " + tokens[5]);
-                int gapOpenings = (Integer.parseInt(tokens[5]));
-                if (!Basic.isInteger(tokens[6]))
-                    throw new IOException("Expected integer (query start), got: " + tokens[6]);
-                int queryStart = (Integer.parseInt(tokens[6]));
-                if (!Basic.isInteger(tokens[7]))
-                    throw new IOException("Expected integer (query end), got: " + tokens[7]);
-                int queryEnd = (Integer.parseInt(tokens[7]));
-                if (!Basic.isInteger(tokens[8]))
-                    throw new IOException("Expected integer (subject start), got: " + tokens[8]);
-                int subjStart = (Integer.parseInt(tokens[8]));
-                if (!Basic.isInteger(tokens[9]))
-                    throw new IOException("Expected integer (subject end), got: " + tokens[9]);
-                int subjEnd = (Integer.parseInt(tokens[9]));
-                if (!Basic.isFloat(tokens[10]))
-                    throw new IOException("Expected float (expected), got: " + tokens[10]);
-                float expect = (Float.parseFloat(tokens[10]));
-                if (!Basic.isFloat(tokens[11]))
-                    throw new IOException("Expected float (bit score), got: " + tokens[11]);
-                float bitScore = (Float.parseFloat(tokens[11]));
-
-
-                if (matches.size() < getMaxNumberOfMatchesPerRead() || bitScore > matches.last().bitScore) {
-                    Match match = new Match();
-                    match.bitScore = bitScore;
-                    match.id = matchId++;
-                    match.samLine = makeSAM(queryName, refName, bitScore, expect, identity, queryStart, subjStart, subjEnd, line);
-                    matches.add(match);
-                    if (matches.size() > getMaxNumberOfMatchesPerRead())
-                        matches.remove(matches.last());
-                }
+                final float identity = parseFloatField(line, 2, "percent identity");
+                parseIntField(line, 3, "length");
+                parseIntField(line, 4, "mismatches");
+                parseIntField(line, 5, "gap openings");
+                final int queryStart = parseIntField(line, 6, "query start");
+                parseIntField(line, 7, "query end");
+                final int subjStart = parseIntField(line, 8, "subject start");
+                final int subjEnd = parseIntField(line, 9, "subject end");
+                parseFloatField(line, 10, "expected");
+                final float bitScore = parseFloatField(line, 11, "bit score");
+
+                final TabMatch match;
+                final boolean replaceWorst;
+                if (heapSize < getMaxNumberOfMatchesPerRead()) {
+                    if (heapSize == heap.length)
+                        growHeap();
+                    match = heap[heapSize++];
+                    replaceWorst = false;
+                } else if (heapSize > 0 && bitScore > heap[0].bitScore) {
+                    match = heap[0];
+                    replaceWorst = true;
+                } else
+                    continue;
+
+                match.bitScore = bitScore;
+                match.id = matchId++;
+                match.identity = identity;
+                match.queryStart = queryStart;
+                match.subjStart = subjStart;
+                match.subjEnd = subjEnd;
+                match.setLine(line, start, end, fieldStart[1] - start, fieldEnd[1] - start, fieldStart[10] - start, fieldEnd[10] - start);
+
+                if (replaceWorst)
+                    siftDown(0, heapSize);
+                else
+                    siftUp(heapSize - 1);
             }
         } catch (Exception ex) {
             System.err.println("Error parsing file near line: " + getLineNumber() + ": " + ex.getMessage());
@@ -152,27 +189,22 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
                 throw new RuntimeException("Too many errors");
         }
 
-        if (matches.size() == 0) { // no matches, so return query name only
-            if (queryName.length() > matchesText.length) {
-                matchesText = new byte[2 * queryName.length()];
-            }
-            for (int i = 0; i < queryName.length(); i++)
-                matchesText[matchesTextLength++] = (byte) queryName.charAt(i);
+        if (heapSize == 0) { // no matches, so return query name only
+            ensureCapacity(queryNameLength + 1);
+            System.arraycopy(queryName, 0, matchesText, 0, queryNameLength);
+            matchesTextLength = queryNameLength;
             matchesText[matchesTextLength++] = '\n';
             return 0;
         } else {
-            for (Match match : matches) {
-                byte[] bytes = match.samLine.getBytes();
-                if (matchesTextLength + bytes.length + 1 >= matchesText.length) {
-                    byte[] tmp = new byte[2 * (matchesTextLength + bytes.length + 1)];
-                    System.arraycopy(matchesText, 0, tmp, 0, matchesTextLength);
-                    matchesText = tmp;
-                }
-                System.arraycopy(bytes, 0, matchesText, matchesTextLength, bytes.length);
-                matchesTextLength += bytes.length;
-                matchesText[matchesTextLength++] = '\n';
+            // heap sort, leaves best match first:
+            for (int last = heapSize - 1; last > 0; last--) {
+                swap(0, last);
+                siftDown(0, last);
             }
-            return matches.size();
+            for (int i = 0; i < heapSize; i++) {
+                writeSAM(heap[i]);
+            }
+            return heapSize;
         }
     }
 
@@ -197,38 +229,204 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
     }
 
     /**
-     * make a SAM line
+     * does the line start with the current query name, followed by white space?
+     */
+    private boolean startsWithQueryName(byte[] line, int start, int end) {
+        if (end - start <= queryNameLength)
+            return end - start == queryNameLength && equals(line, start, queryName, queryNameLength);
+        return equals(line, start, queryName, queryNameLength) && Character.isWhitespace(line[start + queryNameLength]);
+    }
+
+    private static boolean equals(byte[] a, int offset, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[offset + i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * determine the tab-separated fields of the line
+     *
+     * @return number of fields, at most NUMBER_OF_FIELDS
      */
-    private String makeSAM(String queryName, String refName, float bitScore, float expect, float percentIdentity, int queryStart, int referenceStart, int referenceEnd, String line) throws IOException {
-        final StringBuilder buffer = new StringBuilder();
-
-        buffer.append(queryName).append("\t");
-        boolean reverseComplemented = (referenceStart > referenceEnd);
-        if (reverseComplemented) {
-            buffer.append(0x10); // SEQ is reverse complemented
-        } else
-            buffer.append(0);
-        buffer.append("\t");
-        buffer.append(refName).append("\t");
-        if (reverseComplemented)
-            buffer.append(referenceEnd).append("\t");
-        else
-            buffer.append(referenceStart).append("\t");
-        buffer.append("255\t");
-
-        buffer.append("*\t");
-        buffer.append("*\t");
-        buffer.append("0\t");
-        buffer.append("0\t");
-        buffer.append("*\t");
-        buffer.append("*\t");
-
-        buffer.append(String.format("AS:i:%d\t", (int) Math.round(bitScore)));
-        buffer.append(String.format("ZE:f:%g\t", expect));
-        buffer.append(String.format("ZI:i:%d\t", (int) Math.round(percentIdentity)));
-        buffer.append(String.format("ZS:i:%s\t", queryStart));
-        buffer.append(String.format("AL:Z:%s\t", Basic.replaceSpaces(line, ' ')));
-
-        return buffer.toString();
+    private int tokenize(byte[] line, int start, int end) {
+        int count = 0;
+        fieldStart[count] = start;
+        for (int i = start; i < end; i++) {
+            if (line[i] == '\t') {
+                fieldEnd[count++] = i;
+                if (count == NUMBER_OF_FIELDS)
+                    return count;
+                fieldStart[count] = i + 1;
+            }
+        }
+        fieldEnd[count++] = end;
+        return count;
+    }
+
+    private int parseIntField(byte[] line, int field, String name) throws IOException {
+        try {
+            return Utilities.parseInt(line, fieldStart[field], fieldEnd[field]);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Expected integer (" + name + "), got: " + Basic.toString(line, fieldStart[field], fieldEnd[field] - fieldStart[field]));
+        }
+    }
+
+    private float parseFloatField(byte[] line, int field, String name) throws IOException {
+        try {
+            return Utilities.parseFloat(line, fieldStart[field], fieldEnd[field]);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Expected float (" + name + "), got: " + Basic.toString(line, fieldStart[field], fieldEnd[field] - fieldStart[field]));
+        }
+    }
+
+    /**
+     * is match a worse than match b? Lower scores are worse, for equal scores, later matches are worse
+     */
+    private static boolean isWorse(TabMatch a, TabMatch b) {
+        return a.bitScore < b.bitScore || (a.bitScore == b.bitScore && a.id > b.id);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (!isWorse(heap[i], heap[parent]))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            final int left = 2 * i + 1;
+            if (left >= size)
+                break;
+            final int child = (left + 1 < size && isWorse(heap[left + 1], heap[left]) ? left + 1 : left);
+            if (!isWorse(heap[child], heap[i]))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final TabMatch tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    private void growHeap() {
+        final TabMatch[] tmp = new TabMatch[Math.min(getMaxNumberOfMatchesPerRead(), Math.max(16, 2 * heap.length))];
+        System.arraycopy(heap, 0, tmp, 0, heap.length);
+        for (int i = heap.length; i < tmp.length; i++)
+            tmp[i] = new TabMatch();
+        heap = tmp;
+    }
+
+    /**
+     * make a SAM line and append it to the matches text
+     */
+    private void writeSAM(TabMatch match) {
+        ensureCapacity(2 * match.lineLength + queryNameLength + 100);
+
+        final boolean reverseComplemented = (match.subjStart > match.subjEnd);
+
+        append(queryName, 0, queryNameLength);
+        append('\t');
+        append(reverseComplemented ? 0x10 : 0); // 0x10: SEQ is reverse complemented
+        append('\t');
+        append(match.line, match.refNameStart, match.refNameEnd - match.refNameStart);
+        append('\t');
+        append(reverseComplemented ? match.subjEnd : match.subjStart);
+        append('\t');
+        append("255\t*\t*\t0\t0\t*\t*\t");
+
+        append("AS:i:");
+        append(Math.round(match.bitScore));
+        append('\t');
+        append("ZE:f:");
+        append(match.line, match.expectStart, match.expectEnd - match.expectStart);
+        append('\t');
+        append("ZI:i:");
+        append(Math.round(match.identity));
+        append('\t');
+        append("ZS:i:");
+        append(match.queryStart);
+        append('\t');
+        append("AL:Z:");
+        for (int i = 0; i < match.lineLength; i++) {
+            final byte b = match.line[i];
+            matchesText[matchesTextLength++] = (Character.isWhitespace(b) ? (byte) ' ' : b);
+        }
+        append('\t');
+        append('\n');
+    }
+
+    private void ensureCapacity(int additional) {
+        if (matchesTextLength + additional >= matchesText.length) {
+            byte[] tmp = new byte[2 * (matchesTextLength + additional)];
+            System.arraycopy(matchesText, 0, tmp, 0, matchesTextLength);
+            matchesText = tmp;
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        System.arraycopy(bytes, offset, matchesText, matchesTextLength, length);
+        matchesTextLength += length;
+    }
+
+    private void append(char c) {
+        matchesText[matchesTextLength++] = (byte) c;
+    }
+
+    private void append(String string) {
+        for (int i = 0; i < string.length(); i++)
+            matchesText[matchesTextLength++] = (byte) string.charAt(i);
+    }
+
+    private void append(int value) {
+        if (value < 0) {
+            matchesText[matchesTextLength++] = '-';
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            matchesText[matchesTextLength++] = (byte) ('0' + (value / divisor) % 10);
+    }
+
+    /**
+     * a match kept for the current query. Instances are reused
+     */
+    private static class TabMatch {
+        float bitScore;
+        int id;
+        float identity;
+        int queryStart;
+        int subjStart;
+        int subjEnd;
+        byte[] line = new byte[256];
+        int lineLength;
+        int refNameStart;
+        int refNameEnd;
+        int expectStart;
+        int expectEnd;
+
+        /**
+         * copy the line, offsets are relative to start of line
+         */
+        void setLine(byte[] bytes, int start, int end, int refNameStart, int refNameEnd, int expectStart, int expectEnd) {
+            lineLength = end - start;
+            if (lineLength > line.length)
+                line = new byte[2 * lineLength];
+            System.arraycopy(bytes, start, line, 0, lineLength);
+            this.refNameStart = refNameStart;
+            this.refNameEnd = refNameEnd;
+            this.expectStart = expectStart;
+            this.expectEnd = expectEnd;
+        }
     }
 }
@@ -76,6 +76,18 @@ public class BlastX2SAMIterator extends SAMIteratorBase implements ISAMIterator
         this.blastPMode = blastPMode;
     }
 
+    /**
+     * constructor for parsing a chunk of a file. Does not check the file format
+     *
+     * @param lineIterator
+     * @param maxNumberOfMatchesPerRead
+     * @param blastPMode
+     */
+    public BlastX2SAMIterator(ILineIterator lineIterator, int maxNumberOfMatchesPerRead, boolean blastPMode) {
+        super(lineIterator, maxNumberOfMatchesPerRead);
+        this.blastPMode = blastPMode;
+    }
+
     /**
      * is there more data?
      *
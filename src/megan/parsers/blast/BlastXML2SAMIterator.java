@@ -19,27 +19,49 @@
 package megan.parsers.blast;
 
 import jloda.util.Basic;
-import megan.parsers.blast.blastxml.BlastXMLParser;
-import megan.parsers.blast.blastxml.BlockingQueue;
-import megan.parsers.blast.blastxml.MatchesText;
+import megan.io.CountingInputStream;
+import megan.io.ParallelGZIPInputStream;
 import megan.util.BlastXMLFileFilter;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.InputStream;
 
 
 /**
- * parses a BlastXML files into SAM format
- * Daniel Huson, 4.2015
+ * parses a BlastXML files into SAM format.
+ * The file is read by a StAX pull parser on the calling thread and the SAM lines are written directly into
+ * a reusable buffer. Element text is collected into reusable byte buffers and numbers are parsed from those
+ * Daniel Huson, 4.2015, 10.2016
  */
 public class BlastXML2SAMIterator implements ISAMIterator {
-    private final ExecutorService executorService;
-    private final BlastXMLParser blastXMLParser;
-    private final BlockingQueue<MatchesText> blockingQueue;
+    private static XMLInputFactory xmlInputFactory;
 
-    private MatchesText matchesText;
+    private final int maxNumberOfMatchesPerRead;
+    private final CountingInputStream countingInputStream;
+    private final InputStream inputStream;
+    private final XMLStreamReader reader;
+    private final long maximumProgress;
+
+    private boolean atIteration = false;
+    private boolean done = false;
+
+    private byte[] matchesText = new byte[10000];
+    private int matchesTextLength = 0;
+
+    private final Text queryDef = new Text();
+    private final Text value = new Text(); // text of current numerical element
+    private XMLHit hit = new XMLHit(); // hit currently being parsed, swapped into the heap if kept
+    private XMLHSP hsp = new XMLHSP(); // HSP currently being parsed, swapped into the hit if best
+
+    private XMLHit[] heap = new XMLHit[0]; // min-heap, worst match at root. Entries are reused
+    private int heapSize = 0;
+    private int matchId = 0; // used to distinguish between matches when sorting
 
     /**
      * constructor
@@ -49,37 +71,57 @@ public class BlastXML2SAMIterator implements ISAMIterator {
      */
     public BlastXML2SAMIterator(String fileName, int maxNumberOfMatchesPerRead) throws IOException {
         if (!BlastXMLFileFilter.getInstance().accept(fileName)) {
-            close();
             throw new IOException("File not a BLAST file in XML format: " + fileName);
         }
+        this.maxNumberOfMatchesPerRead = maxNumberOfMatchesPerRead;
 
-        blockingQueue = new BlockingQueue<>();
-
-        blastXMLParser = new BlastXMLParser(new File(fileName), blockingQueue, maxNumberOfMatchesPerRead);
-
-        executorService = Executors.newSingleThreadExecutor();
-        executorService.execute(new Runnable() {
-            public void run() {
-                try {
-                    blastXMLParser.apply();
-                } catch (Exception e) {
-                    Basic.caught(e);
-                } finally {
-                    executorService.shutdown();
-                }
-            }
-        });
+        countingInputStream = new CountingInputStream(new FileInputStream(fileName));
+        inputStream = ParallelGZIPInputStream.getInputStreamPossiblyZIPorGZIP(countingInputStream, fileName);
+        maximumProgress = new File(fileName).length();
+        try {
+            reader = getXMLInputFactory().createXMLStreamReader(inputStream);
+        } catch (XMLStreamException ex) {
+            inputStream.close();
+            throw new IOException(ex);
+        }
+    }
 
+    /**
+     * gets the shared factory. DTDs and external entities are not loaded
+     *
+     * @return factory
+     */
+    private static synchronized XMLInputFactory getXMLInputFactory() {
+        if (xmlInputFactory == null) {
+            xmlInputFactory = XMLInputFactory.newInstance();
+            xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        }
+        return xmlInputFactory;
     }
 
     /**
-     * is there more data?
+     * is there more data? Moves the parser to the start of the next iteration
      *
      * @return true, if more data available
      */
     @Override
     public boolean hasNext() {
-        return !blockingQueue.isOutputDone() || blockingQueue.size() > 1;
+        if (!atIteration && !done) {
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("Iteration")) {
+                        atIteration = true;
+                        return true;
+                    }
+                }
+            } catch (XMLStreamException ex) {
+                System.err.println("Error parsing file near line: " + reader.getLocation().getLineNumber() + ": " + ex.getMessage());
+            }
+            done = true;
+        }
+        return atIteration;
     }
 
     /**
@@ -88,11 +130,189 @@ public class BlastXML2SAMIterator implements ISAMIterator {
      * @return number of matches
      */
     public int next() {
-        if (hasNext()) {
-            matchesText = blockingQueue.take();
-            return matchesText.getNumberOfMatches();
-        } else
+        if (!hasNext())
             return -1;
+        atIteration = false;
+
+        matchesTextLength = 0;
+        heapSize = 0;
+        matchId = 0;
+        queryDef.clear();
+
+        try {
+            parseIteration();
+        } catch (XMLStreamException ex) {
+            System.err.println("Error parsing file near line: " + reader.getLocation().getLineNumber() + ": " + ex.getMessage());
+            done = true;
+        }
+
+        if (heapSize == 0) { // no matches, so return query name only
+            ensureCapacity(queryDef.length + 1);
+            append(queryDef.bytes, 0, queryDef.length);
+            append('\n');
+            return 0;
+        } else {
+            // heap sort, leaves best match first:
+            for (int last = heapSize - 1; last > 0; last--) {
+                swap(0, last);
+                siftDown(0, last);
+            }
+            for (int i = 0; i < heapSize; i++) {
+                writeSAM(heap[i]);
+            }
+            return heapSize;
+        }
+    }
+
+    /**
+     * parse the current iteration up to and including its end element
+     *
+     * @throws XMLStreamException
+     */
+    private void parseIteration() throws XMLStreamException {
+        Text target = null;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    target = startElement(reader.getLocalName());
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (target != null)
+                        target.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    target = null;
+                    if (endElement(reader.getLocalName()))
+                        return;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * start an element
+     *
+     * @param name
+     * @return the buffer that receives the text of the element, or null, if text is not needed
+     */
+    private Text startElement(String name) {
+        switch (name) {
+            case "Iteration_query-def":
+                queryDef.clear();
+                return queryDef;
+            case "Hit":
+                hit.clear();
+                return null;
+            case "Hit_def":
+                hit.def.clear();
+                return hit.def;
+            case "Hsp":
+                hsp.clear();
+                return null;
+            case "Hsp_evalue":
+                hsp.expect.clear();
+                return hsp.expect;
+            case "Hsp_qseq":
+                hsp.qSeq.clear();
+                return hsp.qSeq;
+            case "Hsp_hseq":
+                hsp.hSeq.clear();
+                return hsp.hSeq;
+            case "Hit_len":
+            case "Hsp_bit-score":
+            case "Hsp_score":
+            case "Hsp_query-from":
+            case "Hsp_query-to":
+            case "Hsp_hit-from":
+            case "Hsp_query-frame":
+            case "Hsp_identity":
+                value.clear();
+                return value;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * end an element
+     *
+     * @param name
+     * @return true, if this ends the current iteration
+     */
+    private boolean endElement(String name) {
+        switch (name) {
+            case "Iteration":
+                return true;
+            case "Hit_len":
+                hit.len = value.parseInt();
+                break;
+            case "Hsp_bit-score":
+                hsp.bitScore = value.parseFloat();
+                break;
+            case "Hsp_score":
+                hsp.score = (int) value.parseFloat();
+                break;
+            case "Hsp_query-from":
+                hsp.queryFrom = value.parseInt();
+                break;
+            case "Hsp_query-to":
+                hsp.queryTo = value.parseInt();
+                break;
+            case "Hsp_hit-from":
+                hsp.hitFrom = value.parseInt();
+                break;
+            case "Hsp_query-frame":
+                hsp.queryFrame = value.parseInt();
+                break;
+            case "Hsp_identity":
+                hsp.identity = value.parseInt();
+                break;
+            case "Hsp":
+                // a hit can have more than one HSP but we only keep the best one
+                if (!hit.hasHSP || hsp.bitScore > hit.hsp.bitScore) {
+                    final XMLHSP tmp = hit.hsp;
+                    hit.hsp = hsp;
+                    hit.hasHSP = true;
+                    hsp = tmp;
+                }
+                break;
+            case "Hit":
+                if (hit.hasHSP)
+                    addHit();
+                break;
+        }
+        return false;
+    }
+
+    /**
+     * keep the current hit, if it is among the best ones seen so far
+     */
+    private void addHit() {
+        final float bitScore = hit.hsp.bitScore;
+        final int slot;
+        final boolean replaceWorst;
+        if (heapSize < maxNumberOfMatchesPerRead) {
+            if (heapSize == heap.length)
+                growHeap();
+            slot = heapSize++;
+            replaceWorst = false;
+        } else if (heapSize > 0 && bitScore > heap[0].hsp.bitScore) {
+            slot = 0;
+            replaceWorst = true;
+        } else
+            return;
+
+        hit.id = matchId++;
+        final XMLHit tmp = heap[slot];
+        heap[slot] = hit;
+        hit = tmp;
+
+        if (replaceWorst)
+            siftDown(0, heapSize);
+        else
+            siftUp(heapSize - 1);
     }
 
     /**
@@ -102,7 +322,7 @@ public class BlastXML2SAMIterator implements ISAMIterator {
      */
     @Override
     public byte[] getMatchesText() {
-        return matchesText.getText();
+        return matchesText;
     }
 
     /**
@@ -112,25 +332,379 @@ public class BlastXML2SAMIterator implements ISAMIterator {
      */
     @Override
     public int getMatchesTextLength() {
-        return matchesText.getLengthOfText();
+        return matchesTextLength;
     }
 
     @Override
     public long getMaximumProgress() {
-        return blastXMLParser.getMaximumProgress();
+        return maximumProgress;
     }
 
     @Override
     public long getProgress() {
-        return blastXMLParser.getProgress();
+        return countingInputStream.getCount();
     }
 
     @Override
     public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            inputStream.close();
+        }
     }
 
     @Override
     public byte[] getQueryText() {
         return null;
     }
+
+    /**
+     * is match a worse than match b? Lower scores are worse, for equal scores, later matches are worse
+     */
+    private static boolean isWorse(XMLHit a, XMLHit b) {
+        return a.hsp.bitScore < b.hsp.bitScore || (a.hsp.bitScore == b.hsp.bitScore && a.id > b.id);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (!isWorse(heap[i], heap[parent]))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            final int left = 2 * i + 1;
+            if (left >= size)
+                break;
+            final int child = (left + 1 < size && isWorse(heap[left + 1], heap[left]) ? left + 1 : left);
+            if (!isWorse(heap[child], heap[i]))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final XMLHit tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    private void growHeap() {
+        final XMLHit[] tmp = new XMLHit[Math.min(maxNumberOfMatchesPerRead, Math.max(16, 2 * heap.length))];
+        System.arraycopy(heap, 0, tmp, 0, heap.length);
+        for (int i = heap.length; i < tmp.length; i++)
+            tmp[i] = new XMLHit();
+        heap = tmp;
+    }
+
+    /**
+     * make a SAM line and append it to the matches text
+     */
+    private void writeSAM(XMLHit match) {
+        final XMLHSP hsp = match.hsp;
+        final byte[] alignedQuery = hsp.qSeq.bytes;
+        final byte[] alignedReference = hsp.hSeq.bytes;
+        final int alignmentLength = Math.min(hsp.qSeq.length, hsp.hSeq.length);
+
+        ensureCapacity(queryDef.length + match.def.length + hsp.expect.length + 6 * alignmentLength + 200);
+
+        append(queryDef.bytes, 0, queryDef.length);
+        append("\t0\t");
+        append(match.def.bytes, 0, match.def.length);
+        append('\t');
+        append(hsp.hitFrom);
+        append("\t255\t");
+        appendCigar(alignedQuery, alignedReference, alignmentLength);
+        append("\t*\t0\t0\t");
+        for (int i = 0; i < alignmentLength; i++) {
+            if (alignedQuery[i] != '-')
+                matchesText[matchesTextLength++] = alignedQuery[i];
+        }
+        append("\t*\t");
+
+        append("AS:i:");
+        append(Math.round(hsp.bitScore));
+        append("\tNM:i:");
+        append(computeEditDistance(alignedQuery, alignedReference, alignmentLength));
+        append("\tZL:i:");
+        append(match.len);
+        append("\tZR:i:");
+        append(hsp.score);
+        append("\tZE:f:");
+        appendTrimmed(hsp.expect);
+        append("\tZI:i:");
+        append(hsp.identity);
+        append('\t');
+        if (hsp.queryFrame != 0) {
+            append("ZF:i:");
+            append(hsp.queryFrame);
+            append('\t');
+        }
+        append("ZS:i:");
+        append(hsp.queryFrame >= 0 ? hsp.queryFrom : hsp.queryTo);
+        append('\t');
+        appendMDString(alignedQuery, alignedReference, alignmentLength);
+        append('\n');
+    }
+
+    /**
+     * append the cigar string, see Utilities.appendCigar()
+     */
+    private void appendCigar(byte[] alignedQuery, byte[] alignedReference, int length) {
+        char cigarState = 'M'; // M in match, D deletion, I insertion
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            final char state = (alignedQuery[i] == '-' ? 'D' : alignedReference[i] == '-' ? 'I' : 'M');
+            if (state == cigarState) {
+                count++;
+            } else if (count > 0) {
+                append(count);
+                append(cigarState);
+                cigarState = state;
+                count = 1;
+            }
+        }
+        if (count > 0) {
+            append(count);
+            append(cigarState);
+        }
+    }
+
+    /**
+     * append the MD string, see Utilities.appendMDString()
+     */
+    private void appendMDString(byte[] alignedQuery, byte[] alignedReference, int length) {
+        append("MD:Z:");
+        int countMatches = 0;
+        boolean inDeletion = false;
+        for (int i = 0; i < length; i++) {
+            final byte qChar = alignedQuery[i];
+            final byte rChar = alignedReference[i];
+
+            if (qChar == '-') { // gap in query
+                if (countMatches > 0) {
+                    append(countMatches);
+                    countMatches = 0;
+                }
+                if (!inDeletion) {
+                    append('^');
+                    inDeletion = true;
+                }
+                matchesText[matchesTextLength++] = rChar;
+            } else if (rChar != '-') {  // match or mismatch
+                if (qChar == rChar) {
+                    countMatches++;
+                } else {
+                    if (inDeletion)
+                        append('0');
+                    if (countMatches > 0) {
+                        append(countMatches);
+                        countMatches = 0;
+                    }
+                    matchesText[matchesTextLength++] = rChar;
+                }
+                if (inDeletion)
+                    inDeletion = false;
+            }
+            // else alignedReference[i] == '-': this has no effect
+        }
+        if (countMatches > 0)
+            append(countMatches);
+        else if (inDeletion)
+            append('0');
+    }
+
+    /**
+     * compute edit distance from alignment, see Utilities.computeEditDistance()
+     */
+    private static int computeEditDistance(byte[] alignedQuery, byte[] alignedReference, int length) {
+        int distance = 0;
+        for (int i = 0; i < length; i++) {
+            if (alignedQuery[i] == '-' || alignedReference[i] == '-' || alignedQuery[i] != alignedReference[i])
+                distance++;
+        }
+        return distance;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (matchesTextLength + additional >= matchesText.length) {
+            byte[] tmp = new byte[2 * (matchesTextLength + additional)];
+            System.arraycopy(matchesText, 0, tmp, 0, matchesTextLength);
+            matchesText = tmp;
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        System.arraycopy(bytes, offset, matchesText, matchesTextLength, length);
+        matchesTextLength += length;
+    }
+
+    private void appendTrimmed(Text text) {
+        int start = 0;
+        int end = text.length;
+        while (start < end && Character.isWhitespace(text.bytes[start]))
+            start++;
+        while (end > start && Character.isWhitespace(text.bytes[end - 1]))
+            end--;
+        append(text.bytes, start, end - start);
+    }
+
+    private void append(char c) {
+        matchesText[matchesTextLength++] = (byte) c;
+    }
+
+    private void append(String string) {
+        for (int i = 0; i < string.length(); i++)
+            matchesText[matchesTextLength++] = (byte) string.charAt(i);
+    }
+
+    private void append(int value) {
+        if (value < 0) {
+            matchesText[matchesTextLength++] = '-';
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            matchesText[matchesTextLength++] = (byte) ('0' + (value / divisor) % 10);
+    }
+
+    /**
+     * reusable buffer for the text of an element, encoded as UTF-8
+     */
+    private static class Text {
+        byte[] bytes = new byte[256];
+        int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void append(char[] chars, int start, int count) {
+            if (length + 4 * count > bytes.length) {
+                final byte[] tmp = new byte[2 * (length + 4 * count)];
+                System.arraycopy(bytes, 0, tmp, 0, length);
+                bytes = tmp;
+            }
+            final int end = start + count;
+            for (int i = start; i < end; i++) {
+                final char c = chars[i];
+                if (c < 0x80) {
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xC0 | (c >> 6));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                    final int codePoint = Character.toCodePoint(c, chars[++i]);
+                    bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    bytes[length++] = (byte) (0xE0 | (c >> 12));
+                    bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * parse the text as an integer. Unusual input is handed to Basic.parseInt()
+         */
+        int parseInt() {
+            final int start = trimStart();
+            final int end = trimEnd(start);
+            try {
+                return Utilities.parseInt(bytes, start, end);
+            } catch (NumberFormatException ex) {
+                return Basic.parseInt(toString());
+            }
+        }
+
+        /**
+         * parse the text as a float. Unusual input is handed to Basic.parseFloat()
+         */
+        float parseFloat() {
+            final int start = trimStart();
+            final int end = trimEnd(start);
+            try {
+                return Utilities.parseFloat(bytes, start, end);
+            } catch (NumberFormatException ex) {
+                return Basic.parseFloat(toString());
+            }
+        }
+
+        private int trimStart() {
+            int start = 0;
+            while (start < length && Character.isWhitespace(bytes[start]))
+                start++;
+            return start;
+        }
+
+        private int trimEnd(int start) {
+            int end = length;
+            while (end > start && Character.isWhitespace(bytes[end - 1]))
+                end--;
+            return end;
+        }
+
+        public String toString() {
+            return Basic.toString(bytes, 0, length);
+        }
+    }
+
+    /**
+     * a hit, as retrieved from the XML file. Instances are reused
+     */
+    private static class XMLHit {
+        final Text def = new Text();
+        int len;
+        XMLHSP hsp = new XMLHSP(); // best HSP of hit, if hasHSP is set
+        boolean hasHSP;
+        int id;
+
+        void clear() {
+            def.clear();
+            len = 0;
+            hasHSP = false;
+        }
+    }
+
+    /**
+     * the parts of a Blast HSP that go into the SAM line. Instances are reused
+     */
+    private static class XMLHSP {
+        float bitScore;
+        int score;
+        final Text expect = new Text();
+        int queryFrom;
+        int queryTo;
+        int hitFrom;
+        int queryFrame;
+        int identity;
+        final Text qSeq = new Text();
+        final Text hSeq = new Text();
+
+        void clear() {
+            bitScore = 0;
+            score = 0;
+            expect.clear();
+            queryFrom = 0;
+            queryTo = 0;
+            hitFrom = 0;
+            queryFrame = 0;
+            identity = 0;
+            qSeq.clear();
+            hSeq.clear();
+        }
+    }
 }
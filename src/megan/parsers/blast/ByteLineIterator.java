@@ -0,0 +1,245 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.blast;
+
+import jloda.util.Basic;
+import megan.io.CountingInputStream;
+import megan.io.ParallelGZIPInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * iterates over the lines of a file or of a chunk of bytes.
+ * Lines can be accessed as strings or in place as bytes, using advance() and getLineBuffer()
+ * <p/>
+ * Daniel Huson, 10.2016
+ */
+public class ByteLineIterator implements ILineIterator {
+    private final InputStream inputStream;
+    private final CountingInputStream countingInputStream;
+    private final long maximumProgress;
+
+    private byte[] buffer;
+    private int limit;
+    private boolean eof;
+
+    private int position = 0;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private long lineNumber;
+    private boolean skipCommentLines = false;
+
+    /**
+     * iterate over the lines of a file, which may be gzip or zip compressed. Gzip files are decompressed on separate threads
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public ByteLineIterator(String fileName) throws IOException {
+        countingInputStream = new CountingInputStream(new FileInputStream(fileName));
+        inputStream = ParallelGZIPInputStream.getInputStreamPossiblyZIPorGZIP(countingInputStream, fileName);
+        maximumProgress = new File(fileName).length();
+        buffer = new byte[1024 * 1024];
+        limit = 0;
+        eof = false;
+        lineNumber = 0;
+    }
+
+    /**
+     * iterate over the lines contained in a chunk of bytes
+     *
+     * @param bytes           the chunk
+     * @param length          number of bytes in use
+     * @param firstLineNumber line number of first line in chunk, minus one
+     */
+    public ByteLineIterator(byte[] bytes, int length, long firstLineNumber) {
+        inputStream = null;
+        countingInputStream = null;
+        maximumProgress = length;
+        buffer = bytes;
+        limit = length;
+        eof = true;
+        lineNumber = firstLineNumber;
+    }
+
+    /**
+     * is there a next line?
+     *
+     * @return true, if next line available
+     */
+    @Override
+    public boolean hasNext() {
+        while (position < limit || fill()) {
+            if (skipCommentLines && buffer[position] == '#') {
+                locateLine();
+                lineNumber++;
+            } else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * moves to the next line, which can then be accessed using getLineBuffer(), getLineStart() and getLineLength().
+     * The line remains valid until the next call of hasNext(), advance() or next()
+     *
+     * @return true, if there was a next line
+     */
+    public boolean advance() {
+        if (!hasNext())
+            return false;
+        locateLine();
+        lineNumber++;
+        return true;
+    }
+
+    /**
+     * push back the line obtained by the last call of advance(), so that it will be returned again
+     */
+    public void pushBack() {
+        position = lineStart;
+        lineNumber--;
+    }
+
+    /**
+     * gets the next line
+     *
+     * @return next line or null
+     */
+    @Override
+    public String next() {
+        if (!advance())
+            return null;
+        return Basic.toString(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * gets the buffer containing the current line
+     *
+     * @return buffer
+     */
+    public byte[] getLineBuffer() {
+        return buffer;
+    }
+
+    /**
+     * gets the start of the current line in the buffer
+     *
+     * @return start
+     */
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * gets the length of the current line, excluding the end of line characters
+     *
+     * @return length
+     */
+    public int getLineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * determines the extent of the line starting at the current position and moves the position to the start of the next line
+     */
+    private void locateLine() {
+        int i = position;
+        while (true) {
+            while (i < limit && buffer[i] != '\n')
+                i++;
+            if (i < limit || eof)
+                break;
+            // line continues beyond end of buffer, move it to the start of the buffer and read more
+            i -= position;
+            if (!fill())
+                i = limit;
+        }
+        lineStart = position;
+        lineEnd = i;
+        position = (i < limit ? i + 1 : limit);
+        if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r')
+            lineEnd--;
+    }
+
+    /**
+     * moves the unprocessed bytes to the start of the buffer, growing it if necessary, and reads more bytes
+     *
+     * @return true, if more bytes were read
+     */
+    private boolean fill() {
+        if (eof)
+            return false;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            final byte[] tmp = new byte[2 * buffer.length];
+            System.arraycopy(buffer, 0, tmp, 0, limit);
+            buffer = tmp;
+        }
+        try {
+            final int count = inputStream.read(buffer, limit, buffer.length - limit);
+            if (count == -1) {
+                eof = true;
+                return false;
+            }
+            limit += count;
+            return true;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public long getMaximumProgress() {
+        return maximumProgress;
+    }
+
+    @Override
+    public long getProgress() {
+        return countingInputStream != null ? countingInputStream.getCount() : position;
+    }
+
+    @Override
+    public void setSkipCommentLines(boolean skip) {
+        skipCommentLines = skip;
+    }
+
+    @Override
+    public boolean isSkipCommentLines() {
+        return skipCommentLines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inputStream != null)
+            inputStream.close();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.blast;
+
+import java.io.IOException;
+
+/**
+ * source of lines for a parser
+ * <p/>
+ * Daniel Huson, 10.2016
+ */
+public interface ILineIterator {
+    /**
+     * is there a next line?
+     *
+     * @return true, if next line available
+     */
+    boolean hasNext();
+
+    /**
+     * gets the next line
+     *
+     * @return next line
+     */
+    String next();
+
+    /**
+     * gets the number of the line most recently returned
+     *
+     * @return line number
+     */
+    long getLineNumber();
+
+    long getMaximumProgress();
+
+    long getProgress();
+
+    void setSkipCommentLines(boolean skip);
+
+    boolean isSkipCommentLines();
+
+    void close() throws IOException;
+}
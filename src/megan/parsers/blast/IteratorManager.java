@@ -38,8 +38,25 @@ public class IteratorManager {
      * @throws IOException
      */
     public static ISAMIterator getIterator(String blastFile, BlastFileFormat format, BlastMode blastMode, int maxMatchesPerRead) throws IOException {
+        return getIterator(blastFile, format, blastMode, maxMatchesPerRead, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * gets the iterator for the given file, format and blastMode
+     *
+     * @param blastFile
+     * @param format
+     * @param blastMode
+     * @param maxMatchesPerRead
+     * @param numberOfThreads   max number of threads used to parse the file
+     * @return iterator
+     * @throws IOException
+     */
+    public static ISAMIterator getIterator(String blastFile, BlastFileFormat format, BlastMode blastMode, int maxMatchesPerRead, int numberOfThreads) throws IOException {
         final ISAMIterator iterator;
-        if (format == BlastFileFormat.SAM)
+        if (numberOfThreads > 1 && ParallelSAMIterator.isSupported(format, blastMode))
+            iterator = new ParallelSAMIterator(blastFile, format, blastMode, maxMatchesPerRead, numberOfThreads);
+        else if (format == BlastFileFormat.SAM)
             iterator = new SAM2SAMIterator(blastFile, maxMatchesPerRead);
         else if (format == BlastFileFormat.DAA) {
             iterator = new DAA2SAMIterator(blastFile, maxMatchesPerRead);
@@ -0,0 +1,454 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.blast;
+
+import megan.io.CountingInputStream;
+import megan.io.ParallelGZIPInputStream;
+import megan.util.BlastNTextFileFilter;
+import megan.util.BlastPTextFileFilter;
+import megan.util.BlastXTextFileFilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * parses a BLAST text or tabular file in parallel.
+ * A reader thread splits the input into chunks that end on query boundaries, worker threads
+ * parse the chunks using the standard parsers and the resulting matches are reported in input order
+ * <p/>
+ * Daniel Huson, 10.2016
+ */
+public class ParallelSAMIterator implements ISAMIterator {
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final byte[] NEW_QUERY = ("\n" + BlastX2SAMIterator.NEW_QUERY).getBytes();
+
+    private final String fileName;
+    private final BlastFileFormat format;
+    private final BlastMode blastMode;
+    private final int maxMatchesPerRead;
+
+    private final long maximumProgress;
+    private final ExecutorService executorService;
+    private final ArrayBlockingQueue<Future<Batch>> queue;
+    private final Thread readerThread;
+    private volatile Exception readerException;
+    private volatile boolean closed = false;
+
+    private Batch batch;
+    private int indexInBatch;
+    private boolean done = false;
+    private long progress = 0;
+
+    private byte[] matchesText = new byte[10000];
+    private int matchesTextLength = 0;
+    private byte[] queryText;
+
+    /**
+     * can files of the given format and mode be parsed in parallel?
+     *
+     * @param format
+     * @param blastMode
+     * @return true, if supported
+     */
+    public static boolean isSupported(BlastFileFormat format, BlastMode blastMode) {
+        return format == BlastFileFormat.BlastTab || (format == BlastFileFormat.BlastText && (blastMode == BlastMode.BlastX || blastMode == BlastMode.BlastP || blastMode == BlastMode.BlastN));
+    }
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param format            must be supported, see isSupported()
+     * @param blastMode
+     * @param maxMatchesPerRead
+     * @param numberOfThreads   number of parsing threads
+     * @throws IOException
+     */
+    public ParallelSAMIterator(String fileName, BlastFileFormat format, BlastMode blastMode, int maxMatchesPerRead, int numberOfThreads) throws IOException {
+        if (!isSupported(format, blastMode))
+            throw new IOException("Parallel parsing not supported for file format: " + format + " and alignment mode: " + blastMode);
+        checkFileFormat(fileName, format, blastMode);
+
+        this.fileName = fileName;
+        this.format = format;
+        this.blastMode = blastMode;
+        this.maxMatchesPerRead = maxMatchesPerRead;
+        this.maximumProgress = new File(fileName).length();
+
+        final CountingInputStream countingInputStream = new CountingInputStream(new FileInputStream(fileName));
+        final InputStream inputStream = ParallelGZIPInputStream.getInputStreamPossiblyZIPorGZIP(countingInputStream, fileName);
+
+        executorService = Executors.newFixedThreadPool(Math.max(1, numberOfThreads));
+        queue = new ArrayBlockingQueue<>(2 * Math.max(1, numberOfThreads));
+
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readChunks(inputStream, countingInputStream);
+                } catch (InterruptedException ignored) {
+                } catch (Exception ex) {
+                    readerException = ex;
+                } finally {
+                    executorService.shutdown(); // all chunks submitted, let the workers finish them
+                    try {
+                        inputStream.close();
+                    } catch (IOException ignored) {
+                    }
+                    if (!closed) {
+                        try {
+                            queue.put(createEndOfInput());
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            }
+        }, "ParallelSAMIteratorReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * check the file format, as done by the sequential parsers
+     *
+     * @param fileName
+     * @param format
+     * @param blastMode
+     * @throws IOException
+     */
+    private static void checkFileFormat(String fileName, BlastFileFormat format, BlastMode blastMode) throws IOException {
+        if (format == BlastFileFormat.BlastTab) {
+            if (!BlastTab2SAMIterator.isBlastTabFile(fileName))
+                throw new IOException("File not a BLAST file in tabular format: " + fileName);
+        } else if (blastMode == BlastMode.BlastX) {
+            if (!BlastXTextFileFilter.getInstance().accept(fileName))
+                throw new IOException("File not a BLASTX file in text format: " + fileName);
+        } else if (blastMode == BlastMode.BlastP) {
+            if (!BlastPTextFileFilter.getInstance().accept(fileName))
+                throw new IOException("File not a BLASTP file in text format: " + fileName);
+        } else if (blastMode == BlastMode.BlastN) {
+            if (!BlastNTextFileFilter.getInstance().accept(fileName))
+                throw new IOException("File not a BLASTN file in text format: " + fileName);
+        }
+    }
+
+    /**
+     * reads the input, splits it into chunks on query boundaries and submits them for parsing
+     *
+     * @param inputStream
+     * @param countingInputStream used to report progress
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void readChunks(InputStream inputStream, CountingInputStream countingInputStream) throws IOException, InterruptedException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int length = 0;
+        long lineNumber = 0;
+
+        while (!closed) {
+            boolean eof = false;
+            while (length < buffer.length) {
+                final int count = inputStream.read(buffer, length, buffer.length - length);
+                if (count == -1) {
+                    eof = true;
+                    break;
+                }
+                length += count;
+            }
+            if (eof) {
+                if (length > 0)
+                    submit(buffer, length, lineNumber, countingInputStream.getCount());
+                break;
+            }
+            final int boundary = findLastQueryStart(buffer, length);
+            if (boundary <= 0) { // chunk contains no query boundary, need to read more
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                continue;
+            }
+            final byte[] next = new byte[Math.max(CHUNK_SIZE, 2 * (length - boundary))];
+            System.arraycopy(buffer, boundary, next, 0, length - boundary);
+            submit(buffer, boundary, lineNumber, countingInputStream.getCount());
+            lineNumber += countLines(buffer, boundary);
+            buffer = next;
+            length -= boundary;
+        }
+    }
+
+    /**
+     * submit a chunk for parsing
+     */
+    private void submit(final byte[] chunk, final int length, final long firstLineNumber, final long progress) throws InterruptedException {
+        queue.put(executorService.submit(new Callable<Batch>() {
+            @Override
+            public Batch call() throws Exception {
+                return parseChunk(chunk, length, firstLineNumber, progress);
+            }
+        }));
+    }
+
+    /**
+     * parse a chunk using the sequential parser for the format
+     *
+     * @return the parsed matches
+     */
+    private Batch parseChunk(byte[] chunk, int length, long firstLineNumber, long progress) throws IOException {
+        final ByteLineIterator lineIterator = new ByteLineIterator(chunk, length, firstLineNumber);
+        final ISAMIterator iterator;
+        if (format == BlastFileFormat.BlastTab)
+            iterator = new BlastTab2SAMIterator(lineIterator, maxMatchesPerRead);
+        else if (blastMode == BlastMode.BlastX)
+            iterator = new BlastX2SAMIterator(lineIterator, maxMatchesPerRead, false);
+        else if (blastMode == BlastMode.BlastP)
+            iterator = new BlastP2SAMIterator(lineIterator, maxMatchesPerRead);
+        else
+            iterator = new BlastN2SAMIterator(lineIterator, maxMatchesPerRead);
+
+        final Batch batch = new Batch(progress);
+        while (iterator.hasNext()) {
+            final int numberOfMatches = iterator.next();
+            if (numberOfMatches >= 0) // negative, if no further query found
+                batch.add(numberOfMatches, iterator.getMatchesText(), iterator.getMatchesTextLength(), iterator.getQueryText());
+        }
+        iterator.close();
+        return batch;
+    }
+
+    /**
+     * find the start of the last query in the buffer
+     *
+     * @param buffer
+     * @param length
+     * @return start of line at which last query begins, or -1, if not found
+     */
+    private int findLastQueryStart(byte[] buffer, int length) {
+        if (format == BlastFileFormat.BlastTab) {
+            // the last complete match line determines the last query, find the first line of that query:
+            int lineEnd = lastIndexOf(buffer, length - 1, (byte) '\n');
+            int nameStart = -1;
+            int nameLength = 0;
+            int boundary = -1;
+            while (lineEnd > 0) {
+                final int lineStart = lastIndexOf(buffer, lineEnd - 1, (byte) '\n') + 1;
+                if (lineStart < lineEnd && buffer[lineStart] != '#') { // skip comment and empty lines
+                    final int wordLength = firstWordLength(buffer, lineStart, lineEnd);
+                    if (nameStart == -1) {
+                        nameStart = lineStart;
+                        nameLength = wordLength;
+                    } else if (wordLength != nameLength || !equals(buffer, lineStart, nameStart, nameLength))
+                        return boundary; // this line belongs to a different query
+                    boundary = lineStart;
+                }
+                lineEnd = lineStart - 1;
+            }
+            return -1;
+        } else {
+            for (int i = length - NEW_QUERY.length; i >= 0; i--) {
+                if (buffer[i] == '\n' && equals(buffer, i, NEW_QUERY))
+                    return i + 1;
+            }
+            return -1;
+        }
+    }
+
+    private static int lastIndexOf(byte[] buffer, int from, byte b) {
+        for (int i = from; i >= 0; i--) {
+            if (buffer[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int firstWordLength(byte[] buffer, int start, int end) {
+        int i = start;
+        while (i < end && !Character.isWhitespace(buffer[i]))
+            i++;
+        return i - start;
+    }
+
+    private static boolean equals(byte[] buffer, int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[a + i] != buffer[b + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] buffer, int offset, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (buffer[offset + i] != pattern[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int countLines(byte[] buffer, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * is there more data?
+     *
+     * @return true, if more data available
+     */
+    @Override
+    public boolean hasNext() throws IOException {
+        while (batch == null || indexInBatch >= batch.size) {
+            if (done)
+                return false;
+            try {
+                batch = queue.take().get();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                throw new IOException("Error parsing file: " + fileName + ": " + ex.getCause().getMessage(), ex.getCause());
+            }
+            indexInBatch = 0;
+            if (batch.isEndOfInput()) {
+                done = true;
+                batch = null;
+                if (readerException != null)
+                    throw new IOException(readerException);
+                progress = maximumProgress;
+                return false;
+            }
+            progress = batch.progress;
+        }
+        return true;
+    }
+
+    /**
+     * gets the next matches
+     *
+     * @return number of matches
+     */
+    @Override
+    public int next() {
+        try {
+            if (!hasNext())
+                return -1;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        final int i = indexInBatch++;
+        matchesTextLength = batch.offsets[i + 1] - batch.offsets[i];
+        if (matchesTextLength >= matchesText.length)
+            matchesText = new byte[2 * matchesTextLength];
+        System.arraycopy(batch.text, batch.offsets[i], matchesText, 0, matchesTextLength);
+        queryText = (batch.queryTexts != null && i < batch.queryTexts.length ? batch.queryTexts[i] : null);
+        return batch.numberOfMatches[i];
+    }
+
+    @Override
+    public byte[] getMatchesText() {
+        return matchesText;
+    }
+
+    @Override
+    public byte[] getQueryText() {
+        return queryText;
+    }
+
+    @Override
+    public int getMatchesTextLength() {
+        return matchesTextLength;
+    }
+
+    @Override
+    public long getMaximumProgress() {
+        return maximumProgress;
+    }
+
+    @Override
+    public long getProgress() {
+        return progress;
+    }
+
+    /**
+     * close the iterator, stopping all threads
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        readerThread.interrupt();
+        executorService.shutdownNow();
+        queue.clear();
+    }
+
+    private static Future<Batch> createEndOfInput() {
+        final FutureTask<Batch> task = new FutureTask<>(new Callable<Batch>() {
+            @Override
+            public Batch call() throws Exception {
+                return new Batch(-1);
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * the queries parsed from one chunk, in input order
+     */
+    private static class Batch {
+        private final long progress;
+        private int size = 0;
+        private int[] numberOfMatches = new int[1000];
+        private int[] offsets = new int[1001];
+        private byte[] text = new byte[1024 * 1024];
+        private byte[][] queryTexts;
+
+        Batch(long progress) {
+            this.progress = progress;
+        }
+
+        boolean isEndOfInput() {
+            return progress == -1;
+        }
+
+        void add(int count, byte[] matchesText, int matchesTextLength, byte[] queryText) {
+            if (size + 1 == numberOfMatches.length) {
+                numberOfMatches = Arrays.copyOf(numberOfMatches, 2 * numberOfMatches.length);
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            final int offset = offsets[size];
+            if (offset + matchesTextLength > text.length)
+                text = Arrays.copyOf(text, Math.max(2 * text.length, offset + matchesTextLength));
+            System.arraycopy(matchesText, 0, text, offset, matchesTextLength);
+            if (queryText != null) {
+                if (queryTexts == null)
+                    queryTexts = new byte[numberOfMatches.length][];
+                else if (queryTexts.length < numberOfMatches.length)
+                    queryTexts = Arrays.copyOf(queryTexts, numberOfMatches.length);
+                queryTexts[size] = queryText.clone();
+            }
+            numberOfMatches[size] = count;
+            offsets[++size] = offset + matchesTextLength;
+        }
+    }
+}
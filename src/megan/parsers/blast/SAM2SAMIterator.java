@@ -19,7 +19,6 @@
 package megan.parsers.blast;
 
 import jloda.util.Basic;
-import jloda.util.FileIterator;
 import megan.io.Compressor;
 import megan.util.SAMFileFilter;
 
@@ -30,11 +29,9 @@ import java.io.IOException;
  * Daniel Huson, 4.2015
  */
 public class SAM2SAMIterator implements ISAMIterator {
-    private final FileIterator samIterator;
+    private final ByteLineIterator samIterator;
     private final int maxMatchesPerRead;
 
-    private byte[] firstOfNext = new byte[0];
-    private int lengthOfFirstOfNext;
     private byte[] result = new byte[100000];
     private int length = 0;
     private int matchesInResult = 0;
@@ -51,10 +48,14 @@ public class SAM2SAMIterator implements ISAMIterator {
 
         if (!SAMFileFilter.getInstance().accept(fileName))
             throw new IOException("File not in SAM format: " + fileName);
-        samIterator = new FileIterator(fileName);
+        samIterator = new ByteLineIterator(fileName);
         // skip header lines:
-        while (samIterator.hasNext() && samIterator.peekNextByte() == '@')
-            samIterator.next();
+        while (samIterator.advance()) {
+            if (samIterator.getLineLength() > 0 && samIterator.getLineBuffer()[samIterator.getLineStart()] != '@') {
+                samIterator.pushBack();
+                break;
+            }
+        }
     }
 
     /**
@@ -75,7 +76,7 @@ public class SAM2SAMIterator implements ISAMIterator {
      */
     @Override
     public boolean hasNext() {
-        return lengthOfFirstOfNext > 0 || samIterator.hasNext();
+        return samIterator.hasNext();
     }
 
     /**
@@ -120,60 +121,51 @@ public class SAM2SAMIterator implements ISAMIterator {
 
     private void moveToNext() {
         matchesInResult = 0;
-
-        if (lengthOfFirstOfNext > 0) {
-            if (result.length < lengthOfFirstOfNext)
-                result = new byte[2 * lengthOfFirstOfNext];
-            System.arraycopy(firstOfNext, 0, result, 0, lengthOfFirstOfNext);
-            length = lengthOfFirstOfNext;
-            matchesInResult++;
-            lengthOfFirstOfNext = 0;
-        } else
-            length = 0;
-
-        while (samIterator.hasNext()) {
-            byte[] line = samIterator.next();
-            int lineLength = samIterator.getLineLength();
-            if (length == 0 || sameQuery(result, line)) {
+        length = 0;
+
+        while (samIterator.advance()) {
+            final byte[] line = samIterator.getLineBuffer();
+            final int lineStart = samIterator.getLineStart();
+            final int lineLength = samIterator.getLineLength();
+            if (lineLength == 0)
+                continue;
+            if (length == 0 || sameQuery(result, line, lineStart, lineLength)) {
                 if (matchesInResult < maxMatchesPerRead) {
                     matchesInResult++;
                     if (result.length < length + lineLength + 1) {
-                        byte[] tmp = new byte[2 * (length + lineLength)];
+                        byte[] tmp = new byte[2 * (length + lineLength + 1)];
                         System.arraycopy(result, 0, tmp, 0, length);
-                        result[length++] = '\n';
                         result = tmp;
                     }
-                    System.arraycopy(line, 0, result, length, lineLength);
+                    System.arraycopy(line, lineStart, result, length, lineLength);
                     length += lineLength;
+                    result[length++] = '\n';
                 }
             } else {
-                if (firstOfNext.length < lineLength + 1) {
-                    firstOfNext = new byte[lineLength + 1];
-                }
-                System.arraycopy(line, 0, firstOfNext, 0, lineLength);
-                lengthOfFirstOfNext = lineLength;
-                //firstOfNext[lengthOfFirstOfNext++]='\n';
+                samIterator.pushBack(); // first line of next query
                 break;
             }
         }
     }
 
     /**
-     * are the two strings identical up until the first tab
+     * does the line have the same query as the first line in result, that is, are they identical up until the first tab?
      *
-     * @param a
-     * @param b
+     * @param result
+     * @param line
+     * @param lineStart
+     * @param lineLength
      * @return true, if identical up to first tab
      */
-    private boolean sameQuery(byte[] a, byte[] b) {
-        int top = Math.min(a.length, b.length);
+    private boolean sameQuery(byte[] result, byte[] line, int lineStart, int lineLength) {
+        final int top = Math.min(length, lineLength);
         for (int i = 0; i < top; i++) {
-            if (a[i] != b[i])
+            if (result[i] != line[lineStart + i])
                 return false;
-            if (a[i] == '\t')
+            if (result[i] == '\t')
                 return true;
         }
-        return a.length == b.length;
+        return false;
     }
 
     public static void main(String[] args) throws IOException {
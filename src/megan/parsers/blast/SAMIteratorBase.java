@@ -18,8 +18,6 @@
  */
 package megan.parsers.blast;
 
-import jloda.util.FileInputIterator;
-
 import java.io.IOException;
 import java.util.Comparator;
 
@@ -29,7 +27,7 @@ import java.util.Comparator;
  * Daniel Huson, 4.2015
  */
 public class SAMIteratorBase {
-    private final FileInputIterator iterator;
+    private final ILineIterator iterator;
     private final int maxNumberOfMatchesPerRead;
     private int maxNumberOfErrors = 1000;
     private int numberOfErrors = 0;
@@ -43,7 +41,17 @@ public class SAMIteratorBase {
      * @throws IOException
      */
     public SAMIteratorBase(String fileName, int maxNumberOfMatchesPerRead) throws IOException {
-        iterator = new FileInputIterator(fileName);
+        this(new ByteLineIterator(fileName), maxNumberOfMatchesPerRead);
+    }
+
+    /**
+     * constructor
+     *
+     * @param lineIterator source of lines, e.g. a chunk of a file
+     * @param maxNumberOfMatchesPerRead
+     */
+    public SAMIteratorBase(ILineIterator lineIterator, int maxNumberOfMatchesPerRead) {
+        iterator = lineIterator;
         this.maxNumberOfMatchesPerRead = maxNumberOfMatchesPerRead;
     }
 
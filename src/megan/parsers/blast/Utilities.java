@@ -128,4 +128,103 @@ public class Utilities {
         }
         return distance;
     }
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * parse an integer directly from bytes
+     *
+     * @param bytes
+     * @param start first position
+     * @param end   end position (exclusive)
+     * @return value
+     * @throws NumberFormatException if the bytes do not represent an integer
+     */
+    public static int parseInt(byte[] bytes, int start, int end) throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = (bytes[i] == '-');
+            i++;
+        }
+        if (i == end)
+            throw new NumberFormatException("For input string: \"" + new String(bytes, start, end - start) + "\"");
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || (value = 10 * value + digit) > Integer.MAX_VALUE + 1L)
+                throw new NumberFormatException("For input string: \"" + new String(bytes, start, end - start) + "\"");
+        }
+        if (negative)
+            value = -value;
+        if (value > Integer.MAX_VALUE)
+            throw new NumberFormatException("For input string: \"" + new String(bytes, start, end - start) + "\"");
+        return (int) value;
+    }
+
+    /**
+     * parse a float directly from bytes. Plain decimal numbers with up to 15 significant digits are parsed
+     * without creating a string, all other numbers are handed to Float.parseFloat()
+     *
+     * @param bytes
+     * @param start first position
+     * @param end   end position (exclusive)
+     * @return value
+     * @throws NumberFormatException if the bytes do not represent a float
+     */
+    public static float parseFloat(byte[] bytes, int start, int end) throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = (bytes[i] == '-');
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+            hasDigits = true;
+            if (digits < 18) {
+                mantissa = 10 * mantissa + (bytes[i] - '0');
+                if (mantissa > 0)
+                    digits++;
+            } else
+                exponent++;
+        }
+        if (i < end && bytes[i] == '.') {
+            for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                hasDigits = true;
+                if (digits < 18) {
+                    mantissa = 10 * mantissa + (bytes[i] - '0');
+                    if (mantissa > 0)
+                        digits++;
+                    exponent--;
+                }
+            }
+        }
+        if (hasDigits && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = (bytes[i] == '-');
+                i++;
+            }
+            int value = 0;
+            boolean hasExponentDigits = false;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                hasExponentDigits = true;
+                if (value < 100000)
+                    value = 10 * value + (bytes[i] - '0');
+            }
+            if (!hasExponentDigits)
+                hasDigits = false;
+            exponent += (negativeExponent ? -value : value);
+        }
+        if (hasDigits && i == end && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            final double value = (exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent]);
+            return (float) (negative ? -value : value);
+        }
+        return Float.parseFloat(new String(bytes, start, end - start));
+    }
 }
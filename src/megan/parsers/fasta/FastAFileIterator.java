@@ -20,6 +20,7 @@ package megan.parsers.fasta;
 
 import jloda.util.Basic;
 import jloda.util.Pair;
+import megan.io.ParallelGZIPInputStream;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
@@ -58,7 +59,7 @@ public class FastAFileIterator implements IFastAIterator, Closeable {
      */
     public FastAFileIterator(String fileName) throws IOException {
         maxProgress = Basic.guessUncompressedSizeOfFile(fileName);
-        r = new BufferedReader(new InputStreamReader(Basic.getInputStreamPossiblyZIPorGZIP(fileName)));
+        r = new BufferedReader(new InputStreamReader(ParallelGZIPInputStream.getInputStreamPossiblyZIPorGZIP(fileName)));
         endOfLineBytes = Basic.getNumberOfNonSpaceCharacters(fileName); // todo: WTF?
         moveToFirst();
     }
@@ -226,7 +227,7 @@ public class FastAFileIterator implements IFastAIterator, Closeable {
      * @throws IOException
      */
     public static IFastAIterator getFastAOrFastQAsFastAIterator(String inputFile) throws IOException {
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(Basic.getInputStreamPossiblyZIPorGZIP(inputFile)))) {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(ParallelGZIPInputStream.getInputStreamPossiblyZIPorGZIP(inputFile)))) {
             String aLine = r.readLine();
             if (aLine.startsWith(">"))
                 return new FastAFileIterator(inputFile);
@@ -20,6 +20,7 @@ package megan.parsers.fasta;
 
 import jloda.util.Basic;
 import jloda.util.Pair;
+import megan.io.ParallelGZIPInputStream;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -53,7 +54,7 @@ public class FastQAsFastAFileIterator implements IFastAIterator {
         File file = new File(fileName);
         fileLength = file.length();
         maxProgress = Basic.guessUncompressedSizeOfFile(fileName);
-        r = new BufferedReader(new InputStreamReader(Basic.getInputStreamPossiblyZIPorGZIP(fileName)));
+        r = new BufferedReader(new InputStreamReader(ParallelGZIPInputStream.getInputStreamPossiblyZIPorGZIP(fileName)));
         endOfLineBytes = Basic.determineEndOfLinesBytes(file);
         nextLine = r.readLine();
     }
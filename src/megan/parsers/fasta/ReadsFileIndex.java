@@ -0,0 +1,729 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.parsers.fasta;
+
+import jloda.util.Basic;
+import megan.io.ParallelGZIPInputStream;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * index of the reads in a fastA or fastQ file, mapping a hash of the name of each read to the location of its record,
+ * so that reads can be fetched by name in any order.
+ * Plain files and BGZF-compressed files are accessed directly, for BGZF, locations are virtual offsets
+ * (offset of compressed block times 65536 plus offset in uncompressed block). Other gzip files are first decompressed
+ * to a temporary file.
+ * Names are compared to the header line when fetching, so a hash collision results in a missing read, never a wrong one.
+ * If several reads have the same name (or name hash), then the first one in the file is used.
+ * The index is kept as a list of (name hash, location) pairs sorted by hash. Small indices are held in memory, larger ones
+ * are sorted in runs, merged into a temporary file and searched via a sparse in-memory index of one hash per block,
+ * so memory use does not grow with the number of reads
+ * Daniel Huson, 10.2016
+ */
+public class ReadsFileIndex implements Closeable {
+    private final String fileName;
+    private final File tmpDirectory;
+    private final File tmpFile;
+    private final ByteSource source;
+    private final boolean isFastA;
+
+    private static final int RUN_SIZE = (1 << 22); // number of entries sorted in memory before spilling to disk
+    private static final int BLOCK_SIZE = 1024; // number of entries per block of index file
+
+    // current run of (name hash, location) pairs, after indexing: all pairs, if no run was spilled
+    private long[] keys = new long[1024];
+    private long[] locations = new long[1024];
+    private int runSize = 0;
+    private final ArrayList<File> runFiles = new ArrayList<>();
+    private long size = 0;
+    private long numberOfDuplicates = 0;
+
+    // used when the index has been spilled to disk:
+    private File indexFile;
+    private RandomAccessFile indexRaf;
+    private long[] firstKeyOfBlock;
+    private long cachedBlock = -1;
+    private byte[] blockBytes;
+
+    private byte[] lineBuffer = new byte[1024];
+
+    /**
+     * builds the index for the given file, reading it once
+     *
+     * @param fileName
+     * @param tmpDirectory directory for the decompressed reads and the spilled index, or null for the default temporary directory
+     * @throws IOException
+     */
+    public ReadsFileIndex(String fileName, File tmpDirectory) throws IOException {
+        this.fileName = fileName;
+        this.tmpDirectory = tmpDirectory;
+        final int type = determineType(fileName);
+        if (type == GZIP) {
+            tmpFile = File.createTempFile("megan-reads", ".tmp", tmpDirectory);
+            tmpFile.deleteOnExit();
+            System.err.println("Decompressing reads file: " + fileName);
+            try (InputStream ins = new ParallelGZIPInputStream(fileName);
+                 OutputStream outs = new BufferedOutputStream(new FileOutputStream(tmpFile), 1048576)) {
+                final byte[] buffer = new byte[1048576];
+                int count;
+                while ((count = ins.read(buffer)) != -1)
+                    outs.write(buffer, 0, count);
+            }
+            source = new PlainByteSource(tmpFile.getPath());
+        } else {
+            tmpFile = null;
+            source = (type == BGZF ? new BGZFByteSource(fileName) : new PlainByteSource(fileName));
+        }
+
+        final int first = source.read();
+        if (first != '>' && first != '@')
+            throw new IOException("Cannot determine type of reads file (doesn't start with '>' or '@'): " + fileName);
+        isFastA = (first == '>');
+        source.seek(0);
+        buildIndex();
+    }
+
+    /**
+     * is this a fastA file (or a fastQ file)?
+     *
+     * @return true, if fastA
+     */
+    public boolean isFastA() {
+        return isFastA;
+    }
+
+    /**
+     * number of reads indexed
+     *
+     * @return size
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * gets the location of the record of the named read
+     *
+     * @param name
+     * @param nameLength
+     * @return location or -1, if not found
+     * @throws IOException
+     */
+    public long getLocation(byte[] name, int nameLength) throws IOException {
+        return getLocationForKey(computeKey(name, 0, nameLength));
+    }
+
+    /**
+     * gets the location for a name hash
+     *
+     * @return location or -1, if not found
+     * @throws IOException
+     */
+    private long getLocationForKey(long key) throws IOException {
+        if (indexFile == null) {
+            final int i = Arrays.binarySearch(keys, 0, runSize, key);
+            return i >= 0 ? locations[i] : -1;
+        }
+        int low = 0;
+        int high = firstKeyOfBlock.length - 1;
+        long block = -1;
+        while (low <= high) { // find last block whose first key is <= key
+            final int mid = (low + high) >>> 1;
+            if (firstKeyOfBlock[mid] <= key) {
+                block = mid;
+                low = mid + 1;
+            } else
+                high = mid - 1;
+        }
+        if (block == -1)
+            return -1;
+        final int count = (int) Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+        if (block != cachedBlock) {
+            indexRaf.seek(16 * block * BLOCK_SIZE);
+            indexRaf.readFully(blockBytes, 0, 16 * count);
+            for (int i = 0; i < count; i++) {
+                keys[i] = getLong(blockBytes, 16 * i);
+                locations[i] = getLong(blockBytes, 16 * i + 8);
+            }
+            cachedBlock = block;
+        }
+        final int i = Arrays.binarySearch(keys, 0, count, key);
+        return i >= 0 ? locations[i] : -1;
+    }
+
+    /**
+     * gets the record of the named read in fastA format: header line starting with '>', followed by the sequence
+     *
+     * @param name
+     * @param nameLength
+     * @return text or null, if not found
+     * @throws IOException
+     */
+    public byte[] getFastAText(byte[] name, int nameLength) throws IOException {
+        final long location = getLocation(name, nameLength);
+        return location == -1 ? null : readRecord(location, name, nameLength);
+    }
+
+    /**
+     * gets the records of a batch of reads in fastA format. Records are read in order of their location, so that the
+     * file is read sequentially, and are returned in the order of the given names
+     *
+     * @param names
+     * @param nameLengths
+     * @param count       number of names
+     * @return texts, with null for each read not found
+     * @throws IOException
+     */
+    public byte[][] getFastATexts(final byte[][] names, final int[] nameLengths, int count) throws IOException {
+        final long[] recordLocations = new long[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            recordLocations[i] = computeKey(names[i], 0, nameLengths[i]);
+            order[i] = i;
+        }
+        // look up in order of name hash, so that consecutive lookups in a spilled index tend to hit the same block:
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(recordLocations[a], recordLocations[b]);
+            }
+        });
+        for (Integer i : order) {
+            recordLocations[i] = getLocationForKey(recordLocations[i]);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(recordLocations[a], recordLocations[b]);
+            }
+        });
+        final byte[][] result = new byte[count][];
+        for (Integer i : order) {
+            if (recordLocations[i] != -1)
+                result[i] = readRecord(recordLocations[i], names[i], nameLengths[i]);
+        }
+        return result;
+    }
+
+    /**
+     * close the file and delete the temporary file, if any
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        source.close();
+        if (tmpFile != null && !tmpFile.delete())
+            System.err.println("Failed to delete file: " + tmpFile);
+        if (indexFile != null) {
+            indexRaf.close();
+            if (!indexFile.delete())
+                System.err.println("Failed to delete file: " + indexFile);
+        }
+    }
+
+    /**
+     * reads the whole file and records the location of each read
+     *
+     * @throws IOException
+     */
+    private void buildIndex() throws IOException {
+        long lineNumber = 0;
+        while (true) {
+            final long location = source.getOffset();
+            final int length = readLine();
+            if (length == -1)
+                break;
+            final boolean isHeader = (isFastA ? length > 0 && lineBuffer[0] == '>' : (lineNumber % 4) == 0);
+            lineNumber++;
+            if (isHeader) {
+                if (!isFastA && (length == 0 || lineBuffer[0] != '@'))
+                    throw new IOException("Expected FastQ header line (starting with '@'), got: " + Basic.toString(lineBuffer, 0, length) + " in file: " + fileName);
+                int start = 1;
+                while (start < length && Character.isWhitespace(lineBuffer[start]))
+                    start++;
+                int end = start;
+                while (end < length && !Character.isWhitespace(lineBuffer[end]))
+                    end++;
+                add(computeKey(lineBuffer, start, end - start), location);
+            }
+        }
+        finishIndex();
+        System.err.println(String.format("Reads indexed: %,15d", size));
+        if (numberOfDuplicates > 0)
+            System.err.println(String.format("WARNING: %,d reads have the same name (or name hash) as an earlier read in file %s, using the first", numberOfDuplicates, fileName));
+    }
+
+    /**
+     * reads a record and checks that it belongs to the named read
+     *
+     * @return text in fastA format, or null, if name doesn't match
+     * @throws IOException
+     */
+    private byte[] readRecord(long location, byte[] name, int nameLength) throws IOException {
+        source.seek(location);
+        int length = readLine();
+        if (length <= 0)
+            return null;
+        // check name:
+        int start = 1;
+        while (start < length && Character.isWhitespace(lineBuffer[start]))
+            start++;
+        int end = start;
+        while (end < length && !Character.isWhitespace(lineBuffer[end]))
+            end++;
+        if (end - start != nameLength)
+            return null;
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != lineBuffer[start + i])
+                return null;
+        }
+
+        final ByteArrayOutputStream outs = new ByteArrayOutputStream(2 * length + 100);
+        outs.write('>');
+        outs.write(lineBuffer, 1, length - 1);
+        outs.write('\n');
+        if (isFastA) {
+            while (true) {
+                final int next = source.peek();
+                if (next == -1 || next == '>')
+                    break;
+                length = readLine();
+                outs.write(lineBuffer, 0, length);
+                outs.write('\n');
+            }
+        } else {
+            length = readLine(); // sequence line, the separator and quality lines are not needed
+            if (length > 0) {
+                outs.write(lineBuffer, 0, length);
+                outs.write('\n');
+            }
+        }
+        return outs.toByteArray();
+    }
+
+    /**
+     * reads a line into the line buffer, without the line terminator
+     *
+     * @return length or -1, if at end of file
+     * @throws IOException
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        int b = source.read();
+        if (b == -1)
+            return -1;
+        while (b != -1 && b != '\n') {
+            if (b != '\r') {
+                if (length == lineBuffer.length)
+                    lineBuffer = Arrays.copyOf(lineBuffer, 2 * length);
+                lineBuffer[length++] = (byte) b;
+            }
+            b = source.read();
+        }
+        return length;
+    }
+
+    /**
+     * adds a pair to the current run, spilling the run to disk when full
+     */
+    private void add(long key, long location) throws IOException {
+        if (runSize == keys.length) {
+            if (runSize < RUN_SIZE) {
+                keys = Arrays.copyOf(keys, 2 * runSize);
+                locations = Arrays.copyOf(locations, 2 * runSize);
+            } else
+                spillRun();
+        }
+        keys[runSize] = key;
+        locations[runSize] = location;
+        runSize++;
+    }
+
+    /**
+     * sorts the current run and writes it to a temporary file
+     */
+    private void spillRun() throws IOException {
+        sort(keys, locations, 0, runSize - 1);
+        final File file = File.createTempFile("megan-reads-run", ".tmp", tmpDirectory);
+        file.deleteOnExit();
+        runFiles.add(file);
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1048576))) {
+            for (int i = 0; i < runSize; i++) {
+                outs.writeLong(keys[i]);
+                outs.writeLong(locations[i]);
+            }
+        }
+        runSize = 0;
+    }
+
+    /**
+     * sorts the index and removes all but the first occurrence of each name hash. If runs have been spilled,
+     * merges them into the index file and sets up the sparse index of first keys of blocks
+     */
+    private void finishIndex() throws IOException {
+        if (runFiles.size() == 0) {
+            sort(keys, locations, 0, runSize - 1);
+            int count = 0;
+            for (int i = 0; i < runSize; i++) {
+                if (count == 0 || keys[i] != keys[count - 1]) { // keep first occurrence
+                    keys[count] = keys[i];
+                    locations[count] = locations[i];
+                    count++;
+                }
+            }
+            numberOfDuplicates = runSize - count;
+            runSize = count;
+            size = count;
+            return;
+        }
+        if (runSize > 0)
+            spillRun();
+
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size(), new Comparator<RunReader>() {
+            public int compare(RunReader a, RunReader b) {
+                return compareEntries(a.key, a.location, b.key, b.location);
+            }
+        });
+        indexFile = File.createTempFile("megan-reads-index", ".tmp", tmpDirectory);
+        indexFile.deleteOnExit();
+        long[] firstKeys = new long[1024];
+        int numberOfBlocks = 0;
+        try {
+            for (File file : runFiles) {
+                final RunReader reader = new RunReader(file);
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1048576))) {
+                long previousKey = 0;
+                while (queue.size() > 0) {
+                    final RunReader reader = queue.poll();
+                    if (size == 0 || reader.key != previousKey) { // keep first occurrence
+                        if ((size % BLOCK_SIZE) == 0) {
+                            if (numberOfBlocks == firstKeys.length)
+                                firstKeys = Arrays.copyOf(firstKeys, 2 * numberOfBlocks);
+                            firstKeys[numberOfBlocks++] = reader.key;
+                        }
+                        outs.writeLong(reader.key);
+                        outs.writeLong(reader.location);
+                        previousKey = reader.key;
+                        size++;
+                    } else
+                        numberOfDuplicates++;
+                    if (reader.next())
+                        queue.add(reader);
+                    else
+                        reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            for (File file : runFiles) {
+                if (!file.delete())
+                    System.err.println("Failed to delete file: " + file);
+            }
+            runFiles.clear();
+        }
+        firstKeyOfBlock = Arrays.copyOf(firstKeys, numberOfBlocks);
+        indexRaf = new RandomAccessFile(indexFile, "r");
+        keys = new long[BLOCK_SIZE];
+        locations = new long[BLOCK_SIZE];
+        blockBytes = new byte[16 * BLOCK_SIZE];
+        runSize = 0;
+    }
+
+    /**
+     * reads the sorted pairs of a spilled run
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream ins;
+        private long key;
+        private long location;
+
+        RunReader(File file) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        /**
+         * advances to the next pair
+         *
+         * @return false, if no more pairs
+         */
+        boolean next() throws IOException {
+            try {
+                key = ins.readLong();
+                location = ins.readLong();
+                return true;
+            } catch (EOFException ex) {
+                return false;
+            }
+        }
+
+        public void close() throws IOException {
+            ins.close();
+        }
+    }
+
+    /**
+     * sorts pairs by key and then location, from low to high inclusive
+     */
+    private static void sort(long[] keys, long[] locations, int low, int high) {
+        while (high - low > 16) {
+            final int mid = (low + high) >>> 1;
+            final long pivotKey = keys[mid];
+            final long pivotLocation = locations[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareEntries(keys[i], locations[i], pivotKey, pivotLocation) < 0)
+                    i++;
+                while (compareEntries(keys[j], locations[j], pivotKey, pivotLocation) > 0)
+                    j--;
+                if (i <= j) {
+                    swap(keys, locations, i++, j--);
+                }
+            }
+            if (j - low < high - i) { // recurse into smaller part
+                sort(keys, locations, low, j);
+                low = i;
+            } else {
+                sort(keys, locations, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compareEntries(keys[j - 1], locations[j - 1], keys[j], locations[j]) > 0; j--) {
+                swap(keys, locations, j - 1, j);
+            }
+        }
+    }
+
+    private static void swap(long[] keys, long[] locations, int i, int j) {
+        final long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        final long location = locations[i];
+        locations[i] = locations[j];
+        locations[j] = location;
+    }
+
+    private static int compareEntries(long key1, long location1, long key2, long location2) {
+        final int result = Long.compare(key1, key2);
+        return result != 0 ? result : Long.compare(location1, location2);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a name, never 0
+     */
+    private static long computeKey(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= (bytes[i] & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private static final int PLAIN = 0;
+    private static final int GZIP = 1;
+    private static final int BGZF = 2;
+
+    /**
+     * determines whether file is plain, gzip or BGZF
+     */
+    private static int determineType(String fileName) throws IOException {
+        try (DataInputStream ins = new DataInputStream(new FileInputStream(fileName))) {
+            final byte[] header = new byte[18];
+            final int got = ins.read(header);
+            if (got < 2 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b)
+                return PLAIN;
+            if (got == 18 && (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C')
+                return BGZF;
+            return GZIP;
+        }
+    }
+
+    /**
+     * sequential byte access with seek
+     */
+    private static abstract class ByteSource implements Closeable {
+        protected final RandomAccessFile raf;
+        protected byte[] buffer = new byte[65536];
+        protected int bufferLength = 0;
+        protected int bufferPos = 0;
+
+        ByteSource(String fileName) throws IOException {
+            raf = new RandomAccessFile(fileName, "r");
+        }
+
+        int read() throws IOException {
+            if (bufferPos == bufferLength && !fill())
+                return -1;
+            return buffer[bufferPos++] & 0xff;
+        }
+
+        int peek() throws IOException {
+            if (bufferPos == bufferLength && !fill())
+                return -1;
+            return buffer[bufferPos] & 0xff;
+        }
+
+        /**
+         * fill the buffer with the next bytes
+         *
+         * @return false, if at end of file
+         */
+        abstract boolean fill() throws IOException;
+
+        abstract void seek(long offset) throws IOException;
+
+        /**
+         * offset of next byte to be read
+         */
+        abstract long getOffset() throws IOException;
+
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    /**
+     * uncompressed file
+     */
+    private static class PlainByteSource extends ByteSource {
+        private long bufferStart = 0;
+
+        PlainByteSource(String fileName) throws IOException {
+            super(fileName);
+        }
+
+        boolean fill() throws IOException {
+            bufferStart += bufferLength;
+            raf.seek(bufferStart);
+            final int count = raf.read(buffer, 0, buffer.length);
+            bufferLength = Math.max(0, count);
+            bufferPos = 0;
+            return count > 0;
+        }
+
+        void seek(long offset) throws IOException {
+            if (offset >= bufferStart && offset < bufferStart + bufferLength) {
+                bufferPos = (int) (offset - bufferStart);
+            } else {
+                bufferStart = offset;
+                bufferLength = 0;
+                bufferPos = 0;
+            }
+        }
+
+        long getOffset() {
+            return bufferStart + bufferPos;
+        }
+    }
+
+    /**
+     * BGZF file, consisting of gzip blocks of at most 64kb uncompressed data each
+     */
+    private static class BGZFByteSource extends ByteSource {
+        private final Inflater inflater = new Inflater(true);
+        private byte[] compressed = new byte[65536];
+        private long blockStart = 0;
+        private long nextBlockStart = 0;
+
+        BGZFByteSource(String fileName) throws IOException {
+            super(fileName);
+        }
+
+        boolean fill() throws IOException {
+            while (true) {
+                if (nextBlockStart >= raf.length())
+                    return false;
+                readBlock(nextBlockStart);
+                if (bufferLength > 0) // skip empty blocks, such as the end-of-file marker
+                    return true;
+            }
+        }
+
+        private void readBlock(long start) throws IOException {
+            raf.seek(start);
+            final byte[] header = new byte[12];
+            raf.readFully(header);
+            if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b)
+                throw new IOException("Not a BGZF block at: " + start);
+            final int xlen = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+            final byte[] extra = new byte[xlen];
+            raf.readFully(extra);
+            int blockSize = -1;
+            for (int i = 0; i + 4 <= xlen; ) {
+                final int length = (extra[i + 2] & 0xff) | ((extra[i + 3] & 0xff) << 8);
+                if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2)
+                    blockSize = ((extra[i + 4] & 0xff) | ((extra[i + 5] & 0xff) << 8)) + 1;
+                i += 4 + length;
+            }
+            if (blockSize == -1)
+                throw new IOException("BGZF block size missing at: " + start);
+            final int compressedLength = blockSize - xlen - 20;
+            if (compressed.length < compressedLength)
+                compressed = new byte[compressedLength];
+            raf.readFully(compressed, 0, compressedLength);
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try {
+                bufferLength = inflater.inflate(buffer, 0, buffer.length);
+            } catch (DataFormatException e) {
+                throw new IOException("BGZF block at " + start + ": " + e.getMessage());
+            }
+            bufferPos = 0;
+            blockStart = start;
+            nextBlockStart = start + blockSize;
+        }
+
+        void seek(long offset) throws IOException {
+            final long start = (offset >>> 16);
+            final int pos = (int) (offset & 0xffff);
+            if (start != blockStart || bufferLength == 0)
+                readBlock(start);
+            bufferPos = pos;
+        }
+
+        long getOffset() throws IOException {
+            if (bufferPos == bufferLength && !fill())
+                return (nextBlockStart << 16);
+            return (blockStart << 16) | bufferPos;
+        }
+
+        public void close() throws IOException {
+            super.close();
+            inflater.end();
+        }
+    }
+}
@@ -22,9 +22,11 @@ import jloda.util.Basic;
 import jloda.util.SequenceUtils;
 import jloda.util.Single;
 import megan.parsers.blast.BlastMode;
+import megan.parsers.blast.Utilities;
 import megan.util.BlosumMatrix;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -41,8 +43,6 @@ public class SAMMatch implements megan.rma3.IMatch {
 
     public static boolean warnAboutProblems = true;
 
-    private String[] tokens = new String[12];
-
     /*
     0	QNAME	String
     1	FLAG	Int
@@ -76,6 +76,30 @@ public class SAMMatch implements megan.rma3.IMatch {
 
     private Cigar cigar;
 
+    // the CIGAR decoded into primitive arrays, used internally so that no Cigar objects are needed:
+    private int numberOfCigarElements;
+    private CigarOperator[] cigarOperators = new CigarOperator[16];
+    private int[] cigarLengths = new int[16];
+
+    // the most recently parsed line, reused from one call of parse to the next:
+    private byte[] line = new byte[1000];
+    private int numberOfFields;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int[] tagValueStart = new int[16];
+    private boolean hasNonStandardTags;
+
+    // fields that have been parsed from the line, but not yet materialized:
+    private int pending;
+    private static final int QUERY_NAME = 1;
+    private static final int REF_NAME = 2;
+    private static final int CIGAR_STRING = 4;
+    private static final int RNEXT = 8;
+    private static final int SEQUENCE = 16;
+    private static final int QUALITY = 32;
+    private static final int OPTIONAL_FIELDS = 64;
+    private static final int CIGAR = 128;
+
     /**
      * constructor
      */
@@ -113,6 +137,9 @@ public class SAMMatch implements megan.rma3.IMatch {
         quality = null;
         optionalFields.clear();
         cigar = null;
+        numberOfCigarElements = 0;
+        numberOfFields = 0;
+        pending = 0;
     }
 
     /**
@@ -122,21 +149,22 @@ public class SAMMatch implements megan.rma3.IMatch {
      * @return matchBlock
      */
     public void parse(byte[] aLine, int length) throws IOException {
-        int numberOfTokens = 0;
-        int start = 0;
-        while (start < length) {
-            int end = start;
-            while (aLine[end] != '\t' && end < length)
-                end++;
-            if (numberOfTokens == tokens.length) {
-                String[] tmp = new String[2 * tokens.length];
-                System.arraycopy(tokens, 0, tmp, 0, tokens.length);
-                tokens = tmp;
-            }
-            tokens[numberOfTokens++] = Basic.toString(aLine, start, end - start);
-            start = end + 1;
-        }
-        parse(tokens, numberOfTokens);
+        parse(aLine, 0, length);
+    }
+
+    /**
+     * parse a line of SAM format directly from bytes. The line is copied into a buffer that is reused by all calls,
+     * the numerical fields and the CIGAR are decoded immediately, whereas strings and optional fields are only
+     * materialized when requested
+     *
+     * @param bytes
+     * @param offset start of line
+     * @param length length of line
+     */
+    public void parse(byte[] bytes, int offset, int length) throws IOException {
+        ensureLineCapacity(length);
+        System.arraycopy(bytes, offset, line, 0, length);
+        parseLine(length);
     }
 
     /**
@@ -147,25 +175,96 @@ public class SAMMatch implements megan.rma3.IMatch {
      */
     @Override
     public void parse(String aLine) throws IOException {
-        String[] tokens = aLine.trim().split("\t");
-        parse(tokens, tokens.length);
-        /*
-        int numberOfTokens = 0;
+        parse(aLine, 0, aLine.length());
+    }
+
+    /**
+     * parse a line of SAM format contained in the given range of a string
+     *
+     * @param text
+     * @param start start of line
+     * @param end   end of line (exclusive)
+     */
+    public void parse(String text, int start, int end) throws IOException {
+        final int length = end - start;
+        ensureLineCapacity(length);
+        for (int i = 0; i < length; i++) {
+            final char ch = text.charAt(start + i);
+            if (ch > 127) { // not plain ASCII, use string-based parsing
+                final String[] tokens = text.substring(start, end).trim().split("\t");
+                parse(tokens, tokens.length);
+                return;
+            }
+            line[i] = (byte) ch;
+        }
+        parseLine(length);
+    }
+
+    /**
+     * parse the line currently held in the line buffer
+     *
+     * @param length
+     * @throws IOException
+     */
+    private void parseLine(int length) throws IOException {
+        pending = 0;
+        // trim:
         int start = 0;
-        while (start < aLine.length()) {
-            int end = aLine.indexOf('\t', start);
-            if (end == -1)
-                end = aLine.length();
-            if (numberOfTokens == tokens.length) {
-                String[] tmp = new String[2 * tokens.length];
-                System.arraycopy(tokens, 0, tmp, 0, tokens.length);
-                tokens = tmp;
+        while (start < length && (line[start] & 0xff) <= ' ')
+            start++;
+        while (length > start && (line[length - 1] & 0xff) <= ' ')
+            length--;
+
+        // determine fields:
+        numberOfFields = 0;
+        while (true) {
+            int end = start;
+            while (end < length && line[end] != '\t')
+                end++;
+            if (numberOfFields == fieldStart.length) {
+                fieldStart = Arrays.copyOf(fieldStart, 2 * numberOfFields);
+                fieldEnd = Arrays.copyOf(fieldEnd, 2 * numberOfFields);
+                tagValueStart = Arrays.copyOf(tagValueStart, 2 * numberOfFields);
             }
-            tokens[numberOfTokens++] = aLine.substring(start, end);
+            fieldStart[numberOfFields] = start;
+            fieldEnd[numberOfFields++] = end;
+            if (end >= length)
+                break;
             start = end + 1;
         }
-        parse(tokens, numberOfTokens);
-        */
+        if (numberOfFields < 11) {
+            throw new IOException("Too few tokens in line: " + numberOfFields);
+        }
+
+        flag = parseIntField(1);
+        pos = parseIntField(3);
+        mapQuality = parseIntField(4);
+        decodeCigar(line, fieldStart[5], fieldEnd[5]);
+        cigar = null;
+        PNext = parseIntField(7);
+        TLength = parseIntField(8);
+
+        // check the syntax of the optional fields, their values are only parsed when needed:
+        hasNonStandardTags = false;
+        for (int i = 11; i < numberOfFields; i++) {
+            final int end = fieldEnd[i];
+            int pos1 = fieldStart[i];
+            while (pos1 < end && line[pos1] != ':')
+                pos1++;
+            int pos2 = pos1 + 1;
+            while (pos2 < end && line[pos2] != ':')
+                pos2++;
+            if (pos2 >= end || pos2 == pos1 + 1 || !isTagType(line[pos1 + 1]))
+                throw new IOException("Failed to parse: " + getFieldString(i));
+            if (pos1 != fieldStart[i] + 2 || pos2 != pos1 + 2)
+                hasNonStandardTags = true;
+            tagValueStart[i] = pos2 + 1;
+        }
+        optionalFields.clear();
+
+        pending = QUERY_NAME | REF_NAME | CIGAR_STRING | RNEXT | SEQUENCE | QUALITY | OPTIONAL_FIELDS | CIGAR;
+
+        applyPairedReadSuffixes();
     }
 
     /**
@@ -178,6 +277,8 @@ public class SAMMatch implements megan.rma3.IMatch {
         if (numberOfTokens < 11) {
             throw new IOException("Too few tokens in line: " + numberOfTokens);
         }
+        pending = 0;
+        numberOfFields = 0;
         setQueryName(tokens[0]);
         setFlag(Basic.parseInt(tokens[1]));
         setRefName(tokens[2]);
@@ -192,42 +293,198 @@ public class SAMMatch implements megan.rma3.IMatch {
 
         setQuality(tokens[10]);
 
+        optionalFields.clear();
         for (int i = 11; i < numberOfTokens; i++) {
             final String word = tokens[i];
             int pos1 = word.indexOf(':');
             int pos2 = word.indexOf(':', pos1 + 1);
-            if (pos2 == -1)
+            if (pos2 == -1 || pos2 == pos1 + 1 || !isTagType(word.charAt(pos1 + 1)))
                 throw new IOException("Failed to parse: " + word);
-            final String[] three = new String[]{word.substring(0, pos1), word.substring(pos1 + 1, pos2), word.substring(pos2 + 1)};
-
-            final Object object;
-            switch (three[1].charAt(0)) {
-                case 'A': //character
-                    object = three[2].charAt(0);
-                    break;
-                case 'i': // integer
-                    object = Integer.parseInt(three[2]);
-                    break;
-                case 'f': // float
-                    object = Float.parseFloat(three[2]);
-                    break;
-                case 'Z': //string
-                    object = three[2];
-                    break;
-                case 'H': // hex string
-                    object = new Integer(three[2]);
-                    break;
-                default:
-                    throw new IOException("Failed to parse: " + word);
+            optionalFields.put(word.substring(0, pos1), parseTagValue(word.charAt(pos1 + 1), word.substring(pos2 + 1)));
+        }
+
+        applyPairedReadSuffixes();
+    }
+
+    /**
+     * if paired read suffixes are given, append them to the query name, if not already present
+     */
+    private void applyPairedReadSuffixes() {
+        if (pairedReadSuffix1 != null || pairedReadSuffix2 != null) {
+            Flag theFlag = new Flag(flag);
+            if (pairedReadSuffix1 != null && !theFlag.isFirstFragment() && !getQueryName().endsWith(pairedReadSuffix1))
+                setQueryName(getQueryName() + pairedReadSuffix1);
+            if (pairedReadSuffix2 != null && !theFlag.isLastFragment() && !getQueryName().endsWith(pairedReadSuffix2))
+                setQueryName(getQueryName() + pairedReadSuffix2);
+        }
+    }
+
+    /**
+     * make sure the line buffer can hold the given number of bytes
+     *
+     * @param length
+     */
+    private void ensureLineCapacity(int length) {
+        if (line.length < length)
+            line = new byte[Math.max(2 * line.length, length)];
+    }
+
+    /**
+     * parse an integer field of the current line. As Basic.parseInt(), leading non-digits are skipped and 0 is returned if no number is present
+     *
+     * @param field
+     * @return value
+     */
+    private int parseIntField(int field) {
+        final int end = fieldEnd[field];
+        int i = fieldStart[field];
+        while (i < end && line[i] != '-' && (line[i] < '0' || line[i] > '9'))
+            i++;
+        final boolean negative = (i < end && line[i] == '-');
+        if (negative)
+            i++;
+        long value = 0;
+        for (; i < end && line[i] >= '0' && line[i] <= '9'; i++) {
+            value = 10 * value + (line[i] - '0');
+            if (value > Integer.MAX_VALUE)
+                return 0;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * gets a field of the current line as a string
+     *
+     * @param field
+     * @return string
+     */
+    private String getFieldString(int field) {
+        return Basic.toString(line, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+    }
+
+    /**
+     * decode a CIGAR into the arrays of operators and lengths. "*" means empty CIGAR
+     *
+     * @param bytes
+     * @param start
+     * @param end   (exclusive)
+     * @throws IllegalArgumentException if CIGAR is malformed
+     */
+    private void decodeCigar(byte[] bytes, int start, int end) {
+        numberOfCigarElements = 0;
+        if (end - start == 1 && bytes[start] == '*')
+            return;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                throw new IllegalArgumentException("Malformed CIGAR string: " + Basic.toString(bytes, start, end - start));
+            int length = bytes[i] - '0';
+            for (++i; i < end && bytes[i] >= '0' && bytes[i] <= '9'; ++i) {
+                length = 10 * length + bytes[i] - '0';
             }
-            optionalFields.put(three[0], object);
+            if (i == end)
+                throw new IllegalArgumentException("Malformed CIGAR string: " + Basic.toString(bytes, start, end - start));
+            if (numberOfCigarElements == cigarOperators.length) {
+                cigarOperators = Arrays.copyOf(cigarOperators, 2 * numberOfCigarElements);
+                cigarLengths = Arrays.copyOf(cigarLengths, 2 * numberOfCigarElements);
+            }
+            cigarOperators[numberOfCigarElements] = CigarOperator.characterToEnum(bytes[i]);
+            cigarLengths[numberOfCigarElements++] = length;
+        }
+    }
+
+    /**
+     * is this a supported type of optional field?
+     *
+     * @param type
+     * @return true, if supported
+     */
+    private static boolean isTagType(int type) {
+        return type == 'A' || type == 'i' || type == 'f' || type == 'Z' || type == 'H';
+    }
+
+    /**
+     * parse the value of an optional field
+     *
+     * @param type
+     * @param value
+     * @return value object
+     */
+    private static Object parseTagValue(char type, String value) {
+        switch (type) {
+            case 'A': //character
+                return value.charAt(0);
+            case 'i': // integer
+                return Integer.parseInt(value);
+            case 'f': // float
+                return Float.parseFloat(value);
+            case 'H': // hex string
+                return new Integer(value);
+            default:
+            case 'Z': //string
+                return value;
+        }
+    }
+
+    /**
+     * finds the last field of the current line that holds the given optional field, without materializing any optional fields
+     *
+     * @param tag two letter tag
+     * @return index of field or -1
+     */
+    private int findTag(String tag) {
+        int found = -1;
+        final byte a = (byte) tag.charAt(0);
+        final byte b = (byte) tag.charAt(1);
+        for (int i = 11; i < numberOfFields; i++) {
+            final int start = fieldStart[i];
+            if (line[start] == a && line[start + 1] == b && line[start + 2] == ':')
+                found = i;
+        }
+        return found;
+    }
+
+    /**
+     * gets the value of an optional field of type integer
+     *
+     * @param tag
+     * @return value or 0, if not present or not an integer
+     */
+    private int getIntegerTag(String tag) {
+        if ((pending & OPTIONAL_FIELDS) != 0 && !hasNonStandardTags) {
+            final int i = findTag(tag);
+            if (i != -1 && (line[fieldStart[i] + 3] == 'i' || line[fieldStart[i] + 3] == 'H')) {
+                try {
+                    return Utilities.parseInt(line, tagValueStart[i], fieldEnd[i]);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+            return 0;
         }
+        final Object value = getOptionalFields().get(tag);
+        return value instanceof Integer ? (Integer) value : 0;
+    }
 
-        Flag theFlag = new Flag(flag);
-        if (pairedReadSuffix1 != null && !theFlag.isFirstFragment() && !getQueryName().endsWith(pairedReadSuffix1))
-            setQueryName(getQueryName() + pairedReadSuffix1);
-        if (pairedReadSuffix2 != null && !theFlag.isLastFragment() && !getQueryName().endsWith(pairedReadSuffix2))
-            setQueryName(getQueryName() + pairedReadSuffix2);
+    /**
+     * gets the value of an optional field of type float
+     *
+     * @param tag
+     * @return value or 0, if not present or not a float
+     */
+    private float getFloatTag(String tag) {
+        if ((pending & OPTIONAL_FIELDS) != 0 && !hasNonStandardTags) {
+            final int i = findTag(tag);
+            if (i != -1 && line[fieldStart[i] + 3] == 'f') {
+                try {
+                    return Utilities.parseFloat(line, tagValueStart[i], fieldEnd[i]);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+        final Object value = getOptionalFields().get(tag);
+        return value instanceof Float ? (Float) value : 0;
     }
 
     /**
@@ -316,15 +573,10 @@ public class SAMMatch implements megan.rma3.IMatch {
 
 
         // first need to trim:
-        if (getCigar().getCigarElements().size() > 0) {
-            final CigarElement element;
-            if (!isReverseComplemented()) {
-                element = getCigar().getCigarElement(0);
-            } else {
-                element = getCigar().getCigarElement(getCigar().getCigarElements().size() - 1);
-            }
-            if (element.getOperator() == CigarOperator.H || element.getOperator() == CigarOperator.S)
-                queryStart = element.getLength() + 1;
+        if (numberOfCigarElements > 0) {
+            final int element = (!isReverseComplemented() ? 0 : numberOfCigarElements - 1);
+            if (cigarOperators[element] == CigarOperator.H || cigarOperators[element] == CigarOperator.S)
+                queryStart = cigarLengths[element] + 1;
         }
 
         final String[] aligned = computeAlignment(query);
@@ -352,16 +604,16 @@ public class SAMMatch implements megan.rma3.IMatch {
         int gaps = 2 * aligned[0].length() - queryLength - getUngappedLength(aligned[2]);
 
         StringBuilder buffer = new StringBuilder();
-        buffer.append(String.format(">%s\n", Basic.fold(refName, ALIGNMENT_FOLD)));
+        buffer.append(String.format(">%s\n", Basic.fold(getRefName(), ALIGNMENT_FOLD)));
         {
-            Object obj = optionalFields.get("ZL");
+            Object obj = getOptionalFields().get("ZL");
             if (obj != null && obj instanceof Integer && (Integer) obj >= refLength)
                 buffer.append(String.format("\tLength = %d\n\n", (Integer) obj));
             else
                 buffer.append(String.format("\tLength >= %d\n\n", (getPos() + refLength - 1)));
         }
-        if (optionalFields.get("AS") != null && optionalFields.get("AS") instanceof Integer) {
-            if (optionalFields.get("ZR") != null && optionalFields.get("ZR") instanceof Integer && optionalFields.get("ZE") != null && optionalFields.get("ZE") instanceof Float) {
+        if (getOptionalFields().get("AS") != null && getOptionalFields().get("AS") instanceof Integer) {
+            if (getOptionalFields().get("ZR") != null && getOptionalFields().get("ZR") instanceof Integer && getOptionalFields().get("ZE") != null && getOptionalFields().get("ZE") instanceof Float) {
                 int bitScore = getBitScore();
                 int rawScore = getRawScore();
                 float expect = getExpected();
@@ -370,7 +622,7 @@ public class SAMMatch implements megan.rma3.IMatch {
                 else
                     buffer.append(String.format(" Score = %d bits (%d), Expect = %.1g\n", bitScore, rawScore, expect));
             } else {
-                buffer.append(String.format(" Score = %d\n", (Integer) optionalFields.get("AS")));
+                buffer.append(String.format(" Score = %d\n", (Integer) getOptionalFields().get("AS")));
             }
         } else
             buffer.append(String.format("MapQuality = %d  EditDistance=%d\n", getMapQuality(), editDistance));
@@ -426,15 +678,14 @@ public class SAMMatch implements megan.rma3.IMatch {
     private int determineQueryStart() {
         int queryStart = 1;
         {
-            Object obj = optionalFields.get("ZS");
+            Object obj = getOptionalFields().get("ZS");
             if (obj != null && obj instanceof Integer) {
                 queryStart = (Integer) obj;
             } else {
                 // first need to trim:
-                if (getCigar().getCigarElements().size() > 0) {
-                    CigarElement element = getCigar().getCigarElement(0);
-                    if (element.getOperator() == CigarOperator.S || element.getOperator() == CigarOperator.H) {
-                        queryStart = element.getLength() + 1;
+                if (numberOfCigarElements > 0) {
+                    if (cigarOperators[0] == CigarOperator.S || cigarOperators[0] == CigarOperator.H) {
+                        queryStart = cigarLengths[0] + 1;
                     }
                 }
             }
@@ -474,16 +725,16 @@ public class SAMMatch implements megan.rma3.IMatch {
         int gaps = 2 * aligned[0].length() - queryLength - getUngappedLength(aligned[2]);
 
         StringBuilder buffer = new StringBuilder();
-        buffer.append(String.format(">%s\n", Basic.fold(refName, ALIGNMENT_FOLD)));
+        buffer.append(String.format(">%s\n", Basic.fold(getRefName(), ALIGNMENT_FOLD)));
         {
-            Object obj = optionalFields.get("ZL");
+            Object obj = getOptionalFields().get("ZL");
             if (obj != null && obj instanceof Integer && (Integer) obj >= refLength)
                 buffer.append(String.format("\tLength = %d\n\n", (Integer) obj));
             else
                 buffer.append(String.format("\tLength >= %d\n\n", (getPos() + refLength - 1)));
         }
-        if (optionalFields.get("AS") != null && optionalFields.get("AS") instanceof Integer) {
-            if (optionalFields.get("ZR") != null && optionalFields.get("ZR") instanceof Integer && optionalFields.get("ZE") != null && optionalFields.get("ZE") instanceof Float) {
+        if (getOptionalFields().get("AS") != null && getOptionalFields().get("AS") instanceof Integer) {
+            if (getOptionalFields().get("ZR") != null && getOptionalFields().get("ZR") instanceof Integer && getOptionalFields().get("ZE") != null && getOptionalFields().get("ZE") instanceof Float) {
                 int bitScore = getBitScore();
                 int rawScore = getRawScore();
                 float expect = getExpected();
@@ -492,7 +743,7 @@ public class SAMMatch implements megan.rma3.IMatch {
                 else
                     buffer.append(String.format(" Score = %d bits (%d), Expect = %.1g\n", bitScore, rawScore, expect));
             } else {
-                buffer.append(String.format(" Score = %d\n", (Integer) optionalFields.get("AS")));
+                buffer.append(String.format(" Score = %d\n", (Integer) getOptionalFields().get("AS")));
             }
         } else
             buffer.append(String.format("MapQuality = %d  EditDistance=%d\n", getMapQuality(), editDistance));
@@ -572,10 +823,10 @@ public class SAMMatch implements megan.rma3.IMatch {
         final int gaps = 2 * aligned[0].length() - queryLength - getUngappedLength(aligned[2]);
 
         final StringBuilder buffer = new StringBuilder();
-        buffer.append(String.format(">%s\n", Basic.fold(refName, ALIGNMENT_FOLD)));
+        buffer.append(String.format(">%s\n", Basic.fold(getRefName(), ALIGNMENT_FOLD)));
 
         {
-            final Object obj = optionalFields.get("ZL");
+            final Object obj = getOptionalFields().get("ZL");
             if (obj != null && obj instanceof Integer && (Integer) obj >= refLength)
                 buffer.append(String.format("\tLength = %d\n\n", (Integer) obj));
             else
@@ -585,7 +836,7 @@ public class SAMMatch implements megan.rma3.IMatch {
         // get query frame:
         final int qFrame;
         {
-            final Object obj = optionalFields.get("ZF");
+            final Object obj = getOptionalFields().get("ZF");
             if (obj != null && obj instanceof Integer) {
                 qFrame = (Integer) obj;
             } else
@@ -596,22 +847,21 @@ public class SAMMatch implements megan.rma3.IMatch {
         // get start of query
         int qStart = 1;
         {
-            Object obj = optionalFields.get("ZS");
+            Object obj = getOptionalFields().get("ZS");
             if (obj != null && obj instanceof Integer) {
                 qStart = (Integer) obj;
             }
         }
 
         // first need to trim:
-        if (getCigar().getCigarElements().size() > 0) {
-            CigarElement element = getCigar().getCigarElement(0);
-            if (element.getOperator() == CigarOperator.S || element.getOperator() == CigarOperator.H) {
-                qStart = 3 * element.getLength() + 1;
+        if (numberOfCigarElements > 0) {
+            if (cigarOperators[0] == CigarOperator.S || cigarOperators[0] == CigarOperator.H) {
+                qStart = 3 * cigarLengths[0] + 1;
             }
         }
 
-        if (optionalFields.get("AS") != null && optionalFields.get("AS") instanceof Integer) {
-            if (optionalFields.get("ZR") != null && optionalFields.get("ZR") instanceof Integer && optionalFields.get("ZE") != null && optionalFields.get("ZE") instanceof Float) {
+        if (getOptionalFields().get("AS") != null && getOptionalFields().get("AS") instanceof Integer) {
+            if (getOptionalFields().get("ZR") != null && getOptionalFields().get("ZR") instanceof Integer && getOptionalFields().get("ZE") != null && getOptionalFields().get("ZE") instanceof Float) {
                 int bitScore = getBitScore();
                 int rawScore = getRawScore();
                 float expect = getExpected();
@@ -620,7 +870,7 @@ public class SAMMatch implements megan.rma3.IMatch {
                 else
                     buffer.append(String.format(" Score = %d bits (%d), Expect = %.1g\n", bitScore, rawScore, expect));
             } else {
-                buffer.append(String.format(" Score = %d\n", (Integer) optionalFields.get("AS")));
+                buffer.append(String.format(" Score = %d\n", (Integer) getOptionalFields().get("AS")));
             }
         } else
             buffer.append(String.format("MapQuality = %d  EditDistance=%d\n", getMapQuality(), editDistance));
@@ -692,26 +942,26 @@ public class SAMMatch implements megan.rma3.IMatch {
      */
     private String shortDescription() {
         StringBuilder buffer = new StringBuilder();
-        if (refName.length() > 0)
-            buffer.append(String.format(">%s\n", Basic.fold(refName, ALIGNMENT_FOLD)));
+        if (getRefName().length() > 0)
+            buffer.append(String.format(">%s\n", Basic.fold(getRefName(), ALIGNMENT_FOLD)));
         {
-            if (optionalFields.get("ZL") != null)
-                buffer.append(String.format("\tLength = %s\n\n", optionalFields.get("ZL").toString()));
+            if (getOptionalFields().get("ZL") != null)
+                buffer.append(String.format("\tLength = %s\n\n", getOptionalFields().get("ZL").toString()));
             else
                 buffer.append("\n");
         }
         {
             boolean hasFirst = false;
             boolean hasSecond = false;
-            if (optionalFields.get("AS") != null && optionalFields.get("AS") instanceof Integer) {
+            if (getOptionalFields().get("AS") != null && getOptionalFields().get("AS") instanceof Integer) {
                 buffer.append(String.format(" Score = %d", getBitScore()));
-                if (optionalFields.get("ZR") != null && optionalFields.get("ZR") instanceof Integer) {
+                if (getOptionalFields().get("ZR") != null && getOptionalFields().get("ZR") instanceof Integer) {
                     buffer.append(String.format(" bits (%d)", getRawScore()));
                 }
                 hasFirst = true;
             }
 
-            if (optionalFields.get("ZE") != null && optionalFields.get("ZE") instanceof Float) {
+            if (getOptionalFields().get("ZE") != null && getOptionalFields().get("ZE") instanceof Float) {
                 if (hasFirst)
                     buffer.append(",");
                 if (getExpected() == 0)
@@ -724,8 +974,8 @@ public class SAMMatch implements megan.rma3.IMatch {
                 buffer.append("\n");
         }
         {
-            if (optionalFields.get("AL") != null)
-                buffer.append(optionalFields.get("AL").toString()).append("\n");
+            if (getOptionalFields().get("AL") != null)
+                buffer.append(getOptionalFields().get("AL").toString()).append("\n");
         }
         return buffer.toString();
     }
@@ -759,44 +1009,27 @@ public class SAMMatch implements megan.rma3.IMatch {
      * @return edit distance
      */
     public int getEditDistance() {
-        Integer value = (Integer) getOptionalFields().get("NM");
-        return value != null ? value : 0;
+        return getIntegerTag("NM");
     }
 
     @Override
     public int getBitScore() {
-        try {
-            return (Integer) optionalFields.get("AS");
-        } catch (Exception ex) {
-            return 0;
-        }
+        return getIntegerTag("AS");
     }
 
     public int getRawScore() {
-        try {
-            return (Integer) optionalFields.get("ZR");
-        } catch (Exception ex) {
-            return 0;
-        }
+        return getIntegerTag("ZR");
     }
 
 
     @Override
     public float getExpected() {
-        try {
-            return (Float) optionalFields.get("ZE");
-        } catch (Exception ex) {
-            return 0;
-        }
+        return getFloatTag("ZE");
     }
 
     @Override
     public int getPercentIdentity() {
-        try {
-            return (Integer) optionalFields.get("ZI");
-        } catch (Exception ex) {
-            return 0;
-        }
+        return getIntegerTag("ZI");
     }
 
     /**
@@ -838,7 +1071,7 @@ public class SAMMatch implements megan.rma3.IMatch {
      * @return alignment
      */
     public String[] computeAlignment(String query) {
-        if (getCigar().getCigarElements().size() == 0) // not available
+        if (numberOfCigarElements == 0) // not available
         {
             return new String[]{"No alignment", "mapQ=0 (not uniquely mapped)", ""};
         }
@@ -891,7 +1124,7 @@ public class SAMMatch implements megan.rma3.IMatch {
      * @return alignment
      */
     public String[] computeAlignmentPair(String query) {
-        if (getCigar().getCigarElements().size() == 0) // not available
+        if (numberOfCigarElements == 0) // not available
         {
             return new String[]{"No alignment", "mapQ=0 (not uniquely mapped)", ""};
         }
@@ -903,9 +1136,9 @@ public class SAMMatch implements megan.rma3.IMatch {
 
         int posQuery = 0;
 
-        for (CigarElement element : getCigar().getCigarElements()) {
-            for (int i = 0; i < element.getLength(); i++) {
-                switch (element.getOperator()) {
+        for (int e = 0; e < numberOfCigarElements; e++) {
+            for (int i = 0; i < cigarLengths[e]; i++) {
+                switch (cigarOperators[e]) {
                     case D:
                         gappedQueryBuffer.append("-");
                         gappedReferenceBuffer.append("?");
@@ -964,11 +1197,16 @@ public class SAMMatch implements megan.rma3.IMatch {
 
     @Override
     public String getQueryName() {
+        if ((pending & QUERY_NAME) != 0) {
+            queryName = getFieldString(0);
+            pending &= ~QUERY_NAME;
+        }
         return queryName;
     }
 
     public void setQueryName(String queryName) {
         this.queryName = queryName;
+        pending &= ~QUERY_NAME;
     }
 
     public int getFlag() {
@@ -981,11 +1219,16 @@ public class SAMMatch implements megan.rma3.IMatch {
 
     @Override
     public String getRefName() {
+        if ((pending & REF_NAME) != 0) {
+            refName = getFieldString(2);
+            pending &= ~REF_NAME;
+        }
         return refName;
     }
 
     public void setRefName(String refName) {
         this.refName = refName;
+        pending &= ~REF_NAME;
     }
 
     public int getPos() {
@@ -1005,20 +1248,33 @@ public class SAMMatch implements megan.rma3.IMatch {
     }
 
     public String getCigarString() {
+        if ((pending & CIGAR_STRING) != 0) {
+            cigarString = getFieldString(5);
+            pending &= ~CIGAR_STRING;
+        }
         return cigarString;
     }
 
     public void setCigarString(String cigarString) {
         this.cigarString = cigarString;
-        setCigar(TextCigarCodec.getSingleton().decode(cigarString));
+        pending &= ~CIGAR_STRING;
+        final byte[] bytes = cigarString.getBytes();
+        decodeCigar(bytes, 0, bytes.length);
+        cigar = null;
+        pending |= CIGAR;
     }
 
     public String getRNext() {
+        if ((pending & RNEXT) != 0) {
+            RNext = getFieldString(6);
+            pending &= ~RNEXT;
+        }
         return RNext;
     }
 
     public void setRNext(String RNext) {
         this.RNext = RNext;
+        pending &= ~RNEXT;
     }
 
     public int getPNext() {
@@ -1038,31 +1294,69 @@ public class SAMMatch implements megan.rma3.IMatch {
     }
 
     public String getSequence() {
+        if ((pending & SEQUENCE) != 0) {
+            sequence = getFieldString(9).toUpperCase();
+            pending &= ~SEQUENCE;
+        }
         return sequence;
     }
 
     public void setSequence(String sequence) {
         this.sequence = sequence;
+        pending &= ~SEQUENCE;
     }
 
     public String getQuality() {
+        if ((pending & QUALITY) != 0) {
+            quality = getFieldString(10);
+            pending &= ~QUALITY;
+        }
         return quality;
     }
 
     public void setQuality(String quality) {
         this.quality = quality;
+        pending &= ~QUALITY;
     }
 
     public Map<String, Object> getOptionalFields() {
+        if ((pending & OPTIONAL_FIELDS) != 0) {
+            pending &= ~OPTIONAL_FIELDS;
+            for (int i = 11; i < numberOfFields; i++) {
+                int pos1 = fieldStart[i];
+                while (line[pos1] != ':')
+                    pos1++;
+                optionalFields.put(Basic.toString(line, fieldStart[i], pos1 - fieldStart[i]),
+                        parseTagValue((char) line[pos1 + 1], Basic.toString(line, tagValueStart[i], fieldEnd[i] - tagValueStart[i])));
+            }
+        }
         return optionalFields;
     }
 
     public Cigar getCigar() {
+        if ((pending & CIGAR) != 0) {
+            cigar = new Cigar();
+            for (int i = 0; i < numberOfCigarElements; i++)
+                cigar.add(new CigarElement(cigarLengths[i], cigarOperators[i]));
+            pending &= ~CIGAR;
+        }
         return cigar;
     }
 
     public void setCigar(Cigar cigar) {
         this.cigar = cigar;
+        pending &= ~CIGAR;
+        numberOfCigarElements = 0;
+        if (cigar != null) {
+            for (CigarElement element : cigar.getCigarElements()) {
+                if (numberOfCigarElements == cigarOperators.length) {
+                    cigarOperators = Arrays.copyOf(cigarOperators, 2 * numberOfCigarElements);
+                    cigarLengths = Arrays.copyOf(cigarLengths, 2 * numberOfCigarElements);
+                }
+                cigarOperators[numberOfCigarElements] = element.getOperator();
+                cigarLengths[numberOfCigarElements++] = element.getLength();
+            }
+        }
     }
 
     public boolean isReverseComplemented() {
@@ -1075,6 +1369,6 @@ public class SAMMatch implements megan.rma3.IMatch {
      * @return true if match
      */
     public boolean isMatch() {
-        return !(refName == null || refName.equals("*"));
+        return !(getRefName() == null || getRefName().equals("*"));
     }
 }
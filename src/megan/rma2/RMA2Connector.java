@@ -85,6 +85,21 @@ public class RMA2Connector implements IConnector {
         return new AllReadsIterator(getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
     }
 
+    /**
+     * get an iterator over all reads. RMA2 files can't be split, so a single iterator is returned
+     *
+     * @param numberOfIterators ignored
+     * @param minScore
+     * @param maxExpected
+     * @param wantReadSequence
+     * @param wantMatches
+     * @return single iterator
+     * @throws java.io.IOException
+     */
+    public IReadBlockIterator[] getAllReadsIterators(int numberOfIterators, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new IReadBlockIterator[]{getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches)};
+    }
+
     /**
      * get getLetterCodeIterator over all reads for given classification and classId.
      *
@@ -115,6 +130,22 @@ public class RMA2Connector implements IConnector {
         return new ReadBlockIteratorRMA2(classification, classIds, wantReadSequence, wantMatches, wantMatches, minScore, maxExpected, file);
     }
 
+    /**
+     * get getLetterCodeIterator over all reads for given classification and a collection of classids.
+     * RMA2 files are always visited in classification order
+     *
+     * @param classification
+     * @param classIds
+     * @param minScore
+     * @param inFileOrder    ignored
+     * @return getLetterCodeIterator over reads filtered by given parameters
+     * @throws IOException
+     */
+    public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore,
+                                                                float maxExpected, boolean wantReadSequence, boolean wantMatches, boolean inFileOrder) throws IOException {
+        return getReadsIteratorForListOfClassIds(classification, classIds, minScore, maxExpected, wantReadSequence, wantMatches);
+    }
+
     /**
      * gets a read block accessor
      *
@@ -171,6 +202,17 @@ public class RMA2Connector implements IConnector {
         return (new RMA2File(file)).getClassificationBlock(classificationName);
     }
 
+    /**
+     * creates a collector for the class assignments computed by the data processor, keeps them in memory
+     *
+     * @param classificationNames
+     * @return collector
+     */
+    @Override
+    public IUpdateItemCollector createUpdateItemCollector(String[] classificationNames) {
+        return new UpdateItemList(classificationNames.length);
+    }
+
     /**
      * updates the classId values for a collection of reads
      *
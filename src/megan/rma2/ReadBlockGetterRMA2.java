@@ -21,6 +21,7 @@ package megan.rma2;
 import jloda.util.Basic;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockGetter;
+import megan.data.ReadBlockPool;
 import megan.data.TextStorageReader;
 import megan.io.IInputReader;
 
@@ -42,6 +43,7 @@ public class ReadBlockGetterRMA2 implements IReadBlockGetter {
     private final boolean wantMatchData;
 
     private final long numberOfReads;
+    private final ReadBlockPool<ReadBlockRMA2> readBlockPool = new ReadBlockPool<>();
 
     /**
      * constructor
@@ -82,7 +84,19 @@ public class ReadBlockGetterRMA2 implements IReadBlockGetter {
      * @throws java.io.IOException
      */
     public IReadBlock getReadBlock(long uid) throws IOException {
-        return ReadBlockRMA2.read(rma2Formatter, uid, wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textStorageReader, dataIndexReader);
+        return ReadBlockRMA2.read(rma2Formatter, uid, wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textStorageReader, dataIndexReader, readBlockPool.take());
+    }
+
+    /**
+     * releases a read block obtained from getReadBlock()
+     *
+     * @param readBlock
+     */
+    public void release(IReadBlock readBlock) {
+        if (readBlock instanceof ReadBlockRMA2) {
+            ((ReadBlockRMA2) readBlock).clear();
+            readBlockPool.release((ReadBlockRMA2) readBlock);
+        }
     }
 
     /**
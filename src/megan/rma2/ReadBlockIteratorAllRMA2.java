@@ -21,6 +21,7 @@ package megan.rma2;
 import jloda.util.Basic;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
+import megan.data.ReadBlockPool;
 import megan.data.TextStorageReader;
 import megan.io.IInputReader;
 
@@ -40,6 +41,7 @@ public class ReadBlockIteratorAllRMA2 implements IReadBlockIterator {
     private final boolean wantMatchText;
     private final float minScore;
     private final float maxExpected;
+    private final ReadBlockPool<ReadBlockRMA2> readBlockPool = new ReadBlockPool<>();
 
     private int countReads = 0;
 
@@ -149,7 +151,7 @@ public class ReadBlockIteratorAllRMA2 implements IReadBlockIterator {
     public IReadBlock next() {
         try {
             countReads++;
-            return ReadBlockRMA2.read(rma2Formatter, -1, wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textStorageReader, dataIndexReader);
+            return ReadBlockRMA2.read(rma2Formatter, -1, wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textStorageReader, dataIndexReader, readBlockPool.take());
         } catch (IOException e) {
             Basic.caught(e);
             error = true;
@@ -163,6 +165,18 @@ public class ReadBlockIteratorAllRMA2 implements IReadBlockIterator {
     public void remove() {
     }
 
+    /**
+     * releases a read block obtained from next()
+     *
+     * @param readBlock
+     */
+    public void release(IReadBlock readBlock) {
+        if (readBlock instanceof ReadBlockRMA2) {
+            ((ReadBlockRMA2) readBlock).clear();
+            readBlockPool.release((ReadBlockRMA2) readBlock);
+        }
+    }
+
     public void setWantLocationData(boolean wantLocationData) {
         rma2Formatter.setWantLocationData(wantLocationData);
     }
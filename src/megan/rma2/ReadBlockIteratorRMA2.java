@@ -22,6 +22,7 @@ import jloda.util.Basic;
 import jloda.util.Pair;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
+import megan.data.ReadBlockPool;
 import megan.data.TextStorageReader;
 import megan.io.IInputReader;
 
@@ -46,6 +47,7 @@ public class ReadBlockIteratorRMA2 implements IReadBlockIterator {
     private final boolean wantMatchText;
     private final float minScore;
     private final float maxExpected;
+    private final ReadBlockPool<ReadBlockRMA2> readBlockPool = new ReadBlockPool<>();
     private boolean error = false;
 
     private final List<Pair<Integer, Long>> classes = new LinkedList<>();
@@ -186,7 +188,7 @@ public class ReadBlockIteratorRMA2 implements IReadBlockIterator {
         try {
             currentCount++;
             countReads++;
-            return ReadBlockRMA2.read(rma2Formatter, classDumpReader.readLong(), wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textStorageReader, dataIndexReader);
+            return ReadBlockRMA2.read(rma2Formatter, classDumpReader.readLong(), wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textStorageReader, dataIndexReader, readBlockPool.take());
         } catch (IOException e) {
             Basic.caught(e);
             error = true;
@@ -199,4 +201,16 @@ public class ReadBlockIteratorRMA2 implements IReadBlockIterator {
      */
     public void remove() {
     }
+
+    /**
+     * releases a read block obtained from next()
+     *
+     * @param readBlock
+     */
+    public void release(IReadBlock readBlock) {
+        if (readBlock instanceof ReadBlockRMA2) {
+            ((ReadBlockRMA2) readBlock).clear();
+            readBlockPool.release((ReadBlockRMA2) readBlock);
+        }
+    }
 }
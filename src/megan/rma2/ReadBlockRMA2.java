@@ -254,7 +254,29 @@ public class ReadBlockRMA2 implements IReadBlock {
      */
     public static ReadBlockRMA2 read(RMA2Formatter rma2Formatter, long uid, boolean wantReadText, boolean wantMatchData,
                                      boolean wantMatchText, float minScore, float maxExpected, TextStorageReader textReader, IInputReader dataIndexReader) throws IOException {
-        ReadBlockRMA2 readBlock = rma2Formatter.isWantLocationData() ? new ReadBlockFromBlast() : new ReadBlockRMA2();
+        return read(rma2Formatter, uid, wantReadText, wantMatchData, wantMatchText, minScore, maxExpected, textReader, dataIndexReader, null);
+    }
+
+    /**
+     * read a read block from an RMA file, reusing a recycled read block, if possible
+     *
+     * @param rma2Formatter
+     * @param uid             seek to this position, unless -1
+     * @param wantReadText
+     * @param wantMatchData
+     * @param wantMatchText
+     * @param minScore
+     * @param textReader
+     * @param dataIndexReader
+     * @param readBlock       cleared read block to reuse, or null
+     * @return readblock
+     * @throws java.io.IOException
+     */
+    public static ReadBlockRMA2 read(RMA2Formatter rma2Formatter, long uid, boolean wantReadText, boolean wantMatchData,
+                                     boolean wantMatchText, float minScore, float maxExpected, TextStorageReader textReader, IInputReader dataIndexReader,
+                                     ReadBlockRMA2 readBlock) throws IOException {
+        if (readBlock == null || rma2Formatter.isWantLocationData() != (readBlock instanceof ReadBlockFromBlast))
+            readBlock = rma2Formatter.isWantLocationData() ? new ReadBlockFromBlast() : new ReadBlockRMA2();
 
         if (uid == -1)
             uid = dataIndexReader.getPosition();
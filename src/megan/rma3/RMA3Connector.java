@@ -68,6 +68,11 @@ public class RMA3Connector implements IConnector {
         return new AllReadsIterator(getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
     }
 
+    @Override
+    public IReadBlockIterator[] getAllReadsIterators(int numberOfIterators, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new IReadBlockIterator[]{getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches)};
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(String classification, int classId, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
         return getReadsIteratorForListOfClassIds(classification, Collections.singletonList(classId), minScore, maxExpected, wantReadSequence, wantMatches);
@@ -75,6 +80,11 @@ public class RMA3Connector implements IConnector {
 
     @Override
     public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return getReadsIteratorForListOfClassIds(classification, classIds, minScore, maxExpected, wantReadSequence, wantMatches, false);
+    }
+
+    @Override
+    public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches, boolean inFileOrder) throws IOException {
         try (RMA3File rma3File = new RMA3File(fileName, RMA3File.READ_ONLY)) {
             final ClassificationBlockRMA3 block = new ClassificationBlockRMA3(ClassificationType.valueOf(classification));
             block.read(rma3File.getClassificationsFooter(), rma3File.getReader());
@@ -84,7 +94,7 @@ public class RMA3Connector implements IConnector {
                     block.readLocations(rma3File.getClassificationsFooter(), rma3File.getReader(), classId, list);
                 }
             }
-            return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
+            return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches), inFileOrder);
         }
     }
 
@@ -129,6 +139,17 @@ public class RMA3Connector implements IConnector {
         }
     }
 
+    /**
+     * creates a collector for the class assignments computed by the data processor, keeps them in memory
+     *
+     * @param classificationNames
+     * @return collector
+     */
+    @Override
+    public IUpdateItemCollector createUpdateItemCollector(String[] classificationNames) {
+        return new UpdateItemList(classificationNames.length);
+    }
+
     /**
      * rescan classifications after running the data processor
      *
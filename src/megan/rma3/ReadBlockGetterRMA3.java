@@ -23,6 +23,7 @@ import megan.data.IReadBlock;
 import megan.data.IReadBlockGetter;
 import megan.data.MatchBlockFromBlast;
 import megan.data.ReadBlockFromBlast;
+import megan.data.ReadBlockPool;
 import megan.io.IInputReader;
 import megan.io.InputReader;
 import megan.parsers.sam.SAMMatch;
@@ -56,6 +57,7 @@ public class ReadBlockGetterRMA3 implements IReadBlockGetter {
 
     private final long startMatches;
     private final long endMatches;
+    private final ReadBlockPool<ReadBlockFromBlast> readBlockPool = new ReadBlockPool<>();
 
     private boolean inStreaming = false;
 
@@ -131,7 +133,9 @@ public class ReadBlockGetterRMA3 implements IReadBlockGetter {
         if (readLine.getReadUid() != uid)
             throw new IOException("getReadUid(): doesn't match expected: " + uid);
 
-        final ReadBlockFromBlast readBlock = new ReadBlockFromBlast();
+        ReadBlockFromBlast readBlock = readBlockPool.take();
+        if (readBlock == null)
+            readBlock = new ReadBlockFromBlast();
 
         readBlock.setUId(uid);
         readBlock.setReadWeight(readLine.getReadWeight());
@@ -215,6 +219,19 @@ public class ReadBlockGetterRMA3 implements IReadBlockGetter {
         return readBlock;
     }
 
+    /**
+     * releases a read block obtained from getReadBlock()
+     *
+     * @param readBlock
+     */
+    @Override
+    public void release(IReadBlock readBlock) {
+        if (readBlock instanceof ReadBlockFromBlast) {
+            ((ReadBlockFromBlast) readBlock).clear();
+            readBlockPool.release((ReadBlockFromBlast) readBlock);
+        }
+    }
+
     @Override
     public void close() {
         try {
@@ -39,7 +39,27 @@ public class AllReadsIteratorRMA6 implements IReadBlockIterator {
      * @param file
      */
     public AllReadsIteratorRMA6(boolean wantReadSequence, boolean wantMatches, RMA6File file, float minScore, float maxExpected) throws IOException {
-        readBlockGetter = new ReadBlockGetterRMA6(file, wantReadSequence, wantMatches, minScore, maxExpected, true, false);
+        this(wantReadSequence, wantMatches, file, minScore, maxExpected, false);
+    }
+
+    /**
+     * constructor
+     *
+     * @param wantMatches
+     * @param file
+     * @param lazyMatches decode matches lazily
+     */
+    public AllReadsIteratorRMA6(boolean wantReadSequence, boolean wantMatches, RMA6File file, float minScore, float maxExpected, boolean lazyMatches) throws IOException {
+        this(new ReadBlockGetterRMA6(file, wantReadSequence, wantMatches, minScore, maxExpected, true, false, lazyMatches));
+    }
+
+    /**
+     * constructor
+     *
+     * @param readBlockGetter a getter in stream-only mode
+     */
+    public AllReadsIteratorRMA6(ReadBlockGetterRMA6 readBlockGetter) {
+        this.readBlockGetter = readBlockGetter;
     }
 
     @Override
@@ -85,4 +105,9 @@ public class AllReadsIteratorRMA6 implements IReadBlockIterator {
     public void remove() {
 
     }
+
+    @Override
+    public void release(IReadBlock readBlock) {
+        readBlockGetter.release(readBlock);
+    }
 }
@@ -187,14 +187,14 @@ public class BlastFileReadBlockIterator implements Iterator<ReadBlockRMA6>, IClo
         }
         int start = 0;
         MatchBlockRMA6[] matchBlocks = new MatchBlockRMA6[numberOfMatches];
+        final SAMMatch samMatch = new SAMMatch(blastMode);
         for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
             int end = Utilities.nextNewLine(matchesText, start);
-            final String aLine = Basic.toString(matchesText, start, end - start + 1);
+            final int lineStart = start;
             start = end + 1;
             MatchBlockRMA6 matchBlock = new MatchBlockRMA6();
-            SAMMatch samMatch = new SAMMatch(blastMode);
             try {
-                samMatch.parse(aLine);
+                samMatch.parse(matchesText, lineStart, end - lineStart + 1);
             } catch (IOException e) {
                 Basic.caught(e);
                 return null;
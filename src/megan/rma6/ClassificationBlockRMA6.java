@@ -23,22 +23,34 @@ import megan.data.IClassificationBlock;
 import megan.io.IInputReader;
 import megan.io.IOutputWriter;
 import megan.io.InputReader;
+import megan.io.InputReaderMappedMemory;
 import megan.io.OutputWriterHumanReadable;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * implements a classification block
+ * <p>
+ * A block starts with a directory of all classes, sorted by id, giving weight, number of locations and offset of the
+ * locations relative to the start of the block, so that the locations of a class are found by binary search.
+ * Blocks written by older versions don't have a directory and list the locations of each class after its weight
  * Created by huson on 5/16/14.
  */
 public class ClassificationBlockRMA6 implements IClassificationBlock {
+    private static final int DIRECTORY_MARKER = Integer.MIN_VALUE; // number of classes is never negative in blocks without directory
+    private static final int DIRECTORY_ENTRY_SIZE = 20; // class id, weight, count, offset
+
     private final Map<Integer, Integer> map2Weight = new HashMap<>();
     private String classificationName;
 
+    // directory of last block read, sorted by class id:
+    private long directoryPosition = -1;
+    private int[] directoryIds = new int[0];
+    private int[] directoryCounts = new int[0];
+    private long[] directoryLocations = new long[0]; // absolute positions of locations
+
     public ClassificationBlockRMA6(String classificationName) {
         this.classificationName = classificationName;
     }
@@ -76,19 +88,26 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
      * @throws IOException
      */
     public void write(IOutputWriter writer, Map<Integer, ListOfLongs> classId2locations) throws IOException {
-        writer.writeInt(map2Weight.size());
-        for (Object key : map2Weight.keySet()) {
-            writer.writeInt((Integer) key); // class id
-            final Integer sum = map2Weight.get(key);
-            writer.writeInt(sum); //weight
-            if (classId2locations != null) {
-                final ListOfLongs list = classId2locations.get(key);
-                writer.writeInt(list.size());
+        final Integer[] classIds = map2Weight.keySet().toArray(new Integer[map2Weight.size()]);
+        Arrays.sort(classIds);
+
+        writer.writeInt(DIRECTORY_MARKER);
+        writer.writeInt(classIds.length);
+        long offset = 8 + (long) DIRECTORY_ENTRY_SIZE * classIds.length; // locations start after the directory
+        for (Integer classId : classIds) {
+            final int count = (classId2locations != null ? classId2locations.get(classId).size() : 0);
+            writer.writeInt(classId);
+            writer.writeInt(map2Weight.get(classId)); // weight
+            writer.writeInt(count);
+            writer.writeLong(offset);
+            offset += 8L * count;
+        }
+        if (classId2locations != null) {
+            for (Integer classId : classIds) {
+                final ListOfLongs list = classId2locations.get(classId);
                 for (int i = 0; i < list.size(); i++)
                     writer.writeLong(list.get(i));
-            } else
-                writer.writeInt(0);
-
+            }
         }
     }
 
@@ -103,14 +122,30 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
         map2Weight.clear();
 
         reader.seek(position);
-        final int numberOfClasses = reader.readInt();
-        for (int i = 0; i < numberOfClasses; i++) {
-            final int classId = reader.readInt();
-            final int weight = reader.readInt();
-            final int count = reader.readInt();
-            reader.skipBytes(count * 8); // skip all locations, 8 bytes each
-            map2Weight.put(classId, weight);
+        int numberOfClasses = reader.readInt();
+        if (numberOfClasses == DIRECTORY_MARKER) {
+            numberOfClasses = reader.readInt();
+            setupDirectory(numberOfClasses);
+            for (int i = 0; i < numberOfClasses; i++) {
+                directoryIds[i] = reader.readInt();
+                final int weight = reader.readInt();
+                directoryCounts[i] = reader.readInt();
+                directoryLocations[i] = position + reader.readLong();
+                map2Weight.put(directoryIds[i], weight);
+            }
+        } else { // old format, build directory while scanning the block
+            setupDirectory(numberOfClasses);
+            for (int i = 0; i < numberOfClasses; i++) {
+                directoryIds[i] = reader.readInt();
+                final int weight = reader.readInt();
+                directoryCounts[i] = reader.readInt();
+                directoryLocations[i] = reader.getPosition();
+                reader.skipBytes(directoryCounts[i] * 8); // skip all locations, 8 bytes each
+                map2Weight.put(directoryIds[i], weight);
+            }
+            sortDirectory();
         }
+        directoryPosition = position;
         return map2Weight.size();
     }
 
@@ -126,21 +161,30 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
         map2Weight.clear();
 
         final int numberOfClasses = reader.readInt();
-        for (int i = 0; i < numberOfClasses; i++) {
-            final int currentId = reader.readInt();
-            final int weight = reader.readInt();
-            final int count = reader.readInt();
-            reader.skipBytes(count * 8); // skip all locations, 8 bytes each
-            if (currentId == classId) {
-                map2Weight.put(currentId, weight);
-                break;
+        if (numberOfClasses == DIRECTORY_MARKER) {
+            final int index = findInFileDirectory(position, reader, classId);
+            if (index >= 0) {
+                reader.seek(position + 8 + (long) DIRECTORY_ENTRY_SIZE * index + 4);
+                map2Weight.put(classId, reader.readInt());
+            }
+        } else {
+            for (int i = 0; i < numberOfClasses; i++) {
+                final int currentId = reader.readInt();
+                final int weight = reader.readInt();
+                final int count = reader.readInt();
+                reader.skipBytes(count * 8); // skip all locations, 8 bytes each
+                if (currentId == classId) {
+                    map2Weight.put(currentId, weight);
+                    break;
+                }
             }
         }
         return map2Weight.size();
     }
 
     /**
-     * read all locations for a given class and adds them to list
+     * read all locations for a given class and adds them to list.
+     * Uses the directory of the block, if this block was read using read(position,reader)
      *
      * @param reader
      * @param classId
@@ -149,8 +193,26 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
      * @throws IOException
      */
     public int readLocations(long position, IInputReader reader, int classId, ListOfLongs list) throws IOException {
+        if (directoryPosition == position) {
+            final int index = Arrays.binarySearch(directoryIds, classId);
+            if (index >= 0)
+                readLocations(reader, directoryLocations[index], directoryCounts[index], list);
+            return list.size();
+        }
+
         reader.seek(position);
         final int numberOfClasses = reader.readInt();
+        if (numberOfClasses == DIRECTORY_MARKER) {
+            final int index = findInFileDirectory(position, reader, classId);
+            if (index >= 0) {
+                reader.seek(position + 8 + (long) DIRECTORY_ENTRY_SIZE * index + 8);
+                final int count = reader.readInt();
+                final long location = position + reader.readLong();
+                readLocations(reader, location, count, list);
+            }
+            return list.size();
+        }
+
         for (int i = 0; i < numberOfClasses; i++) {
             final int currentId = reader.readInt();
             reader.readInt(); // weight
@@ -166,6 +228,115 @@ public class ClassificationBlockRMA6 implements IClassificationBlock {
         return list.size();
     }
 
+    /**
+     * read all locations for a collection of classes and adds them to the list.
+     * The block directory is read once and then each class with positive weight is found by binary search
+     *
+     * @param position
+     * @param reader
+     * @param classIds
+     * @param list
+     * @return list of locations
+     * @throws IOException
+     */
+    public int readLocations(long position, IInputReader reader, Collection<Integer> classIds, ListOfLongs list) throws IOException {
+        if (directoryPosition != position)
+            read(position, reader);
+        for (Integer classId : classIds) {
+            if (getSum(classId) > 0) {
+                final int index = Arrays.binarySearch(directoryIds, classId);
+                if (index >= 0)
+                    readLocations(reader, directoryLocations[index], directoryCounts[index], list);
+            }
+        }
+        return list.size();
+    }
+
+    /**
+     * read locations
+     *
+     * @param reader
+     * @param location
+     * @param count
+     * @param list
+     * @throws IOException
+     */
+    private static void readLocations(IInputReader reader, long location, int count, ListOfLongs list) throws IOException {
+        if (count > 0) {
+            reader.seek(location);
+            if (reader instanceof InputReaderMappedMemory) { // bulk decode
+                final long[] locations = new long[count];
+                ((InputReaderMappedMemory) reader).readLongs(locations, 0, count);
+                for (long value : locations)
+                    list.add(value);
+            } else {
+                for (int z = 0; z < count; z++) {
+                    list.add(reader.readLong());
+                }
+            }
+        }
+    }
+
+    /**
+     * binary search for a class in the directory of a block in the file
+     *
+     * @param position start of block
+     * @param reader
+     * @param classId
+     * @return index of directory entry, or -1
+     * @throws IOException
+     */
+    private static int findInFileDirectory(long position, IInputReader reader, int classId) throws IOException {
+        reader.seek(position + 4);
+        int low = 0;
+        int high = reader.readInt() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            reader.seek(position + 8 + (long) DIRECTORY_ENTRY_SIZE * mid);
+            final int midId = reader.readInt();
+            if (midId < classId)
+                low = mid + 1;
+            else if (midId > classId)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private void setupDirectory(int numberOfClasses) {
+        if (directoryIds.length != numberOfClasses) {
+            directoryIds = new int[numberOfClasses];
+            directoryCounts = new int[numberOfClasses];
+            directoryLocations = new long[numberOfClasses];
+        }
+    }
+
+    /**
+     * sort directory by class id
+     */
+    private void sortDirectory() {
+        final Integer[] order = new Integer[directoryIds.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(directoryIds[a], directoryIds[b]);
+            }
+        });
+        final int[] ids = new int[order.length];
+        final int[] counts = new int[order.length];
+        final long[] locations = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ids[i] = directoryIds[order[i]];
+            counts[i] = directoryCounts[order[i]];
+            locations[i] = directoryLocations[order[i]];
+        }
+        directoryIds = ids;
+        directoryCounts = counts;
+        directoryLocations = locations;
+    }
+
     /**
      * human readable representation
      *
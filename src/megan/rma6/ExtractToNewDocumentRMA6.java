@@ -22,6 +22,8 @@ import jloda.util.CanceledException;
 import jloda.util.ListOfLongs;
 import jloda.util.ProgressListener;
 import jloda.util.Single;
+import megan.data.ReadBlockIterator;
+import megan.io.FileRandomAccessReadAheadAdapter;
 import megan.io.IInputReader;
 import megan.io.OutputWriter;
 
@@ -52,18 +54,16 @@ public class ExtractToNewDocumentRMA6 {
 
         final RMA6File sourceRMA6File = new RMA6File(sourceRMA6FileName, "r");
         final boolean pairedReads = sourceRMA6File.getHeaderSectionRMA6().isPairedReads();
+        final boolean hasReadComplexity = sourceRMA6File.getHeaderSectionRMA6().hasReadComplexity();
         final String[] cNames = sourceRMA6File.getHeaderSectionRMA6().getMatchClassNames();
 
         // determine the set of all positions to extract:
         final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(sourceClassification);
         long start = sourceRMA6File.getFooterSectionRMA6().getStartClassification(sourceClassification);
-        block.read(start, sourceRMA6File.getReader());
-        final ListOfLongs list = new ListOfLongs();
-        for (Integer classId : sourceClassIds) {
-            if (block.getSum(classId) > 0) {
-                block.readLocations(start, sourceRMA6File.getReader(), classId, list);
-            }
-        }
+        final ListOfLongs classLocations = new ListOfLongs();
+        block.readLocations(start, sourceRMA6File.getReader(), sourceClassIds, classLocations); // one directory lookup per class
+        final ListOfLongs list = ReadBlockIterator.sortAndRemoveDuplicates(classLocations); // copy each read once, in file order
+        sourceRMA6File.useReadAhead(FileRandomAccessReadAheadAdapter.DEFAULT_BUFFER_SIZE, list);
 
         long totalMatches = 0;
 
@@ -94,6 +94,9 @@ public class ExtractToNewDocumentRMA6 {
                             reader.skipBytes(8); // skip over mate UID, note that we can't use it
                             writer.writeLong(0);
                         }
+                        if (hasReadComplexity) { // header is copied, so keep read complexity
+                            writer.writeFloat(reader.readFloat());
+                        }
 
                         // copy read text without decompressing:
                         {
@@ -18,6 +18,7 @@
  */
 package megan.rma6;
 
+import megan.io.CompressionCodec;
 import megan.io.IInputReader;
 import megan.io.IOutputWriter;
 import megan.parsers.blast.BlastMode;
@@ -29,11 +30,30 @@ import java.io.IOException;
  * Daniel Huson, 6.2015
  */
 public class HeaderSectionRMA6 {
+    private final int version;
     private String creator;
     private long creationDate = 0;
     private BlastMode blastMode;
     private boolean pairedReads;
     private String[] matchClassNames;  // classifications for which matches have identifiers
+    private CompressionCodec compressionCodec = CompressionCodec.DEFAULT;
+    private boolean hasReadComplexity;
+
+    /**
+     * constructor
+     */
+    public HeaderSectionRMA6() {
+        this(RMA6File.VERSION);
+    }
+
+    /**
+     * constructor
+     *
+     * @param version the format version that this header must have, same layout used by RMA6 and RMA7
+     */
+    public HeaderSectionRMA6(int version) {
+        this.version = version;
+    }
 
     /**
      * read the header
@@ -46,10 +66,10 @@ public class HeaderSectionRMA6 {
             throw new IOException("Not an RMA file");
         }
         final int version = reader.readInt();
-        if (version != RMA6File.VERSION) {
-            throw new IOException("Not an RMA " + RMA6File.VERSION + " file");
+        if (version != this.version) {
+            throw new IOException("Not an RMA " + this.version + " file");
         }
-        int minorVersion = reader.readInt();
+        final int minorVersion = reader.readInt();
         creator = reader.readString();
         creationDate = reader.readLong();
         blastMode = BlastMode.valueOf(reader.readString());
@@ -58,6 +78,16 @@ public class HeaderSectionRMA6 {
         for (int i = 0; i < matchClassNames.length; i++) {
             matchClassNames[i] = reader.readString();
         }
+        if (minorVersion >= 1) { // codec used for all strings after the header
+            final CompressionCodec.Type type = CompressionCodec.Type.valueOf(reader.readString());
+            final int level = reader.readInt();
+            final byte[] dictionary = new byte[reader.readInt()];
+            if (dictionary.length > 0 && reader.read(dictionary, 0, dictionary.length) != dictionary.length)
+                throw new IOException("Failed to read compression dictionary");
+            compressionCodec = new CompressionCodec(type, level, dictionary);
+        } else
+            compressionCodec = CompressionCodec.DEFAULT;
+        hasReadComplexity = (minorVersion >= 2 && reader.read() == 1);
     }
 
     /**
@@ -68,8 +98,10 @@ public class HeaderSectionRMA6 {
      */
     public void write(IOutputWriter writer) throws IOException {
         writer.writeInt(RMA6File.MAGIC_NUMBER);
-        writer.writeInt(RMA6File.VERSION);
-        writer.writeInt(RMA6File.MINOR_VERSION);
+        writer.writeInt(version);
+        final boolean hasCodec = !compressionCodec.isDefault(); // default files remain readable by older versions
+        final int minorVersion = (hasReadComplexity ? 2 : hasCodec ? 1 : 0);
+        writer.writeInt(minorVersion);
         writer.writeString(creator);
         if (creationDate == 0)
             creationDate = System.currentTimeMillis();
@@ -79,6 +111,20 @@ public class HeaderSectionRMA6 {
         writer.writeInt(matchClassNames.length);
         for (String name : matchClassNames)
             writer.writeString(name);
+        if (minorVersion >= 1) {
+            writer.writeString(compressionCodec.getName());
+            writer.writeInt(compressionCodec.getLevel());
+            final byte[] dictionary = compressionCodec.getDictionary();
+            writer.writeInt(dictionary != null ? dictionary.length : 0);
+            if (dictionary != null)
+                writer.write(dictionary, 0, dictionary.length);
+        }
+        if (minorVersion >= 2)
+            writer.write(hasReadComplexity ? 1 : 0);
+    }
+
+    public int getVersion() {
+        return version;
     }
 
     public String getCreator() {
@@ -113,6 +159,32 @@ public class HeaderSectionRMA6 {
         this.pairedReads = isPairedReads;
     }
 
+    /**
+     * get the codec used to compress the strings that follow the header
+     *
+     * @return codec
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public void setCompressionCodec(CompressionCodec compressionCodec) {
+        this.compressionCodec = (compressionCodec != null ? compressionCodec : CompressionCodec.DEFAULT);
+    }
+
+    /**
+     * does each read record contain the complexity of the read, following the mate location?
+     *
+     * @return true, if read complexity is stored
+     */
+    public boolean hasReadComplexity() {
+        return hasReadComplexity;
+    }
+
+    public void setHasReadComplexity(boolean hasReadComplexity) {
+        this.hasReadComplexity = hasReadComplexity;
+    }
+
     public String[] getMatchClassNames() {
         return matchClassNames;
     }
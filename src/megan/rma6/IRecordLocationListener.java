@@ -0,0 +1,36 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma6;
+
+import java.io.IOException;
+
+/**
+ * is told the location of a record once it has been written by RMA6FileCreator
+ * Daniel Huson, 10.2016
+ */
+public interface IRecordLocationListener {
+    /**
+     * a record has been written
+     *
+     * @param recordNumber record number, as returned by RMA6FileCreator.addQueryPipelined()
+     * @param location     location of record in file
+     * @throws IOException
+     */
+    void recordWritten(long recordNumber, long location) throws IOException;
+}
@@ -23,8 +23,10 @@ import jloda.util.Single;
 import megan.classification.Classification;
 import megan.classification.IdParser;
 import megan.data.IMatchBlock;
+import megan.parsers.blast.BlastMode;
 import megan.parsers.sam.SAMMatch;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
@@ -42,6 +44,13 @@ public class MatchBlockRMA6 implements IMatchBlock {
     private String text;
     private final Map<String, Integer> fName2Id = new HashMap<>();
 
+    // lazy mode: SAM line is kept as bytes and only parsed completely when the text is requested
+    private BlastMode blastMode;
+    private byte[] samBytes;
+    private int samStart;
+    private int samEnd;
+    private boolean hasPercentIdentity;
+
     /**
      * constructor
      */
@@ -60,6 +69,107 @@ public class MatchBlockRMA6 implements IMatchBlock {
         Single<Float> value = new Single<>(0f);
         text = samMatch.getBlastAlignmentText(value);
         percentIdentity = value.get();
+        samBytes = null;
+    }
+
+    /**
+     * set match data lazily from a line of SAM stored in the given bytes. Only the bit score (AS), expected (ZE)
+     * and length (TLEN) are parsed here, the full SAM record is only parsed when the text or percent identity is requested.
+     * The percent identity is not taken from the ZI tag, as that is rounded and would differ from the eager path
+     * The bytes are referenced, not copied, and must not be modified afterwards
+     *
+     * @param blastMode
+     * @param bytes
+     * @param start     start of line
+     * @param end       end of line (exclusive)
+     */
+    public void setFromSAM(BlastMode blastMode, byte[] bytes, int start, int end) {
+        setLazyText(blastMode, bytes, start, end);
+        bitScore = 0;
+        expected = 0;
+        percentIdentity = 0;
+        length = 0;
+        text = null;
+        hasPercentIdentity = false;
+
+        int tokenStart = start;
+        for (int t = 0; tokenStart < end; t++) {
+            int tokenEnd = tokenStart;
+            while (tokenEnd < end && bytes[tokenEnd] != '\t')
+                tokenEnd++;
+            if (t == 8)
+                length = parseInt(bytes, tokenStart, tokenEnd);
+            else if (t >= 11 && tokenEnd - tokenStart > 5 && bytes[tokenStart + 2] == ':' && bytes[tokenStart + 4] == ':') {
+                final byte a = bytes[tokenStart];
+                final byte b = bytes[tokenStart + 1];
+                if (a == 'A' && b == 'S')
+                    bitScore = parseInt(bytes, tokenStart + 5, tokenEnd);
+                else if (a == 'Z' && b == 'E')
+                    expected = Float.parseFloat(new String(bytes, tokenStart + 5, tokenEnd - tokenStart - 5));
+            }
+            tokenStart = tokenEnd + 1;
+        }
+    }
+
+    /**
+     * set the text lazily from a line of SAM stored in the given bytes, without changing any of the other values.
+     * The line is only parsed when the text is requested
+     *
+     * @param blastMode
+     * @param bytes
+     * @param start     start of line
+     * @param end       end of line (exclusive)
+     */
+    public void setLazyText(BlastMode blastMode, byte[] bytes, int start, int end) {
+        this.blastMode = blastMode;
+        this.samBytes = bytes;
+        this.samStart = start;
+        this.samEnd = end;
+        text = null;
+        hasPercentIdentity = true;
+    }
+
+    /**
+     * in lazy mode, parse the complete SAM line and compute the alignment text
+     */
+    private synchronized void ensureParsed() {
+        if (samBytes != null) {
+            final SAMMatch samMatch = new SAMMatch(blastMode);
+            try {
+                samMatch.parse(samBytes, samStart, samEnd - samStart);
+                final Single<Float> value = new Single<>(0f);
+                text = samMatch.getBlastAlignmentText(value);
+                if (!hasPercentIdentity)
+                    percentIdentity = value.get();
+            } catch (IOException e) {
+                Basic.caught(e);
+            }
+            samBytes = null;
+        }
+    }
+
+    /**
+     * parse a non-negative or negative integer
+     *
+     * @param bytes
+     * @param start
+     * @param end
+     * @return value
+     */
+    private static int parseInt(byte[] bytes, int start, int end) {
+        boolean negative = false;
+        if (start < end && bytes[start] == '-') {
+            negative = true;
+            start++;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                break;
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
     }
 
     /**
@@ -72,6 +182,7 @@ public class MatchBlockRMA6 implements IMatchBlock {
         expected = 0;
         length = 0;
         text = null;
+        samBytes = null;
         fName2Id.clear();
     }
 
@@ -144,11 +255,14 @@ public class MatchBlockRMA6 implements IMatchBlock {
      * @return
      */
     public float getPercentIdentity() {
+        if (samBytes != null && !hasPercentIdentity)
+            ensureParsed();
         return percentIdentity;
     }
 
     public void setPercentIdentity(float percentIdentity) {
         this.percentIdentity = percentIdentity;
+        hasPercentIdentity = true;
     }
 
     /**
@@ -216,15 +330,19 @@ public class MatchBlockRMA6 implements IMatchBlock {
      * @return
      */
     public String getText() {
+        if (samBytes != null)
+            ensureParsed();
         return text;
     }
 
     @Override
     public String getTextFirstWord() {
+        final String text = getText();
         return text != null ? Basic.getFirstWord(text) : null;
     }
 
     public void setText(String text) {
+        ensureParsed();
         this.text = text;
     }
 
@@ -243,7 +361,7 @@ public class MatchBlockRMA6 implements IMatchBlock {
             w.write("expected: " + expected + "\n");
         if (length != 0)
             w.write("length: " + length + "\n");
-        w.write("text: " + text + "\n");
+        w.write("text: " + getText() + "\n");
         return w.toString();
     }
 
@@ -0,0 +1,476 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma6;
+
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * links paired reads in a new RMA6 file using a bounded amount of memory.
+ * While the reads are written, a 128-bit hash of the name of each read (without paired-read suffix) and its location
+ * are collected and spilled to disk as sorted runs. The runs are then merge-joined: reads with the same name hash are
+ * paired in order of location, as when pairing each read with the next read of the same name.
+ * The resulting mate patches are again spilled as runs sorted by location, merged, and applied to the file block by block,
+ * so the file is read and written sequentially
+ * Daniel Huson, 10.2016
+ */
+public class PairedReadsLinker implements Closeable {
+    public static final int DEFAULT_MAX_BUFFERED = 4 * 1024 * 1024;
+    private static final int BLOCK_SIZE = 1048576;
+
+    private final File tmpDirectory;
+    private final int maxBuffered;
+
+    // buffered read entries: hash1, hash2, location
+    private long[] hash1;
+    private long[] hash2;
+    private long[] locations;
+    private int numberBuffered = 0;
+
+    private final List<File> readRuns = new ArrayList<>();
+    private final List<File> patchRuns = new ArrayList<>();
+
+    /**
+     * constructor
+     *
+     * @param tmpDirectory directory for spilled runs
+     * @param maxBuffered  max number of reads or patches to keep in memory
+     */
+    public PairedReadsLinker(File tmpDirectory, int maxBuffered) {
+        this.tmpDirectory = tmpDirectory;
+        this.maxBuffered = Math.max(2, maxBuffered);
+        hash1 = new long[Math.min(this.maxBuffered, 1024)];
+        hash2 = new long[hash1.length];
+        locations = new long[hash1.length];
+    }
+
+    /**
+     * add a read. Reads must be added in order of location
+     *
+     * @param name       name of read, without paired-read suffix
+     * @param nameOffset
+     * @param nameLength
+     * @param location   location of read record in file
+     * @throws IOException
+     */
+    public void add(byte[] name, int nameOffset, int nameLength, long location) throws IOException {
+        add(computeHash1(name, nameOffset, nameLength), computeHash2(name, nameOffset, nameLength), location);
+    }
+
+    /**
+     * add a read by the hash values of its name. Reads must be added in order of location
+     *
+     * @param h1       as computed by computeHash1()
+     * @param h2       as computed by computeHash2()
+     * @param location location of read record in file
+     * @throws IOException
+     */
+    public void add(long h1, long h2, long location) throws IOException {
+        if (numberBuffered == hash1.length) {
+            final int size = Math.min(maxBuffered, 2 * hash1.length);
+            hash1 = Arrays.copyOf(hash1, size);
+            hash2 = Arrays.copyOf(hash2, size);
+            locations = Arrays.copyOf(locations, size);
+        }
+        hash1[numberBuffered] = h1;
+        hash2[numberBuffered] = h2;
+        locations[numberBuffered] = location;
+        if (++numberBuffered >= maxBuffered)
+            spillReads();
+    }
+
+    /**
+     * links all pairs of reads in the given file, which must have been closed. In each pair, the mate location of each
+     * read is set to the location of the other read
+     *
+     * @param fileName
+     * @param progress
+     * @return number of pairs
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public long apply(String fileName, ProgressListener progress) throws IOException, CanceledException {
+        if (numberBuffered > 0 || readRuns.size() == 0)
+            spillReads();
+
+        // merge-join the read runs and collect the patches:
+        final long[] patchOffsets = new long[maxBuffered];
+        final long[] patchValues = new long[maxBuffered];
+        int numberOfPatches = 0;
+        long numberOfPairs = 0;
+
+        final ReadRunReader[] readers = new ReadRunReader[readRuns.size()];
+        try {
+            final PriorityQueue<ReadRunReader> queue = new PriorityQueue<>(Math.max(1, readers.length), new Comparator<ReadRunReader>() {
+                public int compare(ReadRunReader a, ReadRunReader b) {
+                    return compareEntries(a.h1, a.h2, a.location, b.h1, b.h2, b.location);
+                }
+            });
+            for (int r = 0; r < readRuns.size(); r++) {
+                readers[r] = new ReadRunReader(readRuns.get(r));
+                if (readers[r].next())
+                    queue.add(readers[r]);
+            }
+
+            boolean hasPrevious = false;
+            long prevH1 = 0, prevH2 = 0, prevLocation = 0;
+            while (queue.size() > 0) {
+                final ReadRunReader reader = queue.poll();
+                final long h1 = reader.h1, h2 = reader.h2, location = reader.location;
+                if (reader.next())
+                    queue.add(reader);
+
+                if (hasPrevious && h1 == prevH1 && h2 == prevH2) { // second read of a pair
+                    if (numberOfPatches + 2 > maxBuffered) {
+                        spillPatches(patchOffsets, patchValues, numberOfPatches);
+                        numberOfPatches = 0;
+                    }
+                    patchOffsets[numberOfPatches] = prevLocation;
+                    patchValues[numberOfPatches++] = location;
+                    patchOffsets[numberOfPatches] = location;
+                    patchValues[numberOfPatches++] = prevLocation;
+                    numberOfPairs++;
+                    hasPrevious = false;
+                } else {
+                    hasPrevious = true;
+                    prevH1 = h1;
+                    prevH2 = h2;
+                    prevLocation = location;
+                }
+            }
+        } finally {
+            for (ReadRunReader reader : readers) {
+                if (reader != null)
+                    reader.close();
+            }
+            deleteAll(readRuns);
+        }
+        if (numberOfPatches > 0)
+            spillPatches(patchOffsets, patchValues, numberOfPatches);
+
+        // apply the patches in order of location:
+        if (progress != null) {
+            progress.setMaximum(2 * numberOfPairs);
+            progress.setProgress(0);
+        }
+        final PatchRunReader[] patchReaders = new PatchRunReader[patchRuns.size()];
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw"); FileChannel channel = raf.getChannel()) {
+            final PriorityQueue<PatchRunReader> queue = new PriorityQueue<>(Math.max(1, patchReaders.length), new Comparator<PatchRunReader>() {
+                public int compare(PatchRunReader a, PatchRunReader b) {
+                    return Long.compare(a.offset, b.offset);
+                }
+            });
+            for (int r = 0; r < patchRuns.size(); r++) {
+                patchReaders[r] = new PatchRunReader(patchRuns.get(r));
+                if (patchReaders[r].next())
+                    queue.add(patchReaders[r]);
+            }
+
+            final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            long blockStart = -1;
+            int blockLength = 0;
+            long count = 0;
+            while (queue.size() > 0) {
+                final PatchRunReader reader = queue.poll();
+                final long offset = reader.offset;
+                final long value = reader.value;
+                if (reader.next())
+                    queue.add(reader);
+
+                if (blockStart == -1 || offset < blockStart || offset + 8 > blockStart + blockLength) {
+                    if (blockStart != -1)
+                        writeBlock(channel, block, blockStart, blockLength);
+                    blockStart = offset;
+                    blockLength = readBlock(channel, block, blockStart);
+                    if (blockLength < 8)
+                        throw new IOException("Mate location out of range: " + offset);
+                }
+                block.putLong((int) (offset - blockStart), value);
+                if (progress != null && (++count & 0xFFFF) == 0)
+                    progress.setProgress(count);
+            }
+            if (blockStart != -1)
+                writeBlock(channel, block, blockStart, blockLength);
+        } finally {
+            for (PatchRunReader reader : patchReaders) {
+                if (reader != null)
+                    reader.close();
+            }
+            deleteAll(patchRuns);
+        }
+        return numberOfPairs;
+    }
+
+    /**
+     * delete all temporary files
+     */
+    public void close() {
+        deleteAll(readRuns);
+        deleteAll(patchRuns);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a name
+     */
+    public static long computeHash1(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= (bytes[i] & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * second, independent 64-bit hash of a name, so that collisions between different names are negligible
+     */
+    public static long computeHash2(byte[] bytes, int offset, int length) {
+        long h = length;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + (bytes[i] & 0xff);
+            h ^= (h >>> 29);
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * sort the buffered reads by name hash and location and write them as a run
+     *
+     * @throws IOException
+     */
+    private void spillReads() throws IOException {
+        sort(hash1, hash2, locations, 0, numberBuffered - 1);
+
+        final File file = createTmpFile("megan-paired-reads");
+        readRuns.add(file);
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BLOCK_SIZE))) {
+            outs.writeInt(numberBuffered);
+            for (int i = 0; i < numberBuffered; i++) {
+                outs.writeLong(hash1[i]);
+                outs.writeLong(hash2[i]);
+                outs.writeLong(locations[i]);
+            }
+        }
+        numberBuffered = 0;
+    }
+
+    /**
+     * sort patches by offset and write them as a run
+     *
+     * @throws IOException
+     */
+    private void spillPatches(long[] offsets, long[] values, int count) throws IOException {
+        sort(offsets, values, null, 0, count - 1);
+
+        final File file = createTmpFile("megan-mate-patches");
+        patchRuns.add(file);
+        try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BLOCK_SIZE))) {
+            outs.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                outs.writeLong(offsets[i]);
+                outs.writeLong(values[i]);
+            }
+        }
+    }
+
+    private File createTmpFile(String prefix) throws IOException {
+        final File file = File.createTempFile(prefix, ".tmp", tmpDirectory);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * sorts the entries lo..hi of the given parallel arrays lexicographically, in place
+     *
+     * @param a
+     * @param b
+     * @param c  third array or null
+     * @param lo
+     * @param hi inclusive
+     */
+    private static void sort(long[] a, long[] b, long[] c, int lo, int hi) {
+        while (hi - lo > 16) {
+            // median of three as pivot:
+            final int mid = (lo + hi) >>> 1;
+            if (compare(a, b, c, mid, lo) < 0)
+                swap(a, b, c, mid, lo);
+            if (compare(a, b, c, hi, lo) < 0)
+                swap(a, b, c, hi, lo);
+            if (compare(a, b, c, hi, mid) < 0)
+                swap(a, b, c, hi, mid);
+            swap(a, b, c, mid, hi - 1);
+            final int pivot = hi - 1;
+            int i = lo;
+            int j = hi - 1;
+            while (true) {
+                while (compare(a, b, c, ++i, pivot) < 0) {
+                }
+                while (compare(a, b, c, --j, pivot) > 0) {
+                }
+                if (i >= j)
+                    break;
+                swap(a, b, c, i, j);
+            }
+            swap(a, b, c, i, hi - 1);
+            // recurse into smaller part, loop on larger part:
+            if (i - lo < hi - i) {
+                sort(a, b, c, lo, i - 1);
+                lo = i + 1;
+            } else {
+                sort(a, b, c, i + 1, hi);
+                hi = i - 1;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) { // insertion sort for small ranges
+            for (int j = i; j > lo && compare(a, b, c, j, j - 1) < 0; j--)
+                swap(a, b, c, j, j - 1);
+        }
+    }
+
+    private static int compare(long[] a, long[] b, long[] c, int i, int j) {
+        if (a[i] != a[j])
+            return Long.compare(a[i], a[j]);
+        if (b[i] != b[j])
+            return Long.compare(b[i], b[j]);
+        return c == null ? 0 : Long.compare(c[i], c[j]);
+    }
+
+    private static void swap(long[] a, long[] b, long[] c, int i, int j) {
+        long tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+        tmp = b[i];
+        b[i] = b[j];
+        b[j] = tmp;
+        if (c != null) {
+            tmp = c[i];
+            c[i] = c[j];
+            c[j] = tmp;
+        }
+    }
+
+    private static int compareEntries(long a1, long a2, long aLocation, long b1, long b2, long bLocation) {
+        if (a1 != b1)
+            return Long.compare(a1, b1);
+        if (a2 != b2)
+            return Long.compare(a2, b2);
+        return Long.compare(aLocation, bLocation);
+    }
+
+    private static int readBlock(FileChannel channel, ByteBuffer block, long position) throws IOException {
+        block.clear();
+        int length = 0;
+        while (block.hasRemaining()) {
+            final int count = channel.read(block, position + length);
+            if (count <= 0)
+                break;
+            length += count;
+        }
+        return length;
+    }
+
+    private static void writeBlock(FileChannel channel, ByteBuffer block, long position, int length) throws IOException {
+        block.position(0);
+        block.limit(length);
+        int written = 0;
+        while (block.hasRemaining())
+            written += channel.write(block, position + written);
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            if (!file.delete())
+                System.err.println("Failed to delete file: " + file);
+        }
+        files.clear();
+    }
+
+    /**
+     * reads a run of read entries
+     */
+    private static class ReadRunReader implements Closeable {
+        private final DataInputStream ins;
+        private int remaining;
+        long h1;
+        long h2;
+        long location;
+
+        ReadRunReader(File file) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            remaining = ins.readInt();
+        }
+
+        boolean next() throws IOException {
+            if (remaining > 0) {
+                h1 = ins.readLong();
+                h2 = ins.readLong();
+                location = ins.readLong();
+                remaining--;
+                return true;
+            }
+            return false;
+        }
+
+        public void close() throws IOException {
+            ins.close();
+        }
+    }
+
+    /**
+     * reads a run of patches
+     */
+    private static class PatchRunReader implements Closeable {
+        private final DataInputStream ins;
+        private int remaining;
+        long offset;
+        long value;
+
+        PatchRunReader(File file) throws IOException {
+            ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            remaining = ins.readInt();
+        }
+
+        boolean next() throws IOException {
+            if (remaining > 0) {
+                offset = ins.readLong();
+                value = ins.readLong();
+                remaining--;
+                return true;
+            }
+            return false;
+        }
+
+        public void close() throws IOException {
+            ins.close();
+        }
+    }
+}
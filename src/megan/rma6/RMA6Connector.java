@@ -23,6 +23,7 @@ import jloda.util.ListOfLongs;
 import jloda.util.ProgressListener;
 import jloda.util.Single;
 import megan.data.*;
+import megan.io.FileRandomAccessReadAheadAdapter;
 
 import java.io.File;
 import java.io.IOException;
@@ -33,7 +34,7 @@ import java.util.*;
  * Created by huson on 2.2015
  */
 public class RMA6Connector implements IConnector {
-    private String fileName;
+    protected String fileName;
 
     /**
      * constructor
@@ -57,15 +58,79 @@ public class RMA6Connector implements IConnector {
 
     @Override
     public long getUId() throws IOException {
-        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        try (RMA6File rma6File = openFile()) {
             return rma6File.getHeaderSectionRMA6().getCreationDate();
         }
     }
 
+    /**
+     * opens the file for reading
+     *
+     * @return file
+     * @throws IOException
+     */
+    protected RMA6File openFile() throws IOException {
+        return new RMA6File(fileName, RMA6File.READ_ONLY);
+    }
+
+    /**
+     * opens the file for modification
+     *
+     * @return modifier
+     * @throws IOException
+     */
+    protected RMA6FileModifier openModifier() throws IOException {
+        return new RMA6FileModifier(fileName);
+    }
+
     @Override
     public IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-        final RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY);
-        return new AllReadsIteratorRMA6(wantReadSequence, wantMatches, rma6File, minScore, maxExpected);
+        final RMA6File rma6File = openFile();
+        // when no read sequences are wanted, the caller is usually classifying or counting, so decode matches lazily
+        return new AllReadsIteratorRMA6(wantReadSequence, wantMatches, rma6File, minScore, maxExpected, !wantReadSequence);
+    }
+
+    @Override
+    public IReadBlockIterator[] getAllReadsIterators(int numberOfIterators, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        final long[] boundaries;
+        try (RMA6File rma6File = openFile()) {
+            final ReadIndexRMA6 readIndex = rma6File.getReadIndex();
+            if (readIndex == null || numberOfIterators <= 1) // older files can't be split
+                return new IReadBlockIterator[]{getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches)};
+            final FooterSectionRMA6 footer = rma6File.getFooterSectionRMA6();
+            boundaries = readIndex.split(footer.getStartReadsSection(), footer.getEndReadsSection(), numberOfIterators);
+        }
+
+        final IReadBlockIterator[] iterators = new IReadBlockIterator[boundaries.length - 1];
+        try {
+            for (int i = 0; i < iterators.length; i++) {
+                final ReadBlockGetterRMA6 readBlockGetter = createStreamingReadBlockGetter(openFile(), minScore, maxExpected, wantReadSequence, wantMatches);
+                iterators[i] = new AllReadsIteratorRMA6(readBlockGetter);
+                readBlockGetter.setRange(boundaries[i], boundaries[i + 1]);
+            }
+        } catch (IOException ex) {
+            for (IReadBlockIterator iterator : iterators) {
+                if (iterator != null)
+                    iterator.close();
+            }
+            throw ex;
+        }
+        return iterators;
+    }
+
+    /**
+     * creates a stream-only read block getter for an open file, used to iterate over a range of the reads section
+     *
+     * @param rma6File
+     * @param minScore
+     * @param maxExpected
+     * @param wantReadSequence
+     * @param wantMatches
+     * @return getter
+     * @throws IOException
+     */
+    protected ReadBlockGetterRMA6 createStreamingReadBlockGetter(RMA6File rma6File, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new ReadBlockGetterRMA6(rma6File, wantReadSequence, wantMatches, minScore, maxExpected, true, false, !wantReadSequence);
     }
 
     @Override
@@ -75,29 +140,51 @@ public class RMA6Connector implements IConnector {
 
     @Override
     public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-        try (final RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        return getReadsIteratorForListOfClassIds(classification, classIds, minScore, maxExpected, wantReadSequence, wantMatches, false);
+    }
+
+    @Override
+    public IReadBlockIterator getReadsIteratorForListOfClassIds(String classification, Collection<Integer> classIds, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches, boolean inFileOrder) throws IOException {
+        final ListOfLongs list = new ListOfLongs();
+        try (final RMA6File rma6File = openFile()) {
             final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(classification);
             final long start = rma6File.getFooterSectionRMA6().getStartClassification(classification);
-            block.read(start, rma6File.getReader());
-            final ListOfLongs list = new ListOfLongs();
-            for (Integer classId : classIds) {
-                if (block.getSum(classId) > 0) {
-                    block.readLocations(start, rma6File.getReader(), classId, list);
-                }
-            }
-            return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
+            block.readLocations(start, rma6File.getReader(), classIds, list); // one directory lookup per class
         }
+        if (inFileOrder) { // visit reads in ascending order and use a large read-ahead buffer, so that nearby reads are fetched together
+            final ListOfLongs sorted = ReadBlockIterator.sortAndRemoveDuplicates(list);
+            final RMA6File rma6File = openFile();
+            rma6File.useReadAhead(FileRandomAccessReadAheadAdapter.DEFAULT_BUFFER_SIZE, sorted);
+            return new ReadBlockIterator(sorted, createReadBlockGetter(rma6File, minScore, maxExpected, wantReadSequence, wantMatches));
+        } else
+            return new ReadBlockIterator(list, getReadBlockGetter(minScore, maxExpected, wantReadSequence, wantMatches));
     }
 
     @Override
     public IReadBlockGetter getReadBlockGetter(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-        final RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY);
+        final RMA6File rma6File = openFile();
+        rma6File.useMemoryMapping(); // random access, e.g. from inspector, goes to shared mapping rather than through system calls
+        return createReadBlockGetter(rma6File, minScore, maxExpected, wantReadSequence, wantMatches);
+    }
+
+    /**
+     * creates a read block getter for an open file
+     *
+     * @param rma6File
+     * @param minScore
+     * @param maxExpected
+     * @param wantReadSequence
+     * @param wantMatches
+     * @return getter
+     * @throws IOException
+     */
+    protected IReadBlockGetter createReadBlockGetter(RMA6File rma6File, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
         return new ReadBlockGetterRMA6(rma6File, wantReadSequence, wantMatches, minScore, maxExpected, false, true);
     }
 
     @Override
     public String[] getAllClassificationNames() throws IOException {
-        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        try (RMA6File rma6File = openFile()) {
             return rma6File.getHeaderSectionRMA6().getMatchClassNames();
         }
     }
@@ -116,7 +203,7 @@ public class RMA6Connector implements IConnector {
 
     @Override
     public IClassificationBlock getClassificationBlock(String classificationName) throws IOException {
-        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        try (RMA6File rma6File = openFile()) {
             final Long location = rma6File.getFooterSectionRMA6().getStartClassification(classificationName);
             if (location != null) {
                 ClassificationBlockRMA6 classificationBlockRMA6 = new ClassificationBlockRMA6(classificationName);
@@ -127,6 +214,17 @@ public class RMA6Connector implements IConnector {
         return null;
     }
 
+    /**
+     * creates a collector for the class assignments computed by the data processor, keeps them in memory
+     *
+     * @param classificationNames
+     * @return collector
+     */
+    @Override
+    public IUpdateItemCollector createUpdateItemCollector(String[] classificationNames) {
+        return new UpdateItemList(classificationNames.length);
+    }
+
     /**
      * rescan classifications after running the data processor
      *
@@ -170,7 +268,7 @@ public class RMA6Connector implements IConnector {
                 progressListener.incrementProgress();
             }
         }
-        try (RMA6FileModifier rma6Modifier = new RMA6FileModifier(fileName)) {
+        try (RMA6FileModifier rma6Modifier = openModifier()) {
             rma6Modifier.updateClassifications(cNames, fName2ClassId2Location, fName2ClassId2Weight);
         }
     }
@@ -182,14 +280,14 @@ public class RMA6Connector implements IConnector {
 
     @Override
     public int getNumberOfReads() throws IOException {
-        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        try (RMA6File rma6File = openFile()) {
             return (int) Math.min(Integer.MAX_VALUE, rma6File.getFooterSectionRMA6().getNumberOfReads());
         }
     }
 
     @Override
     public int getNumberOfMatches() throws IOException {
-        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        try (RMA6File rma6File = openFile()) {
             return (int) Math.min(Integer.MAX_VALUE, rma6File.getFooterSectionRMA6().getNumberOfMatches());
         }
     }
@@ -200,7 +298,7 @@ public class RMA6Connector implements IConnector {
 
     @Override
     public void putAuxiliaryData(Map<String, byte[]> label2data) throws IOException {
-        try (RMA6FileModifier rma6Modifier = new RMA6FileModifier(fileName)) {
+        try (RMA6FileModifier rma6Modifier = openModifier()) {
             rma6Modifier.saveAuxData(label2data);
         }
     }
@@ -208,7 +306,7 @@ public class RMA6Connector implements IConnector {
     @Override
     public Map<String, byte[]> getAuxiliaryData() throws IOException {
         final Map<String, byte[]> label2data = new HashMap<>();
-        try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+        try (RMA6File rma6File = openFile()) {
             label2data.putAll(rma6File.readAuxBlocks());
         }
         return label2data;
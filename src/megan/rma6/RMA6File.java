@@ -18,9 +18,12 @@
  */
 package megan.rma6;
 
+import jloda.util.ListOfLongs;
+import megan.io.FileRandomAccessReadAheadAdapter;
 import megan.io.IInputReader;
 import megan.io.IInputReaderOutputWriter;
 import megan.io.InputOutputReaderWriter;
+import megan.io.InputReaderMappedMemory;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -34,7 +37,7 @@ import java.util.Map;
 public class RMA6File implements Closeable {
     public final static int MAGIC_NUMBER = ('R' << 3) | ('M' << 2) | ('A' << 1) | ('R');
     public final static int VERSION = 6;
-    public final static int MINOR_VERSION = 0;
+    public final static int MINOR_VERSION = 2; // 1: compression codec recorded in header, 2: read complexity stored in read records
 
     final public static String READ_ONLY = "r";
     final public static String READ_WRITE = "rw";
@@ -44,6 +47,7 @@ public class RMA6File implements Closeable {
 
     protected String fileName;
     protected IInputReaderOutputWriter readerWriter;
+    private InputReaderMappedMemory mappedReader;
 
     /**
      * constructor
@@ -53,6 +57,16 @@ public class RMA6File implements Closeable {
         footerSectionRMA6 = new FooterSectionRMA6();
     }
 
+    /**
+     * constructor for files of a derived format that use the same header layout
+     *
+     * @param version
+     */
+    protected RMA6File(int version) {
+        headerSectionRMA6 = new HeaderSectionRMA6(version);
+        footerSectionRMA6 = new FooterSectionRMA6();
+    }
+
     /**
      * constructor
      */
@@ -72,12 +86,61 @@ public class RMA6File implements Closeable {
     public void load(String fileName, String mode) throws IOException {
         this.fileName = fileName;
 
-        this.readerWriter = new InputOutputReaderWriter(fileName, mode);
+        final InputOutputReaderWriter io = new InputOutputReaderWriter(fileName, mode);
+        this.readerWriter = io;
         headerSectionRMA6.read(readerWriter);
+        io.setCompressionCodec(headerSectionRMA6.getCompressionCodec());
         readerWriter.seek(FooterSectionRMA6.readStartFooterSection(readerWriter));
         footerSectionRMA6.read(readerWriter);
     }
 
+    /**
+     * replace the reader by one that uses a large read-ahead buffer. Use when reads are accessed in ascending order of location
+     *
+     * @param bufferSize
+     * @throws IOException
+     */
+    public void useReadAhead(int bufferSize) throws IOException {
+        useReadAhead(bufferSize, null);
+    }
+
+    /**
+     * replace the reader by one that uses a large read-ahead buffer, reading ahead only over nearby planned locations
+     *
+     * @param bufferSize
+     * @param plannedLocations locations of reads to be visited, in ascending order, or null
+     * @throws IOException
+     */
+    public void useReadAhead(int bufferSize, ListOfLongs plannedLocations) throws IOException {
+        final FileRandomAccessReadAheadAdapter adapter = new FileRandomAccessReadAheadAdapter(fileName, bufferSize);
+        adapter.setPlannedPositions(plannedLocations);
+        final InputOutputReaderWriter io = new InputOutputReaderWriter(adapter);
+        io.setCompressionCodec(headerSectionRMA6.getCompressionCodec());
+        if (readerWriter != null)
+            readerWriter.close();
+        readerWriter = io;
+        mappedReader = null;
+    }
+
+    /**
+     * use a memory-mapped reader for all subsequent reads, see getReader(). The mapping of a file is shared by all
+     * instances, each having its own position, so files can be read by several threads in parallel.
+     * If mapping fails, e.g. on a 32-bit JVM, the normal reader remains in use
+     *
+     * @return true, if mapping used
+     */
+    public boolean useMemoryMapping() {
+        try {
+            final InputReaderMappedMemory reader = new InputReaderMappedMemory(fileName);
+            reader.setCompressionCodec(headerSectionRMA6.getCompressionCodec());
+            mappedReader = reader;
+            return true;
+        } catch (IOException | OutOfMemoryError ex) {
+            System.err.println("Memory mapping failed: " + ex.getMessage());
+            return false;
+        }
+    }
+
     /**
      * close the file
      *
@@ -88,18 +151,32 @@ public class RMA6File implements Closeable {
             readerWriter.close();
             readerWriter = null;
         }
+        if (mappedReader != null) {
+            mappedReader.close();
+            mappedReader = null;
+        }
     }
 
     public HeaderSectionRMA6 getHeaderSectionRMA6() {
         return headerSectionRMA6;
     }
 
+    /**
+     * gets the sparse read index, if present
+     *
+     * @return read index or null, for files written without one
+     * @throws IOException
+     */
+    public ReadIndexRMA6 getReadIndex() throws IOException {
+        return ReadIndexRMA6.read(getReader(), getFooterSectionRMA6().getEndReadsSection(), getFooterSectionRMA6().getStartClassificationsSection());
+    }
+
     public FooterSectionRMA6 getFooterSectionRMA6() {
         return footerSectionRMA6;
     }
 
     public IInputReader getReader() {
-        return readerWriter;
+        return mappedReader != null ? mappedReader : readerWriter;
     }
 
     /**
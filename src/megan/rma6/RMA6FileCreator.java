@@ -20,25 +20,46 @@
 package megan.rma6;
 
 import jloda.util.ListOfLongs;
+import megan.io.CompressionCodec;
 import megan.io.OutputWriter;
 import megan.parsers.blast.BlastMode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * class used to create a new RMA6 file
  * Daniel Huson, 6.2015
  */
 public class RMA6FileCreator extends RMA6File {
-    private boolean isPairedReads;
+    protected boolean isPairedReads;
+    protected boolean hasReadComplexity;
     private boolean useCompression;
 
-    private int numberOfClassificationNames;
+    protected int numberOfClassificationNames;
 
-    private long totalNumberOfReads;
-    private long totalNumberOfMatches;
+    protected long totalNumberOfReads;
+    protected long totalNumberOfMatches;
+
+    private final ReadIndexRMA6 readIndex = new ReadIndexRMA6();
+
+    private IRecordLocationListener recordLocationListener;
+
+    // pipelined mode: records are serialized and compressed by a pool of threads and written in order
+    private int numberOfCompressionThreads = 0;
+    private ExecutorService compressionService;
+    private final LinkedList<PendingRecord> pendingRecords = new LinkedList<>();
+    private long numberOfSubmittedRecords;
+    private final ThreadLocal<RecordSerializer> recordSerializer = new ThreadLocal<RecordSerializer>() {
+        protected RecordSerializer initialValue() {
+            return new RecordSerializer();
+        }
+    };
 
     /**
      * constructor
@@ -51,6 +72,37 @@ public class RMA6FileCreator extends RMA6File {
         this.fileName = fileName;
     }
 
+    /**
+     * constructor for files of a derived format
+     *
+     * @param fileName
+     * @param useCompression
+     * @param version
+     */
+    protected RMA6FileCreator(String fileName, boolean useCompression, int version) {
+        super(version);
+        this.useCompression = useCompression;
+        this.fileName = fileName;
+    }
+
+    /**
+     * set the codec used to compress all strings that follow the header. Must be called before writeHeader()
+     *
+     * @param codec
+     */
+    public void setCompressionCodec(CompressionCodec codec) {
+        getHeaderSectionRMA6().setCompressionCodec(codec);
+    }
+
+    /**
+     * determine whether the complexity of each read is stored in its record. Must be called before writeHeader()
+     *
+     * @param storeReadComplexity
+     */
+    public void setStoreReadComplexity(boolean storeReadComplexity) {
+        getHeaderSectionRMA6().setHasReadComplexity(storeReadComplexity);
+    }
+
     /**
      * setup and write the header
      *
@@ -70,18 +122,21 @@ public class RMA6FileCreator extends RMA6File {
         headerSection.setIsPairedReads(isPairedReads);
 
         this.isPairedReads = isPairedReads;
+        this.hasReadComplexity = headerSection.hasReadComplexity();
         numberOfClassificationNames = matchClassificationNames.length;
 
         File file = new File(fileName);
         if (file.exists() && !file.delete())
             throw new IOException("Can't delete existing file: " + file);
 
-        readerWriter = new OutputWriter(new File(fileName)); // need to stream output for efficiency
+        final OutputWriter writer = new OutputWriter(new File(fileName)); // need to stream output for efficiency
+        readerWriter = writer;
         readerWriter.setUseCompression(useCompression);
 
         getFooterSectionRMA6().setStartHeaderSection(readerWriter.getPosition());
         getHeaderSectionRMA6().write(readerWriter);
         getFooterSectionRMA6().setEndHeaderSection(readerWriter.getPosition());
+        writer.setCompressionCodec(headerSection.getCompressionCodec()); // the header itself always uses the default codec
     }
 
     /**
@@ -97,7 +152,7 @@ public class RMA6FileCreator extends RMA6File {
     }
 
     /**
-     * add a query and its matches to the file
+     * add a query and its matches to the file, with complexity 0
      *
      * @param queryText
      * @param queryTextLength
@@ -108,12 +163,36 @@ public class RMA6FileCreator extends RMA6File {
      * @return the location of the read in the file
      * @throws IOException
      */
+    public final long addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
+                               int[][] match2Classification2Id, long mateLocation) throws IOException {
+        return addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id, mateLocation, 0);
+    }
+
+    /**
+     * add a query and its matches to the file. All records are written by this method, so subclasses that use a
+     * different record layout override it
+     *
+     * @param queryText
+     * @param queryTextLength
+     * @param numberOfMatches
+     * @param matchesText
+     * @param matchesTextLength
+     * @param match2Classification2Id
+     * @param mateLocation
+     * @param complexity              complexity of the read, only stored if requested by setStoreReadComplexity()
+     * @return the location of the read in the file
+     * @throws IOException
+     */
     public long addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
-                         int[][] match2Classification2Id, long mateLocation) throws IOException {
+                         int[][] match2Classification2Id, long mateLocation, float complexity) throws IOException {
+        flushPendingRecords();
         final long location = readerWriter.getPosition();
+        readIndex.add(location);
 
         if (isPairedReads)
             readerWriter.writeLong(mateLocation);
+        if (hasReadComplexity)
+            readerWriter.writeFloat(complexity);
 
         readerWriter.writeString(queryText, 0, queryTextLength);
 
@@ -134,13 +213,188 @@ public class RMA6FileCreator extends RMA6File {
     }
 
 
+    /**
+     * add a query and its matches in pipelined mode. The record is serialized and compressed by the compression pool and
+     * written to the file later, in the order of submission, so the file is identical to the one produced by addQuery().
+     * The mate location is written as 0, mates are linked afterwards, see PairedReadsLinker
+     *
+     * @param queryText
+     * @param queryTextLength
+     * @param numberOfMatches
+     * @param matchesText
+     * @param matchesTextLength
+     * @param match2Classification2Id
+     * @return the record number of the read
+     * @throws IOException
+     */
+    public long addQueryPipelined(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
+                                  int[][] match2Classification2Id) throws IOException {
+        return addQueryPipelined(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id, 0);
+    }
+
+    /**
+     * add a query and its matches in pipelined mode, see above
+     *
+     * @param queryText
+     * @param queryTextLength
+     * @param numberOfMatches
+     * @param matchesText
+     * @param matchesTextLength
+     * @param match2Classification2Id
+     * @param complexity              complexity of the read, only stored if requested by setStoreReadComplexity()
+     * @return the record number of the read
+     * @throws IOException
+     */
+    public long addQueryPipelined(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
+                                  int[][] match2Classification2Id, final float complexity) throws IOException {
+        if (numberOfCompressionThreads == 0) {
+            final long location = addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id, 0, complexity);
+            if (recordLocationListener != null)
+                recordLocationListener.recordWritten(numberOfSubmittedRecords, location);
+            return numberOfSubmittedRecords++;
+        }
+
+        if (compressionService == null)
+            compressionService = Executors.newFixedThreadPool(numberOfCompressionThreads);
+
+        // copy all data, as the caller may reuse the arrays:
+        final byte[] query = (queryText != null ? Arrays.copyOf(queryText, queryTextLength) : null);
+        final byte[] matches = (matchesText != null ? Arrays.copyOf(matchesText, matchesTextLength) : null);
+        final int[][] ids = new int[numberOfMatches][];
+        for (int i = 0; i < numberOfMatches; i++) {
+            ids[i] = Arrays.copyOf(match2Classification2Id[i], numberOfClassificationNames);
+        }
+        final boolean useCompression = this.useCompression;
+
+        final PendingRecord record = new PendingRecord(numberOfSubmittedRecords, numberOfMatches);
+        record.bytes = compressionService.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return serializeRecord(query, complexity, numberOfMatches, matches, ids, useCompression);
+            }
+        });
+        pendingRecords.add(record);
+
+        while (pendingRecords.size() >= 2 * numberOfCompressionThreads || (pendingRecords.size() > 0 && pendingRecords.getFirst().bytes.isDone())) {
+            writePendingRecord(pendingRecords.removeFirst());
+        }
+        return numberOfSubmittedRecords++;
+    }
+
+    /**
+     * write all pending records
+     *
+     * @throws IOException
+     */
+    private void flushPendingRecords() throws IOException {
+        while (pendingRecords.size() > 0) {
+            writePendingRecord(pendingRecords.removeFirst());
+        }
+    }
+
+    /**
+     * writes a serialized record to the file
+     *
+     * @param record
+     * @throws IOException
+     */
+    private void writePendingRecord(PendingRecord record) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = record.bytes.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            else
+                throw new IOException(e.getCause());
+        }
+        final long location = readerWriter.getPosition();
+        readIndex.add(location);
+        readerWriter.write(bytes, 0, bytes.length);
+        if (recordLocationListener != null)
+            recordLocationListener.recordWritten(record.recordNumber, location);
+
+        this.totalNumberOfReads++;
+        this.totalNumberOfMatches += record.numberOfMatches;
+    }
+
+    /**
+     * serializes a record exactly as addQuery() writes it, with mate location 0. Called by the compression threads
+     *
+     * @return bytes
+     * @throws IOException
+     */
+    private byte[] serializeRecord(byte[] queryText, float complexity, int numberOfMatches, byte[] matchesText, int[][] match2Classification2Id, boolean useCompression) throws IOException {
+        final RecordSerializer serializer = recordSerializer.get();
+        final ByteArrayOutputStream bytes = serializer.bytes;
+        final OutputWriter w = serializer.writer;
+        bytes.reset();
+        w.setUseCompression(useCompression);
+        if (w.getCompressionCodec() != getHeaderSectionRMA6().getCompressionCodec())
+            w.setCompressionCodec(getHeaderSectionRMA6().getCompressionCodec());
+        if (isPairedReads)
+            w.writeLong(0);
+        if (hasReadComplexity)
+            w.writeFloat(complexity);
+        w.writeString(queryText, 0, queryText != null ? queryText.length : 0);
+        w.writeInt(numberOfMatches);
+        for (int i = 0; i < numberOfMatches; i++) {
+            for (int j = 0; j < numberOfClassificationNames; j++) {
+                w.writeInt(match2Classification2Id[i][j]);
+            }
+        }
+        w.writeString(matchesText, 0, matchesText != null ? matchesText.length : 0);
+        w.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * set the number of threads used to compress records in pipelined mode, see addQueryPipelined().
+     * If 0, records are written immediately by the calling thread
+     *
+     * @param numberOfCompressionThreads
+     */
+    public void setNumberOfCompressionThreads(int numberOfCompressionThreads) {
+        this.numberOfCompressionThreads = Math.max(0, numberOfCompressionThreads);
+    }
+
+    public int getNumberOfCompressionThreads() {
+        return numberOfCompressionThreads;
+    }
+
+    /**
+     * number of records submitted by addQueryPipelined() so far, which is the record number of the next one
+     *
+     * @return number of submitted records
+     */
+    public long getNumberOfSubmittedRecords() {
+        return numberOfSubmittedRecords;
+    }
+
+    /**
+     * set a listener that is told the location of each record submitted by addQueryPipelined(), once it has been written
+     *
+     * @param recordLocationListener listener or null
+     */
+    public void setRecordLocationListener(IRecordLocationListener recordLocationListener) {
+        this.recordLocationListener = recordLocationListener;
+    }
+
     /**
      * finish creating the file. Assumes that the footer section has been set appropriately
      *
      * @throws IOException
      */
     public void endAddingQueries() throws IOException {
+        flushPendingRecords();
+        if (compressionService != null) {
+            compressionService.shutdownNow();
+            compressionService = null;
+        }
+
         getFooterSectionRMA6().setEndReadsSection(readerWriter.getPosition());
+        readIndex.write(readerWriter); // sparse index of read locations, so that the reads section can be split
 
         getFooterSectionRMA6().setNumberOfReads(totalNumberOfReads);
         getFooterSectionRMA6().setNumberOfMatches(totalNumberOfMatches);
@@ -187,9 +441,37 @@ public class RMA6FileCreator extends RMA6File {
         readerWriter = null;
     }
 
+    /**
+     * get the current position in the file. In pipelined mode, records that have been submitted but not yet written are not accounted for
+     *
+     * @return position
+     * @throws IOException
+     */
     public long getPosition() throws IOException {
         return readerWriter.getPosition();
     }
 
+    /**
+     * per-thread in-memory writer used to serialize records, so that each compression thread reuses its own compressor
+     */
+    private static class RecordSerializer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(100000);
+        final OutputWriter writer = new OutputWriter(bytes);
+    }
+
+    /**
+     * a record that has been submitted for compression, but not yet written
+     */
+    private static class PendingRecord {
+        final long recordNumber;
+        final int numberOfMatches;
+        Future<byte[]> bytes;
+
+        PendingRecord(long recordNumber, int numberOfMatches) {
+            this.recordNumber = recordNumber;
+            this.numberOfMatches = numberOfMatches;
+        }
+    }
+
 
 }
@@ -21,6 +21,7 @@ package megan.rma6;
 import jloda.util.Basic;
 import jloda.util.ListOfLongs;
 import megan.io.InputOutputReaderWriter;
+import megan.io.InputReaderMappedMemory;
 
 import java.io.Closeable;
 import java.io.File;
@@ -32,6 +33,8 @@ import java.util.Map;
  * Daniel Huson, 4.2015
  */
 public class RMA6FileModifier extends RMA6File implements Closeable {
+    private static final long MAX_WAIT_FOR_READERS = 30000; // max time to wait for open readers of the file to close, in milliseconds
+
     private InputOutputReaderWriter io;
 
     /**
@@ -45,6 +48,19 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
         super.close(); // have read the file, now close the readerWriter
     }
 
+    /**
+     * construct a modifier for a file of a derived format that uses the same layout for classifications and aux data
+     *
+     * @param fileName
+     * @param version
+     * @throws IOException
+     */
+    protected RMA6FileModifier(String fileName, int version) throws IOException {
+        super(version);
+        load(fileName, READ_WRITE);
+        super.close(); // have read the file, now close the readerWriter
+    }
+
     /**
      * update the classifications
      *
@@ -54,7 +70,9 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
      * @throws IOException
      */
     public void updateClassifications(String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Integer>[] fName2ClassId2Weight) throws IOException {
+        InputReaderMappedMemory.waitUntilUnmapped(fileName, MAX_WAIT_FOR_READERS);
         io = new InputOutputReaderWriter(new File(fileName), READ_WRITE);
+        io.setCompressionCodec(headerSectionRMA6.getCompressionCodec());
 
         io.seek(footerSectionRMA6.getStartClassificationsSection());
         io.setLength(io.getPosition());
@@ -107,7 +125,9 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
     public void saveAuxData(Map<String, byte[]> label2data) throws IOException {
         final long location = footerSectionRMA6.getStartAuxDataSection();
 
+        InputReaderMappedMemory.waitUntilUnmapped(fileName, MAX_WAIT_FOR_READERS);
         io = new InputOutputReaderWriter(new File(fileName), READ_WRITE);
+        io.setCompressionCodec(headerSectionRMA6.getCompressionCodec());
 
         io.setLength(location);
         io.seek(location);
@@ -0,0 +1,138 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.rma6;
+
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+import megan.core.Document;
+import megan.daa.ReferenceAnnotationCache;
+import megan.util.BatchRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * converts a batch of BLAST, SAM or DAA files to RMA6 files concurrently.
+ * All files share the loaded classifications and mapping tables and one reference annotation cache.
+ * The number of files processed at the same time is bounded by the given number and by a memory budget,
+ * the reference annotation cache is charged to the same budget
+ * Daniel Huson, 10.2016
+ */
+public class RMA6FromBlastBatch {
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * converts one input file of a batch
+     */
+    public interface Task {
+        /**
+         * create the document that holds the parameters for the given file. Calls are made one at a time
+         *
+         * @param fileIndex
+         * @return document
+         */
+        Document createDocument(int fileIndex) throws IOException;
+
+        /**
+         * convert the given file
+         *
+         * @param fileIndex
+         * @param doc                      document obtained from createDocument
+         * @param referenceAnnotationCache shared cache or null
+         * @param numberOfThreads          number of threads to use for this file
+         * @param progress
+         */
+        void convert(int fileIndex, Document doc, ReferenceAnnotationCache referenceAnnotationCache, int numberOfThreads, ProgressListener progress) throws IOException, CanceledException;
+    }
+
+    /**
+     * converts a batch of files
+     *
+     * @param inputFiles
+     * @param readsFiles                reads files, one per input file, empty strings allowed
+     * @param numberOfFilesConcurrently max number of files to convert concurrently
+     * @param numberOfThreads           total number of threads, divided between the files in flight
+     * @param memoryBudgetMB            max amount of memory (in MB) to be used by files in flight and the reference annotation cache, 0 for 80% of max heap
+     * @param referenceCacheSize        max number of entries in shared reference annotation cache, 0 to turn off. Reduced to fit into half of the memory budget
+     * @param task                      converts a single file
+     * @throws IOException              first exception thrown while converting any of the files
+     * @throws CanceledException
+     */
+    public static void apply(final ProgressListener progress, final String[] inputFiles, final String[] readsFiles, int numberOfFilesConcurrently, int numberOfThreads,
+                             int memoryBudgetMB, final int referenceCacheSize, final Task task) throws IOException, CanceledException {
+        final BatchRunner batchRunner = new BatchRunner(inputFiles.length, numberOfFilesConcurrently, numberOfThreads, memoryBudgetMB);
+        final ReferenceAnnotationCache[] referenceAnnotationCache = new ReferenceAnnotationCache[1];
+
+        batchRunner.run(progress, "Converting", inputFiles, new BatchRunner.Job<Document>() {
+            public Document setup(int fileIndex) throws IOException {
+                final Document doc = task.createDocument(fileIndex);
+                if (referenceAnnotationCache[0] == null && referenceCacheSize > 0) { // first file, create the cache and charge it to the memory budget
+                    final String[] cNames = doc.getActiveViewers().toArray(new String[doc.getActiveViewers().size()]);
+                    final int cacheSize = Math.min(referenceCacheSize, ReferenceAnnotationCache.getMaxSizeForMemory(batchRunner.getMemoryBudgetMB() / 2, cNames.length));
+                    if (cacheSize > 0) {
+                        referenceAnnotationCache[0] = new ReferenceAnnotationCache(cNames, cacheSize);
+                        batchRunner.reserveMemoryMB(ReferenceAnnotationCache.estimateMemoryMB(cacheSize, cNames.length));
+                    }
+                }
+                return doc;
+            }
+
+            public int estimateRequiredMemoryMB(int fileIndex, Document doc) {
+                return RMA6FromBlastBatch.estimateRequiredMemoryMB(inputFiles[fileIndex], (fileIndex < readsFiles.length ? readsFiles[fileIndex] : ""), doc.getActiveViewers().size(), batchRunner.getThreadsPerFile());
+            }
+
+            public void run(int fileIndex, Document doc, int numberOfThreads, ProgressListener progress) throws IOException, CanceledException {
+                task.convert(fileIndex, doc, referenceAnnotationCache[0], numberOfThreads, progress);
+            }
+        });
+
+        if (referenceAnnotationCache[0] != null)
+            System.err.println(referenceAnnotationCache[0].toString());
+    }
+
+    /**
+     * estimate the amount of memory required to convert a file: the per-read classification records kept until the
+     * file is written, plus the batches of reads in flight in the parsing pipeline
+     *
+     * @param inputFile
+     * @param readsFile
+     * @param numberOfClassifications
+     * @param numberOfThreads
+     * @return estimated memory in MB
+     */
+    private static int estimateRequiredMemoryMB(String inputFile, String readsFile, int numberOfClassifications, int numberOfThreads) {
+        final long numberOfReads = Math.max(getUncompressedSize(readsFile) / 250L, getUncompressedSize(inputFile) / 2500L);
+        final long bytes = numberOfReads * (64L + 16L * numberOfClassifications) + (numberOfThreads + 4L) * 4L * MB;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, bytes / MB));
+    }
+
+    /**
+     * estimate the uncompressed size of a file
+     *
+     * @param fileName
+     * @return size in bytes, or 0, if file not given
+     */
+    private static long getUncompressedSize(String fileName) {
+        if (fileName == null || fileName.length() == 0)
+            return 0;
+        final long size = new File(fileName).length();
+        return (fileName.endsWith(".gz") || fileName.endsWith(".zip") ? 4 * size : size);
+    }
+}
@@ -19,23 +19,30 @@
 package megan.rma6;
 
 import jloda.util.*;
+import megan.algorithms.ComplexityCalculator;
+import megan.algorithms.InlineClassifier;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
 import megan.classification.IdParser;
 import megan.core.Document;
 import megan.core.MeganFile;
 import megan.core.SyncArchiveAndDataTable;
-import megan.data.IReadBlock;
-import megan.data.IReadBlockIterator;
-import megan.io.InputOutputReaderWriter;
+import megan.daa.ReferenceAnnotationCache;
+import megan.io.CompressionCodec;
 import megan.parsers.blast.BlastFileFormat;
 import megan.parsers.blast.BlastMode;
 import megan.parsers.blast.ISAMIterator;
 import megan.parsers.blast.IteratorManager;
+import megan.parsers.fasta.ReadsFileIndex;
 import megan.util.ReadMagnitudeParser;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Creates a new RMA6 file by parsing a blast file
@@ -58,6 +65,14 @@ public class RMA6FromBlastCreator {
     private final int pairedReadSuffixLength;
 
     private final RMA6FileCreator rma6FileCreator;
+    private final boolean storeReadComplexity;
+
+    private int numberOfThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private ReferenceAnnotationCache referenceAnnotationCache;
+
+    private static final int DICTIONARY_SAMPLE_SIZE = 4000000; // number of bytes of matches text used to train a dictionary
+    private static final int READS_BATCH_SIZE = 10000; // number of reads whose sequences are fetched from the reads file together
+    private static final int PIPELINE_BATCH_BYTES = 4 * 1024 * 1024; // max number of bytes of matches text in a batch passed through the pipeline
 
     /**
      * construct a new creator to create an RMA6 file from a set of BLAST files
@@ -73,6 +88,24 @@ public class RMA6FromBlastCreator {
      */
     public RMA6FromBlastCreator(String creator, BlastFileFormat format, BlastMode blastMode, String[] blastFiles, String[] readsFiles, String rma6File, boolean useCompression,
                                 Document doc, int maxMatchesPerRead, boolean hasMagnitudes) throws IOException {
+        this(creator, format, blastMode, blastFiles, readsFiles, rma6File, useCompression, CompressionCodec.DEFAULT, doc, maxMatchesPerRead, hasMagnitudes);
+    }
+
+    /**
+     * construct a new creator to create an RMA6 file from a set of BLAST files
+     *
+     * @param format
+     * @param blastMode
+     * @param blastFiles
+     * @param readsFiles
+     * @param codec             codec used to compress reads and matches. If it uses a dictionary, then the dictionary is trained on the first reads
+     * @param maxMatchesPerRead
+     * @param doc
+     * @param hasMagnitudes
+     * @throws IOException
+     */
+    public RMA6FromBlastCreator(String creator, BlastFileFormat format, BlastMode blastMode, String[] blastFiles, String[] readsFiles, String rma6File, boolean useCompression,
+                                CompressionCodec codec, Document doc, int maxMatchesPerRead, boolean hasMagnitudes) throws IOException {
         this.format = format;
         this.blastMode = blastMode;
         this.blastFiles = blastFiles;
@@ -106,6 +139,13 @@ public class RMA6FromBlastCreator {
 
         // setup the file creator and write the header:
         rma6FileCreator = new RMA6FileCreator(rma6File, useCompression);
+        rma6FileCreator.setNumberOfCompressionThreads(getNumberOfCompressionThreads());
+        if (codec.getType() == CompressionCodec.Type.DeflateWithDictionary && blastFiles.length > 0)
+            codec = codec.withDictionary(trainDictionary(blastFiles[0]));
+        rma6FileCreator.setCompressionCodec(codec);
+        // only store read complexity when it is used, so that files remain readable by older versions:
+        storeReadComplexity = (doc.getMinComplexity() > 0);
+        rma6FileCreator.setStoreReadComplexity(storeReadComplexity);
 
         final String[] matchClassificationNames = new String[parsers.length];
         for (int i = 0; i < parsers.length; i++)
@@ -114,6 +154,84 @@ public class RMA6FromBlastCreator {
         rma6FileCreator.writeHeader(creator, blastMode, matchClassificationNames, doc.isPairedReads());
     }
 
+    /**
+     * set the number of threads used by this creator. They are split between the stages of the pipeline:
+     * one thread parses the input (two, if there are at least 8 threads), and the remaining threads are
+     * divided equally between resolving ids and compressing records, each stage uses at least one thread. In addition, reading, classifying and
+     * writing each use one thread, these mostly wait for the other stages
+     *
+     * @param numberOfThreads
+     */
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+        rma6FileCreator.setNumberOfCompressionThreads(getNumberOfCompressionThreads());
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * number of threads used to parse the input
+     *
+     * @return number of parser threads
+     */
+    private int getNumberOfParserThreads() {
+        return (numberOfThreads >= 8 ? 2 : 1);
+    }
+
+    /**
+     * number of threads used to resolve ids, half of the threads not used for parsing
+     *
+     * @return number of resolve threads
+     */
+    private int getNumberOfResolveThreads() {
+        return Math.max(1, (numberOfThreads - getNumberOfParserThreads() + 1) / 2);
+    }
+
+    /**
+     * number of threads used to compress records, the other half of the threads not used for parsing
+     *
+     * @return number of compression threads
+     */
+    private int getNumberOfCompressionThreads() {
+        return Math.max(1, (numberOfThreads - getNumberOfParserThreads()) / 2);
+    }
+
+    /**
+     * set a cache of reference ids shared with other files that are processed concurrently. It is only used if it holds
+     * ids for the same classifications as this creator
+     *
+     * @param referenceAnnotationCache cache or null
+     */
+    public void setReferenceAnnotationCache(ReferenceAnnotationCache referenceAnnotationCache) {
+        this.referenceAnnotationCache = (referenceAnnotationCache != null && referenceAnnotationCache.isCompatible(cNames) ? referenceAnnotationCache : null);
+    }
+
+    /**
+     * trains a compression dictionary on the matches of the first reads of a file
+     *
+     * @param blastFile
+     * @return dictionary
+     * @throws IOException
+     */
+    private byte[] trainDictionary(String blastFile) throws IOException {
+        final ArrayList<byte[]> samples = new ArrayList<>();
+        // only the first reads are needed, so a single parser thread suffices:
+        final ISAMIterator iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead, 1);
+        try {
+            int size = 0;
+            while (iterator.hasNext() && size < DICTIONARY_SAMPLE_SIZE) {
+                iterator.next();
+                samples.add(Arrays.copyOf(iterator.getMatchesText(), iterator.getMatchesTextLength()));
+                size += iterator.getMatchesTextLength();
+            }
+        } finally {
+            iterator.close();
+        }
+        return CompressionCodec.trainDictionary(samples, CompressionCodec.MAX_DICTIONARY_SIZE);
+    }
+
     /**
      * parse the files
      *
@@ -124,165 +242,537 @@ public class RMA6FromBlastCreator {
     public void parseFiles(final ProgressListener progress) throws IOException, CanceledException {
         progress.setTasks("Generating RMA6 file", "Parsing matches");
 
-        final HashMap<String, Long> read2PairedReadLocation;
-        if (pairedReads)
-            read2PairedReadLocation = new HashMap<>(1000000);
-        else
-            read2PairedReadLocation = null;
-
-        final byte[] queryName = new byte[100000];
-        final Single<byte[]> fastAText = new Single<>(new byte[1000]);
-        final MatchLineRMA6[] matchLineRMA6s = new MatchLineRMA6[maxMatchesPerRead];
-        for (int i = 0; i < matchLineRMA6s.length; i++) {
-            matchLineRMA6s[i] = new MatchLineRMA6(cNames.length, taxonMapperIndex);
+        // classify reads while writing them, unless that requires the complete file:
+        final InlineClassifier inlineClassifier = (InlineClassifier.isApplicable(doc) ? new InlineClassifier(doc) : null);
+
+        // paired reads are linked after writing, using a bounded amount of memory:
+        final PairedReadsLinker pairedReadsLinker = (pairedReads ? new PairedReadsLinker((new File(rma6File)).getAbsoluteFile().getParentFile(), PairedReadsLinker.DEFAULT_MAX_BUFFERED) : null);
+
+        final HashMap<Long, PendingRead> record2PendingRead = new HashMap<>(); // reads submitted but not yet written
+        if (inlineClassifier != null || pairedReadsLinker != null) {
+            rma6FileCreator.setRecordLocationListener(new IRecordLocationListener() {
+                public void recordWritten(long recordNumber, long location) throws IOException {
+                    final PendingRead pendingRead = record2PendingRead.remove(recordNumber);
+                    if (inlineClassifier != null)
+                        inlineClassifier.add(location, pendingRead.weight, pendingRead.classIds);
+                    if (pairedReadsLinker != null)
+                        pairedReadsLinker.add(pendingRead.nameHash1, pendingRead.nameHash2, location);
+                }
+            });
         }
 
-        final int[][] match2classification2id = new int[maxMatchesPerRead][cNames.length];
-
         rma6FileCreator.startAddingQueries();
 
         long totalNumberOfReads = 0;
         long totalNumberOfMatches = 0;
 
         for (int fileNumber = 0; fileNumber < blastFiles.length; fileNumber++) {
-            int missingReadWarnings = 0;
             final String blastFile = blastFiles[fileNumber];
             progress.setSubtask("Parsing file: " + Basic.getFileNameWithoutPath(blastFile));
             System.err.println("Parsing file: " + blastFile);
 
-            final ISAMIterator iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead);
+            final ISAMIterator iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead, getNumberOfParserThreads());
 
             progress.setProgress(0);
             progress.setMaximum(iterator.getMaximumProgress());
 
-            final FileIterator fastaIterator;
-            final boolean isFasta;
+            // reads are fetched by name from an index, in batches sorted by location in the reads file:
+            final ReadsFileIndex readsFileIndex;
             if (readsFiles != null && readsFiles.length > fileNumber && Basic.fileExistsAndIsNonEmpty(readsFiles[fileNumber])) {
-                fastaIterator = new FileIterator(readsFiles[fileNumber]);
-                isFasta = (fastaIterator.peekNextByte() == '>');
-                if (!isFasta && (fastaIterator.peekNextByte() != '@'))
-                    throw new IOException("Cannot determine type of reads file (doesn't start with '>' or '@': " + readsFiles[fileNumber]);
-            } else {
-                fastaIterator = null;
-                isFasta = false; // don't care, won't use
+                progress.setSubtask("Indexing reads file: " + Basic.getFileNameWithoutPath(readsFiles[fileNumber]));
+                readsFileIndex = new ReadsFileIndex(readsFiles[fileNumber], (new File(rma6File)).getAbsoluteFile().getParentFile());
+                progress.setSubtask("Parsing file: " + Basic.getFileNameWithoutPath(blastFile));
+            } else
+                readsFileIndex = null;
+
+            // parsing, id resolution and classification run in their own threads, reads are written here, in input order:
+            final ReadsPipeline pipeline = new ReadsPipeline(iterator, readsFileIndex, readsFileIndex != null ? readsFiles[fileNumber] : null,
+                    inlineClassifier, pairedReadsLinker != null, getNumberOfResolveThreads());
+            try {
+                // MAIN LOOP:
+                ReadBatch batch;
+                while ((batch = pipeline.next()) != null) {
+                    final long start = System.nanoTime();
+                    for (int r = 0; r < batch.size; r++) {
+                        totalNumberOfReads++;
+                        totalNumberOfMatches += batch.numberOfMatches[r];
+                        if (batch.pendingReads != null) {
+                            // must be registered before submitting, as the record may be written immediately:
+                            record2PendingRead.put(rma6FileCreator.getNumberOfSubmittedRecords(), batch.pendingReads[r]);
+                        }
+                        rma6FileCreator.addQueryPipelined(batch.queryText[r], batch.queryTextLength[r], batch.numberOfMatches[r], batch.matchesText[r], batch.matchesText[r].length,
+                                batch.match2classification2id[r], batch.complexity[r]);
+                    }
+                    pipeline.writeStage.addBusy(System.nanoTime() - start);
+                    progress.setProgress(batch.progress);
+                } // end of iterator
+            } finally {
+                pipeline.close();
             }
+            pipeline.reportStatistics();
+        } // end of files
+
+        rma6FileCreator.endAddingQueries();
+
+        if (progress instanceof ProgressPercentage)
+            ((ProgressPercentage) progress).reportTaskCompleted();
 
-            // MAIN LOOP:
-            while (iterator.hasNext()) {
-                totalNumberOfReads++;
-                final int numberOfMatches = iterator.next();
-                totalNumberOfMatches += numberOfMatches;
-                final byte[] matchesText = iterator.getMatchesText(); // get matches as '\n' separated strings
-                final int matchesTextLength = iterator.getMatchesTextLength();
-                final int queryNameLength = Basic.getFirstWord(matchesText, queryName);
-
-                Long mateLocation = null;
-
-                if (pairedReads) {
-                    final String strippedName = Basic.toString(queryName, 0, queryNameLength - pairedReadSuffixLength);
-                    mateLocation = read2PairedReadLocation.get(strippedName);
-                    if (mateLocation == null) {
-                        read2PairedReadLocation.put(strippedName, rma6FileCreator.getPosition());
-                    } else {
-                        read2PairedReadLocation.remove(strippedName);
+        System.err.println(String.format("Total reads:  %,16d", totalNumberOfReads));
+        System.err.println(String.format("Alignments:    %,15d", totalNumberOfMatches));
+
+        if (progress instanceof ProgressPercentage)
+            ((ProgressPercentage) progress).reportTaskCompleted();
+
+        // nothing to write
+        rma6FileCreator.writeClassifications(null, null, null);
+
+        rma6FileCreator.writeAuxBlocks(null); // zero aux blocks
+
+        rma6FileCreator.close();
+
+        if (pairedReadsLinker != null) { // update paired reads info
+            progress.setSubtask("Linking paired reads");
+            try {
+                System.err.println(String.format("Number of pairs:%,14d", pairedReadsLinker.apply(rma6File, progress)));
+            } finally {
+                pairedReadsLinker.close();
+            }
+        }
+
+        // classifications were computed while writing, unless this was not possible
+        doc.processReadHits(inlineClassifier);
+
+        // update and then save auxiliary data:
+        final String sampleName = Basic.replaceFileSuffix(Basic.getFileNameWithoutPath(rma6File), "");
+        SyncArchiveAndDataTable.syncRecomputedArchive2Summary(sampleName, "LCA", doc.getBlastMode(), doc.getParameterString(), new RMA6Connector(rma6File), doc.getDataTable(), 0);
+        doc.saveAuxiliaryData();
+    }
+
+    /**
+     * the stages that prepare the reads of one file for writing. A parser thread reads batches of reads, a pool of threads
+     * resolves the reference ids of their matches and, if requested, a classifier thread computes their assignments.
+     * Stages are connected by bounded queues of futures, so batches are delivered in input order and a slow stage
+     * holds back the stages before it
+     */
+    private class ReadsPipeline {
+        private final ISAMIterator iterator;
+        private final ReadsFileIndex readsFileIndex;
+        private final String readsFile;
+        private final InlineClassifier inlineClassifier;
+        private final boolean computeNameHashes;
+
+        private final ExecutorService resolveService;
+        private final ArrayBlockingQueue<Future<ReadBatch>> resolvedQueue;
+        private final ArrayBlockingQueue<Future<ReadBatch>> classifiedQueue;
+        private final Thread parserThread;
+        private final Thread classifierThread;
+        private volatile Exception parserException;
+        private volatile boolean closed = false;
+
+        private final ThreadLocal<IdParser[]> idParsers = new ThreadLocal<IdParser[]>() {
+            @Override
+            protected IdParser[] initialValue() {
+                final IdParser[] idParsers = new IdParser[cNames.length];
+                for (int i = 0; i < cNames.length; i++)
+                    idParsers[i] = ClassificationManager.get(cNames[i], true).getIdMapper().createIdParser();
+                return idParsers;
+            }
+        };
+
+        private final ThreadLocal<ComplexityCalculator> complexityCalculators = new ThreadLocal<ComplexityCalculator>() {
+            @Override
+            protected ComplexityCalculator initialValue() {
+                return new ComplexityCalculator(blastMode != BlastMode.BlastP);
+            }
+        };
+
+        private final StageStatistics parseStage = new StageStatistics("Parse", 1);
+        private final StageStatistics resolveStage;
+        private final StageStatistics classifyStage = new StageStatistics("Classify", 1);
+        private final StageStatistics writeStage = new StageStatistics("Write", 1);
+
+        /**
+         * setup and start the pipeline
+         *
+         * @param iterator
+         * @param readsFileIndex    index used to fetch the reads, or null
+         * @param readsFile         name of reads file, used in warnings
+         * @param inlineClassifier  classifier or null
+         * @param computeNameHashes compute the name hashes used to link paired reads
+         * @param numberOfThreads   number of threads used to resolve ids
+         */
+        ReadsPipeline(ISAMIterator iterator, ReadsFileIndex readsFileIndex, String readsFile, InlineClassifier inlineClassifier, boolean computeNameHashes, int numberOfThreads) {
+            this.iterator = iterator;
+            this.readsFileIndex = readsFileIndex;
+            this.readsFile = readsFile;
+            this.inlineClassifier = inlineClassifier;
+            this.computeNameHashes = computeNameHashes;
+
+            resolveService = Executors.newFixedThreadPool(numberOfThreads);
+            resolveStage = new StageStatistics("Resolve ids", numberOfThreads);
+            resolvedQueue = new ArrayBlockingQueue<>(numberOfThreads + 1);
+
+            parserThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        parseBatches();
+                    } catch (InterruptedException ignored) {
+                    } catch (Exception ex) {
+                        parserException = ex;
+                    } finally {
+                        resolveService.shutdown(); // all batches submitted, let the workers finish them
+                        try {
+                            ReadsPipeline.this.iterator.close();
+                            if (ReadsPipeline.this.readsFileIndex != null)
+                                ReadsPipeline.this.readsFileIndex.close();
+                        } catch (IOException ignored) {
+                        }
+                        if (!closed) {
+                            try {
+                                resolvedQueue.put(createDone(new ReadBatch(0, -1), null));
+                            } catch (InterruptedException ignored) {
+                            }
+                        }
                     }
                 }
+            }, "RMA6FromBlastCreatorParser");
+            parserThread.setDaemon(true);
+
+            if (inlineClassifier != null) {
+                classifiedQueue = new ArrayBlockingQueue<>(2);
+                classifierThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            classifyBatches();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }, "RMA6FromBlastCreatorClassifier");
+                classifierThread.setDaemon(true);
+            } else {
+                classifiedQueue = null;
+                classifierThread = null;
+            }
+
+            parserThread.start();
+            if (classifierThread != null)
+                classifierThread.start();
+        }
 
-                byte[] queryText = null;
-                int queryTextLength = 0;
+        /**
+         * parse stage: reads batches of reads, fetches their sequences and submits them for id resolution
+         */
+        private void parseBatches() throws IOException, InterruptedException {
+            final byte[] queryName = new byte[100000];
+            int missingReadWarnings = 0;
 
-                if (fastaIterator != null) {
-                    if (Utilities.findQuery(queryName, queryNameLength, fastaIterator, isFasta)) {
-                        queryTextLength = Utilities.getFastAText(fastaIterator, isFasta, fastAText);
-                        queryText = fastAText.get();
+            while (!closed && iterator.hasNext()) {
+                final long start = System.nanoTime();
+                final ReadBatch batch = new ReadBatch(READS_BATCH_SIZE, 0);
+                int batchBytes = 0;
+                while (batch.size < READS_BATCH_SIZE && batchBytes < PIPELINE_BATCH_BYTES && iterator.hasNext()) {
+                    final int numberOfMatches = iterator.next();
+                    final byte[] matchesText = iterator.getMatchesText(); // get matches as '\n' separated strings
+                    final int matchesTextLength = iterator.getMatchesTextLength();
+                    final int queryNameLength = Basic.getFirstWord(matchesText, queryName);
+                    final int r = batch.size++;
+                    batch.numberOfMatches[r] = numberOfMatches;
+                    batch.matchesText[r] = Arrays.copyOf(matchesText, matchesTextLength);
+                    batch.queryName[r] = Arrays.copyOf(queryName, queryNameLength);
+                    batch.queryText[r] = (iterator.getQueryText() != null ? iterator.getQueryText().clone() : null);
+                    batchBytes += matchesTextLength;
+                }
+                final byte[][] fastATexts = (readsFileIndex != null ? readsFileIndex.getFastATexts(batch.queryName, batch.queryNameLength(), batch.size) : null);
 
-                    } else {
+                for (int r = 0; r < batch.size; r++) {
+                    if (fastATexts != null && fastATexts[r] == null) {
                         if (missingReadWarnings++ < 50)
-                            System.err.println("WARNING: Failed to find read '" + Basic.toString(queryName, 0, queryNameLength) + "' in file: " + readsFiles[fileNumber]);
+                            System.err.println("WARNING: Failed to find read '" + Basic.toString(batch.queryName[r], 0, batch.queryName[r].length) + "' in file: " + readsFile);
                         if (missingReadWarnings == 50)
                             System.err.println("No further 'failed to find read' warnings...");
                     }
+                    if (batch.queryText[r] == null) // text provided by the iterator takes precedence
+                        batch.queryText[r] = (fastATexts != null && fastATexts[r] != null ? fastATexts[r] : batch.queryName[r]);
+                    batch.queryTextLength[r] = batch.queryText[r].length;
                 }
-                if (iterator.getQueryText() != null) {
-                    queryText = iterator.getQueryText();
-                    queryTextLength = iterator.getQueryText().length;
+                batch.progress = iterator.getProgress();
+                parseStage.addBusy(System.nanoTime() - start);
+
+                final Future<ReadBatch> future = resolveService.submit(new Callable<ReadBatch>() {
+                    @Override
+                    public ReadBatch call() throws Exception {
+                        final long start = System.nanoTime();
+                        resolveIds(batch);
+                        resolveStage.addBusy(System.nanoTime() - start);
+                        return batch;
+                    }
+                });
+                final long waitStart = System.nanoTime();
+                resolvedQueue.put(future);
+                parseStage.addWaitingForOutput(System.nanoTime() - waitStart);
+            }
+        }
 
+        /**
+         * id resolution stage: determines the taxon and functional ids of all matches and, for paired reads, the name hashes
+         *
+         * @param batch
+         * @throws IOException
+         */
+        private void resolveIds(ReadBatch batch) throws IOException {
+            final IdParser[] parsers = idParsers.get();
+            for (int r = 0; r < batch.size; r++) {
+                final byte[] matchesText = batch.matchesText[r];
+                final int[][] match2classification2id = new int[Math.max(0, batch.numberOfMatches[r])][parsers.length];
+
+                // for each match, determine its taxonId and all its functional ids:
+                int offset = 0;
+                for (int matchCount = 0; matchCount < batch.numberOfMatches[r]; matchCount++) {
+                    final String refName = Utilities.getToken(2, matchesText, offset);
+                    int[] ids = (referenceAnnotationCache != null ? referenceAnnotationCache.get(refName) : null);
+                    if (ids == null) {
+                        ids = new int[parsers.length];
+                        for (int i = 0; i < parsers.length; i++) {
+                            ids[i] = parsers[i].getIdFromHeaderLine(refName);
+                        }
+                        if (referenceAnnotationCache != null)
+                            referenceAnnotationCache.put(refName, ids);
+                    }
+                    System.arraycopy(ids, 0, match2classification2id[matchCount], 0, ids.length);
+                    offset = Utilities.nextNewLine(matchesText, offset) + 1;
                 }
-                if (queryText == null) {
-                    queryText = queryName;
-                    queryTextLength = queryNameLength;
+                batch.match2classification2id[r] = match2classification2id;
+
+                if (storeReadComplexity) { // query text is header line, followed by sequence, if present
+                    final byte[] queryText = batch.queryText[r];
+                    final int length = batch.queryTextLength[r];
+                    int start = 0;
+                    while (start < length && queryText[start] != '\n')
+                        start++;
+                    batch.complexity[r] = (start < length ? complexityCalculators.get().compute(queryText, start + 1, length) : 0);
                 }
 
-                // for each match, write its taxonId and all its functional ids:
-                int offset = 0;
-
-                for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
-                    final String refName = Utilities.getToken(2, matchesText, offset);
+                if (inlineClassifier != null || computeNameHashes) {
+                    final PendingRead pendingRead = new PendingRead();
+                    if (computeNameHashes) {
+                        final byte[] readName = batch.queryName[r];
+                        final int strippedNameLength = Math.max(0, readName.length - pairedReadSuffixLength);
+                        pendingRead.nameHash1 = PairedReadsLinker.computeHash1(readName, 0, strippedNameLength);
+                        pendingRead.nameHash2 = PairedReadsLinker.computeHash2(readName, 0, strippedNameLength);
+                    }
+                    if (batch.pendingReads == null)
+                        batch.pendingReads = new PendingRead[batch.size];
+                    batch.pendingReads[r] = pendingRead;
+                }
+            }
+        }
 
-                    final MatchLineRMA6 matchLineRMA6 = matchLineRMA6s[matchCount];
-                    matchLineRMA6.parse(matchesText, offset);
-                    for (int i = 0; i < parsers.length; i++) {
-                        final int id = parsers[i].getIdFromHeaderLine(refName);
-                        match2classification2id[matchCount][i] = id;
-                        matchLineRMA6.setFId(i, id);
+        /**
+         * classification stage: computes the class ids of all reads, in input order, as the inline classifier is not thread safe
+         */
+        private void classifyBatches() throws InterruptedException {
+            final ReadBlockRMA6 readBlock = new ReadBlockRMA6(blastMode, pairedReads, cNames);
+            try {
+                while (true) {
+                    final ReadBatch batch = take(resolvedQueue, classifyStage);
+                    if (batch.isEndOfInput()) {
+                        classifiedQueue.put(createDone(batch, null));
+                        break;
                     }
-                    offset = Utilities.nextNewLine(matchesText, offset) + 1;
+                    final long start = System.nanoTime();
+                    for (int r = 0; r < batch.size; r++) {
+                        final PendingRead pendingRead = batch.pendingReads[r];
+                        readBlock.setFromQuery(-1, batch.queryText[r], batch.queryTextLength[r], batch.complexity[r], batch.numberOfMatches[r], batch.matchesText[r], batch.matchesText[r].length,
+                                batch.match2classification2id[r], 0, 10);
+                        pendingRead.classIds = inlineClassifier.computeClassIds(readBlock);
+                        pendingRead.weight = readBlock.getReadWeight();
+                    }
+                    classifyStage.addBusy(System.nanoTime() - start);
+
+                    final long waitStart = System.nanoTime();
+                    classifiedQueue.put(createDone(batch, null));
+                    classifyStage.addWaitingForOutput(System.nanoTime() - waitStart);
                 }
+            } catch (InterruptedException ex) {
+                throw ex;
+            } catch (ExecutionException ex) { // pass failure of id resolution on to the writer
+                if (!closed)
+                    classifiedQueue.put(createDone(null, ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex));
+            } catch (Exception ex) {
+                if (!closed)
+                    classifiedQueue.put(createDone(null, ex));
+            }
+        }
 
-                rma6FileCreator.addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2classification2id, mateLocation != null ? mateLocation : 0);
-                progress.setProgress(iterator.getProgress());
-            } // end of iterator
-        } // end of files
+        /**
+         * gets the next batch of reads, ready for writing
+         *
+         * @return next batch or null, if all reads delivered
+         * @throws IOException
+         */
+        ReadBatch next() throws IOException {
+            final ReadBatch batch;
+            try {
+                batch = take(classifiedQueue != null ? classifiedQueue : resolvedQueue, writeStage);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException)
+                    throw (IOException) ex.getCause();
+                else
+                    throw new IOException(ex.getCause());
+            }
+            if (batch.isEndOfInput()) {
+                if (parserException != null) {
+                    if (parserException instanceof IOException)
+                        throw (IOException) parserException;
+                    else
+                        throw new IOException(parserException);
+                }
+                return null;
+            }
+            return batch;
+        }
 
-        rma6FileCreator.endAddingQueries();
+        /**
+         * stop all threads
+         */
+        void close() {
+            closed = true;
+            parserThread.interrupt();
+            if (classifierThread != null)
+                classifierThread.interrupt();
+            resolveService.shutdownNow();
+            resolvedQueue.clear();
+            if (classifiedQueue != null)
+                classifiedQueue.clear();
+        }
 
-        if (progress instanceof ProgressPercentage)
-            ((ProgressPercentage) progress).reportTaskCompleted();
+        /**
+         * report how much time each stage spent working and waiting for its neighbours. The stage with the least waiting
+         * time limits the throughput
+         */
+        void reportStatistics() {
+            System.err.println("Pipeline stages (seconds busy, waiting for input, waiting for output):");
+            System.err.println(parseStage);
+            System.err.println(resolveStage);
+            if (inlineClassifier != null)
+                System.err.println(classifyStage);
+            System.err.println(writeStage);
+        }
+    }
 
-        System.err.println(String.format("Total reads:  %,16d", totalNumberOfReads));
-        System.err.println(String.format("Alignments:    %,15d", totalNumberOfMatches));
+    /**
+     * takes the next batch from a queue, recording the time spent waiting for it
+     */
+    private static ReadBatch take(ArrayBlockingQueue<Future<ReadBatch>> queue, StageStatistics stage) throws InterruptedException, ExecutionException {
+        final long start = System.nanoTime();
+        final ReadBatch batch = queue.take().get();
+        stage.addWaitingForInput(System.nanoTime() - start);
+        return batch;
+    }
 
-        if (progress instanceof ProgressPercentage)
-            ((ProgressPercentage) progress).reportTaskCompleted();
+    /**
+     * creates a future that is already done
+     *
+     * @param batch     result
+     * @param exception exception to be thrown instead, or null
+     * @return future
+     */
+    private static Future<ReadBatch> createDone(final ReadBatch batch, final Exception exception) {
+        final FutureTask<ReadBatch> task = new FutureTask<>(new Callable<ReadBatch>() {
+            @Override
+            public ReadBatch call() throws Exception {
+                if (exception != null)
+                    throw exception;
+                return batch;
+            }
+        });
+        task.run();
+        return task;
+    }
 
-        // nothing to write
-        rma6FileCreator.writeClassifications(null, null, null);
+    /**
+     * a batch of reads passed through the pipeline
+     */
+    private static class ReadBatch {
+        private int size = 0;
+        private long progress;
+        private final int[] numberOfMatches;
+        private final byte[][] matchesText;
+        private final byte[][] queryName;
+        private final byte[][] queryText;
+        private final int[] queryTextLength;
+        private final float[] complexity;
+        private final int[][][] match2classification2id;
+        private PendingRead[] pendingReads;
+
+        ReadBatch(int capacity, long progress) {
+            this.progress = progress;
+            numberOfMatches = new int[capacity];
+            matchesText = new byte[capacity][];
+            queryName = new byte[capacity][];
+            queryText = new byte[capacity][];
+            queryTextLength = new int[capacity];
+            complexity = new float[capacity];
+            match2classification2id = new int[capacity][][];
+        }
 
-        rma6FileCreator.writeAuxBlocks(null); // zero aux blocks
+        boolean isEndOfInput() {
+            return progress == -1;
+        }
 
-        rma6FileCreator.close();
+        int[] queryNameLength() {
+            final int[] lengths = new int[size];
+            for (int r = 0; r < size; r++)
+                lengths[r] = queryName[r].length;
+            return lengths;
+        }
+    }
 
-        if (pairedReads) { // update paired reads info
-            long count = 0;
-            if (progress instanceof ProgressPercentage)
-                ((ProgressPercentage) progress).reportTaskCompleted();
-            try (InputOutputReaderWriter raf = new InputOutputReaderWriter(rma6File, "rw");
-                 IReadBlockIterator it = (new RMA6Connector(rma6File)).getAllReadsIterator(0, 1000, false, false)) {
-                progress.setSubtask("Linking paired reads");
-                progress.setProgress(0);
-                progress.setProgress(it.getMaximumProgress());
-
-                while (it.hasNext()) {
-                    final IReadBlock readBlock = it.next();
-                    if (readBlock.getMateUId() > 0) {
-                        if (readBlock.getMateUId() > readBlock.getUId())
-                            throw new IOException("Mate uid=" + readBlock.getMateUId() + ": too big");
-                        raf.seek(readBlock.getMateUId());
-                        raf.writeLong(readBlock.getUId());
-                        count++;
-                    }
-                    progress.setProgress(it.getProgress());
-                }
-                System.err.println(String.format("Number of pairs:%,14d", count));
-            }
+    /**
+     * time spent by a pipeline stage working and waiting for its neighbouring stages
+     */
+    private static class StageStatistics {
+        private final String name;
+        private final int numberOfThreads;
+        private final AtomicLong busy = new AtomicLong();
+        private final AtomicLong waitingForInput = new AtomicLong();
+        private final AtomicLong waitingForOutput = new AtomicLong();
+
+        StageStatistics(String name, int numberOfThreads) {
+            this.name = name;
+            this.numberOfThreads = numberOfThreads;
         }
 
-        // we need to run data processor to perform classification
-            doc.processReadHits();
+        void addBusy(long nanos) {
+            busy.addAndGet(nanos);
+        }
 
-        // update and then save auxiliary data:
-        final String sampleName = Basic.replaceFileSuffix(Basic.getFileNameWithoutPath(rma6File), "");
-        SyncArchiveAndDataTable.syncRecomputedArchive2Summary(sampleName, "LCA", doc.getBlastMode(), doc.getParameterString(), new RMA6Connector(rma6File), doc.getDataTable(), 0);
-        doc.saveAuxiliaryData();
+        void addWaitingForInput(long nanos) {
+            waitingForInput.addAndGet(nanos);
+        }
+
+        void addWaitingForOutput(long nanos) {
+            waitingForOutput.addAndGet(nanos);
+        }
+
+        public String toString() {
+            // time of multi-threaded stages is given per thread
+            return String.format("%-12s %,10.1f %,10.1f %,10.1f%s", name + ":", busy.get() / (1e9 * numberOfThreads), waitingForInput.get() / 1e9, waitingForOutput.get() / 1e9,
+                    numberOfThreads > 1 ? String.format(" (%d threads)", numberOfThreads) : "");
+        }
+    }
+
+    /**
+     * data of a read that has been submitted, but not yet written
+     */
+    private static class PendingRead {
+        int weight;
+        int[] classIds;
+        long nameHash1;
+        long nameHash2;
     }
 }
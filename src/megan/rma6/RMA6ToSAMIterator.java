@@ -39,6 +39,7 @@ public class RMA6ToSAMIterator implements ISAMIterator {
 
     private final String[] cNames;
     private final boolean pairedReads;
+    private final boolean hasReadComplexity;
 
     private String readText;
     private byte[] matchesText;
@@ -55,17 +56,13 @@ public class RMA6ToSAMIterator implements ISAMIterator {
         rma6File = new RMA6File(fileName, "r");
         reader = rma6File.getReader();
         pairedReads = rma6File.getHeaderSectionRMA6().isPairedReads();
+        hasReadComplexity = rma6File.getHeaderSectionRMA6().hasReadComplexity();
         cNames = rma6File.getHeaderSectionRMA6().getMatchClassNames();
 
         final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(classificationName);
         long start = rma6File.getFooterSectionRMA6().getStartClassification(classificationName);
-        block.read(start, rma6File.getReader());
         list = new ListOfLongs();
-        for (Integer classId : classIds) {
-            if (block.getSum(classId) > 0) {
-                block.readLocations(start, rma6File.getReader(), classId, list);
-            }
-        }
+        block.readLocations(start, rma6File.getReader(), classIds, list); // one directory lookup per class
     }
 
     /**
@@ -78,6 +75,8 @@ public class RMA6ToSAMIterator implements ISAMIterator {
         try {
             if (pairedReads)
                 reader.skipBytes(8); // skip paired read info
+            if (hasReadComplexity)
+                reader.skipBytes(4); // skip read complexity
 
             readText = reader.readString(); // read the read text
 
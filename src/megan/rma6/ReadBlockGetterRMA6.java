@@ -21,6 +21,7 @@ package megan.rma6;
 import jloda.util.Basic;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockGetter;
+import megan.data.ReadBlockPool;
 import megan.io.IInputReader;
 
 import java.io.IOException;
@@ -30,16 +31,18 @@ import java.io.IOException;
  * Daniel Huson, 4.2015
  */
 public class ReadBlockGetterRMA6 implements IReadBlockGetter {
-    private final RMA6File rma6File;
+    protected final RMA6File rma6File;
     private final boolean wantReadSequence;
     private final boolean wantMatches;
     private final float minScore;
     private final float maxExpected;
     private final boolean streamOnly;
-    private final ReadBlockRMA6 reuseableReadBlock;
+    private final boolean lazyMatches;
+    protected final ReadBlockRMA6 reuseableReadBlock;
+    private final ReadBlockPool<ReadBlockRMA6> readBlockPool = new ReadBlockPool<>();
 
-    private final long start;
-    private final long end;
+    private long start;
+    private long end;
 
     private final IInputReader reader;
 
@@ -53,12 +56,27 @@ public class ReadBlockGetterRMA6 implements IReadBlockGetter {
      * @throws IOException
      */
     public ReadBlockGetterRMA6(RMA6File rma6File, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected, boolean streamOnly, boolean reuseReadBlockObject) throws IOException {
+        this(rma6File, wantReadSequence, wantMatches, minScore, maxExpected, streamOnly, reuseReadBlockObject, false);
+    }
+
+    /**
+     * constructor
+     *
+     * @param rma6File
+     * @param wantReadSequence
+     * @param streamOnly
+     * @param reuseReadBlockObject
+     * @param lazyMatches          decode matches lazily, see ReadBlockRMA6.setLazyMatches()
+     * @throws IOException
+     */
+    public ReadBlockGetterRMA6(RMA6File rma6File, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected, boolean streamOnly, boolean reuseReadBlockObject, boolean lazyMatches) throws IOException {
         this.rma6File = rma6File;
         this.wantReadSequence = wantReadSequence;
         this.wantMatches = wantMatches;
         this.minScore = minScore;
         this.maxExpected = maxExpected;
         this.streamOnly = streamOnly;
+        this.lazyMatches = lazyMatches;
 
         this.start = rma6File.getFooterSectionRMA6().getStartReadsSection();
         this.end = rma6File.getFooterSectionRMA6().getEndReadsSection();
@@ -66,9 +84,10 @@ public class ReadBlockGetterRMA6 implements IReadBlockGetter {
         reader = rma6File.getReader();
         if (streamOnly)
             reader.seek(start);
-        if (reuseReadBlockObject)
-            reuseableReadBlock = new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames());
-        else
+        if (reuseReadBlockObject) {
+            reuseableReadBlock = createReadBlock();
+            reuseableReadBlock.setLazyMatches(lazyMatches);
+        } else
             reuseableReadBlock = null;
     }
 
@@ -96,13 +115,45 @@ public class ReadBlockGetterRMA6 implements IReadBlockGetter {
                 if (streamOnly)
                     throw new IOException("getReadBlock(uid=" + uid + ") failed: streamOnly");
             }
-            final ReadBlockRMA6 readBlock = (reuseableReadBlock == null ? new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames()) : reuseableReadBlock);
+            ReadBlockRMA6 readBlock = reuseableReadBlock;
+            if (readBlock == null) {
+                readBlock = readBlockPool.take();
+                if (readBlock == null)
+                    readBlock = createReadBlock();
+            }
+            readBlock.setLazyMatches(lazyMatches);
             readBlock.read(reader, wantReadSequence, wantMatches, minScore, maxExpected);
             return readBlock;
         }
         return null;
     }
 
+    /**
+     * releases a read block obtained from getReadBlock(), its match blocks are reused when it is recycled
+     *
+     * @param readBlock
+     */
+    @Override
+    public void release(IReadBlock readBlock) {
+        if (readBlock instanceof ReadBlockRMA6 && readBlock != reuseableReadBlock) {
+            ((ReadBlockRMA6) readBlock).recycle();
+            readBlockPool.release((ReadBlockRMA6) readBlock);
+        }
+    }
+
+    /**
+     * creates a new read block object
+     *
+     * @return read block
+     * @throws IOException
+     */
+    protected ReadBlockRMA6 createReadBlock() throws IOException {
+        final ReadBlockRMA6 readBlock = new ReadBlockRMA6(rma6File.getHeaderSectionRMA6().getBlastMode(), rma6File.getHeaderSectionRMA6().isPairedReads(), rma6File.getHeaderSectionRMA6().getMatchClassNames());
+        readBlock.setCompressionCodec(rma6File.getHeaderSectionRMA6().getCompressionCodec());
+        readBlock.setHasReadComplexity(rma6File.getHeaderSectionRMA6().hasReadComplexity());
+        return readBlock;
+    }
+
     /**
      * closes the accessor
      *
@@ -117,6 +168,22 @@ public class ReadBlockGetterRMA6 implements IReadBlockGetter {
         }
     }
 
+    /**
+     * restricts a stream-only getter to the given range of the reads section. Both ends must be read locations
+     * (or the end of the reads section), as obtained from ReadIndexRMA6.split()
+     *
+     * @param start
+     * @param end
+     * @throws IOException
+     */
+    public void setRange(long start, long end) throws IOException {
+        if (!streamOnly)
+            throw new IOException("setRange() failed: not streamOnly");
+        this.start = start;
+        this.end = end;
+        reader.seek(start);
+    }
+
     public long getStart() {
         return start;
     }
@@ -21,12 +21,16 @@ package megan.rma6;
 import jloda.util.Basic;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
+import megan.io.CompressionCodec;
+import megan.io.Compressor;
 import megan.io.IInputReader;
 import megan.parsers.blast.BlastMode;
 import megan.parsers.sam.SAMMatch;
 import megan.util.ReadMagnitudeParser;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
 
 /**
  * ReadBlock for RMA6
@@ -34,8 +38,18 @@ import java.io.IOException;
  */
 public class ReadBlockRMA6 implements IReadBlock {
     private final SAMMatch tmpSAMMatch; // sam match is used for converting from SAM to MatchBlock
+    private final BlastMode blastMode;
     private final boolean pairedReads;
 
+    private boolean lazyMatches = false;
+    private boolean hasReadComplexity = false;
+    private CompressionCodec compressionCodec = CompressionCodec.DEFAULT;
+    private Compressor compressor;
+    private byte[] tmpBytes = new byte[0];
+    private int[] tmpIds = new int[0];
+    private MatchBlockRMA6[] recycledMatchBlocks = new MatchBlockRMA6[0]; // match blocks of a released read block
+    private int numberOfRecycledMatchBlocks = 0;
+
     private String[] cNames;
     private long uid;
     private String readHeader;
@@ -55,11 +69,66 @@ public class ReadBlockRMA6 implements IReadBlock {
      */
     public ReadBlockRMA6(BlastMode blastMode, boolean pairedReads, String[] cNames) {
         tmpSAMMatch = new SAMMatch(blastMode);
+        this.blastMode = blastMode;
         this.pairedReads = pairedReads;
         this.cNames = cNames;
 
     }
 
+    public BlastMode getBlastMode() {
+        return blastMode;
+    }
+
+    public boolean isPairedReads() {
+        return pairedReads;
+    }
+
+    public String[] getCNames() {
+        return cNames;
+    }
+
+    /**
+     * are matches decoded lazily?
+     *
+     * @return true, if lazy
+     */
+    public boolean isLazyMatches() {
+        return lazyMatches;
+    }
+
+    /**
+     * determine whether matches are decoded lazily. If lazy, the inflated matches text is kept as bytes and only
+     * bit score, expected, percent identity and length are parsed when reading, the complete SAM line of a match
+     * is parsed when its text is requested.
+     * Note that in lazy mode, percent identity is taken from the ZI field, as when the file was created
+     *
+     * @param lazyMatches
+     */
+    public void setLazyMatches(boolean lazyMatches) {
+        this.lazyMatches = lazyMatches;
+    }
+
+    /**
+     * determine whether read records contain the complexity of the read, must be as recorded in the file header
+     *
+     * @param hasReadComplexity
+     */
+    public void setHasReadComplexity(boolean hasReadComplexity) {
+        this.hasReadComplexity = hasReadComplexity;
+    }
+
+    /**
+     * set the codec used to decompress matches text, must be the one recorded in the file header
+     *
+     * @param compressionCodec
+     */
+    public void setCompressionCodec(CompressionCodec compressionCodec) {
+        if (compressionCodec != this.compressionCodec) {
+            this.compressionCodec = compressionCodec;
+            compressor = null;
+        }
+    }
+
     /**
      * get the unique identifier for this read (unique within a dataset).
      * In an RMA file, this is always the file position for the read
@@ -237,7 +306,102 @@ public class ReadBlockRMA6 implements IReadBlock {
         setUId(reader.getPosition());
         if (pairedReads)
             mateUid = reader.readLong();
+        readComplexity = (hasReadComplexity ? reader.readFloat() : 0);
+
+        readQueryText(reader, wantReadSequence);
+        numberOfMatches = reader.readInt();
+        if (wantMatches && lazyMatches) {
+            readMatchesLazily(reader, minScore, maxExpected);
+        } else if (wantMatches) {
+            // construct match blocks:
+            final MatchBlockRMA6[] blocks = new MatchBlockRMA6[numberOfMatches];
+            for (int i = 0; i < numberOfMatches; i++)
+                blocks[i] = createMatchBlock();
+            // for each match, read taxon-id and classification ids:
+            for (int i = 0; i < numberOfMatches; i++) {
+                for (String cName : cNames) {
+                    blocks[i].setId(cName, reader.readInt()); // read 4*fName.length bytes
+                }
+            }
+
+            // read the text for all matches:
+            final String matchesText = reader.readString(); // assume each line is in SAM format and ends on \n
+            int offset = 0;
+            int matchCount = 0;
+
+            for (int i = 0; i < numberOfMatches; i++) {
+                int end = matchesText.indexOf('\n', offset + 1);
+                if (end == -1)
+                    end = matchesText.length();
+                tmpSAMMatch.parse(matchesText, offset, end);
+                blocks[i].setFromSAM(tmpSAMMatch);
+                offset = end + 1;
+                if (blocks[i].getBitScore() >= minScore && blocks[i].getExpected() <= maxExpected)
+                    blocks[matchCount++] = blocks[i]; // this match is ok, keep it
+                else
+                    recycleMatchBlock(blocks[i]);
+            }
+            if (matchCount < numberOfMatches) // some matches didn't meet the minScore or maxExpected criteria, resize
+                matchBlocks = Arrays.copyOf(blocks, matchCount);
+            else
+                matchBlocks = blocks;
+        } else {
+            reader.skipBytes(cNames.length * numberOfMatches * 4); // skip taxon and cName ids
+            reader.skipBytes(Math.abs(reader.readInt())); // skip text
+        }
+    }
+
+    /**
+     * sets up the read block from a query as passed to RMA6FileCreator.addQuery(), so that the read can be classified
+     * while it is being written. Matches are decoded lazily, as when reading a file with lazy matches.
+     * All data is copied, so the caller may reuse the arrays
+     *
+     * @param uid                     location of read in file, or -1, if not yet known
+     * @param queryText               header line, optionally followed by the sequence
+     * @param queryTextLength
+     * @param complexity              complexity of read, or 0, if not computed
+     * @param numberOfMatches
+     * @param matchesText             one SAM line per match
+     * @param matchesTextLength
+     * @param match2Classification2Id
+     * @param minScore                matches with a lower bit score are ignored
+     * @param maxExpected             matches with a higher expected value are ignored
+     */
+    public void setFromQuery(long uid, byte[] queryText, int queryTextLength, float complexity, int numberOfMatches, byte[] matchesText, int matchesTextLength, int[][] match2Classification2Id,
+                             float minScore, float maxExpected) {
+        setUId(uid);
+        mateUid = 0;
+        int pos = 0;
+        while (pos < queryTextLength && queryText[pos] != '\n')
+            pos++;
+        setReadHeader(Basic.toString(queryText, 0, pos));
+        setReadWeight(ReadMagnitudeParser.parseMagnitude(getReadHeader()));
+        setReadSequence(null);
+        int readLength = 0;
+        for (int i = pos + 1; i < queryTextLength; i++) {
+            if (!Character.isWhitespace(queryText[i]))
+                readLength++;
+        }
+        setReadLength(readLength);
+        setComplexity(complexity);
+
+        this.numberOfMatches = numberOfMatches;
+        if (tmpIds.length < numberOfMatches * cNames.length)
+            tmpIds = new int[numberOfMatches * cNames.length];
+        for (int i = 0; i < numberOfMatches; i++) {
+            System.arraycopy(match2Classification2Id[i], 0, tmpIds, i * cNames.length, cNames.length);
+        }
+        setMatchesLazily(Arrays.copyOf(matchesText, matchesTextLength), matchesTextLength, minScore, maxExpected);
+    }
 
+    /**
+     * reads the query text and sets the read header, weight, sequence and length
+     *
+     * @param reader
+     * @param wantReadSequence
+     * @throws IOException
+     */
+    protected void readQueryText(IInputReader reader, boolean wantReadSequence) throws IOException {
         String readText = reader.readString();
         if (readText.length() > 0) {
             int pos = readText.indexOf('\n');
@@ -264,43 +428,127 @@ public class ReadBlockRMA6 implements IReadBlock {
                 setReadLength(0);
             }
         }
-        numberOfMatches = reader.readInt();
-        if (wantMatches) {
-            // construct match blocks:
-            matchBlocks = new MatchBlockRMA6[numberOfMatches];
-            for (int i = 0; i < numberOfMatches; i++)
-                matchBlocks[i] = new MatchBlockRMA6();
-            // for each match, read taxon-id and classification ids:
-            for (int i = 0; i < numberOfMatches; i++) {
-                for (String cName : cNames) {
-                    matchBlocks[i].setId(cName, reader.readInt()); // read 4*fName.length bytes
+    }
+
+    /**
+     * reads the matches in lazy mode: the inflated text is kept, line offsets are indexed and match blocks are only
+     * created for matches that pass the minScore and maxExpected criteria
+     *
+     * @param reader
+     * @param minScore
+     * @param maxExpected
+     * @throws IOException
+     */
+    private void readMatchesLazily(IInputReader reader, float minScore, float maxExpected) throws IOException {
+        if (tmpIds.length < numberOfMatches * cNames.length)
+            tmpIds = new int[numberOfMatches * cNames.length];
+        for (int i = 0; i < numberOfMatches * cNames.length; i++) {
+            tmpIds[i] = reader.readInt(); // read 4*fName.length bytes
+        }
+
+        final byte[] matchesText = readBytes(reader); // assume each line is in SAM format and ends on \n
+        setMatchesLazily(matchesText, matchesText.length, minScore, maxExpected);
+    }
+
+    /**
+     * sets up the match blocks in lazy mode from SAM lines and the ids held in tmpIds
+     *
+     * @param matchesText is referenced by the match blocks and must not be modified afterwards
+     * @param matchesTextLength
+     * @param minScore
+     * @param maxExpected
+     */
+    private void setMatchesLazily(byte[] matchesText, int matchesTextLength, float minScore, float maxExpected) {
+        final MatchBlockRMA6[] blocks = new MatchBlockRMA6[numberOfMatches];
+        int matchCount = 0;
+        int offset = 0;
+        for (int i = 0; i < numberOfMatches; i++) {
+            int end = offset;
+            while (end < matchesTextLength && matchesText[end] != '\n')
+                end++;
+            final MatchBlockRMA6 matchBlock = createMatchBlock();
+            matchBlock.setFromSAM(blastMode, matchesText, offset, end);
+            offset = end + 1;
+            if (matchBlock.getBitScore() >= minScore && matchBlock.getExpected() <= maxExpected) {
+                for (int c = 0; c < cNames.length; c++) {
+                    matchBlock.setId(cNames[c], tmpIds[i * cNames.length + c]);
                 }
+                blocks[matchCount++] = matchBlock;
+            } else
+                recycleMatchBlock(matchBlock);
+        }
+        if (matchCount < numberOfMatches) // some matches didn't meet the minScore or maxExpected criteria, resize
+            matchBlocks = Arrays.copyOf(blocks, matchCount);
+        else
+            matchBlocks = blocks;
+    }
+
+    /**
+     * recycles this read block once it has been released by its consumer: its match blocks are cleared and will be reused
+     * by the next call of read(). Neither this read block nor its match blocks may be accessed by the consumer afterwards
+     */
+    public void recycle() {
+        if (matchBlocks != null) {
+            for (IMatchBlock matchBlock : matchBlocks) {
+                if (matchBlock instanceof MatchBlockRMA6)
+                    recycleMatchBlock((MatchBlockRMA6) matchBlock);
             }
+            matchBlocks = null;
+        }
+        numberOfMatches = 0;
+    }
 
-            // read the text for all matches:
-            final String matchesText = reader.readString(); // assume each line is in SAM format and ends on \n
-            int offset = 0;
-            int matchCount = 0;
-            final IMatchBlock[] copies = new MatchBlockRMA6[numberOfMatches]; // need to copy matches we want to keep
+    /**
+     * gets a cleared match block, reusing a recycled one, if available
+     *
+     * @return match block
+     */
+    protected MatchBlockRMA6 createMatchBlock() {
+        if (numberOfRecycledMatchBlocks > 0) {
+            final MatchBlockRMA6 matchBlock = recycledMatchBlocks[--numberOfRecycledMatchBlocks];
+            recycledMatchBlocks[numberOfRecycledMatchBlocks] = null;
+            return matchBlock;
+        }
+        return new MatchBlockRMA6();
+    }
 
-            for (int i = 0; i < numberOfMatches; i++) {
-                int end = matchesText.indexOf('\n', offset + 1);
-                if (end == -1)
-                    end = matchesText.length();
-                final String aLine = matchesText.substring(offset, end);
-                tmpSAMMatch.parse(aLine);
-                ((MatchBlockRMA6) matchBlocks[matchCount]).setFromSAM(tmpSAMMatch);
-                offset = end + 1;
-                if (matchBlocks[matchCount].getBitScore() >= minScore && matchBlocks[matchCount].getExpected() <= maxExpected)
-                    copies[matchCount++] = matchBlocks[i]; // this match is ok, keep it
-            }
-            if (matchCount < matchBlocks.length) { // some matches didn't meet the minScore or maxExpected criteria, resize
-                matchBlocks = new MatchBlockRMA6[matchCount];
-                System.arraycopy(copies, 0, matchBlocks, 0, matchCount);
-            }
-        } else {
-            reader.skipBytes(cNames.length * numberOfMatches * 4); // skip taxon and cName ids
-            reader.skipBytes(Math.abs(reader.readInt())); // skip text
+    /**
+     * clears a match block that is no longer referenced by anyone and keeps it for reuse
+     *
+     * @param matchBlock
+     */
+    protected void recycleMatchBlock(MatchBlockRMA6 matchBlock) {
+        matchBlock.clear();
+        if (numberOfRecycledMatchBlocks == recycledMatchBlocks.length)
+            recycledMatchBlocks = Arrays.copyOf(recycledMatchBlocks, Math.max(16, 2 * numberOfRecycledMatchBlocks));
+        recycledMatchBlocks[numberOfRecycledMatchBlocks++] = matchBlock;
+    }
+
+    /**
+     * reads an archived string as bytes. The result is a new array that is owned by the caller
+     *
+     * @param reader
+     * @return bytes
+     * @throws IOException
+     */
+    protected byte[] readBytes(IInputReader reader) throws IOException {
+        final int size = reader.readInt();
+        if (Math.abs(size) > 100000000)
+            throw new IOException("Unreasonable string length: " + Math.abs(size));
+        if (size == 0)
+            return new byte[0];
+        final byte[] bytes = (size >= 0 ? new byte[size] : tmpBytes.length >= -size ? tmpBytes : (tmpBytes = new byte[-size]));
+        final int got = reader.read(bytes, 0, Math.abs(size));
+        if (got != Math.abs(size))
+            throw new IOException("Bytes read: " + got + ", expected: " + Math.abs(size));
+        if (size >= 0)
+            return bytes;
+        if (compressor == null)
+            compressor = new Compressor(1000000, compressionCodec);
+        try {
+            return compressor.inflateByteArray2Bytes(-size, bytes);
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
         }
     }
 }
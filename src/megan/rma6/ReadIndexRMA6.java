@@ -0,0 +1,134 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma6;
+
+import jloda.util.ListOfLongs;
+import megan.io.IInputReader;
+import megan.io.IOutputWriter;
+
+import java.io.IOException;
+
+/**
+ * sparse index of read locations, written directly after the reads section.
+ * Records the location of every READS_PER_ENTRY-th read, and of the first read that starts more than BYTES_PER_ENTRY
+ * bytes after the previous entry, so that the reads section can be split into ranges that can be parsed independently.
+ * Files without an index have the classifications section directly after the reads section
+ * Daniel Huson, 10.2016
+ */
+public class ReadIndexRMA6 {
+    public static final int MAGIC_NUMBER = ('R' << 24) | ('I' << 16) | ('D' << 8) | ('X');
+    public static final int READS_PER_ENTRY = 65536;
+    public static final long BYTES_PER_ENTRY = 64L * 1024 * 1024;
+
+    private final ListOfLongs locations = new ListOfLongs();
+    private long numberOfReads = 0;
+    private long lastLocation = Long.MIN_VALUE / 2;
+    private long endPosition;
+
+    /**
+     * add the location of a read, called for every read, in order
+     *
+     * @param location
+     */
+    public void add(long location) {
+        if (numberOfReads++ % READS_PER_ENTRY == 0 || location - lastLocation >= BYTES_PER_ENTRY) {
+            locations.add(location);
+            lastLocation = location;
+        }
+    }
+
+    /**
+     * write the index
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void write(IOutputWriter writer) throws IOException {
+        writer.writeInt(MAGIC_NUMBER);
+        writer.writeInt(locations.size());
+        for (int i = 0; i < locations.size(); i++)
+            writer.writeLong(locations.get(i));
+        endPosition = writer.getPosition();
+    }
+
+    /**
+     * read the index, if present
+     *
+     * @param reader
+     * @param position position of index, which is the end of the reads section
+     * @param limit    no index is present, if position+8 exceeds this
+     * @return index or null, if file has no index
+     * @throws IOException
+     */
+    public static ReadIndexRMA6 read(IInputReader reader, long position, long limit) throws IOException {
+        if (position + 8 > limit)
+            return null;
+        reader.seek(position);
+        if (reader.readInt() != MAGIC_NUMBER)
+            return null;
+        final ReadIndexRMA6 index = new ReadIndexRMA6();
+        final int size = reader.readInt();
+        for (int i = 0; i < size; i++)
+            index.locations.add(reader.readLong());
+        index.endPosition = reader.getPosition();
+        return index;
+    }
+
+    /**
+     * splits the reads section into at most the given number of ranges, each starting at a read
+     *
+     * @param startReadsSection
+     * @param endReadsSection
+     * @param numberOfRanges
+     * @return boundaries, the i-th range is boundaries[i]..boundaries[i+1]
+     */
+    public long[] split(long startReadsSection, long endReadsSection, int numberOfRanges) {
+        final ListOfLongs boundaries = new ListOfLongs();
+        boundaries.add(startReadsSection);
+        final long target = Math.max(1, (endReadsSection - startReadsSection) / Math.max(1, numberOfRanges));
+        for (int i = 0; i < locations.size() && boundaries.size() < numberOfRanges; i++) {
+            final long location = locations.get(i);
+            if (location - boundaries.get(boundaries.size() - 1) >= target && location < endReadsSection)
+                boundaries.add(location);
+        }
+        boundaries.add(endReadsSection);
+        final long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = boundaries.get(i);
+        return result;
+    }
+
+    /**
+     * number of entries
+     *
+     * @return size
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * position in file directly after the index
+     *
+     * @return end position
+     */
+    public long getEndPosition() {
+        return endPosition;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma7;
+
+import jloda.util.CanceledException;
+import jloda.util.ListOfLongs;
+import jloda.util.ProgressListener;
+import jloda.util.ProgressPercentage;
+import megan.io.IInputReader;
+import megan.io.InputOutputReaderWriter;
+import megan.rma6.ClassificationBlockRMA6;
+import megan.rma6.HeaderSectionRMA6;
+import megan.rma6.RMA6File;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * converts an RMA6 file to an RMA7 file.
+ * Reads are copied in order, binary match columns are computed from the SAM text. Read locations in the
+ * classifications and mate locations are mapped to the new file
+ * Daniel Huson, 10.2016
+ */
+public class RMA6ToRMA7Converter {
+    /**
+     * convert a file
+     *
+     * @param rma6FileName
+     * @param rma7FileName
+     * @param storeText    keep the SAM text of all matches
+     * @param progress
+     * @throws IOException
+     * @throws CanceledException
+     */
+    public static void apply(String rma6FileName, String rma7FileName, boolean storeText, ProgressListener progress) throws IOException, CanceledException {
+        progress.setTasks("Converting RMA6 to RMA7", "Copying reads");
+
+        try (RMA6File source = new RMA6File(rma6FileName, RMA6File.READ_ONLY)) {
+            final HeaderSectionRMA6 header = source.getHeaderSectionRMA6();
+            final boolean pairedReads = header.isPairedReads();
+            final boolean hasReadComplexity = header.hasReadComplexity();
+            final int numberOfCNames = header.getMatchClassNames().length;
+            final IInputReader reader = source.getReader();
+
+            final RMA7FileCreator target = new RMA7FileCreator(rma7FileName, true, storeText);
+            target.setCompressionCodec(header.getCompressionCodec());
+            target.writeHeader(header.getCreator(), header.getBlastMode(), header.getMatchClassNames(), pairedReads);
+
+            final long start = source.getFooterSectionRMA6().getStartReadsSection();
+            final long end = source.getFooterSectionRMA6().getEndReadsSection();
+            progress.setMaximum(end - start);
+            progress.setProgress(0);
+
+            final long numberOfReads = source.getFooterSectionRMA6().getNumberOfReads();
+            final File tmpDirectory = new File(rma7FileName).getAbsoluteFile().getParentFile();
+
+            try (ReadLocationMap locationMap = new ReadLocationMap(tmpDirectory)) {
+                // mate links are spilled as pairs of new read location and old mate location:
+                final File mateLinksFile = (pairedReads ? File.createTempFile("mateLinks", ".tmp", tmpDirectory) : null);
+                try {
+                    copyReads(reader, start, end, numberOfReads, pairedReads, hasReadComplexity, numberOfCNames, target, locationMap, mateLinksFile, progress);
+                    locationMap.endAdding();
+
+                    // copy classifications, mapping read locations:
+                    progress.setSubtask("Copying classifications");
+                    final Map<String, Long> classification2Position = source.getFooterSectionRMA6().getAvailableClassification2Position();
+                    final String[] cNames = classification2Position.keySet().toArray(new String[classification2Position.size()]);
+                    final Map<Integer, ListOfLongs>[] fName2Location = new HashMap[cNames.length];
+                    final Map<Integer, Integer>[] fName2weight = new HashMap[cNames.length];
+                    for (int c = 0; c < cNames.length; c++) {
+                        fName2Location[c] = new HashMap<>();
+                        fName2weight[c] = new HashMap<>();
+                        final long position = classification2Position.get(cNames[c]);
+                        final ClassificationBlockRMA6 block = new ClassificationBlockRMA6(cNames[c]);
+                        block.read(position, reader);
+                        for (Integer classId : block.getKeySet()) {
+                            final ListOfLongs oldList = new ListOfLongs();
+                            block.readLocations(position, reader, classId, oldList);
+                            final ListOfLongs list = new ListOfLongs();
+                            for (int z = 0; z < oldList.size(); z++) {
+                                list.add(locationMap.get(oldList.get(z)));
+                            }
+                            fName2Location[c].put(classId, list);
+                            fName2weight[c].put(classId, block.getSum(classId));
+                        }
+                    }
+                    target.writeClassifications(cNames, fName2Location, fName2weight);
+                    target.writeAuxBlocks(source.readAuxBlocks());
+                    target.close();
+
+                    // set mate locations:
+                    if (pairedReads) {
+                        progress.setSubtask("Linking paired reads");
+                        try (DataInputStream ins = new DataInputStream(new BufferedInputStream(new FileInputStream(mateLinksFile), 1048576));
+                             InputOutputReaderWriter io = new InputOutputReaderWriter(rma7FileName, RMA6File.READ_WRITE)) {
+                            final long numberOfLinks = mateLinksFile.length() / 16;
+                            for (long i = 0; i < numberOfLinks; i++) {
+                                final long newLocation = ins.readLong();
+                                final long oldMateLocation = ins.readLong();
+                                io.seek(newLocation);
+                                io.writeLong(locationMap.get(oldMateLocation));
+                            }
+                        }
+                    }
+                } finally {
+                    if (mateLinksFile != null && !mateLinksFile.delete())
+                        mateLinksFile.deleteOnExit();
+                }
+            }
+        }
+        if (progress instanceof ProgressPercentage)
+            ((ProgressPercentage) progress).reportTaskCompleted();
+    }
+
+    /**
+     * copies all reads, recording their old and new locations as it goes
+     *
+     * @param reader
+     * @param start
+     * @param end
+     * @param numberOfReads     number of reads declared in the source file
+     * @param pairedReads
+     * @param hasReadComplexity
+     * @param numberOfCNames
+     * @param target
+     * @param locationMap       receives the old and new location of each read
+     * @param mateLinksFile     receives the new location and old mate location of each read that has a mate, if paired
+     * @param progress
+     * @throws IOException
+     * @throws CanceledException
+     */
+    private static void copyReads(IInputReader reader, long start, long end, long numberOfReads, boolean pairedReads, boolean hasReadComplexity, int numberOfCNames,
+                                  RMA7FileCreator target, ReadLocationMap locationMap, File mateLinksFile, ProgressListener progress) throws IOException, CanceledException {
+        try (DataOutputStream mateLinks = (mateLinksFile != null ? new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mateLinksFile), 1048576)) : null)) {
+            int[][] match2Classification2Id = new int[0][];
+            long count = 0;
+            reader.seek(start);
+            while (reader.getPosition() < end) {
+                if (count == numberOfReads)
+                    throw new IOException("Reads section contains more reads than declared: " + numberOfReads);
+                final long oldLocation = reader.getPosition();
+                final long mateLocation = (pairedReads ? reader.readLong() : 0);
+                if (hasReadComplexity)
+                    reader.skipBytes(4); // RMA7 does not store read complexity
+                final byte[] queryText = reader.readString().getBytes("UTF-8");
+                final int numberOfMatches = reader.readInt();
+                if (match2Classification2Id.length < numberOfMatches) {
+                    match2Classification2Id = new int[numberOfMatches][numberOfCNames];
+                }
+                for (int i = 0; i < numberOfMatches; i++) {
+                    for (int j = 0; j < numberOfCNames; j++) {
+                        match2Classification2Id[i][j] = reader.readInt();
+                    }
+                }
+                final byte[] matchesText = reader.readString().getBytes("UTF-8");
+                final long newLocation = target.addQuery(queryText, queryText.length, numberOfMatches, matchesText, matchesText.length, match2Classification2Id, 0);
+                locationMap.add(oldLocation, newLocation);
+                if (mateLinks != null && mateLocation > 0) {
+                    mateLinks.writeLong(newLocation);
+                    mateLinks.writeLong(mateLocation);
+                }
+                count++;
+                progress.setProgress(reader.getPosition() - start);
+            }
+        }
+        target.endAddingQueries();
+    }
+}
+
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma7;
+
+import megan.data.IReadBlockGetter;
+import megan.data.IReadBlockIterator;
+import megan.rma6.AllReadsIteratorRMA6;
+import megan.rma6.RMA6Connector;
+import megan.rma6.RMA6File;
+import megan.rma6.RMA6FileModifier;
+import megan.rma6.ReadBlockGetterRMA6;
+
+import java.io.IOException;
+
+/**
+ * RMA7 connector. Classifications and aux data are accessed as in RMA6, reads are decoded from binary match columns
+ * Daniel Huson, 10.2016
+ */
+public class RMA7Connector extends RMA6Connector {
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public RMA7Connector(String fileName) throws IOException {
+        super(fileName);
+    }
+
+    @Override
+    protected RMA6File openFile() throws IOException {
+        return new RMA7File(fileName, RMA6File.READ_ONLY);
+    }
+
+    @Override
+    protected RMA6FileModifier openModifier() throws IOException {
+        return new RMA7FileModifier(fileName);
+    }
+
+    @Override
+    public IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        final RMA7File rma7File = new RMA7File(fileName, RMA6File.READ_ONLY);
+        // as for RMA6, when no read sequences are wanted, the caller is usually classifying or counting and doesn't need match text
+        return new AllReadsIteratorRMA6(new ReadBlockGetterRMA7(rma7File, wantReadSequence, wantMatches, minScore, maxExpected, true, false, wantReadSequence));
+    }
+
+    @Override
+    protected ReadBlockGetterRMA6 createStreamingReadBlockGetter(RMA6File rma6File, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new ReadBlockGetterRMA7((RMA7File) rma6File, wantReadSequence, wantMatches, minScore, maxExpected, true, false, wantReadSequence);
+    }
+
+    @Override
+    protected IReadBlockGetter createReadBlockGetter(RMA6File rma6File, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new ReadBlockGetterRMA7((RMA7File) rma6File, wantReadSequence, wantMatches, minScore, maxExpected, false, true);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma7;
+
+import megan.io.InputOutputReaderWriter;
+import megan.rma6.RMA6File;
+import megan.rma6.ReadIndexRMA6;
+
+import java.io.IOException;
+
+/**
+ * read-alignment archive file, version 7.
+ * Uses the same header, classification, aux data and footer sections as RMA6.
+ * In the reads section, the bit score, expected, percent identity, alignment length and reference id of all matches
+ * of a read are stored as binary columns, followed by the (optional) compressed SAM text of the matches.
+ * The reads section is followed by a table of all reference names, ending where the classifications section starts
+ * <p>
+ * Read record:
+ * [mate uid: long, if paired reads]
+ * read text: string
+ * number of matches: int
+ * bit scores: float * number of matches
+ * expected: float * number of matches
+ * percent identities: float * number of matches
+ * alignment lengths: int * number of matches
+ * reference ids: int * number of matches
+ * class ids: int * number of matches, for each match classification
+ * matches text: string, empty, if text is not stored
+ * <p>
+ * Daniel Huson, 10.2016
+ */
+public class RMA7File extends RMA6File {
+    public final static int VERSION = 7;
+
+    private String[] referenceNames;
+
+    /**
+     * constructor
+     */
+    public RMA7File() {
+        super(VERSION);
+    }
+
+    /**
+     * constructor
+     */
+    public RMA7File(String fileName, String mode) throws IOException {
+        super(VERSION);
+        load(fileName, mode);
+    }
+
+    /**
+     * gets the names of all references. Read from file on first call, using a separate reader so as not to
+     * disturb the position of the main reader while streaming reads
+     *
+     * @return reference names, indexed by reference id
+     * @throws IOException
+     */
+    public synchronized String[] getReferenceNames() throws IOException {
+        if (referenceNames == null) {
+            try (InputOutputReaderWriter reader = new InputOutputReaderWriter(fileName, READ_ONLY)) {
+                reader.setCompressionCodec(headerSectionRMA6.getCompressionCodec());
+                final ReadIndexRMA6 readIndex = ReadIndexRMA6.read(reader, footerSectionRMA6.getEndReadsSection(), footerSectionRMA6.getStartClassificationsSection());
+                reader.seek(readIndex != null ? readIndex.getEndPosition() : footerSectionRMA6.getEndReadsSection()); // references follow the read index, if present
+                final String[] names = new String[reader.readInt()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = reader.readString();
+                }
+                referenceNames = names;
+            }
+        }
+        return referenceNames;
+    }
+
+    /**
+     * gets the name of a reference
+     *
+     * @param refId
+     * @return name or null
+     * @throws IOException
+     */
+    public String getReferenceName(int refId) throws IOException {
+        final String[] names = getReferenceNames();
+        return refId >= 0 && refId < names.length ? names[refId] : null;
+    }
+}
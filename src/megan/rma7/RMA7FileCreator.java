@@ -0,0 +1,213 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma7;
+
+import megan.rma6.MatchBlockRMA6;
+import megan.rma6.RMA6FileCreator;
+import megan.rma6.Utilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * class used to create a new RMA7 file
+ * Daniel Huson, 10.2016
+ */
+public class RMA7FileCreator extends RMA6FileCreator {
+    private final boolean storeText;
+
+    private final Map<String, Integer> reference2Id = new HashMap<>();
+    private final List<String> references = new ArrayList<>();
+
+    private final MatchBlockRMA6 tmpMatchBlock = new MatchBlockRMA6();
+    private float[] tmpBitScores = new float[0];
+    private float[] tmpExpected = new float[0];
+    private float[] tmpPercentIdentities = new float[0];
+    private int[] tmpLengths = new int[0];
+    private int[] tmpRefIds = new int[0];
+
+    /**
+     * constructor
+     *
+     * @param fileName
+     * @param useCompression
+     * @param storeText      store the SAM text of matches, needed to display alignments
+     */
+    public RMA7FileCreator(String fileName, boolean useCompression, boolean storeText) {
+        super(fileName, useCompression, RMA7File.VERSION);
+        this.storeText = storeText;
+    }
+
+    /**
+     * pipelined compression is not supported for RMA7, as records refer to the reference dictionary, so records are
+     * always written by the calling thread
+     *
+     * @param numberOfCompressionThreads ignored
+     */
+    @Override
+    public void setNumberOfCompressionThreads(int numberOfCompressionThreads) {
+        super.setNumberOfCompressionThreads(0);
+    }
+
+    /**
+     * RMA7 does not store read complexity, so records always use the RMA7 layout
+     *
+     * @param storeReadComplexity ignored
+     */
+    @Override
+    public void setStoreReadComplexity(boolean storeReadComplexity) {
+        super.setStoreReadComplexity(false);
+    }
+
+    /**
+     * add a query and its matches to the file. The binary match columns are obtained from the SAM text of the matches
+     *
+     * @param queryText
+     * @param queryTextLength
+     * @param numberOfMatches
+     * @param matchesText
+     * @param matchesTextLength
+     * @param match2Classification2Id
+     * @param mateLocation
+     * @param complexity              ignored, RMA7 does not store read complexity
+     * @return the location of the read in the file
+     * @throws IOException
+     */
+    @Override
+    public long addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength,
+                         int[][] match2Classification2Id, long mateLocation, float complexity) throws IOException {
+        if (tmpBitScores.length < numberOfMatches) {
+            tmpBitScores = new float[numberOfMatches];
+            tmpExpected = new float[numberOfMatches];
+            tmpPercentIdentities = new float[numberOfMatches];
+            tmpLengths = new int[numberOfMatches];
+            tmpRefIds = new int[numberOfMatches];
+        }
+
+        int offset = 0;
+        for (int i = 0; i < numberOfMatches; i++) {
+            int end = offset;
+            while (end < matchesTextLength && matchesText[end] != '\n')
+                end++;
+            tmpMatchBlock.setFromSAM(getHeaderSectionRMA6().getBlastMode(), matchesText, offset, end);
+            tmpBitScores[i] = tmpMatchBlock.getBitScore();
+            tmpExpected[i] = tmpMatchBlock.getExpected();
+            tmpPercentIdentities[i] = tmpMatchBlock.getPercentIdentity();
+            tmpLengths[i] = tmpMatchBlock.getLength();
+            tmpRefIds[i] = getReferenceId(Utilities.getToken(2, matchesText, offset));
+            offset = end + 1;
+        }
+        tmpMatchBlock.clear();
+
+        return addQuery(queryText, queryTextLength, numberOfMatches, tmpBitScores, tmpExpected, tmpPercentIdentities, tmpLengths, tmpRefIds,
+                match2Classification2Id, matchesText, matchesTextLength, mateLocation);
+    }
+
+    /**
+     * add a query and its matches to the file
+     *
+     * @param queryText
+     * @param queryTextLength
+     * @param numberOfMatches
+     * @param bitScores
+     * @param expected
+     * @param percentIdentities
+     * @param lengths                 alignment lengths
+     * @param refIds                  reference ids, see getReferenceId()
+     * @param match2Classification2Id
+     * @param matchesText             SAM text of matches, one line per match. Ignored, if text is not to be stored
+     * @param matchesTextLength
+     * @param mateLocation
+     * @return the location of the read in the file
+     * @throws IOException
+     */
+    public long addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, float[] bitScores, float[] expected, float[] percentIdentities,
+                         int[] lengths, int[] refIds, int[][] match2Classification2Id, byte[] matchesText, int matchesTextLength, long mateLocation) throws IOException {
+        final long location = readerWriter.getPosition();
+
+        if (isPairedReads)
+            readerWriter.writeLong(mateLocation);
+
+        readerWriter.writeString(queryText, 0, queryTextLength);
+
+        readerWriter.writeInt(numberOfMatches);
+
+        for (int i = 0; i < numberOfMatches; i++)
+            readerWriter.writeFloat(bitScores[i]);
+        for (int i = 0; i < numberOfMatches; i++)
+            readerWriter.writeFloat(expected[i]);
+        for (int i = 0; i < numberOfMatches; i++)
+            readerWriter.writeFloat(percentIdentities[i]);
+        for (int i = 0; i < numberOfMatches; i++)
+            readerWriter.writeInt(lengths[i]);
+        for (int i = 0; i < numberOfMatches; i++)
+            readerWriter.writeInt(refIds[i]);
+        for (int j = 0; j < numberOfClassificationNames; j++) {
+            for (int i = 0; i < numberOfMatches; i++) {
+                readerWriter.writeInt(match2Classification2Id[i][j]);
+            }
+        }
+
+        if (storeText)
+            readerWriter.writeString(matchesText, 0, matchesTextLength);
+        else
+            readerWriter.writeInt(0);
+
+        totalNumberOfReads++;
+        totalNumberOfMatches += numberOfMatches;
+
+        return location;
+    }
+
+    /**
+     * gets the id of a reference, assigning a new id, if reference not seen before
+     *
+     * @param referenceName
+     * @return id
+     */
+    public int getReferenceId(String referenceName) {
+        Integer id = reference2Id.get(referenceName);
+        if (id == null) {
+            id = references.size();
+            reference2Id.put(referenceName, id);
+            references.add(referenceName);
+        }
+        return id;
+    }
+
+    /**
+     * finish adding queries and write the table of reference names
+     *
+     * @throws IOException
+     */
+    @Override
+    public void endAddingQueries() throws IOException {
+        super.endAddingQueries();
+
+        readerWriter.writeInt(references.size());
+        for (String name : references) {
+            readerWriter.writeString(name);
+        }
+        reference2Id.clear();
+        references.clear();
+    }
+}
@@ -16,38 +16,25 @@
  *  You should have received a copy of the GNU General Public License
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-package megan.parsers.blast.blastxml;
+package megan.rma7;
 
-/**
- * Matches in SAM format
- * Daniel Huson, 4.2015
- */
-public class MatchesText {
-    private int numberOfMatches;
-    private byte[] text;
-    private int lengthOfText;
-
-    public int getNumberOfMatches() {
-        return numberOfMatches;
-    }
+import megan.rma6.RMA6FileModifier;
 
-    public void setNumberOfMatches(int numberOfMatches) {
-        this.numberOfMatches = numberOfMatches;
-    }
-
-    public byte[] getText() {
-        return text;
-    }
+import java.io.IOException;
 
-    public void setText(byte[] text) {
-        this.text = text;
-    }
-
-    public int getLengthOfText() {
-        return lengthOfText;
-    }
-
-    public void setLengthOfText(int lengthOfText) {
-        this.lengthOfText = lengthOfText;
+/**
+ * class used to update the classifications and aux data in an RMA7 file.
+ * These sections have the same layout as in RMA6 and the reference names table, which precedes the classifications, is kept
+ * Daniel Huson, 10.2016
+ */
+public class RMA7FileModifier extends RMA6FileModifier {
+    /**
+     * construct an RMA7 modifier and read in RMA7 data
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public RMA7FileModifier(String fileName) throws IOException {
+        super(fileName, RMA7File.VERSION);
     }
 }
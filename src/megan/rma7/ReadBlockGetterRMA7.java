@@ -0,0 +1,74 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma7;
+
+import megan.rma6.ReadBlockGetterRMA6;
+import megan.rma6.ReadBlockRMA6;
+
+import java.io.IOException;
+
+/**
+ * Read block getter for RMA7
+ * Daniel Huson, 10.2016
+ */
+public class ReadBlockGetterRMA7 extends ReadBlockGetterRMA6 {
+    private final boolean wantMatchText;
+
+    /**
+     * constructor
+     *
+     * @param rma7File
+     * @param wantReadSequence
+     * @param streamOnly
+     * @param reuseReadBlockObject
+     * @throws IOException
+     */
+    public ReadBlockGetterRMA7(RMA7File rma7File, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected, boolean streamOnly, boolean reuseReadBlockObject) throws IOException {
+        this(rma7File, wantReadSequence, wantMatches, minScore, maxExpected, streamOnly, reuseReadBlockObject, true);
+    }
+
+    /**
+     * constructor
+     *
+     * @param rma7File
+     * @param wantReadSequence
+     * @param streamOnly
+     * @param reuseReadBlockObject
+     * @param wantMatchText        if false, the SAM text of matches is skipped, see ReadBlockRMA7.setWantMatchText()
+     * @throws IOException
+     */
+    public ReadBlockGetterRMA7(RMA7File rma7File, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected, boolean streamOnly, boolean reuseReadBlockObject, boolean wantMatchText) throws IOException {
+        super(rma7File, wantReadSequence, wantMatches, minScore, maxExpected, streamOnly, reuseReadBlockObject);
+        this.wantMatchText = wantMatchText;
+        if (reuseableReadBlock != null) // was created by the super constructor
+            ((ReadBlockRMA7) reuseableReadBlock).setWantMatchText(wantMatchText);
+    }
+
+    /**
+     * creates a new read block object
+     *
+     * @return read block
+     */
+    @Override
+    protected ReadBlockRMA6 createReadBlock() {
+        final ReadBlockRMA7 readBlock = new ReadBlockRMA7((RMA7File) rma6File);
+        readBlock.setWantMatchText(wantMatchText);
+        return readBlock;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.rma7;
+
+import megan.io.IInputReader;
+import megan.rma6.MatchBlockRMA6;
+import megan.rma6.ReadBlockRMA6;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ReadBlock for RMA7. Match values are read from the binary columns, the SAM text of a match is only parsed when requested
+ * Daniel Huson, 10.2016
+ */
+public class ReadBlockRMA7 extends ReadBlockRMA6 {
+    private final RMA7File rma7File;
+
+    private float[] bitScores = new float[0];
+    private float[] expected = new float[0];
+    private float[] percentIdentities = new float[0];
+    private int[] lengths = new int[0];
+    private int[] refIds = new int[0];
+    private int[] ids = new int[0];
+    private boolean wantMatchText = true;
+
+    /**
+     * constructor
+     *
+     * @param rma7File used to look up reference names when no text is stored
+     */
+    public ReadBlockRMA7(RMA7File rma7File) {
+        super(rma7File.getHeaderSectionRMA6().getBlastMode(), rma7File.getHeaderSectionRMA6().isPairedReads(), rma7File.getHeaderSectionRMA6().getMatchClassNames());
+        this.rma7File = rma7File;
+        setCompressionCodec(rma7File.getHeaderSectionRMA6().getCompressionCodec());
+    }
+
+    /**
+     * determine whether the SAM text of matches is wanted. If not, the text block is skipped without decompressing it
+     * and matches have no text, which suffices for classification and counting
+     *
+     * @param wantMatchText
+     */
+    public void setWantMatchText(boolean wantMatchText) {
+        this.wantMatchText = wantMatchText;
+    }
+
+    public boolean isWantMatchText() {
+        return wantMatchText;
+    }
+
+    /**
+     * reads a read block
+     *
+     * @param reader
+     * @param wantReadSequence
+     * @param wantMatches
+     */
+    @Override
+    public void read(IInputReader reader, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected) throws IOException {
+        final String[] cNames = getCNames();
+
+        setUId(reader.getPosition());
+        if (isPairedReads())
+            setMateUId(reader.readLong());
+
+        readQueryText(reader, wantReadSequence);
+
+        final int numberOfMatches = reader.readInt();
+        setNumberOfMatches(numberOfMatches);
+
+        if (wantMatches) {
+            if (bitScores.length < numberOfMatches) {
+                bitScores = new float[numberOfMatches];
+                expected = new float[numberOfMatches];
+                percentIdentities = new float[numberOfMatches];
+                lengths = new int[numberOfMatches];
+                refIds = new int[numberOfMatches];
+            }
+            if (ids.length < numberOfMatches * cNames.length)
+                ids = new int[numberOfMatches * cNames.length];
+
+            for (int i = 0; i < numberOfMatches; i++)
+                bitScores[i] = reader.readFloat();
+            for (int i = 0; i < numberOfMatches; i++)
+                expected[i] = reader.readFloat();
+            for (int i = 0; i < numberOfMatches; i++)
+                percentIdentities[i] = reader.readFloat();
+            for (int i = 0; i < numberOfMatches; i++)
+                lengths[i] = reader.readInt();
+            for (int i = 0; i < numberOfMatches; i++)
+                refIds[i] = reader.readInt();
+            for (int i = 0; i < numberOfMatches * cNames.length; i++)
+                ids[i] = reader.readInt(); // ids are stored classification by classification
+
+            final byte[] matchesText;
+            if (wantMatchText)
+                matchesText = readBytes(reader);
+            else {
+                reader.skipBytes(Math.abs(reader.readInt())); // skip text
+                matchesText = null;
+            }
+
+            final MatchBlockRMA6[] blocks = new MatchBlockRMA6[numberOfMatches];
+            int matchCount = 0;
+            int offset = 0;
+            for (int i = 0; i < numberOfMatches; i++) {
+                int end = offset;
+                while (matchesText != null && end < matchesText.length && matchesText[end] != '\n')
+                    end++;
+                if (bitScores[i] >= minScore && expected[i] <= maxExpected) {
+                    final MatchBlockRMA6 matchBlock = createMatchBlock();
+                    matchBlock.setBitScore(bitScores[i]);
+                    matchBlock.setExpected(expected[i]);
+                    matchBlock.setPercentIdentity(percentIdentities[i]);
+                    matchBlock.setLength(lengths[i]);
+                    for (int c = 0; c < cNames.length; c++) {
+                        matchBlock.setId(cNames[c], ids[c * numberOfMatches + i]);
+                    }
+                    if (end > offset)
+                        matchBlock.setLazyText(getBlastMode(), matchesText, offset, end);
+                    else if (wantMatchText) {
+                        final String refName = rma7File.getReferenceName(refIds[i]);
+                        matchBlock.setText(refName != null ? ">" + refName + "\n" : null);
+                    }
+                    blocks[matchCount++] = matchBlock;
+                }
+                offset = end + 1;
+            }
+            if (matchCount < numberOfMatches) // some matches didn't meet the minScore or maxExpected criteria, resize
+                setMatchBlocks(Arrays.copyOf(blocks, matchCount));
+            else
+                setMatchBlocks(blocks);
+        } else {
+            reader.skipBytes(numberOfMatches * (20 + 4 * cNames.length)); // skip columns
+            reader.skipBytes(Math.abs(reader.readInt())); // skip text
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package megan.rma7;
+
+import jloda.util.ListOfLongs;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * maps the locations of reads in a source file to their locations in a target file, for files that are copied read
+ * by read in order. Pairs of locations are spilled to a temporary file and only every BLOCK_SIZE-th source location
+ * is kept in memory, so the heap used does not grow with the number of reads
+ * Daniel Huson, 10.2016
+ */
+public class ReadLocationMap implements Closeable {
+    private static final int BLOCK_SIZE = 1024; // number of pairs of locations per block on disk
+    private static final int BYTES_PER_PAIR = 16;
+
+    private final File file;
+    private DataOutputStream outs;
+    private RandomAccessFile raf;
+    private final ListOfLongs firstSourceLocationOfBlock = new ListOfLongs();
+    private long count = 0;
+    private long lastSourceLocation = -1;
+
+    private final byte[] buffer = new byte[BLOCK_SIZE * BYTES_PER_PAIR];
+    private final long[] blockSourceLocations = new long[BLOCK_SIZE];
+    private final long[] blockTargetLocations = new long[BLOCK_SIZE];
+    private int cachedBlock = -1;
+    private int cachedBlockSize = 0;
+
+    /**
+     * constructor
+     *
+     * @param directory directory for the temporary file, or null for the default temporary directory
+     * @throws IOException
+     */
+    public ReadLocationMap(File directory) throws IOException {
+        file = File.createTempFile("readLocations", ".tmp", directory);
+        file.deleteOnExit();
+        outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1048576));
+    }
+
+    /**
+     * adds the locations of the next read. Source locations must be strictly increasing
+     *
+     * @param sourceLocation
+     * @param targetLocation
+     * @throws IOException
+     */
+    public void add(long sourceLocation, long targetLocation) throws IOException {
+        if (sourceLocation <= lastSourceLocation)
+            throw new IOException("Read locations not increasing: " + sourceLocation);
+        if (count % BLOCK_SIZE == 0)
+            firstSourceLocationOfBlock.add(sourceLocation);
+        outs.writeLong(sourceLocation);
+        outs.writeLong(targetLocation);
+        lastSourceLocation = sourceLocation;
+        count++;
+    }
+
+    /**
+     * finish adding locations, must be called before get()
+     *
+     * @throws IOException
+     */
+    public void endAdding() throws IOException {
+        outs.close();
+        outs = null;
+        raf = new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * maps the location of a read in the source file to its location in the target file. Consecutive lookups of
+     * nearby reads are served from the same block
+     *
+     * @param sourceLocation
+     * @return target location
+     * @throws IOException if the source location is not the location of a read
+     */
+    public long get(long sourceLocation) throws IOException {
+        int low = 0;
+        int high = firstSourceLocationOfBlock.size() - 1;
+        int block = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (firstSourceLocationOfBlock.get(mid) <= sourceLocation) {
+                block = mid;
+                low = mid + 1;
+            } else
+                high = mid - 1;
+        }
+        if (block != -1) {
+            if (block != cachedBlock)
+                loadBlock(block);
+            final int index = Arrays.binarySearch(blockSourceLocations, 0, cachedBlockSize, sourceLocation);
+            if (index >= 0)
+                return blockTargetLocations[index];
+        }
+        throw new IOException("Unknown read location: " + sourceLocation);
+    }
+
+    /**
+     * loads a block of pairs of locations from the temporary file
+     *
+     * @param block
+     * @throws IOException
+     */
+    private void loadBlock(int block) throws IOException {
+        final int size = (int) Math.min(BLOCK_SIZE, count - (long) block * BLOCK_SIZE);
+        raf.seek((long) block * BLOCK_SIZE * BYTES_PER_PAIR);
+        raf.readFully(buffer, 0, size * BYTES_PER_PAIR);
+        for (int i = 0; i < size; i++) {
+            blockSourceLocations[i] = getLong(buffer, i * BYTES_PER_PAIR);
+            blockTargetLocations[i] = getLong(buffer, i * BYTES_PER_PAIR + 8);
+        }
+        cachedBlock = block;
+        cachedBlockSize = size;
+    }
+
+    /**
+     * decode a big-endian long, as written by DataOutputStream
+     *
+     * @param bytes
+     * @param offset
+     * @return value
+     */
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * get the number of reads
+     *
+     * @return count
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * closes and deletes the temporary file
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (outs != null)
+                outs.close();
+            if (raf != null)
+                raf.close();
+        } finally {
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+}
@@ -27,10 +27,13 @@ import megan.classification.IdParser;
 import megan.classification.data.ClassificationCommandHelper;
 import megan.core.Document;
 import megan.core.SampleAttributeTable;
+import megan.daa.ReferenceAnnotationCache;
+import megan.io.CompressionCodec;
 import megan.main.MeganProperties;
 import megan.parsers.blast.BlastFileFormat;
 import megan.parsers.blast.BlastMode;
 import megan.rma6.RMA6Connector;
+import megan.rma6.RMA6FromBlastBatch;
 import megan.rma6.RMA6FromBlastCreator;
 
 import java.io.File;
@@ -93,7 +96,8 @@ public class BLAST2RMA6 {
 
         options.comment("Output");
         String[] outputFiles = options.getOptionMandatory("-o", "out", "Output file(s), one for each input file, or a directory", new String[0]);
-        boolean useCompression = options.getOption("-c", "useCompression", "Compress reads and matches in RMA file (smaller files, longer to generate", true);
+        final boolean useCompression = options.getOption("-c", "useCompression", "Compress reads and matches in RMA file (smaller files, longer to generate", true);
+        final CompressionCodec codec = CompressionCodec.valueOf(options.getOption("-codec", "compressionCodec", "Compression codec for reads and matches: deflate[:level], fastlz or dictionary[:level]", CompressionCodec.DEFAULT.toString()));
         options.comment("Reads");
         final boolean hasMagnitudes = options.getOption("-mag", "magnitudes", "Reads are annotated with magnitudes", false);
         final boolean pairedReads = options.getOption("-p", "paired", "Reads are paired", false);
@@ -146,6 +150,10 @@ public class BLAST2RMA6 {
         ProgramProperties.put(IdParser.PROPERTIES_FIRST_WORD_IS_ACCESSION, options.getOption("-fwa", "firstWordIsAccession", "First word in reference header is accession number", ProgramProperties.get(IdParser.PROPERTIES_FIRST_WORD_IS_ACCESSION, true)));
         ProgramProperties.put(IdParser.PROPERTIES_ACCESSION_TAGS, options.getOption("-atags", "accessionTags", "List of accession tags", ProgramProperties.get(IdParser.PROPERTIES_ACCESSION_TAGS, IdParser.ACCESSION_TAGS)));
 
+        final int numberOfThreads = options.getOption("-t", "threads", "Number of threads", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        final int parallelFiles = options.getOption("-pf", "parallelFiles", "Number of files to process concurrently", 1);
+        final int memoryBudgetMB = options.getOption("-mem", "memoryBudget", "Memory budget (in MB) for files processed concurrently (0: 80% of max memory)", 0);
+        final int referenceCacheSize = options.getOption("-rcs", "refCacheSize", "Max number of reference annotations shared between concurrently processed files (0: off)", ReferenceAnnotationCache.DEFAULT_MAX_SIZE);
         options.done();
 
         final String propertiesFile;
@@ -228,52 +236,70 @@ public class BLAST2RMA6 {
             }
         }
 
+        final String[] classificationNames = cNames;
+        final String[] outputFileNames = outputFiles;
+        final String[] readsFileNames = readsFiles;
+
         /**
-         * process each set of files:
+         * converts a single set of files:
          */
-        for (int i = 0; i < blastFiles.length; i++) {
-            System.err.println("Processing " + blastFormat + " file: " + blastFiles[i]);
-            if (i < readsFiles.length)
-                System.err.println("Reads file:  " + readsFiles[i]);
-            System.err.println("Output file: " + outputFiles[i]);
-
-            ProgressListener progressListener = new ProgressPercentage();
-
-            final Document doc = new Document();
-            doc.getActiveViewers().add(Classification.Taxonomy);
-            doc.getActiveViewers().addAll(Arrays.asList(cNames));
-            doc.setMinScore(minScore);
-            doc.setMaxExpected(maxExpected);
-            doc.setTopPercent(topPercent);
-            doc.setMinSupportPercent(minSupportPercent);
-            doc.setMinSupport(minSupport);
-            doc.setPairedReads(pairedReads);
-            doc.setPairedReadSuffixLength(pairedReadsSuffixLength);
-            doc.setBlastMode(BlastMode.getBlastMode(blastFiles[0]));
-            doc.setWeightedLCA(weightedLCA);
-            doc.setWeightedLCAPercent(weightedLCAPercent);
-
-            createRMA6FileFromBLAST("BLAST2RMA6", blastFiles[i], blastFormat, readsFiles[i], outputFiles[i], useCompression, doc, maxMatchesPerRead, hasMagnitudes, progressListener);
-
-            progressListener.close();
-
-            final RMA6Connector connector = new RMA6Connector(outputFiles[i]);
-
-            if (metaDataFiles.length > 0) {
-                try {
-                    System.err.println("Saving metadata:");
-                    SampleAttributeTable sampleAttributeTable = new SampleAttributeTable();
-                    sampleAttributeTable.read(new FileReader(metaDataFiles[Math.min(i, metaDataFiles.length - 1)]),
-                            Collections.singletonList(Basic.getFileBaseName(Basic.getFileNameWithoutPath(outputFiles[i]))), false);
-                    Map<String, byte[]> label2data = new HashMap<>();
-                    label2data.put(SampleAttributeTable.SAMPLE_ATTRIBUTES, sampleAttributeTable.getBytes());
-                    connector.putAuxiliaryData(label2data);
-                    System.err.println("done");
-                } catch (Exception ex) {
-                    Basic.caught(ex);
+        final RMA6FromBlastBatch.Task task = new RMA6FromBlastBatch.Task() {
+            public Document createDocument(int i) throws IOException {
+                final Document doc = new Document();
+                doc.getActiveViewers().add(Classification.Taxonomy);
+                doc.getActiveViewers().addAll(Arrays.asList(classificationNames));
+                doc.setMinScore(minScore);
+                doc.setMaxExpected(maxExpected);
+                doc.setTopPercent(topPercent);
+                doc.setMinSupportPercent(minSupportPercent);
+                doc.setMinSupport(minSupport);
+                doc.setPairedReads(pairedReads);
+                doc.setPairedReadSuffixLength(pairedReadsSuffixLength);
+                doc.setBlastMode(BlastMode.getBlastMode(blastFiles[0]));
+                doc.setWeightedLCA(weightedLCA);
+                doc.setWeightedLCAPercent(weightedLCAPercent);
+                return doc;
+            }
+
+            public void convert(int i, Document doc, ReferenceAnnotationCache referenceAnnotationCache, int numberOfThreads, ProgressListener progressListener) throws IOException, CanceledException {
+                createRMA6FileFromBLAST("BLAST2RMA6", blastFiles[i], blastFormat, readsFileNames[i], outputFileNames[i], useCompression, codec, doc, maxMatchesPerRead, hasMagnitudes, referenceAnnotationCache, numberOfThreads, progressListener);
+
+                final RMA6Connector connector = new RMA6Connector(outputFileNames[i]);
+
+                if (metaDataFiles.length > 0) {
+                    try {
+                        System.err.println("Saving metadata:");
+                        SampleAttributeTable sampleAttributeTable = new SampleAttributeTable();
+                        sampleAttributeTable.read(new FileReader(metaDataFiles[Math.min(i, metaDataFiles.length - 1)]),
+                                Collections.singletonList(Basic.getFileBaseName(Basic.getFileNameWithoutPath(outputFileNames[i]))), false);
+                        Map<String, byte[]> label2data = new HashMap<>();
+                        label2data.put(SampleAttributeTable.SAMPLE_ATTRIBUTES, sampleAttributeTable.getBytes());
+                        connector.putAuxiliaryData(label2data);
+                        System.err.println("done");
+                    } catch (Exception ex) {
+                        Basic.caught(ex);
+                    }
                 }
             }
-            progressListener.incrementProgress();
+        };
+
+        if (parallelFiles > 1 && blastFiles.length > 1) {
+            RMA6FromBlastBatch.apply(new ProgressPercentage(), blastFiles, readsFileNames, parallelFiles, numberOfThreads, memoryBudgetMB, referenceCacheSize, task);
+        } else {
+            /**
+             * process each set of files:
+             */
+            for (int i = 0; i < blastFiles.length; i++) {
+                System.err.println("Processing " + blastFormat + " file: " + blastFiles[i]);
+                if (i < readsFiles.length)
+                    System.err.println("Reads file:  " + readsFiles[i]);
+                System.err.println("Output file: " + outputFiles[i]);
+
+                final ProgressListener progressListener = new ProgressPercentage();
+                task.convert(i, task.createDocument(i), null, numberOfThreads, progressListener);
+                progressListener.incrementProgress();
+                progressListener.close();
+            }
         }
     }
 
@@ -282,12 +308,31 @@ public class BLAST2RMA6 {
      *
      * @param blastFile
      * @param rma6FileName
+     * @param codec
      * @param maxMatchesPerRead
      * @param progressListener  @throws CanceledException
      */
-    public static void createRMA6FileFromBLAST(String creator, String blastFile, BlastFileFormat format, String queryFile, String rma6FileName, boolean useCompression, Document doc,
+    public static void createRMA6FileFromBLAST(String creator, String blastFile, BlastFileFormat format, String queryFile, String rma6FileName, boolean useCompression, CompressionCodec codec, Document doc,
                                                int maxMatchesPerRead, boolean hasMagnitudes, ProgressListener progressListener) throws IOException, CanceledException {
-        final RMA6FromBlastCreator rma6Creator = new RMA6FromBlastCreator(creator, format, doc.getBlastMode(), new String[]{blastFile}, new String[]{queryFile}, rma6FileName, useCompression, doc, maxMatchesPerRead, hasMagnitudes);
+        createRMA6FileFromBLAST(creator, blastFile, format, queryFile, rma6FileName, useCompression, codec, doc, maxMatchesPerRead, hasMagnitudes, null, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), progressListener);
+    }
+
+    /**
+     * create an RMA6 file from a BLAST file
+     *
+     * @param blastFile
+     * @param rma6FileName
+     * @param codec
+     * @param maxMatchesPerRead
+     * @param referenceAnnotationCache reference annotations shared with other files, or null
+     * @param numberOfThreads          number of threads to use
+     * @param progressListener  @throws CanceledException
+     */
+    public static void createRMA6FileFromBLAST(String creator, String blastFile, BlastFileFormat format, String queryFile, String rma6FileName, boolean useCompression, CompressionCodec codec, Document doc,
+                                               int maxMatchesPerRead, boolean hasMagnitudes, ReferenceAnnotationCache referenceAnnotationCache, int numberOfThreads, ProgressListener progressListener) throws IOException, CanceledException {
+        final RMA6FromBlastCreator rma6Creator = new RMA6FromBlastCreator(creator, format, doc.getBlastMode(), new String[]{blastFile}, new String[]{queryFile}, rma6FileName, useCompression, codec, doc, maxMatchesPerRead, hasMagnitudes);
+        rma6Creator.setNumberOfThreads(numberOfThreads);
+        rma6Creator.setReferenceAnnotationCache(referenceAnnotationCache);
         rma6Creator.parseFiles(progressListener);
     }
 }
@@ -0,0 +1,100 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.tools;
+
+import jloda.util.*;
+import megan.daa.io.DAAParallelSAMExporter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * exports the alignments of DAA files in SAM format, using several threads
+ * Daniel Huson, 10.2016
+ */
+public class DAA2SAM {
+    /**
+     * export DAA files
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public static void main(String[] args) {
+        try {
+            ProgramProperties.setProgramName("DAA2SAM");
+            ProgramProperties.setProgramVersion(megan.main.Version.SHORT_DESCRIPTION);
+
+            PeakMemoryUsageMonitor.start();
+            (new DAA2SAM()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public void run(String[] args) throws UsageException, IOException {
+        final ArgsOptions options = new ArgsOptions(args, this, "Exports the alignments in DIAMOND .daa files in SAM format");
+        options.setVersion(ProgramProperties.getProgramVersion());
+        options.setLicense("Copyright (C) 2016 Daniel H. Huson. This program comes with ABSOLUTELY NO WARRANTY.");
+        options.setAuthors("Daniel H. Huson");
+
+        options.comment("Input and output");
+        final String[] inputFiles = options.getOptionMandatory("-i", "in", "Input DAA file(s)", new String[0]);
+        final String[] outputFiles = options.getOption("-o", "out", "Output file(s), one for each input file, or directory", new String[0]);
+        final boolean gzip = options.getOption("-gz", "gzip", "Write block-gzipped output (compressed in parallel, readable by any gzip reader)", false);
+
+        options.comment(ArgsOptions.OTHER);
+        final int maxMatchesPerRead = options.getOption("-m", "maxMatchesPerRead", "Max matches per read", 100);
+        final int numberOfThreads = options.getOption("-t", "threads", "Number of threads", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        options.done();
+
+        for (String fileName : inputFiles) {
+            Basic.checkFileReadableNonEmpty(fileName);
+        }
+        if (outputFiles.length > 0 && outputFiles.length != inputFiles.length && !(outputFiles.length == 1 && (new File(outputFiles[0])).isDirectory()))
+            throw new UsageException("Number of output files doesn't match number of input files");
+
+        final String suffix = (gzip ? ".sam.gz" : ".sam");
+        for (int i = 0; i < inputFiles.length; i++) {
+            final String outputFile;
+            if (outputFiles.length == 0)
+                outputFile = Basic.replaceFileSuffix(inputFiles[i], suffix);
+            else if (outputFiles.length == 1 && (new File(outputFiles[0])).isDirectory())
+                outputFile = (new File(outputFiles[0], Basic.replaceFileSuffix(Basic.getFileNameWithoutPath(inputFiles[i]), suffix))).getPath();
+            else
+                outputFile = outputFiles[i];
+            if (gzip != outputFile.toLowerCase().endsWith(".gz"))
+                throw new UsageException("Output file name must end on .gz if and only if option --gzip is set: " + outputFile);
+            System.err.println("Exporting file: " + inputFiles[i]);
+            DAAParallelSAMExporter.apply(inputFiles[i], outputFile, maxMatchesPerRead, numberOfThreads);
+            System.err.println("Output file:    " + outputFile);
+        }
+    }
+}
@@ -26,7 +26,10 @@ import megan.classification.IdMapper;
 import megan.classification.IdParser;
 import megan.classification.data.ClassificationCommandHelper;
 import megan.core.Document;
+import megan.daa.DAAReferencesAnnotator;
 import megan.daa.Meganize;
+import megan.daa.MeganizeBatch;
+import megan.daa.ReferenceAnnotationCache;
 import megan.main.MeganProperties;
 import megan.util.DAAFileFilter;
 
@@ -136,6 +139,10 @@ public class DAAMeganizer {
         options.comment(ArgsOptions.OTHER);
         ProgramProperties.put(IdParser.PROPERTIES_FIRST_WORD_IS_ACCESSION, options.getOption("-fwa", "firstWordIsAccession", "First word in reference header is accession number", ProgramProperties.get(IdParser.PROPERTIES_FIRST_WORD_IS_ACCESSION, true)));
         ProgramProperties.put(IdParser.PROPERTIES_ACCESSION_TAGS, options.getOption("-atags", "accessionTags", "List of accession tags", ProgramProperties.get(IdParser.PROPERTIES_ACCESSION_TAGS, IdParser.ACCESSION_TAGS)));
+        final int numberOfThreads = options.getOption("-t", "threads", "Number of threads", DAAReferencesAnnotator.DEFAULT_NUMBER_OF_THREADS);
+        final int parallelFiles = options.getOption("-pf", "parallelFiles", "Number of files to meganize concurrently", 1);
+        final int memoryBudgetMB = options.getOption("-mem", "memoryBudget", "Memory budget (in MB) for files meganized concurrently, including the reference annotation cache (0: 80% of max memory)", 0);
+        final int referenceCacheSize = options.getOption("-rcs", "refCacheSize", "Max number of reference annotations shared between concurrently meganized files (0: off)", ReferenceAnnotationCache.DEFAULT_MAX_SIZE);
         options.done();
 
         final String propertiesFile;
@@ -203,10 +210,16 @@ public class DAAMeganizer {
          * process each file
          */
 
-        for (int i = 0; i < daaFiles.length; i++) {
-            final String daaFile = daaFiles[i];
-            final String metaDataFile = (metaDataFiles.length > 0 ? metaDataFiles[Math.min(i, metaDataFiles.length - 1)] : "");
-            Meganize.apply(new ProgressPercentage(), daaFile, metaDataFile, cNames, minScore, maxExpected, minPercentIdentity, topPercent, minSupportPercent, minSupport, pairedReads, pairedReadsSuffixLength, weightedLCA, weightedLCAPercent);
+        if (parallelFiles > 1 && daaFiles.length > 1) {
+            MeganizeBatch.apply(new ProgressPercentage(), daaFiles, metaDataFiles, cNames, minScore, maxExpected, minPercentIdentity, topPercent, minSupportPercent, minSupport, pairedReads, pairedReadsSuffixLength,
+                    weightedLCA, weightedLCAPercent, parallelFiles, numberOfThreads, memoryBudgetMB, referenceCacheSize);
+        } else {
+            for (int i = 0; i < daaFiles.length; i++) {
+                final String daaFile = daaFiles[i];
+                final String metaDataFile = (metaDataFiles.length > 0 ? metaDataFiles[Math.min(i, metaDataFiles.length - 1)] : "");
+                Meganize.apply(new ProgressPercentage(), daaFile, metaDataFile, cNames, minScore, maxExpected, minPercentIdentity, topPercent, minSupportPercent, minSupport, pairedReads, pairedReadsSuffixLength, weightedLCA, weightedLCAPercent,
+                        null, numberOfThreads);
+            }
         }
     }
 }
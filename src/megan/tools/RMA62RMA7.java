@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2015 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.tools;
+
+import jloda.util.*;
+import megan.rma7.RMA6ToRMA7Converter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * converts RMA6 files to RMA7 files
+ * Daniel Huson, 10.2016
+ */
+public class RMA62RMA7 {
+    /**
+     * convert RMA6 files
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public static void main(String[] args) {
+        try {
+            ProgramProperties.setProgramName("RMA62RMA7");
+            ProgramProperties.setProgramVersion(megan.main.Version.SHORT_DESCRIPTION);
+
+            PeakMemoryUsageMonitor.start();
+            (new RMA62RMA7()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run
+     *
+     * @param args
+     * @throws UsageException
+     * @throws IOException
+     */
+    public void run(String[] args) throws UsageException, IOException, CanceledException {
+        final ArgsOptions options = new ArgsOptions(args, this, "Converts MEGAN .rma6 files to .rma7 files");
+        options.setVersion(ProgramProperties.getProgramVersion());
+        options.setLicense("Copyright (C) 2016 Daniel H. Huson. This program comes with ABSOLUTELY NO WARRANTY.");
+        options.setAuthors("Daniel H. Huson");
+
+        options.comment("Input and output");
+        final String[] inputFiles = options.getOptionMandatory("-i", "in", "Input RMA6 file(s)", new String[0]);
+        final String[] outputFiles = options.getOption("-o", "out", "Output file(s), one for each input file, or directory", new String[0]);
+
+        options.comment(ArgsOptions.OTHER);
+        final boolean storeText = options.getOption("-st", "storeText", "Store the text of all alignments (needed to display alignments)", true);
+        options.done();
+
+        for (String fileName : inputFiles) {
+            Basic.checkFileReadableNonEmpty(fileName);
+        }
+        if (outputFiles.length > 0 && outputFiles.length != inputFiles.length && !(outputFiles.length == 1 && (new File(outputFiles[0])).isDirectory()))
+            throw new UsageException("Number of output files doesn't match number of input files");
+
+        for (int i = 0; i < inputFiles.length; i++) {
+            final String outputFile;
+            if (outputFiles.length == 0)
+                outputFile = Basic.replaceFileSuffix(inputFiles[i], ".rma7");
+            else if (outputFiles.length == 1 && (new File(outputFiles[0])).isDirectory())
+                outputFile = (new File(outputFiles[0], Basic.replaceFileSuffix(Basic.getFileNameWithoutPath(inputFiles[i]), ".rma7"))).getPath();
+            else
+                outputFile = outputFiles[i];
+            System.err.println("Converting file: " + inputFiles[i]);
+            RMA6ToRMA7Converter.apply(inputFiles[i], outputFile, storeText, new ProgressPercentage());
+            System.err.println("Output file:     " + outputFile);
+        }
+    }
+}
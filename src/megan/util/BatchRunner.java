@@ -0,0 +1,208 @@
+/*
+ *  Copyright (C) 2016 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package megan.util;
+
+import jloda.util.Basic;
+import jloda.util.CanceledException;
+import jloda.util.ProgressListener;
+import jloda.util.ProgressSilent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * processes a batch of files concurrently.
+ * The number of files processed at the same time is bounded by the given number and by a memory budget,
+ * the total number of threads is divided between the files in flight. Files are set up one at a time
+ * Daniel Huson, 10.2016
+ */
+public class BatchRunner {
+    private static final int MB = 1024 * 1024;
+
+    private final int numberOfFilesConcurrently;
+    private final int threadsPerFile;
+    private final Semaphore memoryBudget;
+    private int budgetMB;
+
+    /**
+     * processes one file of a batch
+     *
+     * @param <T> data set up for a file
+     */
+    public interface Job<T> {
+        /**
+         * set up the given file. Calls are made one at a time
+         *
+         * @param fileIndex
+         * @return data passed to estimateRequiredMemoryMB and run
+         */
+        T setup(int fileIndex) throws IOException;
+
+        /**
+         * estimate the amount of memory required to process the given file
+         *
+         * @param fileIndex
+         * @param data      data obtained from setup
+         * @return memory in MB
+         */
+        int estimateRequiredMemoryMB(int fileIndex, T data);
+
+        /**
+         * process the given file
+         *
+         * @param fileIndex
+         * @param data            data obtained from setup
+         * @param numberOfThreads number of threads to use for this file
+         * @param progress
+         */
+        void run(int fileIndex, T data, int numberOfThreads, ProgressListener progress) throws IOException, CanceledException;
+    }
+
+    /**
+     * constructor
+     *
+     * @param numberOfFiles
+     * @param numberOfFilesConcurrently max number of files to process concurrently
+     * @param numberOfThreads           total number of threads, divided between the files in flight
+     * @param memoryBudgetMB            max amount of memory (in MB) to be used by files in flight, 0 for 80% of max heap
+     */
+    public BatchRunner(int numberOfFiles, int numberOfFilesConcurrently, int numberOfThreads, int memoryBudgetMB) {
+        this.numberOfFilesConcurrently = Math.max(1, Math.min(numberOfFilesConcurrently, numberOfFiles));
+        this.threadsPerFile = Math.max(1, numberOfThreads / this.numberOfFilesConcurrently);
+        this.budgetMB = (memoryBudgetMB > 0 ? memoryBudgetMB : (int) Math.max(1, (0.8 * Runtime.getRuntime().maxMemory()) / MB));
+        this.memoryBudget = new Semaphore(budgetMB, true);
+    }
+
+    /**
+     * get the number of threads available to each file
+     *
+     * @return threads per file
+     */
+    public int getThreadsPerFile() {
+        return threadsPerFile;
+    }
+
+    /**
+     * get the memory budget (in MB) that is not reserved
+     *
+     * @return memory budget
+     */
+    public synchronized int getMemoryBudgetMB() {
+        return budgetMB;
+    }
+
+    /**
+     * permanently reserve part of the memory budget, for data shared by all files. Should be called before any file is
+     * admitted, or from setup of the first file, as otherwise it waits until enough memory is released
+     *
+     * @param memoryMB amount to reserve, reduced so that at least 1MB remains
+     */
+    public void reserveMemoryMB(int memoryMB) {
+        synchronized (this) {
+            memoryMB = Math.max(0, Math.min(memoryMB, budgetMB - 1));
+            budgetMB -= memoryMB;
+        }
+        memoryBudget.acquireUninterruptibly(memoryMB);
+    }
+
+    /**
+     * processes all files
+     *
+     * @param progress
+     * @param taskName used in progress and messages
+     * @param files
+     * @param job      processes a single file
+     * @throws IOException       first exception thrown while processing any of the files
+     * @throws CanceledException
+     */
+    public <T> void run(final ProgressListener progress, final String taskName, final String[] files, final Job<T> job) throws IOException, CanceledException {
+        final ExecutorService service = Executors.newFixedThreadPool(numberOfFilesConcurrently);
+        final CountDownLatch countDownLatch = new CountDownLatch(files.length);
+        final List<Exception> exceptions = new ArrayList<>();
+        final Object setupLock = new Object();
+
+        progress.setTasks(taskName, "Batch of " + files.length + " files");
+        progress.setMaximum(files.length);
+        progress.setProgress(0);
+
+        try {
+            for (int i = 0; i < files.length; i++) {
+                final int fileIndex = i;
+                final String file = files[i];
+
+                service.submit(new Runnable() {
+                    public void run() {
+                        boolean acquired = false;
+                        int requiredMB = 0;
+                        try {
+                            synchronized (exceptions) {
+                                if (exceptions.size() > 0)
+                                    return;
+                            }
+                            final T data;
+                            synchronized (setupLock) { // files are set up one at a time
+                                data = job.setup(fileIndex);
+                            }
+                            requiredMB = Math.min(getMemoryBudgetMB(), job.estimateRequiredMemoryMB(fileIndex, data));
+                            memoryBudget.acquire(requiredMB);
+                            acquired = true;
+                            job.run(fileIndex, data, threadsPerFile, new ProgressSilent());
+                            synchronized (progress) {
+                                System.err.println("Finished: " + file);
+                                progress.incrementProgress();
+                            }
+                        } catch (Exception ex) {
+                            synchronized (exceptions) {
+                                System.err.println(taskName + " failed for file: " + file + ": " + ex.getMessage());
+                                exceptions.add(ex);
+                            }
+                        } finally {
+                            if (acquired)
+                                memoryBudget.release(requiredMB);
+                            countDownLatch.countDown();
+                        }
+                    }
+                });
+            }
+
+            try {
+                countDownLatch.await();
+            } catch (InterruptedException e) {
+                Basic.caught(e);
+            }
+        } finally {
+            service.shutdownNow();
+        }
+
+        if (exceptions.size() > 0) {
+            final Exception ex = exceptions.get(0);
+            if (ex instanceof CanceledException)
+                throw (CanceledException) ex;
+            else if (ex instanceof IOException)
+                throw (IOException) ex;
+            else
+                throw new IOException(ex);
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class MeganAndRMAFileFilter extends FileFilterBase implements FilenameFil
         add("rma2");
         add("rma3");
         add("rma6");
+        add("rma7");
     }
 
     /**
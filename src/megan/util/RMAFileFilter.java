@@ -33,6 +33,7 @@ public class RMAFileFilter extends FileFilterBase implements FilenameFilter {
         add("rma2");
         add("rma3");
         add("rma6");
+        add("rma7");
     }
 
     /**
@@ -108,6 +108,11 @@ public class Megan5ServerConnector implements IConnector {
         return new ReadBlockIterator(this, blocks);
     }
 
+    @Override
+    public IReadBlockIterator[] getAllReadsIterators(int numberOfIterators, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+        return new IReadBlockIterator[]{getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches)};
+    }
+
     @Override
     public IReadBlockIterator getReadsIterator(String classification,
                                                int classId, float minScore, float maxExpected,
@@ -127,6 +132,15 @@ public class Megan5ServerConnector implements IConnector {
         return new ReadBlockIterator(this, blocks);
     }
 
+    @Override
+    public IReadBlockIterator getReadsIteratorForListOfClassIds(
+            String classification, Collection<Integer> classIds,
+            float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches, boolean inFileOrder)
+            throws IOException {
+        // order is determined by the server
+        return getReadsIteratorForListOfClassIds(classification, classIds, minScore, maxExpected, wantReadSequence, wantMatches);
+    }
+
     @Override
     public IReadBlockGetter getReadBlockGetter(float minScore,
                                                float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
@@ -161,6 +175,11 @@ public class Megan5ServerConnector implements IConnector {
         return new ClassificationBlock(response3.getBody());
     }
 
+    @Override
+    public IUpdateItemCollector createUpdateItemCollector(String[] classificationNames) {
+        return new UpdateItemList(classificationNames.length);
+    }
+
     @Override
     public void updateClassifications(String[] classificationNames,
                                       List<UpdateItem> updateItems, ProgressListener progressListener)
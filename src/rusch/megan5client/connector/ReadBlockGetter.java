@@ -54,6 +54,11 @@ public class ReadBlockGetter implements IReadBlockGetter {
         return connector.getReadBlock(uid, fileId, minScore, maxExpected, wantReadText, wantMatches);
     }
 
+    @Override
+    public void release(IReadBlock readBlock) {
+        // read blocks are received from the server, nothing to recycle
+    }
+
     @Override
     public void close() {
     }
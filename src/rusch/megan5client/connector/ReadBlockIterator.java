@@ -89,6 +89,11 @@ public class ReadBlockIterator implements IReadBlockIterator {
     public void remove() {
     }
 
+    @Override
+    public void release(IReadBlock readBlock) {
+        // read blocks are received from the server, nothing to recycle
+    }
+
     @Override
     public String getStats() {
         return "Reads: " + progress;